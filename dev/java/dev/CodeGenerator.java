@@ -139,7 +139,7 @@ public class CodeGenerator {
     }
   }
 
-  public static final String DIR_RESOURCES = "src/dev/resources/";
+  public static final String DIR_RESOURCES = "dev/resources/";
 
   public static final String FILE_PKCS11_HEADER = DIR_RESOURCES + "pkcs11t.h";
 
@@ -150,9 +150,31 @@ public class CodeGenerator {
 
   public static final String FILE_CONSTANTS = DIR_OUTPUT + "constants.txt";
 
-  public static final String FILE_CKM_NAME = DIR_OUTPUT + "ckm.properties";
-
-  public static final String FILE_CKR_NAME = DIR_OUTPUT + "ckr.properties";
+  /**
+   * Copy to src/java/src/iaik/pkcs/pkcs11/wrapper/CodeNames.java.
+   */
+  public static final String FILE_CODE_NAMES = DIR_OUTPUT + "CodeNames.java";
+
+  /**
+   * The vendor defined mechanisms of {@code VendorCodeConverter}, they are
+   * not in pkcs11t.h.
+   */
+  private static final Object[][] VENDOR_CKMS = {
+    {"CKM_VENDOR_SM2_KEY_PAIR_GEN",     0xFFFFF001L},
+    {"CKM_VENDOR_SM2",                  0xFFFFF002L},
+    {"CKM_VENDOR_SM2_SM3",              0xFFFFF003L},
+    {"CKM_VENDOR_SM2_ENCRYPT",          0xFFFFF004L},
+    {"CKM_VENDOR_SM3",                  0xFFFFF005L},
+    {"CKM_VENDOR_SM4_KEY_GEN",          0xFFFFF006L},
+    {"CKM_VENDOR_SM4_ECB",              0xFFFFF007L},
+    {"CKM_VENDOR_SM4_CBC",              0xFFFFF008L},
+    {"CKM_VENDOR_SM4_MAC_GENERAL",      0xFFFFF009L},
+    {"CKM_VENDOR_SM4_MAC",              0xFFFFF00AL},
+    {"CKM_VENDOR_ISO2_SM4_MAC_GENERAL", 0xFFFFF00BL},
+    {"CKM_VENDOR_ISO2_SM4_MAC",         0xFFFFF00CL},
+    {"CKM_VENDOR_SM4_ECB_ENCRYPT_DATA", 0xFFFFF00DL}};
+
+  private static final long CKF_ARRAY_ATTRIBUTE = 0x40000000L;
 
   public static final String FILE_FULL_ENCRYPT_DECRYPT
       = DIR_OUTPUT + "fullEncryptDecrypt.txt";
@@ -239,6 +261,13 @@ public class CodeGenerator {
       String name = st.nextToken();
       String value = st.nextToken();
 
+      long flags = 0;
+      if (value.startsWith("(CKF_ARRAY_ATTRIBUTE|") && value.endsWith(")")) {
+        flags = CKF_ARRAY_ATTRIBUTE;
+        value = value.substring("(CKF_ARRAY_ATTRIBUTE|".length(),
+            value.length() - 1);
+      }
+
       if (value.equals("(~0UL)")) {
         value = "0xFFFFFFFF";
       } else if (value.endsWith("UL")) {
@@ -252,7 +281,7 @@ public class CodeGenerator {
       }
       Long longValue;
       try {
-        longValue = Long.parseLong(value, hex ? 16 : 10);
+        longValue = flags | Long.parseLong(value, hex ? 16 : 10);
       } catch (NumberFormatException ex) {
         continue;
       }
@@ -390,9 +419,12 @@ public class CodeGenerator {
 
     constantsWriter.close();
 
-    writeCkmConstants(FILE_CKM_NAME, ckmCodeNameMap,
-        deprecatedCkmCodeNamesMap);
-    writeCkrConstants(FILE_CKR_NAME, ckrCodeNameMap);
+    for (Object[] vendorCkm : VENDOR_CKMS) {
+      ckmCodeNameMap.put((Long) vendorCkm[1], (String) vendorCkm[0]);
+    }
+
+    writeCodeNames(FILE_CODE_NAMES, ckmCodeNameMap, deprecatedCkmCodeNamesMap,
+        ckrCodeNameMap, ckaCodeNameMap);
   }
 
   private static void generateCkmInfo() throws Exception {
@@ -491,44 +523,144 @@ public class CodeGenerator {
     deriveWriter.close();
   }
 
-  private static void writeCkrConstants(String fileName,
-      Map<Long, String> codeNameMap) throws Exception {
+  private static void writeCodeNames(String fileName,
+      Map<Long, String> ckmCodeNameMap,
+      Map<Long, List<String>> deprecatedCkmCodeNamesMap,
+      Map<Long, String> ckrCodeNameMap,
+      Map<Long, String> ckaCodeNameMap) throws Exception {
     BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
-    List<Long> codes = new ArrayList<>(codeNameMap.keySet());
-    Collections.sort(codes);
-    for (Long code : codes) {
-      writer.write(formatValue(code));
-      writer.write(" = ");
-      writer.write(codeNameMap.get(code));
-      writer.write(NEWLINE);
+    writer.write(String.join(NEWLINE,
+        "/*",
+        " *",
+        " * Copyright (c) 2019 Lijun Liao",
+        " *",
+        " * Licensed under the Apache License, Version 2.0 (the \"License\");",
+        " * you may not use this file except in compliance with the License.",
+        " * You may obtain a copy of the License at",
+        " *",
+        " * http://www.apache.org/licenses/LICENSE-2.0",
+        " *",
+        " * Unless required by applicable law or agreed to in writing, software",
+        " * distributed under the License is distributed on an \"AS IS\" BASIS,",
+        " * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or "
+            + "implied.",
+        " * See the License for the specific language governing permissions and",
+        " * limitations under the License.",
+        " */",
+        "",
+        "package iaik.pkcs.pkcs11.wrapper;",
+        "",
+        "import java.util.Arrays;",
+        "",
+        "/**",
+        " * Names of the CKM, CKR and CKA codes. Generated by dev.CodeGenerator "
+            + "from",
+        " * pkcs11t.h, do not edit.",
+        " * <p>",
+        " * The code to name lookups are switch statements, the name to code "
+            + "lookups",
+        " * are binary searches in sorted arrays, which are initialized on "
+            + "first use",
+        " * by the class loader. Nothing needs to be parsed or locked.",
+        " *",
+        " * @author Lijun Liao",
+        " * @since 1.4.11",
+        " */",
+        "final class CodeNames {",
+        "",
+        "  private CodeNames() {",
+        "  }",
+        ""));
+    writer.write(NEWLINE);
+
+    // the main names, plus the deprecated aliases for the reverse lookup
+    Map<String, Long> ckmNameCodeMap = new HashMap<>();
+    for (Map.Entry<Long, List<String>> entry
+        : deprecatedCkmCodeNamesMap.entrySet()) {
+      for (String name : entry.getValue()) {
+        ckmNameCodeMap.put(name, entry.getKey());
+      }
     }
+    for (Map.Entry<Long, String> entry : ckmCodeNameMap.entrySet()) {
+      ckmNameCodeMap.put(entry.getValue(), entry.getKey());
+    }
+
+    writeCodeToName(writer, "ckm", ckmCodeNameMap);
+    writeCodeToName(writer, "ckr", ckrCodeNameMap);
+    writeCodeToName(writer, "cka", ckaCodeNameMap);
+
+    writeNameToCode(writer, "ckm", "CkmNames", ckmNameCodeMap);
+    writeNameToCode(writer, "ckr", "CkrNames", invert(ckrCodeNameMap));
+    writeNameToCode(writer, "cka", "CkaNames", invert(ckaCodeNameMap));
+
+    writer.write("}" + NEWLINE);
     writer.close();
   }
 
-  private static void writeCkmConstants(String fileName,
-      Map<Long, String> codeNameMap,
-      Map<Long, List<String>> deprecatedCodeNamesMap) throws Exception {
-    BufferedWriter writer = new BufferedWriter(new FileWriter(fileName));
+  private static Map<String, Long> invert(Map<Long, String> codeNameMap) {
+    Map<String, Long> nameCodeMap = new HashMap<>();
+    for (Map.Entry<Long, String> entry : codeNameMap.entrySet()) {
+      nameCodeMap.put(entry.getValue(), entry.getKey());
+    }
+    return nameCodeMap;
+  }
+
+  private static void writeCodeToName(BufferedWriter writer, String prefix,
+      Map<Long, String> codeNameMap) throws Exception {
     List<Long> codes = new ArrayList<>(codeNameMap.keySet());
     Collections.sort(codes);
+
+    writer.write("  static String " + prefix + "CodeToName(long code) {"
+        + NEWLINE);
+    writer.write("    if ((code >>> 32) != 0) {" + NEWLINE);
+    writer.write("      return null;" + NEWLINE);
+    writer.write("    }" + NEWLINE);
+    writer.write(NEWLINE);
+    writer.write("    switch ((int) code) {" + NEWLINE);
     for (Long code : codes) {
-      writer.write(formatValue(code));
-      writer.write(" = ");
-      String name = codeNameMap.get(code);
-      writer.write(name);
-      List<String> deprecatedNames = deprecatedCodeNamesMap.get(code);
-      if (deprecatedNames != null && !deprecatedNames.isEmpty()) {
-        for (int i = 0; i < deprecatedNames.size(); i++) {
-          String deprecatedName = deprecatedNames.get(i);
-          if (!name.equals(deprecatedName)) {
-            writer.write("," + deprecatedName);
-          }
-        }
-      }
+      writer.write("      case " + formatValue(code) + ": return \""
+          + codeNameMap.get(code) + "\";" + NEWLINE);
+    }
+    writer.write("      default: return null;" + NEWLINE);
+    writer.write("    }" + NEWLINE);
+    writer.write("  }" + NEWLINE);
+    writer.write(NEWLINE);
+  }
 
-      writer.write(NEWLINE);
+  private static void writeNameToCode(BufferedWriter writer, String prefix,
+      String holderName, Map<String, Long> nameCodeMap) throws Exception {
+    List<String> names = new ArrayList<>(nameCodeMap.keySet());
+    // same order as Arrays.binarySearch(Object[], Object)
+    Collections.sort(names);
+
+    writer.write("  private static final class " + holderName + " {"
+        + NEWLINE);
+    writer.write(NEWLINE);
+    writer.write("    private static final String[] NAMES = {" + NEWLINE);
+    for (int i = 0; i < names.size(); i++) {
+      writer.write("      \"" + names.get(i) + "\""
+          + (i + 1 < names.size() ? "," : "") + NEWLINE);
     }
-    writer.close();
+    writer.write("    };" + NEWLINE);
+    writer.write(NEWLINE);
+    writer.write("    private static final long[] CODES = {" + NEWLINE);
+    for (int i = 0; i < names.size(); i++) {
+      writer.write("      " + formatValue(nameCodeMap.get(names.get(i)))
+          + "L" + (i + 1 < names.size() ? "," : "") + NEWLINE);
+    }
+    writer.write("    };" + NEWLINE);
+    writer.write(NEWLINE);
+    writer.write("  }" + NEWLINE);
+    writer.write(NEWLINE);
+
+    writer.write("  static long " + prefix + "NameToCode(String name) {"
+        + NEWLINE);
+    writer.write("    int idx = Arrays.binarySearch(" + holderName
+        + ".NAMES, name);" + NEWLINE);
+    writer.write("    return (idx < 0) ? -1 : " + holderName + ".CODES[idx];"
+        + NEWLINE);
+    writer.write("  }" + NEWLINE);
+    writer.write(NEWLINE);
   }
 
   private static final String formatValue(long value) {
@@ -0,0 +1,55 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * One session per benchmark thread, since PKCS#11 sessions must not be
+ * used by several threads concurrently.
+ *
+ * @author Lijun Liao
+ */
+@State(Scope.Thread)
+public class BenchmarkSession {
+
+  private Session session;
+
+  @Setup(Level.Trial)
+  public void setup(BenchmarkToken token) throws TokenException {
+    session = token.openSession();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws TokenException {
+    if (session != null) {
+      session.closeSession();
+    }
+  }
+
+  public Session get() {
+    return session;
+  }
+
+}
@@ -0,0 +1,157 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.ModuleRegistry;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The PKCS#11 module and token used by the benchmarks, configured in the
+ * file pkcs11.properties (examples/data/pkcs11.properties) like the JUnit
+ * tests.
+ * <p>
+ * A logged-in session is kept open during the whole trial, so that the
+ * session objects generated by the setup of the benchmarks are available
+ * to the sessions of all benchmark threads.
+ *
+ * @author Lijun Liao
+ */
+@State(Scope.Benchmark)
+public class BenchmarkToken {
+
+  /**
+   * JVM options of the forked benchmark JVMs. The SunPKCS11 wrapper package
+   * must be exported in JDK 17 and above, older JDKs ignore this option.
+   */
+  public static final String JVM_ARG_IGNORE =
+      "-XX:+IgnoreUnrecognizedVMOptions";
+
+  public static final String JVM_ARG_ADD_EXPORTS =
+      "--add-exports=jdk.crypto.cryptoki/sun.security.pkcs11.wrapper"
+      + "=ALL-UNNAMED";
+
+  private static final Random RANDOM = new Random();
+
+  private Module module;
+
+  private Token token;
+
+  private char[] pin;
+
+  private Session session;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, TokenException {
+    Properties props = new Properties();
+    try (InputStream in =
+        BenchmarkToken.class.getResourceAsStream("/pkcs11.properties")) {
+      if (in == null) {
+        throw new IOException("found no pkcs11.properties in the classpath");
+      }
+      props.load(in);
+    }
+
+    String str = props.getProperty("module.pin");
+    pin = (str == null) ? null : str.toCharArray();
+    str = props.getProperty("module.slotIndex");
+    Integer slotIndex = (str == null) ? null : Integer.parseInt(str);
+
+    module = ModuleRegistry.acquire(props.getProperty("module.path"));
+    token = Util.selectToken(module, slotIndex);
+    if (token == null) {
+      throw new TokenException("found no token");
+    }
+    session = openSession();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws TokenException {
+    try {
+      if (session != null) {
+        session.closeSession();
+      }
+    } finally {
+      ModuleRegistry.release(module);
+    }
+  }
+
+  public Token getToken() {
+    return token;
+  }
+
+  /**
+   * Returns the logged-in session which is open during the whole trial.
+   *
+   * @return the session.
+   */
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Opens a new logged-in read-write session.
+   *
+   * @return the new session.
+   * @throws TokenException
+   *           If opening the session failed.
+   */
+  public Session openSession() throws TokenException {
+    return Util.openAuthorizedSession(token, true,
+        (pin == null) ? null : pin.clone());
+  }
+
+  /**
+   * Returns the mechanism if it is supported by the token.
+   *
+   * @param mechanismCode
+   *          The mechanism code.
+   * @return the mechanism.
+   * @throws TokenException
+   *           If the mechanism is not supported.
+   */
+  public Mechanism getSupportedMechanism(long mechanismCode)
+      throws TokenException {
+    if (!Util.supports(token, mechanismCode)) {
+      throw new TokenException(Functions.mechanismCodeToString(mechanismCode)
+          + " is not supported");
+    }
+    return Mechanism.get(mechanismCode);
+  }
+
+  public static byte[] randomBytes(int len) {
+    byte[] bytes = new byte[len];
+    RANDOM.nextBytes(bytes);
+    return bytes;
+  }
+
+}
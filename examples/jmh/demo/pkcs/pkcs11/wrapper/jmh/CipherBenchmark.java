@@ -0,0 +1,129 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-part encryption and decryption with CKM_AES_CBC_PAD (AES-256)
+ * across payload sizes. Each operation includes the C_EncryptInit or
+ * C_DecryptInit.
+ *
+ * @author Lijun Liao
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {BenchmarkToken.JVM_ARG_IGNORE,
+    BenchmarkToken.JVM_ARG_ADD_EXPORTS})
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class CipherBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Keys {
+
+    @Param({"16", "1024", "16384", "65536"})
+    private int payloadSize;
+
+    private ValuedSecretKey key;
+
+    private Mechanism mechanism;
+
+    private byte[] plaintext;
+
+    private byte[] ciphertext;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkToken token) throws TokenException {
+      token.getSupportedMechanism(PKCS11Constants.CKM_AES_KEY_GEN);
+      mechanism = token.getSupportedMechanism(
+          PKCS11Constants.CKM_AES_CBC_PAD);
+      mechanism.setParameters(new InitializationVectorParameters(
+          BenchmarkToken.randomBytes(16)));
+
+      ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+      template.getValueLen().setLongValue(32L);
+      template.getToken().setBooleanValue(Boolean.FALSE);
+      template.getSensitive().setBooleanValue(Boolean.TRUE);
+      template.getEncrypt().setBooleanValue(Boolean.TRUE);
+      template.getDecrypt().setBooleanValue(Boolean.TRUE);
+
+      Session session = token.getSession();
+      key = (ValuedSecretKey) session.generateKey(
+          Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), template);
+
+      plaintext = BenchmarkToken.randomBytes(payloadSize);
+      byte[] buffer = new byte[payloadSize + 16];
+      session.encryptInit(mechanism, key);
+      int len = session.encrypt(plaintext, 0, plaintext.length,
+          buffer, 0, buffer.length);
+      ciphertext = new byte[len];
+      System.arraycopy(buffer, 0, ciphertext, 0, len);
+    }
+
+  }
+
+  @State(Scope.Thread)
+  public static class Buffer {
+
+    private byte[] out;
+
+    @Setup(Level.Trial)
+    public void setup(Keys keys) {
+      out = new byte[keys.payloadSize + 16];
+    }
+
+  }
+
+  @Benchmark
+  public int encrypt(BenchmarkSession session, Keys keys, Buffer buffer)
+      throws TokenException {
+    Session s = session.get();
+    s.encryptInit(keys.mechanism, keys.key);
+    return s.encrypt(keys.plaintext, 0, keys.plaintext.length,
+        buffer.out, 0, buffer.out.length);
+  }
+
+  @Benchmark
+  public int decrypt(BenchmarkSession session, Keys keys, Buffer buffer)
+      throws TokenException {
+    Session s = session.get();
+    s.decryptInit(keys.mechanism, keys.key);
+    return s.decrypt(keys.ciphertext, 0, keys.ciphertext.length,
+        buffer.out, 0, buffer.out.length);
+  }
+
+}
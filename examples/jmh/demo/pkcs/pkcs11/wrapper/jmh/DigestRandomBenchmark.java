@@ -0,0 +1,90 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single-part digest (C_DigestSingle) with CKM_SHA256 across payload sizes,
+ * and C_GenerateRandom.
+ *
+ * @author Lijun Liao
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {BenchmarkToken.JVM_ARG_IGNORE,
+    BenchmarkToken.JVM_ARG_ADD_EXPORTS})
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class DigestRandomBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Input {
+
+    @Param({"16", "1024", "16384", "65536"})
+    private int payloadSize;
+
+    private Mechanism mechanism;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkToken token) throws TokenException {
+      mechanism = token.getSupportedMechanism(PKCS11Constants.CKM_SHA256);
+      data = BenchmarkToken.randomBytes(payloadSize);
+    }
+
+  }
+
+  @State(Scope.Thread)
+  public static class Buffer {
+
+    private final byte[] digest = new byte[32];
+
+  }
+
+  @Benchmark
+  public int digestSingle(BenchmarkSession session, Input input,
+      Buffer buffer) throws TokenException {
+    return session.get().digestSingle(input.mechanism, input.data, 0,
+        input.data.length, buffer.digest, 0, buffer.digest.length);
+  }
+
+  @Benchmark
+  public byte[] generateRandom(BenchmarkSession session, Input input)
+      throws TokenException {
+    return session.get().generateRandom(input.payloadSize);
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import iaik.pkcs.pkcs11.CompiledTemplate;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searching a private key by its CKA_ID (C_FindObjectsInit, C_FindObjects
+ * and C_FindObjectsFinal) among a given number of keys, and reading all
+ * attributes of a private key via {@link PKCS11Object#getInstance(Session,
+ * long)}.
+ *
+ * @author Lijun Liao
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {BenchmarkToken.JVM_ARG_IGNORE,
+    BenchmarkToken.JVM_ARG_ADD_EXPORTS})
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class ObjectBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Objects {
+
+    @Param({"1", "100"})
+    private int keyCount;
+
+    private long privateKeyHandle;
+
+    private CompiledTemplate findTemplate;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkToken token) throws TokenException {
+      Mechanism keypairGenMechanism =
+          token.getSupportedMechanism(PKCS11Constants.CKM_EC_KEY_PAIR_GEN);
+      Session session = token.getSession();
+
+      byte[] id = null;
+      for (int i = 0; i < keyCount; i++) {
+        ECPublicKey publicKeyTemplate = new ECPublicKey();
+        // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+        publicKeyTemplate.getEcdsaParams().setByteArrayValue(new byte[] {0x06,
+            0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01,
+            0x07});
+        publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+
+        id = BenchmarkToken.randomBytes(20);
+        ECPrivateKey privateKeyTemplate = new ECPrivateKey();
+        privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+        privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getId().setByteArrayValue(id);
+
+        KeyPair keypair = session.generateKeyPair(keypairGenMechanism,
+            publicKeyTemplate, privateKeyTemplate);
+        privateKeyHandle = keypair.getPrivateKey().getObjectHandle();
+      }
+
+      // search the last generated key
+      PrivateKey searchTemplate = new PrivateKey();
+      searchTemplate.getId().setByteArrayValue(id);
+      findTemplate = CompiledTemplate.compile(session.getModule(),
+          searchTemplate);
+    }
+
+  }
+
+  @Benchmark
+  public long[] findObjects(BenchmarkSession session, Objects objects)
+      throws TokenException {
+    Session s = session.get();
+    s.findObjectsInitCompiled(objects.findTemplate);
+    try {
+      return s.findObjectHandles(2);
+    } finally {
+      s.findObjectsFinal();
+    }
+  }
+
+  @Benchmark
+  public PKCS11Object getInstance(BenchmarkSession session, Objects objects)
+      throws TokenException {
+    return PKCS11Object.getInstance(session.get(), objects.privateKeyHandle);
+  }
+
+}
@@ -0,0 +1,178 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.jmh;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signature creation and verification with RSA (2048 bit, CKM_RSA_PKCS),
+ * ECDSA (secp256r1, CKM_ECDSA) and EdDSA (Ed25519, CKM_EDDSA). Each
+ * operation includes the C_SignInit or C_VerifyInit.
+ * <p>
+ * The group signVerify runs signing and verifying threads concurrently
+ * against the same token.
+ *
+ * @author Lijun Liao
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {BenchmarkToken.JVM_ARG_IGNORE,
+    BenchmarkToken.JVM_ARG_ADD_EXPORTS})
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+public class SignatureBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class Keys {
+
+    @Param({"RSA", "ECDSA", "EdDSA"})
+    private String algorithm;
+
+    private Mechanism mechanism;
+
+    private KeyPair keypair;
+
+    private byte[] data;
+
+    private byte[] signature;
+
+    @Setup(Level.Trial)
+    public void setup(BenchmarkToken token) throws TokenException {
+      PublicKey publicKeyTemplate;
+      PrivateKey privateKeyTemplate;
+      long keypairGenMechanism;
+
+      if ("RSA".equals(algorithm)) {
+        keypairGenMechanism = PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN;
+        mechanism = token.getSupportedMechanism(PKCS11Constants.CKM_RSA_PKCS);
+        RSAPublicKey rsaTemplate = new RSAPublicKey();
+        rsaTemplate.getModulusBits().setLongValue(2048L);
+        publicKeyTemplate = rsaTemplate;
+        privateKeyTemplate = new RSAPrivateKey();
+        // DigestInfo of SHA-256 is 51 bytes
+        data = BenchmarkToken.randomBytes(51);
+      } else if ("ECDSA".equals(algorithm)) {
+        keypairGenMechanism = PKCS11Constants.CKM_EC_KEY_PAIR_GEN;
+        mechanism = token.getSupportedMechanism(PKCS11Constants.CKM_ECDSA);
+        ECPublicKey ecTemplate = new ECPublicKey();
+        // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+        ecTemplate.getEcdsaParams().setByteArrayValue(new byte[] {0x06, 0x08,
+            0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07});
+        publicKeyTemplate = ecTemplate;
+        privateKeyTemplate = new ECPrivateKey();
+        // SHA-256 hash value
+        data = BenchmarkToken.randomBytes(32);
+      } else if ("EdDSA".equals(algorithm)) {
+        keypairGenMechanism = PKCS11Constants.CKM_EC_EDWARDS_KEY_PAIR_GEN;
+        mechanism = token.getSupportedMechanism(PKCS11Constants.CKM_EDDSA);
+        ECPublicKey ecTemplate = new ECPublicKey();
+        // OID: 1.3.101.112 (Ed25519)
+        ecTemplate.getEcdsaParams().setByteArrayValue(
+            new byte[] {0x06, 0x03, 0x2b, 0x65, 0x70});
+        publicKeyTemplate = ecTemplate;
+        privateKeyTemplate = new ECPrivateKey();
+        data = BenchmarkToken.randomBytes(107);
+      } else {
+        throw new IllegalArgumentException(
+            "unknown algorithm " + algorithm);
+      }
+
+      publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+      publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+      privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+      privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+      privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+      privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+
+      Session session = token.getSession();
+      keypair = session.generateKeyPair(
+          token.getSupportedMechanism(keypairGenMechanism),
+          publicKeyTemplate, privateKeyTemplate);
+
+      session.signInit(mechanism, keypair.getPrivateKey());
+      signature = session.sign(data);
+    }
+
+  }
+
+  @Benchmark
+  public byte[] sign(BenchmarkSession session, Keys keys)
+      throws TokenException {
+    return sign0(session.get(), keys);
+  }
+
+  @Benchmark
+  public void verify(BenchmarkSession session, Keys keys)
+      throws TokenException {
+    verify0(session.get(), keys);
+  }
+
+  @Benchmark
+  @Group("signVerify")
+  @GroupThreads(1)
+  public byte[] groupSign(BenchmarkSession session, Keys keys)
+      throws TokenException {
+    return sign0(session.get(), keys);
+  }
+
+  @Benchmark
+  @Group("signVerify")
+  @GroupThreads(1)
+  public void groupVerify(BenchmarkSession session, Keys keys)
+      throws TokenException {
+    verify0(session.get(), keys);
+  }
+
+  private static byte[] sign0(Session session, Keys keys)
+      throws TokenException {
+    session.signInit(keys.mechanism, keys.keypair.getPrivateKey());
+    return session.sign(keys.data);
+  }
+
+  private static void verify0(Session session, Keys keys)
+      throws TokenException {
+    session.verifyInit(keys.mechanism, keys.keypair.getPublicKey());
+    session.verify(keys.data, keys.signature);
+  }
+
+}
@@ -0,0 +1,254 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import demo.pkcs.pkcs11.wrapper.jmh.BenchmarkToken;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+
+/**
+ * Measures the pure Java part of the wrapper: building templates, collecting
+ * and translating their attributes, converting mechanisms and looking up
+ * names and vendor codes. No PKCS#11 module is required.
+ * <p>
+ * This class is in the package iaik.pkcs.pkcs11 to access the package
+ * private {@link Session#toCkMechanism(Mechanism, VendorCodeConverter)}.
+ * Run it with the GC profiler (the default of the jmh profile) to get the
+ * allocated bytes per operation.
+ *
+ * @author Lijun Liao
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {BenchmarkToken.JVM_ARG_IGNORE,
+    BenchmarkToken.JVM_ARG_ADD_EXPORTS})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class MarshallingBenchmark {
+
+  /**
+   * Vendor code converter as configured for a module with SM2 support.
+   */
+  @State(Scope.Benchmark)
+  public static class Converter {
+
+    private VendorCodeConverter converter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      Map<String, String> nameToCodeMap = new HashMap<>();
+      nameToCodeMap.put("CKK_VENDOR_SM2", "0x80000045");
+      nameToCodeMap.put("CKM_VENDOR_SM2_KEY_PAIR_GEN", "0x80000046");
+      nameToCodeMap.put("CKM_VENDOR_SM2", "0x80000047");
+      nameToCodeMap.put("CKM_VENDOR_SM2_SM3", "0x80000048");
+      converter = MapVendorCodeConverter.getInstance(nameToCodeMap);
+    }
+
+  }
+
+  @State(Scope.Benchmark)
+  public static class Template {
+
+    @Param({"RSA", "EC", "AES", "X509"})
+    private String type;
+
+    private PKCS11Object template;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      template = newTemplate(type);
+    }
+
+  }
+
+  @State(Scope.Benchmark)
+  public static class MechanismState {
+
+    @Param({"ECDSA", "PSS", "GCM", "VENDOR"})
+    private String type;
+
+    private Mechanism mechanism;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      if ("ECDSA".equals(type)) {
+        mechanism = Mechanism.get(PKCS11Constants.CKM_ECDSA);
+      } else if ("PSS".equals(type)) {
+        mechanism = Mechanism.get(PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS);
+        mechanism.setParameters(new RSAPkcsPssParameters(
+            PKCS11Constants.CKM_SHA256, PKCS11Constants.CKG_MGF1_SHA256, 32));
+      } else if ("GCM".equals(type)) {
+        mechanism = Mechanism.get(PKCS11Constants.CKM_AES_GCM);
+        mechanism.setParameters(new GCMParameters(128,
+            BenchmarkToken.randomBytes(12), BenchmarkToken.randomBytes(16)));
+      } else if ("VENDOR".equals(type)) {
+        mechanism = Mechanism.get(PKCS11Constants.CKM_VENDOR_SM2_SM3);
+      } else {
+        throw new IllegalArgumentException("unknown type " + type);
+      }
+    }
+
+  }
+
+  @State(Scope.Benchmark)
+  public static class Codes {
+
+    private final long[] mechanismCodes = {PKCS11Constants.CKM_ECDSA,
+        PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS, PKCS11Constants.CKM_AES_GCM,
+        PKCS11Constants.CKM_VENDOR_SM2_SM3, 0x7FFFFFFFL};
+
+    private final long[] errorCodes = {PKCS11Constants.CKR_OK,
+        PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID,
+        PKCS11Constants.CKR_SESSION_HANDLE_INVALID, 0x7FFFFFFFL};
+
+    private final byte[] id = BenchmarkToken.randomBytes(20);
+
+    private int index;
+
+    private long nextMechanismCode() {
+      index = (index + 1) & 0xFFFF;
+      return mechanismCodes[index % mechanismCodes.length];
+    }
+
+    private long nextErrorCode() {
+      index = (index + 1) & 0xFFFF;
+      return errorCodes[index % errorCodes.length];
+    }
+
+  }
+
+  @Benchmark
+  public PKCS11Object newTemplate(Template template) {
+    return newTemplate(template.type);
+  }
+
+  @Benchmark
+  public CK_ATTRIBUTE[] getSetAttributes(Template template,
+      Converter converter) throws PKCS11Exception {
+    return PKCS11Object.getSetAttributes(template.template,
+        converter.converter);
+  }
+
+  @Benchmark
+  public CK_MECHANISM toCkMechanism(MechanismState mechanism,
+      Converter converter) {
+    return Session.toCkMechanism(mechanism.mechanism, converter.converter);
+  }
+
+  @Benchmark
+  public String mechanismCodeToString(Codes codes) {
+    return Functions.mechanismCodeToString(codes.nextMechanismCode());
+  }
+
+  @Benchmark
+  public String errorCodeToString(Codes codes) {
+    return Functions.errorCodeToString(codes.nextErrorCode());
+  }
+
+  @Benchmark
+  public long genericToVendorCKM(Codes codes, Converter converter) {
+    return converter.converter.genericToVendorCKM(codes.nextMechanismCode());
+  }
+
+  @Benchmark
+  public long vendorToGenericCKK(Converter converter) {
+    return converter.converter.vendorToGenericCKK(0x80000045L);
+  }
+
+  @Benchmark
+  public String toHex(Codes codes) {
+    return Util.toHex(codes.id);
+  }
+
+  private static PKCS11Object newTemplate(String type) {
+    byte[] id = new byte[20];
+    if ("RSA".equals(type)) {
+      RSAPrivateKey key = new RSAPrivateKey();
+      key.getId().setByteArrayValue(id);
+      key.getLabel().setCharArrayValue("rsa-signing-key-1".toCharArray());
+      key.getToken().setBooleanValue(Boolean.TRUE);
+      key.getPrivate().setBooleanValue(Boolean.TRUE);
+      key.getSensitive().setBooleanValue(Boolean.TRUE);
+      key.getExtractable().setBooleanValue(Boolean.FALSE);
+      key.getSign().setBooleanValue(Boolean.TRUE);
+      key.getModulus().setByteArrayValue(new byte[256]);
+      key.getPublicExponent().setByteArrayValue(new byte[] {1, 0, 1});
+      return key;
+    } else if ("EC".equals(type)) {
+      ECPublicKey key = new ECPublicKey();
+      key.getId().setByteArrayValue(id);
+      key.getLabel().setCharArrayValue("ec-signing-key-1".toCharArray());
+      key.getToken().setBooleanValue(Boolean.TRUE);
+      key.getVerify().setBooleanValue(Boolean.TRUE);
+      // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+      key.getEcdsaParams().setByteArrayValue(new byte[] {0x06, 0x08, 0x2a,
+          (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07});
+      // DER encoded uncompressed point
+      key.getEcPoint().setByteArrayValue(new byte[67]);
+      return key;
+    } else if ("AES".equals(type)) {
+      ValuedSecretKey key = ValuedSecretKey.newAESSecretKey();
+      key.getId().setByteArrayValue(id);
+      key.getLabel().setCharArrayValue("aes-key-1".toCharArray());
+      key.getToken().setBooleanValue(Boolean.TRUE);
+      key.getSensitive().setBooleanValue(Boolean.TRUE);
+      key.getEncrypt().setBooleanValue(Boolean.TRUE);
+      key.getDecrypt().setBooleanValue(Boolean.TRUE);
+      key.getValueLen().setLongValue(32L);
+      return key;
+    } else if ("X509".equals(type)) {
+      X509PublicKeyCertificate cert = new X509PublicKeyCertificate();
+      cert.getId().setByteArrayValue(id);
+      cert.getLabel().setCharArrayValue("signing-cert-1".toCharArray());
+      cert.getToken().setBooleanValue(Boolean.TRUE);
+      cert.getSubject().setByteArrayValue(new byte[96]);
+      cert.getIssuer().setByteArrayValue(new byte[96]);
+      cert.getSerialNumber().setByteArrayValue(new byte[20]);
+      cert.getValue().setByteArrayValue(new byte[1200]);
+      return cert;
+    } else {
+      throw new IllegalArgumentException("unknown type " + type);
+    }
+  }
+
+}
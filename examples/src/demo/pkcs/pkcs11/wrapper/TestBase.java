@@ -107,6 +107,18 @@ public class TestBase {
 
   private static String speedDuration;
 
+  private static int speedSessions;
+
+  private static String speedWarmup;
+
+  private static double speedRate;
+
+  private static String speedOutput;
+
+  private static String speedSweepThreads;
+
+  private static String speedSweepSessions;
+
   private static SecureRandom random = new SecureRandom();
 
   protected Logger LOG = LoggerFactory.getLogger(getClass());
@@ -123,6 +135,14 @@ public class TestBase {
 
       speedThreads = Integer.getInteger("speed.threads", 2);
       speedDuration = System.getProperty("speed.duration", "3s");
+      speedSessions = Integer.getInteger("speed.sessions", 5);
+      speedWarmup = System.getProperty("speed.warmup", "1s");
+      speedRate = Double.parseDouble(System.getProperty("speed.rate", "100"));
+      speedOutput = System.getProperty("speed.output");
+      speedSweepThreads =
+          System.getProperty("speed.sweep.threads", "1,2,4,8,16");
+      speedSweepSessions =
+          System.getProperty("speed.sweep.sessions", "1,2,4,8");
       module.initialize(null);
 
       Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -195,6 +215,45 @@ public class TestBase {
     return speedThreads;
   }
 
+  protected String getSpeedTestWarmup() {
+    return speedWarmup;
+  }
+
+  protected double getSpeedTestRate() {
+    return speedRate;
+  }
+
+  protected int getSpeedTestSessions() {
+    return speedSessions;
+  }
+
+  /**
+   * Returns the file to append the results of the open-loop speed tests to.
+   *
+   * @return the file name ending with .csv or .json, or null.
+   */
+  protected String getSpeedTestOutput() {
+    return speedOutput;
+  }
+
+  /**
+   * Returns the thread counts of the sweep speed tests.
+   *
+   * @return the comma separated thread counts.
+   */
+  protected String getSpeedSweepThreads() {
+    return speedSweepThreads;
+  }
+
+  /**
+   * Returns the session counts of the sweep speed tests.
+   *
+   * @return the comma separated session counts.
+   */
+  protected String getSpeedSweepSessions() {
+    return speedSweepSessions;
+  }
+
   protected InputStream getResourceAsStream(String path) {
     return getClass().getResourceAsStream(path);
   }
@@ -0,0 +1,95 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.ObjectValueCache;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PublicKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program reads the EC point of a public key via the object value
+ * cache.
+ *
+ * @author Lijun Liao
+ */
+public class CachedAttributeValues extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    Session session = openReadWriteSession(token);
+    Module module = getModule();
+    ObjectValueCache previousCache = module.getObjectValueCache();
+    // store values with at least 32 bytes off-heap
+    ObjectValueCache cache = new ObjectValueCache(1024 * 1024, 32);
+    module.setObjectValueCache(cache);
+    try {
+      main0(token, session, cache);
+    } finally {
+      module.setObjectValueCache(previousCache);
+      session.closeSession();
+    }
+  }
+
+  private void main0(Token token, Session session, ObjectValueCache cache)
+      throws TokenException {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keypair = generateECKeypair(token, session, ecParams, false);
+    try {
+      readEcPoint(session, cache, keypair.getPublicKey());
+    } finally {
+      session.destroyObject(keypair.getPublicKey());
+      session.destroyObject(keypair.getPrivateKey());
+    }
+    Assert.assertEquals(0, cache.getSize());
+  }
+
+  private void readEcPoint(Session session, ObjectValueCache cache,
+      PublicKey publicKey) throws TokenException {
+    // only values of public objects are cached
+    if (!Boolean.FALSE.equals(publicKey.getPrivate().getBooleanValue())) {
+      LOG.info("public key is private on this token, nothing is cached");
+      return;
+    }
+
+    long handle = publicKey.getObjectHandle();
+    byte[] ecPoint = session.getAttributeValue(handle,
+        PKCS11Constants.CKA_EC_POINT);
+    Assert.assertEquals(1, cache.getMissCount());
+
+    for (int i = 0; i < 10; i++) {
+      byte[] cachedEcPoint = session.getAttributeValue(handle,
+          PKCS11Constants.CKA_EC_POINT);
+      Assert.assertArrayEquals(ecPoint, cachedEcPoint);
+    }
+    Assert.assertEquals(10, cache.getHitCount());
+    Assert.assertEquals(ecPoint.length, cache.getOffHeapBytes());
+    LOG.info("{}", cache);
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SlotInfoCache;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.TokenInfo;
+import iaik.pkcs.pkcs11.TokenInfoChange;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program reads the TokenInfo via the info cache of the slot and
+ * listens to its changes.
+ *
+ * @author Lijun Liao
+ */
+public class CachedTokenInfo extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    SlotInfoCache infoCache = token.getSlot().getInfoCache();
+    long previousTtl = infoCache.getTtlMillis();
+    infoCache.setTtlMillis(60 * 1000);
+
+    final AtomicReference<TokenInfoChange> lastChange =
+        new AtomicReference<>();
+    SlotInfoCache.TokenInfoListener listener =
+        new SlotInfoCache.TokenInfoListener() {
+          @Override
+          public void tokenInfoChanged(long slotID, TokenInfoChange change) {
+            LOG.info("slot {}: {}", slotID, change);
+            lastChange.set(change);
+          }
+        };
+    infoCache.addTokenInfoListener(listener);
+
+    try {
+      TokenInfo info = token.getCachedTokenInfo();
+      // served from the cache
+      Assert.assertSame(info, token.getCachedTokenInfo());
+
+      Session session = openReadOnlySession(token);
+      try {
+        infoCache.refresh();
+        TokenInfo newInfo = token.getCachedTokenInfo();
+        Assert.assertNotSame(info, newInfo);
+        if (newInfo.getSessionCount() != info.getSessionCount()) {
+          Assert.assertNotNull("no change notified", lastChange.get());
+          Assert.assertTrue(lastChange.get().isSessionCountChanged());
+        }
+      } finally {
+        session.closeSession();
+      }
+    } finally {
+      infoCache.removeTokenInfoListener(listener);
+      infoCache.setTtlMillis(previousTtl);
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program records the PKCS#11 calls, sessions and logins with the
+ * Java Flight Recorder. The same events are recorded by
+ * <code>java -XX:StartFlightRecording ...</code> or by JDK Mission Control.
+ *
+ * @author Lijun Liao
+ */
+public class FlightRecorderEvents extends TestBase {
+
+  @Test
+  public void main() throws TokenException, IOException {
+    Token token = getNonNullToken();
+
+    File file = File.createTempFile("pkcs11-", ".jfr");
+    try {
+      try (Recording recording = new Recording()) {
+        recording.enable("iaik.pkcs11.Call");
+        recording.enable("iaik.pkcs11.SessionOpen");
+        recording.enable("iaik.pkcs11.SessionClose");
+        recording.enable("iaik.pkcs11.Login");
+        recording.start();
+
+        Session session = openReadOnlySession(token);
+        try {
+          session.generateRandom(32);
+        } finally {
+          session.closeSession();
+        }
+
+        recording.stop();
+        recording.dump(file.toPath());
+      }
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+      boolean randomCallFound = false;
+      for (RecordedEvent event : events) {
+        String name = event.getEventType().getName();
+        if ("iaik.pkcs11.Call".equals(name)) {
+          LOG.info("{}: {}, {}", event.getString("function"),
+              event.getString("returnValue"), event.getDuration());
+          if ("C_GenerateRandom".equals(event.getString("function"))) {
+            Assert.assertEquals(32, event.getLong("bytesOut"));
+            randomCallFound = true;
+          }
+        } else {
+          LOG.info("{}: session handle {}", name,
+              event.getLong("sessionHandle"));
+        }
+      }
+      Assert.assertTrue("no C_GenerateRandom event recorded", randomCallFound);
+    } finally {
+      file.delete();
+    }
+  }
+
+}
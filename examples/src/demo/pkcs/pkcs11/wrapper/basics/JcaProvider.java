@@ -0,0 +1,123 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.provider.PKCS11PrivateKey;
+import iaik.pkcs.pkcs11.provider.PKCS11Provider;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program uses the token via the JCA: ECDSA signatures with a key
+ * of the token, the verification of a signature of the JDK, and AES and
+ * HMAC with keys imported into the token, compared with the JDK.
+ *
+ * @author Lijun Liao
+ */
+public class JcaProvider extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    Session session = openReadWriteSession(token);
+    SessionPool pool = new SessionPool(token, 4, getModulePin());
+    PKCS11Provider provider = new PKCS11Provider("PKCS11-demo", pool);
+    try {
+      LOG.info("services: {}", provider.getServices().size());
+      signature(token, session, provider);
+      cipher(provider);
+      mac(provider);
+    } finally {
+      provider.close();
+      pool.close();
+      session.closeSession();
+    }
+  }
+
+  private void signature(Token token, Session session,
+      PKCS11Provider provider) throws Exception {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keypair = generateECKeypair(token, session, ecParams, false);
+    try {
+      PKCS11PrivateKey privateKey = provider.getPrivateKey(
+          keypair.getPrivateKey().getObjectHandle());
+      Signature signer = Signature.getInstance("SHA256withECDSA", provider);
+      signer.initSign(privateKey);
+      signer.update(new byte[100]);
+      byte[] signature = signer.sign();
+      LOG.info("ECDSA signature: {} bytes", signature.length);
+
+      java.security.KeyPair jdkKeypair =
+          KeyPairGenerator.getInstance("EC").generateKeyPair();
+      Signature jdkSigner = Signature.getInstance("SHA256withECDSA");
+      jdkSigner.initSign(jdkKeypair.getPrivate());
+      jdkSigner.update(new byte[100]);
+      signature = jdkSigner.sign();
+
+      Signature verifier =
+          Signature.getInstance("SHA256withECDSA", provider);
+      verifier.initVerify(jdkKeypair.getPublic());
+      verifier.update(new byte[100]);
+      Assert.assertTrue("signature invalid", verifier.verify(signature));
+    } finally {
+      session.destroyObject(keypair.getPrivateKey());
+      session.destroyObject(keypair.getPublicKey());
+    }
+  }
+
+  private void cipher(PKCS11Provider provider) throws Exception {
+    SecretKeySpec key = new SecretKeySpec(randomBytes(16), "AES");
+    IvParameterSpec iv = new IvParameterSpec(randomBytes(16));
+    byte[] data = randomBytes(100);
+
+    Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding", provider);
+    cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+    byte[] encrypted = cipher.doFinal(data);
+
+    Cipher jdkCipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+    jdkCipher.init(Cipher.DECRYPT_MODE, key, iv);
+    Assert.assertArrayEquals(data, jdkCipher.doFinal(encrypted));
+  }
+
+  private void mac(PKCS11Provider provider) throws Exception {
+    SecretKeySpec key = new SecretKeySpec(randomBytes(32), "HmacSHA256");
+    byte[] data = randomBytes(100);
+
+    Mac mac = Mac.getInstance("HmacSHA256", provider);
+    mac.init(key);
+    Mac jdkMac = Mac.getInstance("HmacSHA256");
+    jdkMac.init(key);
+    Assert.assertTrue("MAC differs",
+        Arrays.equals(jdkMac.doFinal(data), mac.doFinal(data)));
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.provider.PKCS11Provider;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.Enumeration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program loads the key store of the token, which indexes only
+ * the aliases, and reads the key and certificate chain of the first key
+ * entry.
+ *
+ * @author Lijun Liao
+ */
+public class LazyKeyStore extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    SessionPool pool = new SessionPool(token, 2, getModulePin());
+    PKCS11Provider provider = new PKCS11Provider("PKCS11-demo", pool);
+    try {
+      KeyStore keyStore = KeyStore.getInstance("PKCS11", provider);
+      long start = System.nanoTime();
+      keyStore.load(null, null);
+      LOG.info("indexed {} aliases in {} ms", keyStore.size(),
+          (System.nanoTime() - start) / 1000000);
+
+      Enumeration<String> aliases = keyStore.aliases();
+      while (aliases.hasMoreElements()) {
+        String alias = aliases.nextElement();
+        if (!keyStore.isKeyEntry(alias)) {
+          continue;
+        }
+
+        Assert.assertNotNull(keyStore.getKey(alias, null));
+        Certificate[] chain = keyStore.getCertificateChain(alias);
+        LOG.info("key entry {}: certificate chain of {} certificates",
+            alias, (chain == null) ? 0 : chain.length);
+        break;
+      }
+    } finally {
+      provider.close();
+      pool.close();
+    }
+  }
+
+}
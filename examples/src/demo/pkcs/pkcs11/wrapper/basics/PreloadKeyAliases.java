@@ -0,0 +1,107 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.KeyAliasPreloader;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program resolves the handles of several private keys at once,
+ * once by a sweep over all objects and once by one search per key.
+ *
+ * @author Lijun Liao
+ */
+public class PreloadKeyAliases extends TestBase {
+
+  private static final int NUM_KEYS = 5;
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    List<Session> sessions = new ArrayList<>();
+    try {
+      for (int i = 0; i < 3; i++) {
+        sessions.add(openReadWriteSession(token));
+      }
+      main0(sessions);
+    } finally {
+      for (Session session : sessions) {
+        session.closeSession();
+      }
+    }
+  }
+
+  private void main0(List<Session> sessions) throws TokenException {
+    Token token = sessions.get(0).getToken();
+    Session session = sessions.get(0);
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+
+    KeyAliasPreloader preloader = new KeyAliasPreloader();
+    List<KeyPair> keypairs = new ArrayList<>(NUM_KEYS);
+    try {
+      for (int i = 0; i < NUM_KEYS; i++) {
+        KeyPair keypair = generateECKeypair(token, session, ecParams, true);
+        keypairs.add(keypair);
+        preloader.addById("key-" + i, PKCS11Constants.CKO_PRIVATE_KEY,
+            keypair.getPrivateKey().getId().getByteArrayValue());
+      }
+      preloader.addById("not-existing", PKCS11Constants.CKO_PRIVATE_KEY,
+          randomBytes(20));
+
+      // sweep over all objects
+      preloader.setSweepThreshold(0);
+      KeyAliasPreloader.Result result = preloader.preload(sessions);
+      LOG.info("sweep: {}", result);
+      assertResult(keypairs, result);
+
+      // one search per alias
+      preloader.setSweepThreshold(Integer.MAX_VALUE);
+      result = preloader.preload(sessions);
+      LOG.info("per alias: {}", result);
+      Assert.assertFalse(result.isSweep());
+      assertResult(keypairs, result);
+    } finally {
+      for (KeyPair keypair : keypairs) {
+        session.destroyObject(keypair.getPublicKey());
+        session.destroyObject(keypair.getPrivateKey());
+      }
+    }
+  }
+
+  private static void assertResult(List<KeyPair> keypairs,
+      KeyAliasPreloader.Result result) {
+    for (int i = 0; i < keypairs.size(); i++) {
+      Assert.assertEquals(keypairs.get(i).getPrivateKey().getObjectHandle(),
+          result.getHandle("key-" + i));
+    }
+    Assert.assertEquals(1, result.getMissingAliases().size());
+    Assert.assertTrue(result.getAmbiguousAliases().isEmpty());
+  }
+
+}
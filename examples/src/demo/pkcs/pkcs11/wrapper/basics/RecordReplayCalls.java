@@ -0,0 +1,106 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.CallRecorder;
+import iaik.pkcs.pkcs11.CallRecording;
+import iaik.pkcs.pkcs11.CallReplayer;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.io.File;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program records the PKCS#11 calls of a small signing workload
+ * and replays them against the same token. With the Java property
+ * replay.file, the given recording, e.g. one made in production, is
+ * replayed instead.
+ *
+ * @author Lijun Liao
+ */
+public class RecordReplayCalls extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    String replayFile = System.getProperty("replay.file");
+    CallRecording recording = (replayFile == null)
+        ? record(token) : CallRecording.read(new File(replayFile));
+    LOG.info("{}", recording);
+    Assert.assertFalse(recording.getCalls().isEmpty());
+
+    CallReplayer replayer = new CallReplayer(token, getModulePin());
+    CallReplayer.Result result = replayer.replay(recording);
+    LOG.info("{}", result);
+    LOG.info("recorded | replayed latencies in us:\n{}",
+        result.compare(recording));
+    Assert.assertTrue(result.getReplayedCount() > 0);
+  }
+
+  private CallRecording record(Token token) throws Exception {
+    File file = File.createTempFile("pkcs11-calls-", ".bin");
+    file.deleteOnExit();
+    Module module = getModule();
+    CallRecorder recorder = new CallRecorder(file);
+    // only the sessions opened from now on are recorded
+    module.setCallRecorder(recorder);
+    try {
+      Session session = openReadWriteSession(token);
+      try {
+        workload(token, session);
+      } finally {
+        session.closeSession();
+      }
+    } finally {
+      module.setCallRecorder(null);
+      recorder.close();
+    }
+
+    Assert.assertNull(recorder.getError());
+    return CallRecording.read(file);
+  }
+
+  private void workload(Token token, Session session) throws Exception {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keypair = generateECKeypair(token, session, ecParams, false);
+    try {
+      Mechanism mechanism = getSupportedMechanism(token,
+          PKCS11Constants.CKM_ECDSA_SHA256);
+      byte[] data = new byte[100];
+      for (int i = 0; i < 20; i++) {
+        session.signInit(mechanism, keypair.getPrivateKey());
+        byte[] signature = session.sign(data);
+        session.verifyInit(mechanism, keypair.getPublicKey());
+        session.verify(data, signature);
+        session.generateRandom(32);
+      }
+    } finally {
+      session.destroyObject(keypair.getPrivateKey());
+      session.destroyObject(keypair.getPublicKey());
+    }
+  }
+
+}
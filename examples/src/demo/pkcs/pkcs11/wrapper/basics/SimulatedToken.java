@@ -0,0 +1,208 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.simulator.SimulatedBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program uses the simulated token instead of the configured
+ * module, and needs no HSM: it opens a session, finds a key by its label,
+ * signs, verifies, encrypts and decrypts, and lets calls fail via the
+ * failure rate and the session loss rate of the simulator.
+ *
+ * @author Lijun Liao
+ */
+public class SimulatedToken extends TestBase {
+
+  private static final char[] PIN = "1234".toCharArray();
+
+  @Test
+  public void main() throws TokenException {
+    SimulatedBackend backend = new SimulatedBackend();
+    Module module = new Module(backend);
+    module.initialize(null);
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+          Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+      try {
+        session.login(PKCS11Constants.CKU_USER, PIN);
+        ECPrivateKey privateKey = generateKeyPair(session);
+        signVerify(session, privateKey);
+        encryptDecrypt(session);
+        injectFailures(backend, session, privateKey);
+      } finally {
+        session.closeSession();
+      }
+
+      // the lost session is gone, but new ones can be opened
+      injectSessionLoss(backend, token);
+      Assert.assertEquals(0, backend.getSessionCount());
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  private ECPrivateKey generateKeyPair(Session session)
+      throws TokenException {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    ECPublicKey publicKeyTemplate = new ECPublicKey();
+    publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+    publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+    publicKeyTemplate.getEcdsaParams().setByteArrayValue(ecParams);
+    publicKeyTemplate.getLabel().setCharArrayValue("sim-ec".toCharArray());
+
+    ECPrivateKey privateKeyTemplate = new ECPrivateKey();
+    privateKeyTemplate.getToken().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getLabel().setCharArrayValue("sim-ec".toCharArray());
+
+    session.generateKeyPair(
+        Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+        publicKeyTemplate, privateKeyTemplate);
+
+    // find the private key by its label
+    ECPrivateKey searchTemplate = new ECPrivateKey();
+    searchTemplate.getLabel().setCharArrayValue("sim-ec".toCharArray());
+    session.findObjectsInit(searchTemplate);
+    PKCS11Object[] found;
+    try {
+      found = session.findObjects(2);
+    } finally {
+      session.findObjectsFinal();
+    }
+    Assert.assertEquals(1, found.length);
+    return (ECPrivateKey) found[0];
+  }
+
+  private void signVerify(Session session, ECPrivateKey privateKey)
+      throws TokenException {
+    Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_ECDSA_SHA256);
+    byte[] data = randomBytes(100);
+    session.signInit(mechanism, privateKey);
+    byte[] signature = session.sign(data);
+    LOG.info("ECDSA signature: {} bytes", signature.length);
+
+    ECPublicKey searchTemplate = new ECPublicKey();
+    searchTemplate.getLabel().setCharArrayValue("sim-ec".toCharArray());
+    session.findObjectsInit(searchTemplate);
+    PKCS11Object[] found;
+    try {
+      found = session.findObjects(1);
+    } finally {
+      session.findObjectsFinal();
+    }
+    session.verifyInit(mechanism, (ECPublicKey) found[0]);
+    // throws a PKCS11Exception if the signature is invalid
+    session.verify(data, signature);
+  }
+
+  private void encryptDecrypt(Session session) throws TokenException {
+    ValuedSecretKey keyTemplate = ValuedSecretKey.newAESSecretKey();
+    keyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+    keyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getValueLen().setLongValue(16L);
+    ValuedSecretKey key = (ValuedSecretKey) session.generateKey(
+        Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), keyTemplate);
+
+    Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_AES_CBC_PAD);
+    mechanism.setParameters(
+        new InitializationVectorParameters(randomBytes(16)));
+    byte[] rawData = randomBytes(1000);
+    byte[] buffer = new byte[rawData.length + 16];
+
+    session.encryptInit(mechanism, key);
+    int len = session.encrypt(rawData, 0, rawData.length,
+        buffer, 0, buffer.length);
+    byte[] encryptedData = Arrays.copyOf(buffer, len);
+
+    session.decryptInit(mechanism, key);
+    len = session.decrypt(encryptedData, 0, encryptedData.length,
+        buffer, 0, buffer.length);
+    Assert.assertArrayEquals(rawData, Arrays.copyOf(buffer, len));
+  }
+
+  private void injectFailures(SimulatedBackend backend, Session session,
+      ECPrivateKey privateKey) throws TokenException {
+    Mechanism mechanism = Mechanism.get(PKCS11Constants.CKM_ECDSA_SHA256);
+    backend.setFailureRate("C_SignInit", 1.0,
+        PKCS11Constants.CKR_DEVICE_ERROR);
+    try {
+      session.signInit(mechanism, privateKey);
+      Assert.fail("C_SignInit did not fail");
+    } catch (PKCS11Exception ex) {
+      Assert.assertEquals(PKCS11Constants.CKR_DEVICE_ERROR,
+          ex.getErrorCode());
+      LOG.info("injected failure: {}", ex.getMessage());
+    } finally {
+      backend.setFailureRate("C_SignInit", 0,
+          PKCS11Constants.CKR_DEVICE_ERROR);
+    }
+
+    // the session is still usable
+    session.signInit(mechanism, privateKey);
+    session.sign(randomBytes(100));
+  }
+
+  private void injectSessionLoss(SimulatedBackend backend, Token token)
+      throws TokenException {
+    Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+        Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+    backend.setSessionLossRate(1.0);
+    try {
+      session.generateRandom(16);
+      Assert.fail("the session was not lost");
+    } catch (PKCS11Exception ex) {
+      Assert.assertEquals(PKCS11Constants.CKR_SESSION_HANDLE_INVALID,
+          ex.getErrorCode());
+      LOG.info("injected session loss: {}", ex.getMessage());
+    } finally {
+      backend.setSessionLossRate(0);
+    }
+
+    session = token.openSession(Token.SessionType.SERIAL_SESSION,
+        Token.SessionReadWriteBehavior.RO_SESSION, null, null);
+    try {
+      Assert.assertEquals(16, session.generateRandom(16).length);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+}
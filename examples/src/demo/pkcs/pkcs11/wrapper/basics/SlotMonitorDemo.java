@@ -0,0 +1,65 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Slot;
+import iaik.pkcs.pkcs11.SlotMonitor;
+import iaik.pkcs.pkcs11.TokenException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program starts the slot monitor, which logs the insertion and
+ * removal of tokens.
+ *
+ * @author Lijun Liao
+ */
+public class SlotMonitorDemo extends TestBase {
+
+  @Test
+  public void main() throws TokenException, InterruptedException {
+    SlotMonitor monitor = getModule().getSlotMonitor();
+    SlotMonitor.SlotEventListener listener =
+        new SlotMonitor.SlotEventListener() {
+          @Override
+          public void tokenInserted(Slot slot) {
+            LOG.info("token inserted into slot {}", slot.getSlotID());
+          }
+
+          @Override
+          public void tokenRemoved(Slot slot) {
+            LOG.info("token removed from slot {}", slot.getSlotID());
+          }
+        };
+
+    monitor.addSlotEventListener(listener);
+    monitor.setPollIntervalMillis(100, 1000);
+    monitor.start();
+    try {
+      Assert.assertTrue(monitor.isRunning());
+      LOG.info("monitor started, using slot events: {}",
+          monitor.isUsingSlotEvents());
+      Thread.sleep(500);
+    } finally {
+      monitor.stop();
+      monitor.removeSlotEventListener(listener);
+    }
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.objects.UnreadableAttributeTypes;
+import iaik.pkcs.pkcs11.simulator.SimulatedBackend;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program shows how the wrapper reads the attributes of an object
+ * which the token does not define or keeps secret, with the simulated
+ * token. The first read of such an object splits the failing
+ * C_GetAttributeValue until the unreadable attributes are isolated; the
+ * wrapper remembers their types per object profile, so that reading the
+ * next object of the same profile needs one C_GetAttributeValue per class
+ * level only.
+ *
+ * @author Lijun Liao
+ */
+public class UnreadableAttributes extends TestBase {
+
+  private static final char[] PIN = "1234".toCharArray();
+
+  @Test
+  public void main() throws TokenException {
+    SimulatedBackend backend = new SimulatedBackend();
+    Module module = new Module(backend);
+    module.initialize(null);
+    try {
+      Token token = module.getSlotList(true)[0].getToken();
+      Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+          Token.SessionReadWriteBehavior.RW_SESSION, null, null);
+      try {
+        session.login(PKCS11Constants.CKU_USER, PIN);
+        RSAPublicKey publicKeyTemplate = new RSAPublicKey();
+        publicKeyTemplate.getModulusBits().setLongValue(2048L);
+        KeyPair keyPair = session.generateKeyPair(
+            Mechanism.get(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN),
+            publicKeyTemplate, new RSAPrivateKey());
+        long handle = keyPair.getPrivateKey().getObjectHandle();
+
+        // forget what has been learned while generating the key pair
+        UnreadableAttributeTypes unreadableTypes =
+            module.getUnreadableAttributeTypes();
+        unreadableTypes.clear();
+
+        long firstCalls = countAttributeCalls(backend, session, handle);
+        LOG.info("first read: {} C_GetAttributeValue", firstCalls);
+        LOG.info("remembered: {}", unreadableTypes);
+
+        long secondCalls = countAttributeCalls(backend, session, handle);
+        LOG.info("second read: {} C_GetAttributeValue", secondCalls);
+        Assert.assertTrue(secondCalls < firstCalls);
+      } finally {
+        session.closeSession();
+      }
+    } finally {
+      module.finalize(null);
+    }
+  }
+
+  private static long countAttributeCalls(SimulatedBackend backend,
+      Session session, long handle) throws TokenException {
+    long calls = backend.getCallCount("C_GetAttributeValue");
+    RSAPrivateKey key = (RSAPrivateKey) PKCS11Object.getInstance(session,
+        handle);
+    // the private exponent is sensitive, the modulus is readable
+    Assert.assertTrue(key.getPrivateExponent().isSensitive());
+    Assert.assertTrue(key.getModulus().isPresent());
+    return backend.getCallCount("C_GetAttributeValue") - calls;
+  }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.basics;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.ModuleWarmUp;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * This demo program warms up the module: opens sessions, logs in and
+ * resolves the handle of a private key before it is used.
+ *
+ * @author Lijun Liao
+ */
+public class WarmUpModule extends TestBase {
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    Session session = openReadWriteSession(token);
+    try {
+      main0(token, session);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private void main0(Token token, Session session) throws TokenException {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keypair = generateECKeypair(token, session, ecParams, true);
+    byte[] id = keypair.getPrivateKey().getId().getByteArrayValue();
+
+    try {
+      ModuleWarmUp warmUp = new ModuleWarmUp();
+      warmUp.setSessionsPerSlot(3);
+      warmUp.setPin(getModulePin());
+      warmUp.setSlotIDs(token.getTokenID());
+      warmUp.addKeyId(PKCS11Constants.CKO_PRIVATE_KEY, id);
+
+      long start = System.nanoTime();
+      Map<Long, List<Session>> sessions = warmUp.run(getModule());
+      LOG.info("warm-up took {} ms",
+          (System.nanoTime() - start) / 1000000);
+
+      List<Session> slotSessions = sessions.get(token.getTokenID());
+      Assert.assertEquals(3, slotSessions.size());
+      for (Session s : slotSessions) {
+        s.closeSession();
+      }
+    } finally {
+      session.destroyObject(keypair.getPublicKey());
+      session.destroyObject(keypair.getPrivateKey());
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import iaik.pkcs.pkcs11.CallMetrics;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.PrometheusMetricsSink;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import org.junit.Assert;
+import org.junit.Test;
+import sun.security.pkcs11.wrapper.PKCS11;
+
+/**
+ * Measures the overhead of the {@link CallMetrics} with C_GetSessionInfo,
+ * one of the cheapest calls to the PKCS#11 module: the direct call to the
+ * PKCS#11 module, the call via {@link Session} without metrics, and the call
+ * via {@link Session} with metrics. Without metrics and Flight Recorder
+ * recording, the call via {@link Session} differs from the direct call only
+ * by a single branch.
+ *
+ * @author Lijun Liao
+ */
+public class CallMetricsOverheadSpeed extends TestBase {
+
+  private static final int CALLS = 200000;
+
+  private static final int ROUNDS = 5;
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    Session session = openReadOnlySession(token);
+    Module module = getModule();
+    CallMetrics previous = module.getCallMetrics();
+    try {
+      main0(module, session);
+    } finally {
+      module.setCallMetrics(previous);
+      session.closeSession();
+    }
+  }
+
+  private void main0(Module module, Session session) throws Exception {
+    PKCS11 pkcs11 = module.getPKCS11Module();
+    long handle = session.getSessionHandle();
+    CallMetrics metrics = new CallMetrics();
+
+    long directNanos = 0;
+    long disabledNanos = 0;
+    long enabledNanos = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < CALLS; i++) {
+        pkcs11.C_GetSessionInfo(handle);
+      }
+      long direct = System.nanoTime() - start;
+
+      module.setCallMetrics(null);
+      start = System.nanoTime();
+      callSession(session);
+      long disabled = System.nanoTime() - start;
+
+      module.setCallMetrics(metrics);
+      start = System.nanoTime();
+      callSession(session);
+      long enabled = System.nanoTime() - start;
+
+      // the first round warms up all paths
+      if (round > 0) {
+        directNanos += direct;
+        disabledNanos += disabled;
+        enabledNanos += enabled;
+      }
+    }
+
+    long calls = (long) CALLS * (ROUNDS - 1);
+    LOG.info("C_GetSessionInfo: direct {} ns/call, without metrics {} ns/call,"
+        + " with metrics {} ns/call", directNanos / calls,
+        disabledNanos / calls, enabledNanos / calls);
+    LOG.info("recorded metrics:\n{}", PrometheusMetricsSink.scrape(metrics));
+
+    Assert.assertEquals((long) CALLS * ROUNDS,
+        metrics.getLatencies("C_GetSessionInfo", CallMetrics.NO_MECHANISM,
+            session.getToken().getTokenID()).snapshot().getCount());
+  }
+
+  private static void callSession(Session session) throws TokenException {
+    for (int i = 0; i < CALLS; i++) {
+      session.getSessionInfo();
+    }
+  }
+
+}
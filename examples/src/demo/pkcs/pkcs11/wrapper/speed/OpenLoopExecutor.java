@@ -0,0 +1,478 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.LatencyHistogram;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop benchmark executor: the operations are started at a constant
+ * arrival rate, independent of how fast the token completes them. The
+ * latency of an operation is measured from its scheduled start time, so
+ * that the time an operation waits for a worker thread or a session is
+ * included (no coordinated omission). The service time, measured from the
+ * actual start, is recorded separately.
+ * <p>
+ * The run consists of a warmup phase, whose operations are not recorded,
+ * and a measurement phase. If the token cannot keep up with the rate, the
+ * operations queue up and the latencies grow during the run.
+ *
+ * @author Lijun Liao
+ */
+public abstract class OpenLoopExecutor {
+
+  /**
+   * Result of a run.
+   */
+  public static class Result {
+
+    public static final String CSV_HEADER = "description,sessions,threads,"
+        + "target_rate,achieved_rate,completed,errors,"
+        + "p50_us,p90_us,p99_us,p999_us,max_us,mean_us,service_p50_us,"
+        + "service_p99_us";
+
+    private final String description;
+
+    private final int sessions;
+
+    private final int threads;
+
+    private final double targetRate;
+
+    private final double measurementSeconds;
+
+    private final long errors;
+
+    private final LatencyHistogram.Snapshot latency;
+
+    private final LatencyHistogram.Snapshot serviceTime;
+
+    private Result(String description, int sessions, int threads,
+        double targetRate, double measurementSeconds, long errors,
+        LatencyHistogram.Snapshot latency,
+        LatencyHistogram.Snapshot serviceTime) {
+      this.description = description;
+      this.sessions = sessions;
+      this.threads = threads;
+      this.targetRate = targetRate;
+      this.measurementSeconds = measurementSeconds;
+      this.errors = errors;
+      this.latency = latency;
+      this.serviceTime = serviceTime;
+    }
+
+    public String getDescription() {
+      return description;
+    }
+
+    public double getTargetRate() {
+      return targetRate;
+    }
+
+    /**
+     * Returns the number of operations completed per second in the
+     * measurement phase.
+     *
+     * @return the achieved rate.
+     */
+    public double getAchievedRate() {
+      return latency.getCount() / measurementSeconds;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * Returns the latencies, measured from the scheduled start time.
+     *
+     * @return the latencies.
+     */
+    public LatencyHistogram.Snapshot getLatency() {
+      return latency;
+    }
+
+    /**
+     * Returns the service times, measured from the actual start time.
+     *
+     * @return the service times.
+     */
+    public LatencyHistogram.Snapshot getServiceTime() {
+      return serviceTime;
+    }
+
+    public String toCsvLine() {
+      return String.format(Locale.ROOT,
+          "\"%s\",%d,%d,%.1f,%.1f,%d,%d,%s,%s,%s,%s,%s,%s,%s,%s",
+          description.replace("\"", "\"\""), sessions, threads, targetRate,
+          getAchievedRate(), latency.getCount(), errors,
+          micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(90)),
+          micros(latency.getValueAtPercentile(99)),
+          micros(latency.getValueAtPercentile(99.9)),
+          micros(latency.getMaxNanos()),
+          micros((long) latency.getMeanNanos()),
+          micros(serviceTime.getValueAtPercentile(50)),
+          micros(serviceTime.getValueAtPercentile(99)));
+    }
+
+    public String toJson() {
+      return String.format(Locale.ROOT, "{\"description\":\"%s\","
+          + "\"sessions\":%d,\"threads\":%d,"
+          + "\"targetRate\":%.1f,\"achievedRate\":%.1f,"
+          + "\"completed\":%d,\"errors\":%d,"
+          + "\"latencyMicros\":{\"p50\":%s,\"p90\":%s,\"p99\":%s,"
+          + "\"p999\":%s,\"max\":%s,\"mean\":%s},"
+          + "\"serviceTimeMicros\":{\"p50\":%s,\"p99\":%s}}",
+          description.replace("\\", "\\\\").replace("\"", "\\\""),
+          sessions, threads, targetRate, getAchievedRate(),
+          latency.getCount(), errors,
+          micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(90)),
+          micros(latency.getValueAtPercentile(99)),
+          micros(latency.getValueAtPercentile(99.9)),
+          micros(latency.getMaxNanos()),
+          micros((long) latency.getMeanNanos()),
+          micros(serviceTime.getValueAtPercentile(50)),
+          micros(serviceTime.getValueAtPercentile(99)));
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: target %.1f/s, achieved %.1f/s,"
+          + " completed %d, errors %d, latency (us) p50 %s, p90 %s, p99 %s,"
+          + " p99.9 %s, max %s, service time (us) p50 %s, p99 %s",
+          description, targetRate, getAchievedRate(), latency.getCount(),
+          errors, micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(90)),
+          micros(latency.getValueAtPercentile(99)),
+          micros(latency.getValueAtPercentile(99.9)),
+          micros(latency.getMaxNanos()),
+          micros(serviceTime.getValueAtPercentile(50)),
+          micros(serviceTime.getValueAtPercentile(99)));
+    }
+
+    private static String micros(long nanos) {
+      return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+
+  }
+
+  private class Operation implements Runnable {
+
+    private final long scheduledTime;
+
+    private final boolean measured;
+
+    private Operation(long scheduledTime, boolean measured) {
+      this.scheduledTime = scheduledTime;
+      this.measured = measured;
+    }
+
+    @Override
+    public void run() {
+      Session session;
+      try {
+        session = sessions.take();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+
+      long startTime = System.nanoTime();
+      boolean failed = false;
+      try {
+        execute(session);
+      } catch (Throwable th) {
+        failed = true;
+        LOG.error("error", th);
+      } finally {
+        sessions.offer(session);
+      }
+      long endTime = System.nanoTime();
+
+      if (measured) {
+        if (failed) {
+          errors.incrementAndGet();
+        } else {
+          latency.record(endTime - scheduledTime);
+          serviceTime.record(endTime - startTime);
+        }
+      }
+    }
+
+  }
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(OpenLoopExecutor.class);
+
+  private final String description;
+
+  private final Token token;
+
+  private final char[] pin;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  private final LatencyHistogram serviceTime = new LatencyHistogram();
+
+  private final AtomicLong errors = new AtomicLong();
+
+  private BlockingQueue<Session> sessions;
+
+  private double rate = 100;
+
+  private String warmup = "1s";
+
+  private String duration = "10s";
+
+  private int sessionCount = 5;
+
+  private int threads;
+
+  public OpenLoopExecutor(String description, Token token, char[] pin) {
+    this.description = description;
+    this.token = token;
+    this.pin = pin;
+  }
+
+  /**
+   * Executes one operation.
+   *
+   * @param session
+   *          The session used exclusively by this operation.
+   * @throws TokenException
+   *           If the operation failed.
+   */
+  protected abstract void execute(Session session) throws TokenException;
+
+  /**
+   * Sets the number of operations started per second.
+   *
+   * @param rate
+   *          The arrival rate. Default is 100.
+   */
+  public void setRate(double rate) {
+    if (rate <= 0) {
+      throw new IllegalArgumentException("rate must be positive");
+    }
+    this.rate = rate;
+  }
+
+  /**
+   * Sets the duration of the warmup phase, e.g. "500ms", "5s" or "1m".
+   *
+   * @param warmup
+   *          The duration. Default is "1s".
+   */
+  public void setWarmup(String warmup) {
+    parseDuration(warmup);
+    this.warmup = warmup;
+  }
+
+  /**
+   * Sets the duration of the measurement phase, e.g. "30s" or "2m".
+   *
+   * @param duration
+   *          The duration. Default is "10s".
+   */
+  public void setDuration(String duration) {
+    parseDuration(duration);
+    this.duration = duration;
+  }
+
+  /**
+   * Sets the number of sessions shared by the worker threads.
+   *
+   * @param sessionCount
+   *          The number of sessions. Default is 5.
+   */
+  public void setSessions(int sessionCount) {
+    if (sessionCount < 1) {
+      throw new IllegalArgumentException("sessionCount must be positive");
+    }
+    this.sessionCount = sessionCount;
+  }
+
+  /**
+   * Sets the number of worker threads.
+   *
+   * @param threads
+   *          The number of threads. Default (0) is the number of sessions.
+   */
+  public void setThreads(int threads) {
+    this.threads = threads;
+  }
+
+  /**
+   * Runs the warmup and the measurement phase.
+   *
+   * @return the result of the measurement phase.
+   * @throws TokenException
+   *           If opening the sessions failed.
+   * @throws InterruptedException
+   *           If interrupted while waiting for the operations.
+   */
+  public Result execute() throws TokenException, InterruptedException {
+    int threadCount = (threads > 0) ? threads : sessionCount;
+    sessions = new ArrayBlockingQueue<>(sessionCount);
+    latency.reset();
+    serviceTime.reset();
+    errors.set(0);
+
+    ExecutorService workers = Executors.newFixedThreadPool(threadCount);
+    try {
+      for (int i = 0; i < sessionCount; i++) {
+        sessions.add(Util.openAuthorizedSession(token, true,
+            (pin == null) ? null : pin.clone()));
+      }
+
+      long warmupNanos = parseDuration(warmup);
+      long durationNanos = parseDuration(duration);
+      double intervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+
+      LOG.info("{}: rate {}/s, {} sessions, {} threads, warmup {}, "
+          + "duration {}", description, rate, sessionCount, threadCount,
+          warmup, duration);
+
+      long startTime = System.nanoTime();
+      long measurementStart = startTime + warmupNanos;
+      long endTime = measurementStart + durationNanos;
+      for (long i = 0; ; i++) {
+        long scheduledTime = startTime + (long) (i * intervalNanos);
+        if (scheduledTime - endTime >= 0) {
+          break;
+        }
+
+        long waitNanos = scheduledTime - System.nanoTime();
+        if (waitNanos > 0) {
+          LockSupport.parkNanos(waitNanos);
+        }
+        workers.execute(new Operation(scheduledTime,
+            scheduledTime - measurementStart >= 0));
+      }
+
+      workers.shutdown();
+      // the queued operations are part of the measurement
+      while (!workers.awaitTermination(10, TimeUnit.SECONDS)) {
+        LOG.info("{}: waiting for the queued operations", description);
+      }
+
+      return new Result(description, sessionCount, threadCount, rate,
+          durationNanos / 1e9, errors.get(), latency.snapshot(),
+          serviceTime.snapshot());
+    } finally {
+      workers.shutdownNow();
+      Session session;
+      while ((session = sessions.poll()) != null) {
+        try {
+          session.closeSession();
+        } catch (TokenException ex) {
+          LOG.warn("could not close session", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the result to the given file: as JSON (one object per line) if
+   * the file name ends with ".json", otherwise as CSV with header if the
+   * file is new.
+   *
+   * @param result
+   *          The result.
+   * @param file
+   *          The file to append the result to.
+   * @throws IOException
+   *           If writing the file failed.
+   */
+  public static void write(Result result, File file) throws IOException {
+    boolean json = file.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+    boolean newFile = !file.exists() || file.length() == 0;
+    try (Writer writer = new OutputStreamWriter(
+        new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+      if (json) {
+        writer.write(result.toJson());
+      } else {
+        if (newFile) {
+          writer.write(Result.CSV_HEADER);
+          writer.write('\n');
+        }
+        writer.write(result.toCsvLine());
+      }
+      writer.write('\n');
+    }
+  }
+
+  /**
+   * Parses durations like "500ms", "30s", "2m" and "1h".
+   */
+  static long parseDuration(String duration) {
+    String str = duration.trim().toLowerCase(Locale.ROOT);
+    TimeUnit unit;
+    int suffixLen;
+    if (str.endsWith("ms")) {
+      unit = TimeUnit.MILLISECONDS;
+      suffixLen = 2;
+    } else if (str.endsWith("s")) {
+      unit = TimeUnit.SECONDS;
+      suffixLen = 1;
+    } else if (str.endsWith("m")) {
+      unit = TimeUnit.MINUTES;
+      suffixLen = 1;
+    } else if (str.endsWith("h")) {
+      unit = TimeUnit.HOURS;
+      suffixLen = 1;
+    } else {
+      unit = TimeUnit.SECONDS;
+      suffixLen = 0;
+    }
+
+    try {
+      long value = Long.parseLong(
+          str.substring(0, str.length() - suffixLen).trim());
+      if (value < 0) {
+        throw new IllegalArgumentException("negative duration " + duration);
+      }
+      return unit.toNanos(value);
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException("invalid duration " + duration);
+    }
+  }
+
+}
@@ -36,11 +36,23 @@ public abstract class Pkcs11Executor extends BenchmarkExecutor {
   private final ConcurrentBag<ConcurrentSessionBagEntry> sessions =
       new ConcurrentBag<>();
 
+  /**
+   * Default number of sessions, configured via the Java property
+   * speed.sessions.
+   */
+  public static final int DEFAULT_SESSIONS =
+      Integer.getInteger("speed.sessions", 5);
+
   protected Pkcs11Executor(String description, Token token, char[] pin)
       throws TokenException {
+    this(description, token, pin, DEFAULT_SESSIONS);
+  }
+
+  protected Pkcs11Executor(String description, Token token, char[] pin,
+      int sessionCount) throws TokenException {
     super(description);
 
-    for (int i = 0; i < 5; i++) {
+    for (int i = 0; i < sessionCount; i++) {
       Session session = Util.openAuthorizedSession(token, true, pin);
       sessions.add(new ConcurrentSessionBagEntry(session));
     }
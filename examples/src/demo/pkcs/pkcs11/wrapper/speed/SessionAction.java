@@ -0,0 +1,34 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * Action executed with a session, see
+ * {@link SessionOperationExecutor#withSession(SessionAction)}.
+ *
+ * @author Lijun Liao
+ */
+public interface SessionAction<T> {
+
+  T run(Session session) throws TokenException;
+
+}
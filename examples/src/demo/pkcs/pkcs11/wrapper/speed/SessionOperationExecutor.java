@@ -0,0 +1,125 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Benchmark executor base class for operations which need only a session:
+ * each thread borrows a session from the pool, executes one operation and
+ * returns the session, until the benchmark is stopped.
+ *
+ * @author Lijun Liao
+ */
+public abstract class SessionOperationExecutor extends Pkcs11Executor {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(SessionOperationExecutor.class);
+
+  private class MyRunnable implements Runnable {
+
+    @Override
+    public void run() {
+      while (!stop()) {
+        try {
+          ConcurrentSessionBagEntry sessionBag = borrowSession();
+          try {
+            execute(sessionBag.value());
+          } finally {
+            requiteSession(sessionBag);
+          }
+
+          account(1, 0);
+        } catch (Throwable th) {
+          System.err.println(th.getMessage());
+          LOG.error("error", th);
+          account(1, 1);
+        }
+      }
+    }
+
+  }
+
+  protected SessionOperationExecutor(String description, Token token,
+      char[] pin) throws TokenException {
+    super(description, token, pin);
+  }
+
+  /**
+   * Executes one operation.
+   *
+   * @param session
+   *          The session used exclusively by this operation.
+   * @throws TokenException
+   *           If the operation failed.
+   */
+  protected abstract void execute(Session session) throws TokenException;
+
+  /**
+   * Executes the given action with a session of the pool, e.g. to create
+   * the keys in the constructor of the subclasses.
+   *
+   * @param action
+   *          The action.
+   * @return the result of the action.
+   * @throws TokenException
+   *           If the action failed.
+   */
+  protected <T> T withSession(SessionAction<T> action) throws TokenException {
+    ConcurrentSessionBagEntry sessionBag = borrowSession();
+    try {
+      return action.run(sessionBag.value());
+    } finally {
+      requiteSession(sessionBag);
+    }
+  }
+
+  /**
+   * Destroys the objects generated for the benchmark. Errors are logged.
+   *
+   * @param objects
+   *          The objects to destroy. null entries are ignored.
+   */
+  protected void destroyObjects(PKCS11Object... objects) {
+    ConcurrentSessionBagEntry sessionBag = borrowSession();
+    try {
+      Session session = sessionBag.value();
+      for (PKCS11Object object : objects) {
+        if (object != null) {
+          session.destroyObject(object);
+        }
+      }
+    } catch (Throwable th) {
+      LOG.error("could not destroy generated objects", th);
+    } finally {
+      requiteSession(sessionBag);
+    }
+  }
+
+  @Override
+  protected Runnable getTestor() throws Exception {
+    return new MyRunnable();
+  }
+
+}
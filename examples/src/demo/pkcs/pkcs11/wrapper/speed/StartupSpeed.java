@@ -0,0 +1,248 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Module;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the time to the first signature in fresh JVMs: from the JVM
+ * start to main, loading and initializing the module, opening the first
+ * session (including login) and the first ECDSA signature. The generation
+ * of the key is not counted.
+ * <p>
+ * System properties:
+ * <ul>
+ *   <li>startup.rounds: number of JVMs to start, default 3.</li>
+ *   <li>startup.preload: call Module.preloadClasses() in a background
+ *       thread at the beginning of main, default false.</li>
+ *   <li>startup.jvmArgs: additional arguments of the JVMs, e.g.
+ *       -XX:SharedArchiveFile=app.jsa.</li>
+ * </ul>
+ *
+ * @author Lijun Liao
+ */
+public class StartupSpeed {
+
+  private static final Logger LOG = LoggerFactory.getLogger(StartupSpeed.class);
+
+  private static final String RESULT_PREFIX = "STARTUP-RESULT:";
+
+  private static final String[] PHASES = {"jvm-to-main", "module-load",
+      "first-session", "first-sign", "total"};
+
+  @Test
+  public void main() throws Exception {
+    int rounds = Integer.getInteger("startup.rounds", 3);
+    List<String> command = new ArrayList<>();
+    command.add(System.getProperty("java.home") + File.separator + "bin"
+        + File.separator + "java");
+    for (String arg
+        : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (arg.startsWith("--add-exports")) {
+        command.add(arg);
+      }
+    }
+
+    String jvmArgs = System.getProperty("startup.jvmArgs");
+    if (jvmArgs != null && !jvmArgs.trim().isEmpty()) {
+      command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+    }
+
+    command.add("-Dstartup.preload=" + Boolean.getBoolean("startup.preload"));
+    command.add("-cp");
+    command.add(getClassPath());
+    command.add(StartupSpeed.class.getName());
+
+    long[][] results = new long[rounds][];
+    for (int i = 0; i < rounds; i++) {
+      results[i] = runJvm(command);
+    }
+
+    for (int j = 0; j < PHASES.length; j++) {
+      long[] values = new long[rounds];
+      for (int i = 0; i < rounds; i++) {
+        values[i] = results[i][j];
+      }
+      Arrays.sort(values);
+      LOG.info("{}: median {} ms, min {} ms, max {} ms", PHASES[j],
+          values[rounds / 2] / 1000, values[0] / 1000,
+          values[rounds - 1] / 1000);
+    }
+  }
+
+  private static long[] runJvm(List<String> command) throws Exception {
+    Process process = new ProcessBuilder(command).redirectErrorStream(true)
+        .start();
+    String resultLine = null;
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+        process.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith(RESULT_PREFIX)) {
+          resultLine = line.substring(RESULT_PREFIX.length()).trim();
+        } else {
+          LOG.debug("child JVM: {}", line);
+        }
+      }
+    }
+
+    Assert.assertEquals("exit code of the child JVM", 0, process.waitFor());
+    Assert.assertNotNull("no result from the child JVM", resultLine);
+    String[] tokens = resultLine.split(" ");
+    long[] result = new long[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      result[i] = Long.parseLong(tokens[i]);
+    }
+    return result;
+  }
+
+  private static String getClassPath() {
+    // surefire may run the tests in an isolated class loader
+    Set<String> entries = new LinkedHashSet<>();
+    for (ClassLoader cl = StartupSpeed.class.getClassLoader(); cl != null;
+        cl = cl.getParent()) {
+      if (cl instanceof URLClassLoader) {
+        for (URL url : ((URLClassLoader) cl).getURLs()) {
+          if ("file".equals(url.getProtocol())) {
+            entries.add(new File(url.getPath()).getAbsolutePath());
+          }
+        }
+      }
+    }
+    entries.addAll(Arrays.asList(System.getProperty("java.class.path")
+        .split(File.pathSeparator)));
+
+    StringBuilder sb = new StringBuilder();
+    for (String entry : entries) {
+      if (sb.length() > 0) {
+        sb.append(File.pathSeparator);
+      }
+      sb.append(entry);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Runs in the child JVM and prints the durations of the phases in
+   * microseconds.
+   *
+   * @param args
+   *          Not used.
+   * @throws Exception
+   *           If any error occurs.
+   */
+  public static void main(String[] args) throws Exception {
+    long mainStart = System.nanoTime();
+    long jvmToMain = ManagementFactory.getRuntimeMXBean().getUptime() * 1000;
+
+    if (Boolean.getBoolean("startup.preload")) {
+      Thread preloader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Module.preloadClasses();
+        }
+      });
+      preloader.setDaemon(true);
+      preloader.start();
+    }
+
+    Properties props = new Properties();
+    props.load(StartupSpeed.class.getResourceAsStream("/pkcs11.properties"));
+    String str = props.getProperty("module.slotIndex");
+    Integer slotIndex = (str == null) ? null : Integer.parseInt(str);
+    String pin = props.getProperty("module.pin");
+
+    Module module = Module.getInstance(props.getProperty("module.path"));
+    module.initialize(null);
+    long moduleLoaded = System.nanoTime();
+
+    Token token = Util.selectToken(module, slotIndex);
+    Session session = Util.openAuthorizedSession(token, true,
+        (pin == null) ? null : pin.toCharArray());
+    long sessionOpened = System.nanoTime();
+
+    try {
+      KeyPair keypair = generateKeypair(session);
+      long signStart = System.nanoTime();
+      session.signInit(Mechanism.get(PKCS11Constants.CKM_ECDSA),
+          keypair.getPrivateKey());
+      session.sign(new byte[32]);
+      long signed = System.nanoTime();
+
+      long total = jvmToMain + (moduleLoaded - mainStart) / 1000
+          + (sessionOpened - moduleLoaded) / 1000 + (signed - signStart) / 1000;
+      System.out.println(RESULT_PREFIX + " " + jvmToMain
+          + " " + (moduleLoaded - mainStart) / 1000
+          + " " + (sessionOpened - moduleLoaded) / 1000
+          + " " + (signed - signStart) / 1000 + " " + total);
+    } finally {
+      session.closeSession();
+      module.finalize(null);
+    }
+  }
+
+  private static KeyPair generateKeypair(Session session) throws Exception {
+    ECPublicKey publicKeyTemplate = new ECPublicKey();
+    ECPrivateKey privateKeyTemplate = new ECPrivateKey();
+
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    publicKeyTemplate.getEcdsaParams().setByteArrayValue(new byte[] {0x06,
+        0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07});
+    publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+    publicKeyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+    publicKeyTemplate.getKeyType().setPresent(false);
+    publicKeyTemplate.getObjectClass().setPresent(false);
+
+    privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+    privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+    privateKeyTemplate.getKeyType().setPresent(false);
+    privateKeyTemplate.getObjectClass().setPresent(false);
+
+    return session.generateKeyPair(
+        Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+        publicKeyTemplate, privateKeyTemplate);
+  }
+
+}
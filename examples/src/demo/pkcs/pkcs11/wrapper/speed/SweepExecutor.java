@@ -0,0 +1,607 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed;
+
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.LatencyHistogram;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scalability sweep: runs a closed-loop benchmark for every combination of
+ * thread count and session count of a grid, each for a fixed duration, and
+ * determines the saturation knee.
+ * <p>
+ * Each thread starts the next operation as soon as the previous one is
+ * completed. The latency of an operation includes the time the thread
+ * waits for a free session, so that more threads than sessions show up as
+ * higher latency. The throughput and latency percentiles of each
+ * combination are reported as a table and as CSV or JSON.
+ * <p>
+ * The knee is the combination with the lowest concurrency (threads, then
+ * sessions) whose throughput reaches {@link #setKneeRatio(double)} of the
+ * maximum throughput of the grid: beyond it more concurrency only adds
+ * latency. Combinations whose p99 latency exceeds
+ * {@link #setKneeLatencyFactor(double)} times the p99 latency of the
+ * lowest concurrency are not considered, neither as knee nor for the
+ * maximum throughput, so that a throughput which still creeps up while the
+ * latency rises steeply does not move the knee.
+ *
+ * @author Lijun Liao
+ */
+public abstract class SweepExecutor {
+
+  /**
+   * Measurement of one combination of thread count and session count.
+   */
+  public static class Point {
+
+    public static final String CSV_HEADER = "description,token,threads,"
+        + "sessions,throughput,completed,errors,p50_us,p90_us,p99_us,"
+        + "p999_us,max_us,mean_us,knee";
+
+    private final String description;
+
+    private final String tokenLabel;
+
+    private final int threads;
+
+    private final int sessions;
+
+    private final double measurementSeconds;
+
+    private final long errors;
+
+    private final LatencyHistogram.Snapshot latency;
+
+    private boolean knee;
+
+    private Point(String description, String tokenLabel, int threads,
+        int sessions, double measurementSeconds, long errors,
+        LatencyHistogram.Snapshot latency) {
+      this.description = description;
+      this.tokenLabel = tokenLabel;
+      this.threads = threads;
+      this.sessions = sessions;
+      this.measurementSeconds = measurementSeconds;
+      this.errors = errors;
+      this.latency = latency;
+    }
+
+    public int getThreads() {
+      return threads;
+    }
+
+    public int getSessions() {
+      return sessions;
+    }
+
+    /**
+     * Returns the number of operations completed per second in the
+     * measurement phase.
+     *
+     * @return the throughput.
+     */
+    public double getThroughput() {
+      return latency.getCount() / measurementSeconds;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+      return latency;
+    }
+
+    public boolean isKnee() {
+      return knee;
+    }
+
+    public String toCsvLine() {
+      return String.format(Locale.ROOT,
+          "\"%s\",\"%s\",%d,%d,%.1f,%d,%d,%s,%s,%s,%s,%s,%s,%b",
+          description.replace("\"", "\"\""),
+          tokenLabel.replace("\"", "\"\""), threads, sessions,
+          getThroughput(), latency.getCount(), errors,
+          micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(90)),
+          micros(latency.getValueAtPercentile(99)),
+          micros(latency.getValueAtPercentile(99.9)),
+          micros(latency.getMaxNanos()),
+          micros((long) latency.getMeanNanos()), knee);
+    }
+
+    public String toJson() {
+      return String.format(Locale.ROOT, "{\"description\":\"%s\","
+          + "\"token\":\"%s\",\"threads\":%d,\"sessions\":%d,"
+          + "\"throughput\":%.1f,\"completed\":%d,\"errors\":%d,"
+          + "\"latencyMicros\":{\"p50\":%s,\"p90\":%s,\"p99\":%s,"
+          + "\"p999\":%s,\"max\":%s,\"mean\":%s},\"knee\":%b}",
+          escapeJson(description), escapeJson(tokenLabel), threads, sessions,
+          getThroughput(), latency.getCount(), errors,
+          micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(90)),
+          micros(latency.getValueAtPercentile(99)),
+          micros(latency.getValueAtPercentile(99.9)),
+          micros(latency.getMaxNanos()),
+          micros((long) latency.getMeanNanos()), knee);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.ROOT, "%s: %d threads, %d sessions, "
+          + "%.1f/s, errors %d, latency (us) p50 %s, p99 %s%s",
+          description, threads, sessions, getThroughput(), errors,
+          micros(latency.getValueAtPercentile(50)),
+          micros(latency.getValueAtPercentile(99)), knee ? " (knee)" : "");
+    }
+
+    private static String escapeJson(String str) {
+      return str.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+  }
+
+  private class Worker implements Runnable {
+
+    private final BlockingQueue<Session> sessions;
+
+    private final long measurementStart;
+
+    private final long endTime;
+
+    private final CountDownLatch done;
+
+    private Worker(BlockingQueue<Session> sessions, long measurementStart,
+        long endTime, CountDownLatch done) {
+      this.sessions = sessions;
+      this.measurementStart = measurementStart;
+      this.endTime = endTime;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          long startTime = System.nanoTime();
+          if (startTime - endTime >= 0) {
+            break;
+          }
+
+          Session session = sessions.take();
+          boolean failed = false;
+          try {
+            execute(session);
+          } catch (Throwable th) {
+            failed = true;
+            LOG.error("error", th);
+          } finally {
+            sessions.offer(session);
+          }
+
+          if (startTime - measurementStart >= 0) {
+            if (failed) {
+              errors.incrementAndGet();
+            } else {
+              latency.record(System.nanoTime() - startTime);
+            }
+          }
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      } finally {
+        done.countDown();
+      }
+    }
+
+  }
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(SweepExecutor.class);
+
+  private final String description;
+
+  private final Token token;
+
+  private final char[] pin;
+
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  private final AtomicLong errors = new AtomicLong();
+
+  private int[] threadCounts = {1, 2, 4, 8, 16};
+
+  private int[] sessionCounts = {1, 2, 4, 8};
+
+  private String warmup = "1s";
+
+  private String duration = "3s";
+
+  private double kneeRatio = 0.95;
+
+  private double kneeLatencyFactor = 2.0;
+
+  public SweepExecutor(String description, Token token, char[] pin) {
+    this.description = description;
+    this.token = token;
+    this.pin = pin;
+  }
+
+  /**
+   * Executes one operation.
+   *
+   * @param session
+   *          The session used exclusively by this operation.
+   * @throws TokenException
+   *           If the operation failed.
+   */
+  protected abstract void execute(Session session) throws TokenException;
+
+  /**
+   * Sets the thread counts of the grid.
+   *
+   * @param threadCounts
+   *          The thread counts. Default is 1, 2, 4, 8, 16.
+   */
+  public void setThreads(int... threadCounts) {
+    this.threadCounts = checkCounts("threadCounts", threadCounts);
+  }
+
+  /**
+   * Sets the session counts of the grid.
+   *
+   * @param sessionCounts
+   *          The session counts. Default is 1, 2, 4, 8.
+   */
+  public void setSessions(int... sessionCounts) {
+    this.sessionCounts = checkCounts("sessionCounts", sessionCounts);
+  }
+
+  /**
+   * Sets the warmup duration of each combination, e.g. "500ms" or "1s".
+   *
+   * @param warmup
+   *          The duration. Default is "1s".
+   */
+  public void setWarmup(String warmup) {
+    OpenLoopExecutor.parseDuration(warmup);
+    this.warmup = warmup;
+  }
+
+  /**
+   * Sets the measurement duration of each combination, e.g. "10s".
+   *
+   * @param duration
+   *          The duration. Default is "3s".
+   */
+  public void setDuration(String duration) {
+    OpenLoopExecutor.parseDuration(duration);
+    this.duration = duration;
+  }
+
+  /**
+   * Sets the share of the maximum throughput a combination must reach to
+   * be considered as saturated.
+   *
+   * @param kneeRatio
+   *          The ratio, between 0 and 1. Default is 0.95.
+   */
+  public void setKneeRatio(double kneeRatio) {
+    if (kneeRatio <= 0 || kneeRatio > 1) {
+      throw new IllegalArgumentException("kneeRatio must be in (0, 1]");
+    }
+    this.kneeRatio = kneeRatio;
+  }
+
+  /**
+   * Sets how much the p99 latency of a combination may exceed the p99
+   * latency of the lowest concurrency to be considered for the knee.
+   *
+   * @param kneeLatencyFactor
+   *          The factor, at least 1. Default is 2.
+   */
+  public void setKneeLatencyFactor(double kneeLatencyFactor) {
+    if (!(kneeLatencyFactor >= 1)) {
+      throw new IllegalArgumentException(
+          "kneeLatencyFactor must be at least 1");
+    }
+    this.kneeLatencyFactor = kneeLatencyFactor;
+  }
+
+  /**
+   * Runs all combinations of the grid, sessions in the outer loop.
+   *
+   * @return the measured points, the knee is marked.
+   * @throws TokenException
+   *           If opening the sessions failed.
+   * @throws InterruptedException
+   *           If interrupted while waiting for the threads.
+   */
+  public List<Point> execute() throws TokenException, InterruptedException {
+    String tokenLabel = token.getTokenInfo().getLabel().trim();
+    List<Point> points = new ArrayList<>();
+    for (int sessionCount : sessionCounts) {
+      for (int threadCount : threadCounts) {
+        Point point = execute(tokenLabel, threadCount, sessionCount);
+        LOG.info("{}", point);
+        points.add(point);
+      }
+    }
+
+    markKnee(points, kneeRatio, kneeLatencyFactor);
+    return points;
+  }
+
+  private Point execute(String tokenLabel, int threadCount, int sessionCount)
+      throws TokenException, InterruptedException {
+    BlockingQueue<Session> sessions = new ArrayBlockingQueue<>(sessionCount);
+    latency.reset();
+    errors.set(0);
+
+    List<Thread> threads = new ArrayList<>(threadCount);
+    try {
+      for (int i = 0; i < sessionCount; i++) {
+        sessions.add(Util.openAuthorizedSession(token, true,
+            (pin == null) ? null : pin.clone()));
+      }
+
+      long durationNanos = OpenLoopExecutor.parseDuration(duration);
+      long measurementStart =
+          System.nanoTime() + OpenLoopExecutor.parseDuration(warmup);
+      long endTime = measurementStart + durationNanos;
+      CountDownLatch done = new CountDownLatch(threadCount);
+      for (int i = 0; i < threadCount; i++) {
+        Thread thread = new Thread(new Worker(sessions, measurementStart,
+            endTime, done), "sweep-" + threadCount + "-" + i);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+      }
+
+      done.await();
+      return new Point(description, tokenLabel, threadCount, sessionCount,
+          durationNanos / 1e9, errors.get(), latency.snapshot());
+    } finally {
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+
+      Session session;
+      while ((session = sessions.poll()) != null) {
+        try {
+          session.closeSession();
+        } catch (TokenException ex) {
+          LOG.warn("could not close session", ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * Marks the point with the lowest concurrency whose throughput reaches
+   * the given share of the maximum throughput. Only the points whose p99
+   * latency is at most the given factor of the p99 latency of the point
+   * with the lowest concurrency are considered.
+   *
+   * @param points
+   *          The points.
+   * @param kneeRatio
+   *          The share of the maximum throughput.
+   * @param kneeLatencyFactor
+   *          The allowed increase of the p99 latency.
+   * @return the knee, or null if points is empty.
+   */
+  static Point markKnee(List<Point> points, double kneeRatio,
+      double kneeLatencyFactor) {
+    Point lowest = null;
+    for (Point point : points) {
+      point.knee = false;
+      if (lowest == null || isLowerConcurrency(point, lowest)) {
+        lowest = point;
+      }
+    }
+
+    if (lowest == null) {
+      return null;
+    }
+
+    // a baseline of 0 (no completed operation) does not limit the latency
+    long baselineP99 = lowest.latency.getValueAtPercentile(99);
+    List<Point> candidates = new ArrayList<>(points.size());
+    double maxThroughput = 0;
+    for (Point point : points) {
+      if (baselineP99 == 0 || point.latency.getValueAtPercentile(99)
+          <= kneeLatencyFactor * baselineP99) {
+        candidates.add(point);
+        maxThroughput = Math.max(maxThroughput, point.getThroughput());
+      }
+    }
+
+    Point knee = null;
+    for (Point point : candidates) {
+      if (point.getThroughput() < kneeRatio * maxThroughput) {
+        continue;
+      }
+
+      if (knee == null || isLowerConcurrency(point, knee)) {
+        knee = point;
+      }
+    }
+
+    if (knee != null) {
+      knee.knee = true;
+    }
+    return knee;
+  }
+
+  private static boolean isLowerConcurrency(Point point, Point other) {
+    return point.threads < other.threads
+        || (point.threads == other.threads && point.sessions < other.sessions);
+  }
+
+  /**
+   * Formats the points as a table with one row per session count and one
+   * column per thread count, and a summary line of the knee.
+   *
+   * @param points
+   *          The points returned by {@link #execute()}.
+   * @return the table.
+   */
+  public static String toTable(List<Point> points) {
+    List<Integer> threadCounts = new ArrayList<>();
+    List<Integer> sessionCounts = new ArrayList<>();
+    for (Point point : points) {
+      if (!threadCounts.contains(point.threads)) {
+        threadCounts.add(point.threads);
+      }
+      if (!sessionCounts.contains(point.sessions)) {
+        sessionCounts.add(point.sessions);
+      }
+    }
+    Collections.sort(threadCounts);
+    Collections.sort(sessionCounts);
+
+    StringBuilder sb = new StringBuilder();
+    if (!points.isEmpty()) {
+      Point first = points.get(0);
+      sb.append(first.description).append(" on token ")
+        .append(first.tokenLabel).append('\n');
+    }
+    sb.append("throughput (1/s) / p99 latency (ms)\n");
+    sb.append(String.format(Locale.ROOT, "%-10s", "sessions"));
+    for (Integer threads : threadCounts) {
+      sb.append(String.format(Locale.ROOT, "%20s", threads + " threads"));
+    }
+    sb.append('\n');
+
+    Point knee = null;
+    for (Integer sessions : sessionCounts) {
+      sb.append(String.format(Locale.ROOT, "%-10d", sessions));
+      for (Integer threads : threadCounts) {
+        String cell = "-";
+        for (Point point : points) {
+          if (point.threads == threads && point.sessions == sessions) {
+            cell = String.format(Locale.ROOT, "%.0f / %.2f%s",
+                point.getThroughput(),
+                point.latency.getValueAtPercentile(99) / 1e6,
+                point.knee ? "*" : "");
+            if (point.knee) {
+              knee = point;
+            }
+            break;
+          }
+        }
+        sb.append(String.format(Locale.ROOT, "%20s", cell));
+      }
+      sb.append('\n');
+    }
+
+    if (knee != null) {
+      sb.append(String.format(Locale.ROOT, "knee (*): %d threads, "
+          + "%d sessions, %.1f/s, p99 %.2f ms", knee.threads, knee.sessions,
+          knee.getThroughput(),
+          knee.latency.getValueAtPercentile(99) / 1e6));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes the points to the given file: as JSON (one object per line) if
+   * the file name ends with ".json", otherwise as CSV with header if the
+   * file is new.
+   *
+   * @param points
+   *          The points.
+   * @param file
+   *          The file to append the points to.
+   * @throws IOException
+   *           If writing the file failed.
+   */
+  public static void write(List<Point> points, File file)
+      throws IOException {
+    boolean json = file.getName().toLowerCase(Locale.ROOT).endsWith(".json");
+    boolean newFile = !file.exists() || file.length() == 0;
+    try (Writer writer = new OutputStreamWriter(
+        new FileOutputStream(file, true), StandardCharsets.UTF_8)) {
+      if (!json && newFile) {
+        writer.write(Point.CSV_HEADER);
+        writer.write('\n');
+      }
+
+      for (Point point : points) {
+        writer.write(json ? point.toJson() : point.toCsvLine());
+        writer.write('\n');
+      }
+    }
+  }
+
+  /**
+   * Parses comma separated counts like "1,2,4,8".
+   *
+   * @param counts
+   *          The counts.
+   * @return the parsed counts.
+   */
+  public static int[] parseCounts(String counts) {
+    String[] tokens = counts.split(",");
+    int[] ret = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      ret[i] = Integer.parseInt(tokens[i].trim());
+    }
+    return checkCounts("counts", ret);
+  }
+
+  private static int[] checkCounts(String name, int[] counts) {
+    if (counts == null || counts.length == 0) {
+      throw new IllegalArgumentException(name + " must not be empty");
+    }
+
+    for (int count : counts) {
+      if (count < 1) {
+        throw new IllegalArgumentException(name + " must be positive");
+      }
+    }
+    return counts.clone();
+  }
+
+  private static String micros(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+  }
+
+}
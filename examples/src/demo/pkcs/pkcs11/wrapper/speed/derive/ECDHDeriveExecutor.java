@@ -0,0 +1,108 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.derive;
+
+import demo.pkcs.pkcs11.wrapper.speed.SessionAction;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.EcDH1KeyDerivationParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.bouncycastle.asn1.DEROctetString;
+
+/**
+ * ECDH executor: derives a generic secret key of the given length from an
+ * EC private key and the public point of a peer via C_DeriveKey with
+ * CKM_ECDH1_DERIVE. The derived key is a session object and is destroyed
+ * directly in the same operation.
+ *
+ * @author Lijun Liao
+ */
+public class ECDHDeriveExecutor extends SessionOperationExecutor {
+
+  private final Mechanism deriveMechanism;
+
+  private final int derivedKeyLen;
+
+  private final KeyPair keypair;
+
+  private final KeyPair peerKeypair;
+
+  public ECDHDeriveExecutor(String description, Token token, char[] pin,
+      final byte[] ecParams, int derivedKeyLen) throws TokenException {
+    super(description, token, pin);
+    this.derivedKeyLen = derivedKeyLen;
+
+    SessionAction<KeyPair> generateKeypair = new SessionAction<KeyPair>() {
+      @Override
+      public KeyPair run(Session session) throws TokenException {
+        ECPublicKey publicKeyTemplate = new ECPublicKey();
+        publicKeyTemplate.getEcdsaParams().setByteArrayValue(ecParams);
+        publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+
+        ECPrivateKey privateKeyTemplate = new ECPrivateKey();
+        privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+        privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getDerive().setBooleanValue(Boolean.TRUE);
+
+        return session.generateKeyPair(
+            Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+            publicKeyTemplate, privateKeyTemplate);
+      }
+    };
+
+    keypair = withSession(generateKeypair);
+    peerKeypair = withSession(generateKeypair);
+
+    // CKA_EC_POINT is the DER encoded octet string of the point
+    byte[] peerPoint = DEROctetString.getInstance(((ECPublicKey)
+        peerKeypair.getPublicKey()).getEcPoint().getByteArrayValue())
+        .getOctets();
+    deriveMechanism = Mechanism.get(PKCS11Constants.CKM_ECDH1_DERIVE);
+    deriveMechanism.setParameters(new EcDH1KeyDerivationParameters(
+        PKCS11Constants.CKD_NULL, null, peerPoint));
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    ValuedSecretKey template = ValuedSecretKey.newGenericSecretKey();
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getSensitive().setBooleanValue(Boolean.TRUE);
+    template.getValueLen().setLongValue((long) derivedKeyLen);
+    Key derivedKey = session.deriveKey(deriveMechanism,
+        keypair.getPrivateKey(), template);
+    session.destroyObject(derivedKey);
+  }
+
+  @Override
+  public void close() {
+    destroyObjects(keypair.getPrivateKey(), keypair.getPublicKey(),
+        peerKeypair.getPrivateKey(), peerKeypair.getPublicKey());
+    super.close();
+  }
+
+}
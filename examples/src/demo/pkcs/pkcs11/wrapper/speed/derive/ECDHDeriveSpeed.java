@@ -0,0 +1,85 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.derive;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * ECDH key agreement (CKM_ECDH1_DERIVE with CKD_NULL) speed test on the
+ * curves NIST P-256 and P-384. Each operation derives a 256-bit generic
+ * secret key and destroys it.
+ *
+ * @author Lijun Liao
+ */
+public class ECDHDeriveSpeed extends TestBase {
+
+  private static final long keypairGenMechanism =
+      PKCS11Constants.CKM_EC_KEY_PAIR_GEN;
+
+  private static final long deriveMechanism =
+      PKCS11Constants.CKM_ECDH1_DERIVE;
+
+  private static final String[] curveNames = {"NIST P-256", "NIST P-384"};
+
+  private static final byte[][] curveOids = {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    new byte[] {0x06, 0x08, 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d,
+        0x03, 0x01, 0x07},
+    // OID: 1.3.132.0.34 (secp384r1, alias NIST P-384)
+    new byte[] {0x06, 0x05, 0x2b, (byte) 0x81, 0x04, 0x00, 0x22}};
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    if (!Util.supports(token, keypairGenMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(keypairGenMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    if (!Util.supports(token, deriveMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(deriveMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    for (int i = 0; i < curveOids.length; i++) {
+      String name = Functions.mechanismCodeToString(deriveMechanism)
+          + " (" + curveNames[i] + ") Derive Speed";
+      BenchmarkExecutor executor = new ECDHDeriveExecutor(name, token,
+          getModulePin(), curveOids[i], 32);
+      execute(executor, name);
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
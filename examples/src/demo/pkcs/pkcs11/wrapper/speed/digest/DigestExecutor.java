@@ -0,0 +1,61 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.digest;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * Digest executor: computes the hash value of the given input length via
+ * C_DigestSingle.
+ *
+ * @author Lijun Liao
+ */
+public class DigestExecutor extends SessionOperationExecutor {
+
+  private final Mechanism digestMechanism;
+
+  private final byte[] data;
+
+  private final ThreadLocal<byte[]> digest = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[64];
+    }
+  };
+
+  public DigestExecutor(String description, Token token, char[] pin,
+      Mechanism digestMechanism, int inputLen) throws TokenException {
+    super(description, token, pin);
+    this.digestMechanism = digestMechanism;
+    this.data = TestBase.randomBytes(inputLen);
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    byte[] out = digest.get();
+    session.digestSingle(digestMechanism, data, 0, data.length,
+        out, 0, out.length);
+  }
+
+}
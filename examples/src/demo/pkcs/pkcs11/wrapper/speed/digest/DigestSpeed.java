@@ -0,0 +1,69 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.digest;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * Digest (SHA-256 and SHA-512) speed test across input sizes.
+ *
+ * @author Lijun Liao
+ */
+public class DigestSpeed extends TestBase {
+
+  private static final long[] digestMechanisms = {
+    PKCS11Constants.CKM_SHA256, PKCS11Constants.CKM_SHA512};
+
+  private static final int[] inputLens = {64, 1024, 16384, 65536};
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    for (long digestMechanism : digestMechanisms) {
+      String mechName = Functions.mechanismCodeToString(digestMechanism);
+      if (!Util.supports(token, digestMechanism)) {
+        System.out.println(mechName + " is not supported, skip test");
+        continue;
+      }
+
+      for (int inputLen : inputLens) {
+        String name = mechName + " (" + inputLen + " bytes) Digest Speed";
+        BenchmarkExecutor executor = new DigestExecutor(name, token,
+            getModulePin(), Mechanism.get(digestMechanism), inputLen);
+        execute(executor, name);
+      }
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
@@ -0,0 +1,82 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.mac;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * HMAC (HMAC-SHA256 and HMAC-SHA512, 256-bit generic secret key) creation
+ * and verification speed test across input sizes. Each operation includes
+ * the C_SignInit or C_VerifyInit.
+ *
+ * @author Lijun Liao
+ */
+public class HMACSpeed extends TestBase {
+
+  private static final long[] macMechanisms = {
+    PKCS11Constants.CKM_SHA256_HMAC, PKCS11Constants.CKM_SHA512_HMAC};
+
+  private static final int[] inputLens = {64, 1024, 16384};
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    if (!Util.supports(token, PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN)) {
+      System.out.println(Functions.mechanismCodeToString(
+          PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN)
+          + " is not supported, skip test");
+      return;
+    }
+
+    for (long macMechanism : macMechanisms) {
+      String mechName = Functions.mechanismCodeToString(macMechanism);
+      if (!Util.supports(token, macMechanism)) {
+        System.out.println(mechName + " is not supported, skip test");
+        continue;
+      }
+
+      for (int inputLen : inputLens) {
+        for (boolean verify : new boolean[] {false, true}) {
+          String name = mechName + " (" + inputLen + " bytes) "
+              + (verify ? "Verify" : "Sign") + " Speed";
+          BenchmarkExecutor executor = new MacExecutor(name, token,
+              getModulePin(), Mechanism.get(macMechanism), 32, inputLen,
+              verify);
+          execute(executor, name);
+        }
+      }
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
@@ -0,0 +1,98 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.mac;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.speed.SessionAction;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * MAC executor: computes (C_SignInit, C_Sign) or verifies (C_VerifyInit,
+ * C_Verify) the MAC of the given input length with a generic secret key.
+ *
+ * @author Lijun Liao
+ */
+public class MacExecutor extends SessionOperationExecutor {
+
+  private final Mechanism macMechanism;
+
+  private final boolean verify;
+
+  private final byte[] data;
+
+  private final byte[] macValue;
+
+  private final ValuedSecretKey key;
+
+  public MacExecutor(String description, Token token, char[] pin,
+      Mechanism macMechanism, int keyLen, int inputLen, boolean verify)
+          throws TokenException {
+    super(description, token, pin);
+    this.macMechanism = macMechanism;
+    this.verify = verify;
+    this.data = TestBase.randomBytes(inputLen);
+
+    final ValuedSecretKey keyTemplate = ValuedSecretKey.newGenericSecretKey();
+    keyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+    keyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getVerify().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getValueLen().setLongValue((long) keyLen);
+
+    key = withSession(new SessionAction<ValuedSecretKey>() {
+      @Override
+      public ValuedSecretKey run(Session session) throws TokenException {
+        return (ValuedSecretKey) session.generateKey(Mechanism.get(
+            PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN), keyTemplate);
+      }
+    });
+
+    macValue = withSession(new SessionAction<byte[]>() {
+      @Override
+      public byte[] run(Session session) throws TokenException {
+        session.signInit(MacExecutor.this.macMechanism, key);
+        return session.sign(data);
+      }
+    });
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    if (verify) {
+      session.verifyInit(macMechanism, key);
+      session.verify(data, macValue);
+    } else {
+      session.signInit(macMechanism, key);
+      session.sign(data);
+    }
+  }
+
+  @Override
+  public void close() {
+    destroyObjects(key);
+    super.close();
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.objects;
+
+import iaik.pkcs.pkcs11.objects.ByteArrayAttribute;
+import iaik.pkcs.pkcs11.objects.CharArrayAttribute;
+import iaik.pkcs.pkcs11.objects.DateAttribute;
+import iaik.pkcs.pkcs11.objects.LongAttribute;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the bytes allocated when reading the attributes of 100 000
+ * objects via the plain getters plus the usual conversions, and via the
+ * memoized accessors. Each round reads newly created objects, so the first
+ * read of the memoized accessors decodes the values like the plain getters
+ * do; it is reported separately from a second read of the same objects,
+ * which returns the memoized values. No token is required.
+ *
+ * @author Lijun Liao
+ */
+public class AttributeAccessAllocationSpeed {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(AttributeAccessAllocationSpeed.class);
+
+  private static final int NUM_OBJECTS = 100000;
+
+  private static final int ROUNDS = 5;
+
+  private static final class ObjectAttributes {
+
+    private final ByteArrayAttribute modulus =
+        new ByteArrayAttribute(PKCS11Constants.CKA_MODULUS);
+
+    private final CharArrayAttribute label =
+        new CharArrayAttribute(PKCS11Constants.CKA_LABEL);
+
+    private final DateAttribute endDate =
+        new DateAttribute(PKCS11Constants.CKA_END_DATE);
+
+    private final LongAttribute keyType =
+        new LongAttribute(PKCS11Constants.CKA_KEY_TYPE);
+
+  }
+
+  @Test
+  public void main() {
+    com.sun.management.ThreadMXBean threadBean =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assert.assertTrue("thread allocation measurement is not supported",
+        threadBean.isThreadAllocatedMemorySupported());
+    threadBean.setThreadAllocatedMemoryEnabled(true);
+
+    long threadId = Thread.currentThread().getId();
+
+    long eagerBytes = 0;
+    long firstLazyBytes = 0;
+    long repeatedLazyBytes = 0;
+    long checksum = 0;
+    for (int round = 0; round < ROUNDS; round++) {
+      // new objects in each round, nothing is memoized yet
+      ObjectAttributes[] eagerObjects = newObjects();
+      ObjectAttributes[] lazyObjects = newObjects();
+
+      long start = threadBean.getThreadAllocatedBytes(threadId);
+      checksum += readEager(eagerObjects);
+      long mid = threadBean.getThreadAllocatedBytes(threadId);
+      checksum += readLazy(lazyObjects);
+      long mid2 = threadBean.getThreadAllocatedBytes(threadId);
+      checksum += readLazy(lazyObjects);
+      long end = threadBean.getThreadAllocatedBytes(threadId);
+
+      // the first round warms up all paths
+      if (round > 0) {
+        eagerBytes += mid - start;
+        firstLazyBytes += mid2 - mid;
+        repeatedLazyBytes += end - mid2;
+      }
+    }
+
+    long divisor = (long) (ROUNDS - 1) * NUM_OBJECTS;
+    LOG.info("read {} objects: eager {} bytes/object, memoized first read"
+        + " {} bytes/object, memoized repeated read {} bytes/object"
+        + " (checksum {})", NUM_OBJECTS, eagerBytes / divisor,
+        firstLazyBytes / divisor, repeatedLazyBytes / divisor, checksum);
+    Assert.assertTrue("repeated memoized reads allocated more than the eager"
+        + " getters", repeatedLazyBytes < eagerBytes);
+  }
+
+  private static ObjectAttributes[] newObjects() {
+    Random random = new Random(1);
+    ObjectAttributes[] objects = new ObjectAttributes[NUM_OBJECTS];
+    for (int i = 0; i < NUM_OBJECTS; i++) {
+      ObjectAttributes object = new ObjectAttributes();
+      byte[] modulus = new byte[256];
+      random.nextBytes(modulus);
+      object.modulus.setByteArrayValue(modulus);
+      object.label.setCharArrayValue(("key-" + i).toCharArray());
+      object.endDate.setDateValue(new Date(1577836800000L + i * 86400000L));
+      object.keyType.setLongValue(PKCS11Constants.CKK_RSA);
+      objects[i] = object;
+    }
+    return objects;
+  }
+
+  private static long readEager(ObjectAttributes[] objects) {
+    long checksum = 0;
+    for (ObjectAttributes object : objects) {
+      checksum += new BigInteger(1,
+          object.modulus.getByteArrayValue()).bitLength();
+      checksum += new String(object.label.getCharArrayValue()).length();
+      Date endDate = object.endDate.getDateValue();
+      checksum += endDate.getTime() & 0xFF;
+      checksum += object.keyType.getLongValue().longValue();
+    }
+    return checksum;
+  }
+
+  private static long readLazy(ObjectAttributes[] objects) {
+    long checksum = 0;
+    for (ObjectAttributes object : objects) {
+      BigInteger modulus = object.modulus.getUnsignedBigIntegerValue();
+      checksum += modulus.bitLength();
+      checksum += object.label.getStringValue().length();
+      checksum += object.endDate.getYear() + object.endDate.getDay();
+      checksum += object.keyType.getLongValue(0);
+    }
+    return checksum;
+  }
+
+}
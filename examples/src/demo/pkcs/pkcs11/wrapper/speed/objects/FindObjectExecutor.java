@@ -0,0 +1,93 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.objects;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.speed.SessionAction;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Data;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Find executor: creates the given number of data objects and searches a
+ * random one of them by its CKA_LABEL (C_FindObjectsInit, C_FindObjects,
+ * C_FindObjectsFinal).
+ *
+ * @author Lijun Liao
+ */
+public class FindObjectExecutor extends SessionOperationExecutor {
+
+  private final PKCS11Object[] objects;
+
+  private final Data[] searchTemplates;
+
+  public FindObjectExecutor(String description, Token token, char[] pin,
+      int objectCount) throws TokenException {
+    super(description, token, pin);
+
+    final String labelPrefix =
+        "speed-find-" + Long.toHexString(System.nanoTime()) + "-";
+    objects = new PKCS11Object[objectCount];
+    searchTemplates = new Data[objectCount];
+    withSession(new SessionAction<Void>() {
+      @Override
+      public Void run(Session session) throws TokenException {
+        for (int i = 0; i < objects.length; i++) {
+          char[] label = (labelPrefix + i).toCharArray();
+          Data template = new Data();
+          template.getToken().setBooleanValue(Boolean.FALSE);
+          template.getLabel().setCharArrayValue(label);
+          template.getValue().setByteArrayValue(TestBase.randomBytes(32));
+          objects[i] = session.createObject(template);
+
+          Data searchTemplate = new Data();
+          searchTemplate.getLabel().setCharArrayValue(label);
+          searchTemplates[i] = searchTemplate;
+        }
+        return null;
+      }
+    });
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    int index = ThreadLocalRandom.current().nextInt(searchTemplates.length);
+    session.findObjectsInit(searchTemplates[index]);
+    try {
+      long[] handles = session.findObjectHandles(2);
+      if (handles.length != 1) {
+        throw new TokenException("found " + handles.length + " objects");
+      }
+    } finally {
+      session.findObjectsFinal();
+    }
+  }
+
+  @Override
+  public void close() {
+    destroyObjects(objects);
+    super.close();
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.objects;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * C_FindObjects speed test: searches one of 10, 100 and 1000 session
+ * objects by its label.
+ *
+ * @author Lijun Liao
+ */
+public class FindObjectSpeed extends TestBase {
+
+  private static final int[] objectCounts = {10, 100, 1000};
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    for (int objectCount : objectCounts) {
+      String name = "Find Object (" + objectCount + " objects) Speed";
+      BenchmarkExecutor executor = new FindObjectExecutor(name, token,
+          getModulePin(), objectCount);
+      execute(executor, name);
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.objects;
+
+import demo.pkcs.pkcs11.wrapper.speed.SessionAction;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Attribute read executor on an EC key pair: either reads all attributes of
+ * the private key via {@link PKCS11Object#getInstance(Session, long)}, or
+ * reads only CKA_EC_POINT of the public key via
+ * {@link Session#getAttributeValue(long, long)}.
+ *
+ * @author Lijun Liao
+ */
+public class ReadAttributeExecutor extends SessionOperationExecutor {
+
+  private final boolean allAttributes;
+
+  private final KeyPair keypair;
+
+  public ReadAttributeExecutor(String description, Token token, char[] pin,
+      final byte[] ecParams, boolean allAttributes) throws TokenException {
+    super(description, token, pin);
+    this.allAttributes = allAttributes;
+
+    keypair = withSession(new SessionAction<KeyPair>() {
+      @Override
+      public KeyPair run(Session session) throws TokenException {
+        ECPublicKey publicKeyTemplate = new ECPublicKey();
+        publicKeyTemplate.getEcdsaParams().setByteArrayValue(ecParams);
+        publicKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+
+        ECPrivateKey privateKeyTemplate = new ECPrivateKey();
+        privateKeyTemplate.getToken().setBooleanValue(Boolean.FALSE);
+        privateKeyTemplate.getSensitive().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getPrivate().setBooleanValue(Boolean.TRUE);
+        privateKeyTemplate.getSign().setBooleanValue(Boolean.TRUE);
+
+        return session.generateKeyPair(
+            Mechanism.get(PKCS11Constants.CKM_EC_KEY_PAIR_GEN),
+            publicKeyTemplate, privateKeyTemplate);
+      }
+    });
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    if (allAttributes) {
+      PKCS11Object.getInstance(session,
+          keypair.getPrivateKey().getObjectHandle());
+    } else {
+      session.getAttributeValue(keypair.getPublicKey().getObjectHandle(),
+          PKCS11Constants.CKA_EC_POINT);
+    }
+  }
+
+  @Override
+  public void close() {
+    destroyObjects(keypair.getPrivateKey(), keypair.getPublicKey());
+    super.close();
+  }
+
+}
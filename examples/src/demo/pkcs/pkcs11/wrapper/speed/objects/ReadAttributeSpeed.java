@@ -0,0 +1,70 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.objects;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * C_GetAttributeValue speed test on an EC (NIST P-256) key pair: reading
+ * all attributes of the private key via PKCS11Object.getInstance, versus
+ * reading only the CKA_EC_POINT of the public key.
+ *
+ * @author Lijun Liao
+ */
+public class ReadAttributeSpeed extends TestBase {
+
+  private static final long keypairGenMechanism =
+      PKCS11Constants.CKM_EC_KEY_PAIR_GEN;
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    if (!Util.supports(token, keypairGenMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(keypairGenMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    for (boolean allAttributes : new boolean[] {true, false}) {
+      String name = "Read " + (allAttributes ? "All Attributes"
+          : "CKA_EC_POINT") + " Speed";
+      BenchmarkExecutor executor = new ReadAttributeExecutor(name, token,
+          getModulePin(), ecParams, allAttributes);
+      execute(executor, name);
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
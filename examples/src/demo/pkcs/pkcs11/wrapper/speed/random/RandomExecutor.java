@@ -0,0 +1,47 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.random;
+
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+
+/**
+ * Random executor: generates the given number of random bytes via
+ * C_GenerateRandom.
+ *
+ * @author Lijun Liao
+ */
+public class RandomExecutor extends SessionOperationExecutor {
+
+  private final int outputLen;
+
+  public RandomExecutor(String description, Token token, char[] pin,
+      int outputLen) throws TokenException {
+    super(description, token, pin);
+    this.outputLen = outputLen;
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    session.generateRandom(outputLen);
+  }
+
+}
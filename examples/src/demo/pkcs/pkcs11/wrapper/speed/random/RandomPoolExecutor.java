@@ -0,0 +1,82 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package demo.pkcs.pkcs11.wrapper.speed.random;
+
+import iaik.pkcs.pkcs11.RandomPool;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * Random executor: takes the given number of random bytes from a
+ * {@link RandomPool}, which fetches them from the token in blocks.
+ *
+ * @author Lijun Liao
+ */
+public class RandomPoolExecutor extends BenchmarkExecutor {
+
+  private static final Logger LOG =
+      LoggerFactory.getLogger(RandomPoolExecutor.class);
+
+  private class MyRunnable implements Runnable {
+
+    @Override
+    public void run() {
+      byte[] out = new byte[outputLen];
+      while (!stop()) {
+        try {
+          pool.nextBytes(out, 0, outputLen);
+          account(1, 0);
+        } catch (Throwable th) {
+          System.err.println(th.getMessage());
+          LOG.error("error", th);
+          account(1, 1);
+        }
+      }
+    }
+
+  }
+
+  private final RandomPool pool;
+
+  private final int outputLen;
+
+  public RandomPoolExecutor(String description, Token token,
+      int outputLen) throws TokenException {
+    super(description);
+    this.pool = new RandomPool(token, RandomPool.DEFAULT_BLOCK_SIZE);
+    this.outputLen = outputLen;
+  }
+
+  @Override
+  protected Runnable getTestor() throws Exception {
+    return new MyRunnable();
+  }
+
+  @Override
+  public void close() {
+    try {
+      LOG.info("{}", pool);
+      pool.close();
+    } finally {
+      super.close();
+    }
+  }
+
+}
@@ -0,0 +1,103 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.signature;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.speed.OpenLoopExecutor;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+/**
+ * ECDSA (secp256r1) signing at a constant arrival rate, reporting the
+ * latency percentiles.
+ * <p>
+ * Configured via the Java properties speed.rate (operations per second,
+ * default 100), speed.warmup (default 1s), speed.duration (default 3s),
+ * speed.sessions (default 5), speed.threads and speed.output (a .csv or
+ * .json file the result is appended to).
+ *
+ * @author Lijun Liao
+ */
+public class ECDSASignOpenLoopSpeed extends TestBase {
+
+  private static final long signMechanism = PKCS11Constants.CKM_ECDSA;
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    if (!Util.supports(token, signMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(signMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    Session session = openReadWriteSession(token);
+    try {
+      main0(token, session);
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private void main0(Token token, Session session) throws Exception {
+    // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+    byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+        0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+    KeyPair keypair = generateECKeypair(token, session, ecParams, false);
+    final PrivateKey privateKey = keypair.getPrivateKey();
+    final Mechanism mechanism = Mechanism.get(signMechanism);
+    final byte[] hash = randomBytes(32);
+
+    OpenLoopExecutor executor = new OpenLoopExecutor(
+        "CKM_ECDSA (P-256) Sign", token, getModulePin()) {
+
+      @Override
+      protected void execute(Session session) throws TokenException {
+        session.signInit(mechanism, privateKey);
+        session.sign(hash);
+      }
+
+    };
+    executor.setRate(getSpeedTestRate());
+    executor.setWarmup(getSpeedTestWarmup());
+    executor.setDuration(getSpeedTestDuration());
+    executor.setSessions(getSpeedTestSessions());
+    if (Integer.getInteger("speed.threads") != null) {
+      executor.setThreads(getSpeedTestThreads());
+    }
+
+    OpenLoopExecutor.Result result = executor.execute();
+    LOG.info("{}", result);
+    if (getSpeedTestOutput() != null) {
+      OpenLoopExecutor.write(result, new File(getSpeedTestOutput()));
+    }
+    Assert.assertEquals("Sign errors", 0, result.getErrors());
+  }
+
+}
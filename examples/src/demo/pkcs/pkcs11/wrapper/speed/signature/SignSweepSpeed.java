@@ -0,0 +1,115 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.signature;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.speed.SweepExecutor;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.PrivateKey;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Scalability sweep of ECDSA (NIST P-256) and RSA (2048 bit, CKM_RSA_PKCS)
+ * signing over a grid of thread and session counts, reporting the
+ * throughput, the latency percentiles and the saturation knee.
+ * <p>
+ * Configured via the Java properties speed.sweep.threads (default
+ * 1,2,4,8,16), speed.sweep.sessions (default 1,2,4,8), speed.warmup
+ * (default 1s) and speed.duration (default 3s) per combination, and
+ * speed.output (a .csv or .json file the points are appended to).
+ *
+ * @author Lijun Liao
+ */
+public class SignSweepSpeed extends TestBase {
+
+  @Test
+  public void main() throws Exception {
+    Token token = getNonNullToken();
+    Session session = openReadWriteSession(token);
+    try {
+      if (Util.supports(token, PKCS11Constants.CKM_ECDSA)) {
+        // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+        byte[] ecParams = new byte[] {0x06, 0x08, 0x2a, (byte) 0x86,
+            0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+        KeyPair keypair = generateECKeypair(token, session, ecParams, false);
+        sweep(token, "CKM_ECDSA (P-256) Sign", keypair.getPrivateKey(),
+            PKCS11Constants.CKM_ECDSA, 32);
+      } else {
+        System.out.println(Functions.mechanismCodeToString(
+            PKCS11Constants.CKM_ECDSA) + " is not supported, skip test");
+      }
+
+      if (Util.supports(token, PKCS11Constants.CKM_RSA_PKCS)) {
+        KeyPair keypair = generateRSAKeypair(token, session, 2048, false);
+        // DigestInfo of SHA-256 is 51 bytes
+        sweep(token, "CKM_RSA_PKCS (2048) Sign", keypair.getPrivateKey(),
+            PKCS11Constants.CKM_RSA_PKCS, 51);
+      } else {
+        System.out.println(Functions.mechanismCodeToString(
+            PKCS11Constants.CKM_RSA_PKCS) + " is not supported, skip test");
+      }
+    } finally {
+      session.closeSession();
+    }
+  }
+
+  private void sweep(Token token, String description,
+      final PrivateKey privateKey, long signMechanism, int inputLen)
+      throws Exception {
+    final Mechanism mechanism = Mechanism.get(signMechanism);
+    final byte[] data = randomBytes(inputLen);
+
+    SweepExecutor executor = new SweepExecutor(description, token,
+        getModulePin()) {
+
+      @Override
+      protected void execute(Session session) throws TokenException {
+        session.signInit(mechanism, privateKey);
+        session.sign(data);
+      }
+
+    };
+    executor.setThreads(SweepExecutor.parseCounts(getSpeedSweepThreads()));
+    executor.setSessions(SweepExecutor.parseCounts(getSpeedSweepSessions()));
+    executor.setWarmup(getSpeedTestWarmup());
+    executor.setDuration(getSpeedTestDuration());
+
+    List<SweepExecutor.Point> points = executor.execute();
+    System.out.println(SweepExecutor.toTable(points));
+    if (getSpeedTestOutput() != null) {
+      SweepExecutor.write(points, new File(getSpeedTestOutput()));
+    }
+
+    for (SweepExecutor.Point point : points) {
+      Assert.assertEquals(description + " errors", 0, point.getErrors());
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package demo.pkcs.pkcs11.wrapper.speed.wrap;
+
+import demo.pkcs.pkcs11.wrapper.TestBase;
+import demo.pkcs.pkcs11.wrapper.util.Util;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xipki.util.BenchmarkExecutor;
+
+/**
+ * AES key wrap (CKM_AES_KEY_WRAP, RFC 3394) speed test: wraps and unwraps
+ * AES keys of 128 and 256 bits with a wrapping key of the same size.
+ *
+ * @author Lijun Liao
+ */
+public class AESKeyWrapSpeed extends TestBase {
+
+  private static final long keyGenMechanism = PKCS11Constants.CKM_AES_KEY_GEN;
+
+  private static final long wrapMechanism = PKCS11Constants.CKM_AES_KEY_WRAP;
+
+  private static final int[] keyLens = {16, 32};
+
+  @Test
+  public void main() throws TokenException {
+    Token token = getNonNullToken();
+    if (!Util.supports(token, keyGenMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(keyGenMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    if (!Util.supports(token, wrapMechanism)) {
+      System.out.println(Functions.mechanismCodeToString(wrapMechanism)
+          + " is not supported, skip test");
+      return;
+    }
+
+    for (int keyLen : keyLens) {
+      for (boolean unwrap : new boolean[] {false, true}) {
+        String name = Functions.mechanismCodeToString(wrapMechanism)
+            + " (AES-" + (keyLen * 8) + ") " + (unwrap ? "Unwrap" : "Wrap")
+            + " Speed";
+        BenchmarkExecutor executor = new KeyWrapExecutor(name, token,
+            getModulePin(), Mechanism.get(wrapMechanism), keyLen, unwrap);
+        execute(executor, name);
+      }
+    }
+  }
+
+  private void execute(BenchmarkExecutor executor, String name) {
+    executor.setThreads(getSpeedTestThreads());
+    executor.setDuration(getSpeedTestDuration());
+    executor.execute();
+    Assert.assertEquals(name, 0, executor.getErrorAccout());
+  }
+
+}
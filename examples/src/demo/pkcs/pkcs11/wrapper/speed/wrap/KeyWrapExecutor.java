@@ -0,0 +1,121 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package demo.pkcs.pkcs11.wrapper.speed.wrap;
+
+import demo.pkcs.pkcs11.wrapper.speed.SessionAction;
+import demo.pkcs.pkcs11.wrapper.speed.SessionOperationExecutor;
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.Token;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * Key wrap executor: wraps an AES key with an AES wrapping key
+ * (C_WrapKey), or unwraps it (C_UnwrapKey). An unwrapped key is a session
+ * object and is destroyed directly in the same operation.
+ *
+ * @author Lijun Liao
+ */
+public class KeyWrapExecutor extends SessionOperationExecutor {
+
+  private final Mechanism wrapMechanism;
+
+  private final boolean unwrap;
+
+  private final ValuedSecretKey wrappingKey;
+
+  private final ValuedSecretKey key;
+
+  private final byte[] wrappedKey;
+
+  public KeyWrapExecutor(String description, Token token, char[] pin,
+      Mechanism wrapMechanism, int keyLen, boolean unwrap)
+          throws TokenException {
+    super(description, token, pin);
+    this.wrapMechanism = wrapMechanism;
+    this.unwrap = unwrap;
+
+    final ValuedSecretKey wrappingKeyTemplate = newKeyTemplate(keyLen);
+    wrappingKeyTemplate.getWrap().setBooleanValue(Boolean.TRUE);
+    wrappingKeyTemplate.getUnwrap().setBooleanValue(Boolean.TRUE);
+
+    final ValuedSecretKey keyTemplate = newKeyTemplate(keyLen);
+    keyTemplate.getExtractable().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getEncrypt().setBooleanValue(Boolean.TRUE);
+    keyTemplate.getDecrypt().setBooleanValue(Boolean.TRUE);
+
+    final Mechanism keyGenMechanism =
+        Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN);
+    wrappingKey = withSession(new SessionAction<ValuedSecretKey>() {
+      @Override
+      public ValuedSecretKey run(Session session) throws TokenException {
+        return (ValuedSecretKey) session.generateKey(keyGenMechanism,
+            wrappingKeyTemplate);
+      }
+    });
+
+    key = withSession(new SessionAction<ValuedSecretKey>() {
+      @Override
+      public ValuedSecretKey run(Session session) throws TokenException {
+        return (ValuedSecretKey) session.generateKey(keyGenMechanism,
+            keyTemplate);
+      }
+    });
+
+    wrappedKey = withSession(new SessionAction<byte[]>() {
+      @Override
+      public byte[] run(Session session) throws TokenException {
+        return session.wrapKey(KeyWrapExecutor.this.wrapMechanism,
+            wrappingKey, key);
+      }
+    });
+  }
+
+  private static ValuedSecretKey newKeyTemplate(int keyLen) {
+    ValuedSecretKey template = ValuedSecretKey.newAESSecretKey();
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getSensitive().setBooleanValue(Boolean.TRUE);
+    template.getValueLen().setLongValue((long) keyLen);
+    return template;
+  }
+
+  @Override
+  protected void execute(Session session) throws TokenException {
+    if (unwrap) {
+      ValuedSecretKey template = new ValuedSecretKey(PKCS11Constants.CKK_AES);
+      template.getToken().setBooleanValue(Boolean.FALSE);
+      template.getDecrypt().setBooleanValue(Boolean.TRUE);
+      Key unwrappedKey = session.unwrapKey(wrapMechanism, wrappingKey,
+          wrappedKey, template);
+      session.destroyObject(unwrappedKey);
+    } else {
+      session.wrapKey(wrapMechanism, wrappingKey, key);
+    }
+  }
+
+  @Override
+  public void close() {
+    destroyObjects(key, wrappingKey);
+    super.close();
+  }
+
+}
@@ -255,12 +255,7 @@ public class Util {
 
   public static boolean supports(Token token, long mechCode)
       throws TokenException {
-    for (Mechanism mech : token.getMechanismList()) {
-      if (mech.getMechanismCode() == mechCode) {
-        return true;
-      }
-    }
-    return false;
+    return token.getMechanismCatalog().supports(mechCode);
   }
 
   public static byte[] dsaSigPlainToX962(byte[] signature) {
@@ -0,0 +1,233 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+/**
+ * The PKCS#11 functions called by {@link Module}, {@link Slot},
+ * {@link Token} and {@link Session}. The methods have the signatures and
+ * the semantics of the equally named methods of
+ * {@link sun.security.pkcs11.wrapper.PKCS11}; errors are reported as
+ * {@link PKCS11Exception} with the PKCS#11 return value.
+ * <p>
+ * The default implementation {@link JdkBackend} calls the native PKCS#11
+ * module via the PKCS11 wrapper of the JDK. Other implementations, e.g. the
+ * simulated token {@link iaik.pkcs.pkcs11.simulator.SimulatedBackend}, are
+ * passed to {@link Module#Module(Backend)}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public interface Backend {
+
+  // general-purpose functions
+
+  void C_Finalize(Object args) throws PKCS11Exception;
+
+  CK_INFO C_GetInfo() throws PKCS11Exception;
+
+  // slot and token management functions
+
+  long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception;
+
+  CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception;
+
+  CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception;
+
+  long[] C_GetMechanismList(long slotID) throws PKCS11Exception;
+
+  CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception;
+
+  /**
+   * Waits for a slot event, see C_WaitForSlotEvent in PKCS#11.
+   *
+   * @param flags
+   *          0 to block, or CKF_DONT_BLOCK.
+   * @param reserved
+   *          Should be null.
+   * @return the slot identifier of the slot the event occurred in.
+   * @exception PKCS11Exception
+   *              If no event is available (CKR_NO_EVENT), if the function
+   *              is not supported (CKR_FUNCTION_NOT_SUPPORTED), or if the
+   *              call failed.
+   */
+  long C_WaitForSlotEvent(long flags, Object reserved)
+      throws PKCS11Exception;
+
+  // session management functions
+
+  long C_OpenSession(long slotID, long flags, Object application,
+      CK_NOTIFY notify) throws PKCS11Exception;
+
+  void C_CloseSession(long hSession) throws PKCS11Exception;
+
+  CK_SESSION_INFO C_GetSessionInfo(long hSession) throws PKCS11Exception;
+
+  byte[] C_GetOperationState(long hSession) throws PKCS11Exception;
+
+  void C_SetOperationState(long hSession, byte[] operationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception;
+
+  void C_Login(long hSession, long userType, char[] pin) throws PKCS11Exception;
+
+  void C_Logout(long hSession) throws PKCS11Exception;
+
+  // object management functions
+
+  long C_CreateObject(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception;
+
+  long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception;
+
+  void C_DestroyObject(long hSession, long hObject) throws PKCS11Exception;
+
+  void C_GetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception;
+
+  void C_SetAttributeValue(long hSession, long hObject, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception;
+
+  void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception;
+
+  long[] C_FindObjects(long hSession, long maxObjectCount)
+      throws PKCS11Exception;
+
+  void C_FindObjectsFinal(long hSession) throws PKCS11Exception;
+
+  // encryption and decryption functions
+
+  void C_EncryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs, int inLen,
+      long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception;
+
+  int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception;
+
+  int C_EncryptFinal(long hSession, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception;
+
+  void C_DecryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs, int inLen,
+      long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception;
+
+  int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception;
+
+  int C_DecryptFinal(long hSession, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception;
+
+  // message digesting functions
+
+  void C_DigestInit(long hSession, CK_MECHANISM mechanism)
+      throws PKCS11Exception;
+
+  int C_DigestSingle(long hSession, CK_MECHANISM mechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception;
+
+  void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception;
+
+  void C_DigestKey(long hSession, long hKey) throws PKCS11Exception;
+
+  int C_DigestFinal(long hSession, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception;
+
+  // signing and MACing functions
+
+  void C_SignInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  byte[] C_Sign(long hSession, byte[] data) throws PKCS11Exception;
+
+  void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception;
+
+  byte[] C_SignFinal(long hSession, int expectedLen) throws PKCS11Exception;
+
+  void C_SignRecoverInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception;
+
+  // functions for verifying signatures and MACs
+
+  void C_VerifyInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  void C_Verify(long hSession, byte[] data, byte[] signature)
+      throws PKCS11Exception;
+
+  void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception;
+
+  void C_VerifyFinal(long hSession, byte[] signature) throws PKCS11Exception;
+
+  void C_VerifyRecoverInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception;
+
+  int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception;
+
+  // key management functions
+
+  long C_GenerateKey(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception;
+
+  long[] C_GenerateKeyPair(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] publicKeyTemplate, CK_ATTRIBUTE[] privateKeyTemplate)
+      throws PKCS11Exception;
+
+  byte[] C_WrapKey(long hSession, CK_MECHANISM mechanism, long hWrappingKey,
+      long hKey) throws PKCS11Exception;
+
+  long C_UnwrapKey(long hSession, CK_MECHANISM mechanism, long hUnwrappingKey,
+      byte[] wrappedKey, CK_ATTRIBUTE[] template) throws PKCS11Exception;
+
+  long C_DeriveKey(long hSession, CK_MECHANISM mechanism, long hBaseKey,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception;
+
+  // random number generation functions
+
+  void C_SeedRandom(long hSession, byte[] seed) throws PKCS11Exception;
+
+  void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception;
+
+}
@@ -0,0 +1,115 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs independent calls which block, e.g. in the PKCS#11 module or while
+ * loading classes, in parallel. The calls do not run in the common
+ * ForkJoinPool, whose few threads are meant for computations and would be
+ * blocked for the application, but in a pool of this wrapper with at most
+ * {@link #MAX_THREADS} daemon threads, which terminate after one minute
+ * without calls.
+ * <p>
+ * Calls made from a thread of this pool run in the calling thread, so that
+ * a call waiting for further calls cannot exhaust the pool.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class BlockingCalls {
+
+  /**
+   * The maximal number of calls which run in parallel.
+   */
+  static final int MAX_THREADS = 8;
+
+  private static final class PoolThread extends Thread {
+
+    PoolThread(Runnable target, String name) {
+      super(target, name);
+      setDaemon(true);
+    }
+
+  }
+
+  private static final class ExecutorHolder {
+
+    private static final ExecutorService EXECUTOR;
+
+    static {
+      final AtomicInteger threadCount = new AtomicInteger();
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_THREADS,
+          MAX_THREADS, 60, TimeUnit.SECONDS,
+          new LinkedBlockingQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable target) {
+              return new PoolThread(target,
+                  "pkcs11-calls-" + threadCount.incrementAndGet());
+            }
+          });
+      executor.allowCoreThreadTimeOut(true);
+      EXECUTOR = executor;
+    }
+
+  }
+
+  private BlockingCalls() {
+  }
+
+  /**
+   * Runs the given calls and waits until all of them are completed, like
+   * {@link ExecutorService#invokeAll(java.util.Collection)}.
+   *
+   * @param tasks
+   *          The calls.
+   * @param <T>
+   *          The result type of the calls.
+   * @return the completed futures, in the order of the calls.
+   * @exception InterruptedException
+   *              If interrupted while waiting, the calls not yet completed
+   *              are cancelled.
+   */
+  static <T> List<Future<T>> invokeAll(List<? extends Callable<T>> tasks)
+      throws InterruptedException {
+    if (Thread.currentThread() instanceof PoolThread) {
+      List<Future<T>> futures = new ArrayList<>(tasks.size());
+      for (Callable<T> task : tasks) {
+        FutureTask<T> future = new FutureTask<>(task);
+        future.run();
+        futures.add(future);
+      }
+      return futures;
+    }
+
+    return ExecutorHolder.EXECUTOR.invokeAll(tasks);
+  }
+
+}
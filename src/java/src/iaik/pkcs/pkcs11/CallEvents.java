@@ -0,0 +1,137 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+/**
+ * Emits Java Flight Recorder events for the calls to the PKCS#11 module, the
+ * opened and closed sessions and the logins, see {@link JfrEvents}. If the
+ * JVM has no Flight Recorder (e.g. older JDK 8 builds), or no recording is
+ * running, nothing is emitted and the only cost is the check of a volatile
+ * flag.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class CallEvents {
+
+  private static final boolean AVAILABLE;
+
+  /**
+   * Whether at least one Flight Recorder recording is running. Maintained by
+   * {@link JfrEvents}.
+   */
+  static volatile boolean recording;
+
+  static {
+    boolean available;
+    try {
+      Class.forName("jdk.jfr.FlightRecorder", false,
+          CallEvents.class.getClassLoader());
+      JfrEvents.init();
+      available = true;
+    } catch (ClassNotFoundException | LinkageError | SecurityException ex) {
+      available = false;
+    }
+    AVAILABLE = available;
+  }
+
+  private CallEvents() {
+  }
+
+  /**
+   * Returns whether the Flight Recorder is available in this JVM.
+   *
+   * @return whether the Flight Recorder is available.
+   */
+  static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  static boolean isRecording() {
+    return recording;
+  }
+
+  /**
+   * Begins the event of a call. The event is a local of the caller, so that
+   * calls in other threads or nested calls have their own events.
+   *
+   * @return the event, or null if no event is recorded.
+   */
+  static Object begin() {
+    return recording ? JfrEvents.beginCall() : null;
+  }
+
+  /**
+   * Sets the number of bytes passed to and returned by a call.
+   *
+   * @param event
+   *          The event returned by {@link #begin()}. May be null.
+   */
+  static void setBytes(Object event, long bytesIn, long bytesOut) {
+    if (event != null) {
+      JfrEvents.setCallBytes(event, bytesIn, bytesOut);
+    }
+  }
+
+  /**
+   * Sets the error code returned by a call.
+   *
+   * @param event
+   *          The event returned by {@link #begin()}. May be null.
+   */
+  static void setErrorCode(Object event, long errorCode) {
+    if (event != null) {
+      JfrEvents.setCallErrorCode(event, errorCode);
+    }
+  }
+
+  /**
+   * Ends and commits the event of a call.
+   *
+   * @param event
+   *          The event returned by {@link #begin()}. May be null.
+   */
+  static void end(Object event, String function, long mechanism,
+      long slotID, long sessionHandle) { // CHECKSTYLE:SKIP
+    if (event != null) {
+      JfrEvents.endCall(event, function, mechanism, slotID, sessionHandle);
+    }
+  }
+
+  static void sessionOpened(long slotID, // CHECKSTYLE:SKIP
+      long sessionHandle, boolean rwSession) {
+    if (recording) {
+      JfrEvents.sessionOpened(slotID, sessionHandle, rwSession);
+    }
+  }
+
+  static void sessionClosed(long slotID, // CHECKSTYLE:SKIP
+      long sessionHandle) {
+    if (recording) {
+      JfrEvents.sessionClosed(slotID, sessionHandle);
+    }
+  }
+
+  static void login(long slotID, long sessionHandle, // CHECKSTYLE:SKIP
+      long userType, long errorCode) {
+    if (recording) {
+      JfrEvents.login(slotID, sessionHandle, userType, errorCode);
+    }
+  }
+
+}
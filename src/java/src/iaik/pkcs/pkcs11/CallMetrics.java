@@ -0,0 +1,249 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and error counts of the calls to the PKCS#11 module, keyed by
+ * the PKCS#11 function, the mechanism and the slot.
+ * <pre><code>
+ *   CallMetrics metrics = new CallMetrics();
+ *   module.setCallMetrics(metrics);
+ *   ...
+ *   metrics.export(sink);
+ * </code></pre>
+ * Recording is lock-free and does not allocate once the histogram of a key
+ * exists.
+ * <p>
+ * The calls are measured by the backend which {@link Module} puts in front
+ * of the PKCS#11 module, which also emits the Flight Recorder event of each
+ * call. As long as no module has metrics and no Flight Recorder recording is
+ * running, a call costs a single branch on a volatile flag and is not timed.
+ * Functions which the JDK's PKCS#11 wrapper does not provide, e.g.
+ * C_InitPIN, C_SetPIN, C_GetObjectSize, the dual-function updates,
+ * C_GetFunctionStatus and C_CancelFunction, cannot be called and therefore
+ * do not appear. C_WaitForSlotEvent is not measured, since it mostly waits
+ * for the user.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class CallMetrics {
+
+  /**
+   * The mechanism of functions which are not related to a mechanism.
+   */
+  public static final long NO_MECHANISM = -1L;
+
+  /**
+   * The slot of functions which are not related to a slot, e.g. C_GetInfo.
+   */
+  public static final long NO_SLOT = -1L;
+
+  private static final class Key {
+
+    private String function;
+
+    private long mechanism;
+
+    // CHECKSTYLE:SKIP
+    private long slotID;
+
+    private long errorCode;
+
+    private Key set(String function, long mechanism, // CHECKSTYLE:SKIP
+        long slotID, long errorCode) {
+      this.function = function;
+      this.mechanism = mechanism;
+      this.slotID = slotID;
+      this.errorCode = errorCode;
+      return this;
+    }
+
+    private Key copy() {
+      return new Key().set(function, mechanism, slotID, errorCode);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = function.hashCode();
+      hash = 31 * hash + Long.hashCode(mechanism);
+      hash = 31 * hash + Long.hashCode(slotID);
+      return 31 * hash + Long.hashCode(errorCode);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return mechanism == other.mechanism && slotID == other.slotID
+          && errorCode == other.errorCode && function.equals(other.function);
+    }
+
+  }
+
+  /**
+   * Per thread key used to look up the histograms without allocation.
+   */
+  private static final ThreadLocal<Key> PROBE = new ThreadLocal<Key>() {
+    @Override
+    protected Key initialValue() {
+      return new Key();
+    }
+  };
+
+  private final ConcurrentHashMap<Key, LatencyHistogram> latencies =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<Key, AtomicLong> errors =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Records the latency of a call.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link #NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @param nanos
+   *          The latency in nanoseconds.
+   */
+  public void record(String function, long mechanism,
+      long slotID, long nanos) { // CHECKSTYLE:SKIP
+    Key probe = PROBE.get().set(function, mechanism, slotID, 0);
+    LatencyHistogram histogram = latencies.get(probe);
+    if (histogram == null) {
+      histogram = new LatencyHistogram();
+      LatencyHistogram existing = latencies.putIfAbsent(probe.copy(),
+          histogram);
+      if (existing != null) {
+        histogram = existing;
+      }
+    }
+    histogram.record(nanos);
+  }
+
+  /**
+   * Counts a failed call.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link #NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @param errorCode
+   *          The error code returned by the PKCS#11 module.
+   */
+  public void recordError(String function, long mechanism,
+      long slotID, long errorCode) { // CHECKSTYLE:SKIP
+    Key probe = PROBE.get().set(function, mechanism, slotID, errorCode);
+    AtomicLong counter = errors.get(probe);
+    if (counter == null) {
+      counter = new AtomicLong();
+      AtomicLong existing = errors.putIfAbsent(probe.copy(), counter);
+      if (existing != null) {
+        counter = existing;
+      }
+    }
+    counter.incrementAndGet();
+  }
+
+  /**
+   * Gets the latencies of the given function.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link #NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @return the histogram, or null if no call has been recorded.
+   */
+  public LatencyHistogram getLatencies(String function, long mechanism,
+      long slotID) { // CHECKSTYLE:SKIP
+    return latencies.get(new Key().set(function, mechanism, slotID, 0));
+  }
+
+  /**
+   * Gets the number of calls of the given function which failed with the
+   * given error code.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link #NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @param errorCode
+   *          The error code.
+   * @return the number of failed calls.
+   */
+  public long getErrorCount(String function, long mechanism,
+      long slotID, long errorCode) { // CHECKSTYLE:SKIP
+    AtomicLong counter = errors.get(
+        new Key().set(function, mechanism, slotID, errorCode));
+    return (counter == null) ? 0 : counter.get();
+  }
+
+  /**
+   * Exports the snapshots of all latencies and the error counts.
+   *
+   * @param sink
+   *          The sink.
+   */
+  public void export(MetricsSink sink) {
+    Util.requireNonNull("sink", sink);
+    for (Map.Entry<Key, LatencyHistogram> entry : latencies.entrySet()) {
+      Key key = entry.getKey();
+      sink.latency(key.function, key.mechanism, key.slotID,
+          entry.getValue().snapshot());
+    }
+
+    for (Map.Entry<Key, AtomicLong> entry : errors.entrySet()) {
+      Key key = entry.getKey();
+      sink.errors(key.function, key.mechanism, key.slotID, key.errorCode,
+          entry.getValue().get());
+    }
+  }
+
+  /**
+   * Removes all recorded latencies and error counts.
+   */
+  public void reset() {
+    latencies.clear();
+    errors.clear();
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("CallMetrics: functions: ", latencies.size(),
+        ", error codes: ", errors.size());
+  }
+
+}
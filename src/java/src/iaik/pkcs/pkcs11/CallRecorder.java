@@ -0,0 +1,413 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the calls to the PKCS#11 module to a compact binary file, to be
+ * re-issued by {@link CallReplayer} against another token:
+ * <pre><code>
+ *   CallRecorder recorder = new CallRecorder(new File("calls.p11rec"));
+ *   module.setCallRecorder(recorder);
+ *   ... // open sessions and run the workload
+ *   module.setCallRecorder(null);
+ *   recorder.close();
+ * </code></pre>
+ * For each call the function, the recording thread, the session handle,
+ * the mechanism, the sizes of the input and the output, the start time,
+ * the duration and the error code are recorded. No data, keys, PINs or
+ * attribute values are written.
+ * <p>
+ * Each thread encodes its calls into its own buffer, and a full buffer is
+ * queued for a single writer thread. Hence recording a call takes no lock
+ * shared with other threads and never writes to the stream. The calls of
+ * different threads are not written in the order they returned;
+ * {@link CallRecording} restores that order.
+ * <p>
+ * The file starts with the header (magic, version, start time in
+ * milliseconds since the epoch), followed by records tagged with one byte:
+ * a function definition (function index, name), written before the first
+ * call of a function, or a call. The numbers of a call are written as
+ * unsigned variable-length integers with 7 bits per byte, so that a call
+ * needs about 15 bytes. A failing stream, or a writer which falls behind
+ * by more than 16 MiB, stops the recording, see {@link #getError()}; it
+ * never fails the PKCS#11 call.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class CallRecorder implements Closeable {
+
+  static final int MAGIC = 0x50313152; // P11R
+
+  static final int VERSION = 1;
+
+  static final int TAG_FUNCTION = 1;
+
+  static final int TAG_CALL = 2;
+
+  /**
+   * Size from which the buffer of a thread is handed to the writer.
+   */
+  private static final int CHUNK_SIZE = 8 * 1024;
+
+  /**
+   * Upper bound of the size of a call record.
+   */
+  private static final int MAX_CALL_SIZE = 2 + 10 * 9;
+
+  private static final long MAX_QUEUED_BYTES = 16L * 1024 * 1024;
+
+  private static final int MAX_FUNCTIONS = 0x100;
+
+  /**
+   * The calls of one thread which have not yet been handed to the writer.
+   * Only locked by its thread and by {@link #flush()} and {@link #close()},
+   * hence uncontended.
+   */
+  private static final class ThreadBuffer {
+
+    private final int thread;
+
+    private final byte[] bytes = new byte[CHUNK_SIZE + MAX_CALL_SIZE];
+
+    private int length;
+
+    private ThreadBuffer(int thread) {
+      this.thread = thread;
+    }
+
+    private void writeByte(int value) {
+      bytes[length++] = (byte) value;
+    }
+
+    private void writeVarLong(long value) {
+      long v = value;
+      while ((v & ~0x7FL) != 0) {
+        bytes[length++] = (byte) ((v & 0x7F) | 0x80);
+        v >>>= 7;
+      }
+      bytes[length++] = (byte) v;
+    }
+
+  }
+
+  private final DataOutputStream out;
+
+  private final long startNanos;
+
+  private final ConcurrentHashMap<String, Integer> functionIndexes =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The functions by their index, written before the volatile
+   * {@link #functionCount} is incremented.
+   */
+  private final String[] functionNames = new String[MAX_FUNCTIONS];
+
+  private volatile int functionCount;
+
+  /**
+   * The number of functions already written, only accessed with the lock of
+   * {@link #out}.
+   */
+  private int writtenFunctions;
+
+  private final AtomicInteger nextThreadIndex = new AtomicInteger();
+
+  private final ConcurrentLinkedQueue<ThreadBuffer> threadBuffers =
+      new ConcurrentLinkedQueue<>();
+
+  /**
+   * Buffer of the recording thread. The thread index is assigned in the
+   * order of the first call of the threads.
+   */
+  private final ThreadLocal<ThreadBuffer> threadBuffer =
+      new ThreadLocal<ThreadBuffer>() {
+        @Override
+        protected ThreadBuffer initialValue() {
+          ThreadBuffer buffer =
+              new ThreadBuffer(nextThreadIndex.getAndIncrement());
+          threadBuffers.add(buffer);
+          return buffer;
+        }
+      };
+
+  /**
+   * The encoded calls handed to the writer.
+   */
+  private final ConcurrentLinkedQueue<byte[]> chunks =
+      new ConcurrentLinkedQueue<>();
+
+  private final AtomicLong queuedBytes = new AtomicLong();
+
+  private final LongAdder callCount = new LongAdder();
+
+  private final Thread writer;
+
+  private volatile IOException error;
+
+  private volatile boolean closed;
+
+  /**
+   * Creates a recorder which writes to the given file.
+   *
+   * @param file
+   *          The file. An existing file is overwritten.
+   * @throws IOException
+   *           If the file cannot be written.
+   */
+  public CallRecorder(File file) throws IOException {
+    this(new FileOutputStream(Util.requireNonNull("file", file)));
+  }
+
+  /**
+   * Creates a recorder which writes to the given stream. The stream is
+   * closed by {@link #close()}.
+   *
+   * @param out
+   *          The stream.
+   * @throws IOException
+   *           If the header cannot be written.
+   */
+  public CallRecorder(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(
+        Util.requireNonNull("out", out), 64 * 1024));
+    this.startNanos = System.nanoTime();
+    this.out.writeInt(MAGIC);
+    this.out.writeShort(VERSION);
+    this.out.writeLong(System.currentTimeMillis());
+
+    this.writer = new Thread("pkcs11-call-recorder") {
+      @Override
+      public void run() {
+        while (!closed) {
+          LockSupport.park(this);
+          writeChunks();
+        }
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Records a call.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param sessionHandle
+   *          The session handle, or 0.
+   * @param mechanism
+   *          The mechanism code, or {@link CallMetrics#NO_MECHANISM}.
+   * @param argument
+   *          A non-secret argument of the function, see
+   *          {@link CallRecording.Call#getArgument()}.
+   * @param bytesIn
+   *          The number of bytes passed to the module.
+   * @param bytesOut
+   *          The number of bytes returned by the module.
+   * @param callStartNanos
+   *          The value of System.nanoTime() when the call started.
+   * @param durationNanos
+   *          The duration of the call in nanoseconds.
+   * @param errorCode
+   *          The error code, or CKR_OK.
+   */
+  void record(String function, long sessionHandle, long mechanism,
+      long argument, long bytesIn, long bytesOut, long callStartNanos,
+      long durationNanos, long errorCode) {
+    if (closed || error != null) {
+      return;
+    }
+
+    Integer index = functionIndexes.get(function);
+    if (index == null) {
+      index = addFunction(function);
+      if (index == null) {
+        return;
+      }
+    }
+
+    ThreadBuffer buffer = threadBuffer.get();
+    synchronized (buffer) {
+      buffer.writeByte(TAG_CALL);
+      buffer.writeByte(index);
+      buffer.writeVarLong(buffer.thread);
+      buffer.writeVarLong(sessionHandle);
+      buffer.writeVarLong(mechanism + 1);
+      buffer.writeVarLong(argument);
+      buffer.writeVarLong(bytesIn);
+      buffer.writeVarLong(bytesOut);
+      buffer.writeVarLong(Math.max(0, callStartNanos - startNanos));
+      buffer.writeVarLong(durationNanos);
+      buffer.writeVarLong(errorCode);
+      if (buffer.length >= CHUNK_SIZE) {
+        handOver(buffer);
+        LockSupport.unpark(writer);
+      }
+    }
+    callCount.increment();
+  }
+
+  /**
+   * Returns the number of recorded calls.
+   *
+   * @return the number of recorded calls.
+   */
+  public long getCallCount() {
+    return callCount.sum();
+  }
+
+  /**
+   * Returns the exception which stopped the recording.
+   *
+   * @return the exception, or null if all calls have been written.
+   */
+  public IOException getError() {
+    return error;
+  }
+
+  /**
+   * Writes the buffered calls of all threads to the stream.
+   *
+   * @throws IOException
+   *           If the calls cannot be written.
+   */
+  public void flush() throws IOException {
+    handOverAll();
+    synchronized (out) {
+      writeChunks();
+      if (!closed) {
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Stops the recording and closes the stream. Calls recorded afterwards
+   * are ignored.
+   *
+   * @throws IOException
+   *           If the stream cannot be closed.
+   */
+  @Override
+  public void close() throws IOException {
+    synchronized (out) {
+      if (closed) {
+        return;
+      }
+
+      handOverAll();
+      writeChunks();
+      closed = true;
+      LockSupport.unpark(writer);
+      out.close();
+    }
+  }
+
+  private Integer addFunction(String function) {
+    synchronized (functionIndexes) {
+      Integer index = functionIndexes.get(function);
+      if (index == null) {
+        int count = functionCount;
+        if (count == MAX_FUNCTIONS) {
+          error = new IOException("too many functions");
+          return null;
+        }
+
+        functionNames[count] = function;
+        index = count;
+        functionIndexes.put(function, index);
+        functionCount = count + 1;
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Queues the calls of the given buffer for the writer. Must be called
+   * with the lock of the buffer.
+   */
+  private void handOver(ThreadBuffer buffer) {
+    if (buffer.length == 0) {
+      return;
+    }
+
+    byte[] chunk = Arrays.copyOf(buffer.bytes, buffer.length);
+    buffer.length = 0;
+    if (queuedBytes.addAndGet(chunk.length) > MAX_QUEUED_BYTES) {
+      if (error == null) {
+        error = new IOException("the recording falls behind the calls");
+      }
+      return;
+    }
+    chunks.add(chunk);
+  }
+
+  private void handOverAll() {
+    for (ThreadBuffer buffer : threadBuffers) {
+      synchronized (buffer) {
+        handOver(buffer);
+      }
+    }
+  }
+
+  /**
+   * Writes the queued calls, in the order they were queued, and the
+   * definitions of the functions they use.
+   */
+  private void writeChunks() {
+    synchronized (out) {
+      byte[] chunk;
+      while ((chunk = chunks.poll()) != null) {
+        queuedBytes.addAndGet(-chunk.length);
+        if (closed || error != null) {
+          continue;
+        }
+
+        try {
+          int count = functionCount;
+          for (; writtenFunctions < count; writtenFunctions++) {
+            out.writeByte(TAG_FUNCTION);
+            out.writeByte(writtenFunctions);
+            out.writeUTF(functionNames[writtenFunctions]);
+          }
+          out.write(chunk);
+        } catch (IOException ex) {
+          error = ex;
+        }
+      }
+    }
+  }
+
+}
@@ -0,0 +1,402 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The calls read from a file written by {@link CallRecorder}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class CallRecording {
+
+  /**
+   * A recorded call.
+   */
+  public static final class Call {
+
+    private final String function;
+
+    private final int thread;
+
+    private final long sessionHandle;
+
+    private final long mechanism;
+
+    private final long argument;
+
+    private final long bytesIn;
+
+    private final long bytesOut;
+
+    private final long startNanos;
+
+    private final long durationNanos;
+
+    private final long errorCode;
+
+    private Call(String function, int thread, long sessionHandle,
+        long mechanism, long argument, long bytesIn, long bytesOut,
+        long startNanos, long durationNanos, long errorCode) {
+      this.function = function;
+      this.thread = thread;
+      this.sessionHandle = sessionHandle;
+      this.mechanism = mechanism;
+      this.argument = argument;
+      this.bytesIn = bytesIn;
+      this.bytesOut = bytesOut;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.errorCode = errorCode;
+    }
+
+    /**
+     * Returns the PKCS#11 function.
+     *
+     * @return the PKCS#11 function, e.g. C_Sign.
+     */
+    public String getFunction() {
+      return function;
+    }
+
+    /**
+     * Returns the index of the thread which made the call, counted from 0
+     * in the order of the first call of each thread.
+     *
+     * @return the index of the thread.
+     */
+    public int getThread() {
+      return thread;
+    }
+
+    /**
+     * Returns the session handle.
+     *
+     * @return the session handle, or 0 for functions without session.
+     */
+    public long getSessionHandle() {
+      return sessionHandle;
+    }
+
+    /**
+     * Returns the mechanism passed to the function or, for the data
+     * functions, e.g. C_Sign, to the init function of the operation.
+     *
+     * @return the mechanism code, or {@link CallMetrics#NO_MECHANISM}.
+     */
+    public long getMechanism() {
+      return mechanism;
+    }
+
+    /**
+     * Returns the non-secret argument of the function: the flags of
+     * C_OpenSession, the user type of C_Login, 1 if C_GetSlotList lists only
+     * slots with a token, the slot of the slot and token functions, the
+     * maximal object count of C_FindObjects, the signature length of
+     * C_Verify and C_VerifyFinal, and the length of the byte array
+     * parameter of the mechanism, e.g. the IV, of the init functions. 0 for
+     * other functions.
+     *
+     * @return the argument.
+     */
+    public long getArgument() {
+      return argument;
+    }
+
+    /**
+     * Returns the length of the input: the data in bytes, or the number of
+     * attributes of a template.
+     *
+     * @return the length of the input.
+     */
+    public long getBytesIn() {
+      return bytesIn;
+    }
+
+    /**
+     * Returns the length of the output: the data in bytes, or the number of
+     * handles returned by C_FindObjects, C_GetSlotList and
+     * C_GetMechanismList.
+     *
+     * @return the length of the output.
+     */
+    public long getBytesOut() {
+      return bytesOut;
+    }
+
+    /**
+     * Returns the start of the call.
+     *
+     * @return the start in nanoseconds after the start of the recording.
+     */
+    public long getStartNanos() {
+      return startNanos;
+    }
+
+    /**
+     * Returns the duration of the call.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long getDurationNanos() {
+      return durationNanos;
+    }
+
+    /**
+     * Returns the error code of the call.
+     *
+     * @return the error code, CKR_OK if the call succeeded.
+     */
+    public long getErrorCode() {
+      return errorCode;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(100);
+      sb.append(startNanos).append(" T").append(thread).append(' ')
+        .append(function);
+      if (sessionHandle != 0) {
+        sb.append(" session=").append(sessionHandle);
+      }
+      if (mechanism != CallMetrics.NO_MECHANISM) {
+        sb.append(' ').append(Functions.mechanismCodeToString(mechanism));
+      }
+      sb.append(" in=").append(bytesIn).append(" out=").append(bytesOut)
+        .append(' ').append(durationNanos).append("ns");
+      if (errorCode != 0) {
+        sb.append(' ').append(Functions.errorCodeToString(errorCode));
+      }
+      return sb.toString();
+    }
+
+  }
+
+  private final long startTimeMillis;
+
+  private final List<Call> calls;
+
+  private final int threadCount;
+
+  /**
+   * Orders the calls by the time they returned. The recorder writes the
+   * calls of each thread in blocks, and the sort is stable, so the calls of
+   * a thread keep their order.
+   */
+  private static final Comparator<Call> RETURN_ORDER =
+      new Comparator<Call>() {
+        @Override
+        public int compare(Call a, Call b) {
+          return Long.compare(a.startNanos + a.durationNanos,
+              b.startNanos + b.durationNanos);
+        }
+      };
+
+  private CallRecording(long startTimeMillis, List<Call> calls) {
+    this.startTimeMillis = startTimeMillis;
+    Collections.sort(calls, RETURN_ORDER);
+    this.calls = Collections.unmodifiableList(calls);
+    int maxThread = -1;
+    for (Call call : calls) {
+      maxThread = Math.max(maxThread, call.thread);
+    }
+    this.threadCount = maxThread + 1;
+  }
+
+  /**
+   * Reads a recording from a file.
+   *
+   * @param file
+   *          The file written by {@link CallRecorder}.
+   * @return the recording.
+   * @throws IOException
+   *           If the file cannot be read or is not a recording.
+   */
+  public static CallRecording read(File file) throws IOException {
+    try (InputStream in = new FileInputStream(
+        Util.requireNonNull("file", file))) {
+      return read(in);
+    }
+  }
+
+  /**
+   * Reads a recording from a stream. A recording truncated within a call,
+   * e.g. since the recording process has been killed, is read up to the
+   * last complete call.
+   *
+   * @param in
+   *          The stream, not closed by this method.
+   * @return the recording.
+   * @throws IOException
+   *           If the stream cannot be read or is not a recording.
+   */
+  public static CallRecording read(InputStream in) throws IOException {
+    DataInputStream din = new DataInputStream(
+        new BufferedInputStream(Util.requireNonNull("in", in), 64 * 1024));
+    if (din.readInt() != CallRecorder.MAGIC) {
+      throw new IOException("not a PKCS#11 call recording");
+    }
+
+    int version = din.readUnsignedShort();
+    if (version != CallRecorder.VERSION) {
+      throw new IOException("unsupported recording version " + version);
+    }
+
+    long startTimeMillis = din.readLong();
+    Map<Integer, String> functions = new HashMap<>();
+    List<Call> calls = new ArrayList<>();
+    while (true) {
+      int tag = din.read();
+      if (tag == -1) {
+        break;
+      }
+
+      try {
+        if (tag == CallRecorder.TAG_FUNCTION) {
+          int index = din.readUnsignedByte();
+          functions.put(index, din.readUTF());
+        } else if (tag == CallRecorder.TAG_CALL) {
+          String function = functions.get(din.readUnsignedByte());
+          if (function == null) {
+            throw new IOException("undefined function in recording");
+          }
+
+          int thread = (int) readVarLong(din);
+          long sessionHandle = readVarLong(din);
+          long mechanism = readVarLong(din) - 1;
+          long argument = readVarLong(din);
+          long bytesIn = readVarLong(din);
+          long bytesOut = readVarLong(din);
+          long startNanos = readVarLong(din);
+          long durationNanos = readVarLong(din);
+          long errorCode = readVarLong(din);
+          calls.add(new Call(function, thread, sessionHandle, mechanism,
+              argument, bytesIn, bytesOut, startNanos, durationNanos,
+              errorCode));
+        } else {
+          throw new IOException("invalid tag " + tag + " in recording");
+        }
+      } catch (EOFException ex) {
+        break;
+      }
+    }
+
+    return new CallRecording(startTimeMillis, calls);
+  }
+
+  /**
+   * Returns the start of the recording.
+   *
+   * @return the start in milliseconds since the epoch.
+   */
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  /**
+   * Returns the recorded calls, in the order in which they returned.
+   *
+   * @return the recorded calls.
+   */
+  public List<Call> getCalls() {
+    return calls;
+  }
+
+  /**
+   * Returns the number of threads which made the recorded calls.
+   *
+   * @return the number of threads.
+   */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Returns the calls of each thread, in the order they were made.
+   *
+   * @return the calls, indexed by the thread.
+   */
+  public List<List<Call>> getCallsByThread() {
+    List<List<Call>> threads = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      threads.add(new ArrayList<Call>());
+    }
+    for (Call call : calls) {
+      threads.get(call.thread).add(call);
+    }
+    return threads;
+  }
+
+  /**
+   * Returns the recorded latencies of the successful calls.
+   *
+   * @return the histograms of the latencies, keyed by the function.
+   */
+  public Map<String, LatencyHistogram> getLatencies() {
+    Map<String, LatencyHistogram> latencies = new TreeMap<>();
+    for (Call call : calls) {
+      if (call.errorCode != 0) {
+        continue;
+      }
+
+      LatencyHistogram histogram = latencies.get(call.function);
+      if (histogram == null) {
+        histogram = new LatencyHistogram();
+        latencies.put(call.function, histogram);
+      }
+      histogram.record(call.durationNanos);
+    }
+    return latencies;
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("CallRecording: calls: ", calls.size(),
+        ", threads: ", threadCount);
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed number in recording");
+  }
+
+}
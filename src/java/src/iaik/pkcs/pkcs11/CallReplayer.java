@@ -0,0 +1,1041 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.objects.ECPrivateKey;
+import iaik.pkcs.pkcs11.objects.ECPublicKey;
+import iaik.pkcs.pkcs11.objects.GenericTemplate;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.KeyPair;
+import iaik.pkcs.pkcs11.objects.CharArrayAttribute;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.RSAPrivateKey;
+import iaik.pkcs.pkcs11.objects.RSAPublicKey;
+import iaik.pkcs.pkcs11.objects.SecretKey;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsOaepParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a {@link CallRecording}, e.g. a workload recorded in production,
+ * against another token such as SoftHSM. Each recorded thread is replayed
+ * by one thread, which makes its calls at the recorded offsets from the
+ * start of the recording, independent of how long the previous calls took.
+ * So the replay has the recorded concurrency and inter-arrival times. The
+ * calls are made via {@link Session}, {@link Token} and {@link Module}, so
+ * that the time spent in the wrapper is included.
+ * <p>
+ * A recording contains neither keys nor data. The replay generates session
+ * keys for the recorded mechanisms: RSA 2048, EC P-256, AES-256 and 32
+ * byte generic secret keys, and uses zero bytes of the recorded lengths as
+ * data. Calls which depend on objects of the recorded application, namely
+ * C_CreateObject, C_CopyObject, C_DestroyObject, C_SetAttributeValue,
+ * C_WrapKey, C_UnwrapKey, C_DeriveKey, the operation state and the recover
+ * functions, as well as C_Logout, C_Finalize and C_WaitForSlotEvent, are
+ * skipped.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class CallReplayer {
+
+  /**
+   * The result of a replay.
+   */
+  public static final class Result {
+
+    private final long replayedCount;
+
+    private final long failedCount;
+
+    private final Map<String, Long> failedCalls;
+
+    private final Map<String, Long> skippedCalls;
+
+    private final Map<String, LatencyHistogram> latencies;
+
+    private final LatencyHistogram scheduleLag;
+
+    private final long elapsedNanos;
+
+    private Result(long replayedCount, Map<String, Long> failedCalls,
+        Map<String, Long> skippedCalls,
+        Map<String, LatencyHistogram> latencies,
+        LatencyHistogram scheduleLag, long elapsedNanos) {
+      this.replayedCount = replayedCount;
+      long failedCount = 0;
+      for (Long count : failedCalls.values()) {
+        failedCount += count;
+      }
+      this.failedCount = failedCount;
+      this.failedCalls = Collections.unmodifiableMap(failedCalls);
+      this.skippedCalls = Collections.unmodifiableMap(skippedCalls);
+      this.latencies = Collections.unmodifiableMap(latencies);
+      this.scheduleLag = scheduleLag;
+      this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of replayed calls, including the calls which
+     * failed with the recorded error.
+     *
+     * @return the number of replayed calls.
+     */
+    public long getReplayedCount() {
+      return replayedCount;
+    }
+
+    /**
+     * Returns the number of calls whose result differs from the recorded
+     * one, e.g. since the token does not support a mechanism.
+     *
+     * @return the number of failed calls.
+     */
+    public long getFailedCount() {
+      return failedCount;
+    }
+
+    /**
+     * Returns the number of failed calls per function.
+     *
+     * @return the number of failed calls, keyed by the function.
+     */
+    public Map<String, Long> getFailedCalls() {
+      return failedCalls;
+    }
+
+    /**
+     * Returns the number of skipped calls.
+     *
+     * @return the number of skipped calls, keyed by the function.
+     */
+    public Map<String, Long> getSkippedCalls() {
+      return skippedCalls;
+    }
+
+    /**
+     * Returns the latencies of the successfully replayed calls. They can
+     * be compared with {@link CallRecording#getLatencies()}.
+     *
+     * @return the histograms of the latencies, keyed by the function.
+     */
+    public Map<String, LatencyHistogram> getLatencies() {
+      return latencies;
+    }
+
+    /**
+     * Returns how late the calls have been made compared to the recorded
+     * schedule. A high lag means that the token, or the replaying host,
+     * could not keep up with the recorded workload.
+     *
+     * @return the histogram of the delays.
+     */
+    public LatencyHistogram getScheduleLag() {
+      return scheduleLag;
+    }
+
+    /**
+     * Returns the duration of the replay.
+     *
+     * @return the duration in nanoseconds.
+     */
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * Compares the replayed latencies with the recorded ones.
+     *
+     * @param recording
+     *          The replayed recording.
+     * @return a table of the count, p50 and p99 of the recorded and the
+     *         replayed calls of each function, in microseconds.
+     */
+    public String compare(CallRecording recording) {
+      Map<String, LatencyHistogram> recorded = recording.getLatencies();
+      StringBuilder sb = new StringBuilder(100 * (recorded.size() + 1));
+      sb.append(String.format("%-22s %9s %9s %9s | %9s %9s %9s%n",
+          "function", "count", "p50", "p99", "count", "p50", "p99"));
+      for (Map.Entry<String, LatencyHistogram> entry
+          : recorded.entrySet()) {
+        LatencyHistogram.Snapshot before = entry.getValue().snapshot();
+        LatencyHistogram replayed = latencies.get(entry.getKey());
+        LatencyHistogram.Snapshot after = (replayed == null)
+            ? new LatencyHistogram().snapshot() : replayed.snapshot();
+        sb.append(String.format("%-22s %9d %9d %9d | %9d %9d %9d%n",
+            entry.getKey(),
+            before.getCount(), before.getValueAtPercentile(50) / 1000,
+            before.getValueAtPercentile(99) / 1000,
+            after.getCount(), after.getValueAtPercentile(50) / 1000,
+            after.getValueAtPercentile(99) / 1000));
+      }
+      return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+      return Util.concatObjects("Result: replayed: ", replayedCount,
+          ", failed: ", failedCalls, ", skipped: ", skippedCalls,
+          ", elapsed: ", elapsedNanos / 1000000, "ms, schedule lag: ",
+          scheduleLag.snapshot());
+    }
+
+  }
+
+  /**
+   * Replays the calls of one recorded session.
+   */
+  private static final class ReplaySession {
+
+    private final Session session;
+
+    /**
+     * The parameter length of the last C_DecryptInit, for C_Decrypt.
+     */
+    private long decryptParameterLength;
+
+    ReplaySession(Session session) {
+      this.session = session;
+    }
+
+  }
+
+  private static final int KEY_NONE = -1;
+
+  private static final int KEY_RSA = 0;
+
+  private static final int KEY_EC = 1;
+
+  private static final int KEY_AES = 2;
+
+  private static final int KEY_GENERIC = 3;
+
+  /**
+   * The value of {@link #execute} for skipped calls.
+   */
+  private static final long SKIPPED = -1;
+
+  // OID: 1.2.840.10045.3.1.7 (secp256r1, alias NIST P-256)
+  private static final byte[] EC_P256_PARAMS = {0x06, 0x08, 0x2a,
+      (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07};
+
+  /**
+   * The attributes of the AES key read by C_GetAttributeValue, the number
+   * of attributes is the recorded one.
+   */
+  private static final long[] READABLE_ATTRIBUTES = {
+    PKCS11Constants.CKA_CLASS, PKCS11Constants.CKA_KEY_TYPE,
+    PKCS11Constants.CKA_LABEL, PKCS11Constants.CKA_TOKEN,
+    PKCS11Constants.CKA_PRIVATE, PKCS11Constants.CKA_SENSITIVE,
+    PKCS11Constants.CKA_EXTRACTABLE, PKCS11Constants.CKA_ENCRYPT,
+    PKCS11Constants.CKA_DECRYPT, PKCS11Constants.CKA_SIGN,
+    PKCS11Constants.CKA_VERIFY, PKCS11Constants.CKA_VALUE_LEN};
+
+  private final Token token;
+
+  private final char[] pin;
+
+  private double speed = 1.0;
+
+  /**
+   * The session which owns the replay keys, open during the replay.
+   */
+  private Session setupSession;
+
+  private Key[] privateKeys;
+
+  private Key[] publicKeys;
+
+  private char[] aesKeyLabel;
+
+  private Map<CallRecording.Call, byte[]> inputs;
+
+  private Map<Long, byte[]> zeros;
+
+  private ConcurrentHashMap<Long, ReplaySession> sessions;
+
+  private Map<String, LatencyHistogram> latencies;
+
+  private Map<String, AtomicLong> failed;
+
+  private Map<String, AtomicLong> skipped;
+
+  private AtomicLong replayedCount;
+
+  private LatencyHistogram scheduleLag;
+
+  /**
+   * Constructor.
+   *
+   * @param token
+   *          The token to replay the calls against.
+   * @param pin
+   *          The PIN of the user, may be null if the token requires no
+   *          login.
+   */
+  public CallReplayer(Token token, char[] pin) {
+    this.token = Util.requireNonNull("token", token);
+    this.pin = (pin == null) ? null : pin.clone();
+  }
+
+  /**
+   * Sets the speed of the replay relative to the recording, e.g. 2 to
+   * replay the calls with half of the recorded inter-arrival times. The
+   * default is 1.
+   *
+   * @param speed
+   *          The speed, greater than 0.
+   */
+  public void setSpeed(double speed) {
+    if (!(speed > 0)) {
+      throw new IllegalArgumentException("speed must be greater than 0");
+    }
+    this.speed = speed;
+  }
+
+  /**
+   * Replays the recorded calls. This method returns after all calls have
+   * been replayed, the replay keys are destroyed and the replay sessions
+   * are closed on return. A replayer can replay one recording at a time.
+   *
+   * @param recording
+   *          The recording.
+   * @return the result.
+   * @throws TokenException
+   *           If the replay keys cannot be generated.
+   */
+  public synchronized Result replay(CallRecording recording)
+      throws TokenException {
+    Util.requireNonNull("recording", recording);
+    inputs = new IdentityHashMap<>();
+    zeros = new HashMap<>();
+    sessions = new ConcurrentHashMap<>();
+    latencies = new TreeMap<>();
+    failed = new TreeMap<>();
+    skipped = new TreeMap<>();
+    replayedCount = new AtomicLong();
+    scheduleLag = new LatencyHistogram();
+    privateKeys = new Key[4];
+    publicKeys = new Key[4];
+
+    try {
+      setupSession = token.openSession(true, true, null, null);
+      if (pin != null) {
+        login(setupSession, PKCS11Constants.CKU_USER, pin);
+      }
+      prepare(recording);
+      return run(recording);
+    } finally {
+      for (ReplaySession session : sessions.values()) {
+        closeQuietly(session.session);
+      }
+      sessions = null;
+      if (setupSession != null) {
+        // the replay keys are session objects
+        closeQuietly(setupSession);
+        setupSession = null;
+      }
+      inputs = null;
+      zeros = null;
+    }
+  }
+
+  /**
+   * Generates the replay keys and the inputs of C_Decrypt and C_Verify.
+   */
+  private void prepare(CallRecording recording) throws TokenException {
+    boolean[] keyTypes = new boolean[4];
+    Map<Long, Long> decryptParameterLengths = new HashMap<>();
+    for (CallRecording.Call call : recording.getCalls()) {
+      String function = call.getFunction();
+      if (!latencies.containsKey(function)) {
+        latencies.put(function, new LatencyHistogram());
+        failed.put(function, new AtomicLong());
+        skipped.put(function, new AtomicLong());
+      }
+
+      if (call.getMechanism() != CallMetrics.NO_MECHANISM) {
+        int keyType = keyType(call.getMechanism());
+        if (keyType != KEY_NONE) {
+          keyTypes[keyType] = true;
+        }
+      }
+
+      if ("C_FindObjectsInit".equals(function)
+          || "C_GetAttributeValue".equals(function)) {
+        keyTypes[KEY_AES] = true;
+      } else if ("C_DecryptInit".equals(function)) {
+        decryptParameterLengths.put(call.getSessionHandle(),
+            call.getArgument());
+      }
+
+      zeros(call.getBytesIn());
+      zeros(call.getArgument());
+    }
+
+    String label = "replay-" + Long.toHexString(System.nanoTime());
+    for (int keyType = 0; keyType < keyTypes.length; keyType++) {
+      if (!keyTypes[keyType]) {
+        continue;
+      }
+
+      if (keyType == KEY_RSA || keyType == KEY_EC) {
+        KeyPair keyPair = generateKeyPair(setupSession, keyType == KEY_RSA
+            ? PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN
+            : PKCS11Constants.CKM_EC_KEY_PAIR_GEN, label);
+        privateKeys[keyType] = keyPair.getPrivateKey();
+        publicKeys[keyType] = keyPair.getPublicKey();
+      } else {
+        Key key = (Key) generateKey(setupSession, keyType == KEY_AES
+            ? PKCS11Constants.CKM_AES_KEY_GEN
+            : PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN, label);
+        privateKeys[keyType] = key;
+        publicKeys[keyType] = key;
+      }
+    }
+    aesKeyLabel = label.toCharArray();
+
+    // signatures and ciphertexts of the zero data, shared by equal calls
+    Map<String, byte[]> computed = new HashMap<>();
+    for (CallRecording.Call call : recording.getCalls()) {
+      if (call.getErrorCode() != PKCS11Constants.CKR_OK) {
+        continue;
+      }
+
+      String function = call.getFunction();
+      boolean verify = "C_Verify".equals(function);
+      if (!verify && !"C_Decrypt".equals(function)) {
+        continue;
+      }
+
+      long mechanismCode = call.getMechanism();
+      int keyType = keyType(mechanismCode);
+      if (keyType == KEY_NONE) {
+        continue;
+      }
+
+      Long parameterLength = verify ? null
+          : decryptParameterLengths.get(call.getSessionHandle());
+      long parameterLen = (parameterLength == null) ? 0 : parameterLength;
+      long dataLength = verify ? call.getBytesIn() : call.getBytesOut();
+      String id = Util.concatObjects(function, "/", mechanismCode, "/",
+          parameterLen, "/", dataLength);
+      byte[] input = computed.get(id);
+      if (input == null) {
+        try {
+          Mechanism mechanism = mechanism(mechanismCode, parameterLen);
+          byte[] data = zeros(dataLength);
+          if (verify) {
+            setupSession.signInit(mechanism, privateKeys[keyType]);
+            input = setupSession.sign(data);
+          } else {
+            byte[] out = new byte[data.length + 1024];
+            setupSession.encryptInit(mechanism, publicKeys[keyType]);
+            int len = setupSession.encrypt(data, 0, data.length,
+                out, 0, out.length);
+            input = java.util.Arrays.copyOf(out, len);
+          }
+        } catch (TokenException | RuntimeException ex) {
+          // replayed with zero bytes, and counted as failed
+          continue;
+        }
+        computed.put(id, input);
+      }
+      inputs.put(call, input);
+    }
+  }
+
+  private Result run(CallRecording recording) {
+    List<List<CallRecording.Call>> threadCalls =
+        recording.getCallsByThread();
+    long firstCall = Long.MAX_VALUE;
+    int bufferSize = 1024;
+    for (CallRecording.Call call : recording.getCalls()) {
+      firstCall = Math.min(firstCall, call.getStartNanos());
+      bufferSize = (int) Math.max(bufferSize,
+          Math.max(call.getBytesIn(), call.getBytesOut()) + 1024);
+    }
+
+    final long firstCallNanos = firstCall;
+    final int outSize = bufferSize;
+    final long startNanos = System.nanoTime();
+    List<Thread> threads = new ArrayList<>(threadCalls.size());
+    for (int i = 0; i < threadCalls.size(); i++) {
+      final List<CallRecording.Call> calls = threadCalls.get(i);
+      if (calls.isEmpty()) {
+        continue;
+      }
+
+      Thread thread = new Thread("pkcs11-replay-" + i) {
+        @Override
+        public void run() {
+          byte[] out = new byte[outSize];
+          for (CallRecording.Call call : calls) {
+            long scheduled = startNanos
+                + (long) ((call.getStartNanos() - firstCallNanos) / speed);
+            long waitNanos = scheduled - System.nanoTime();
+            if (waitNanos > 0) {
+              LockSupport.parkNanos(waitNanos);
+            }
+            scheduleLag.record(
+                Math.max(0, System.nanoTime() - scheduled));
+            replay(call, out);
+          }
+        }
+      };
+      thread.setDaemon(true);
+      threads.add(thread);
+    }
+
+    for (Thread thread : threads) {
+      thread.start();
+    }
+
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (true) {
+        try {
+          thread.join();
+          break;
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+
+    long elapsedNanos = System.nanoTime() - startNanos;
+    Map<String, LatencyHistogram> replayed = new TreeMap<>();
+    for (Map.Entry<String, LatencyHistogram> entry : latencies.entrySet()) {
+      if (entry.getValue().snapshot().getCount() > 0) {
+        replayed.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return new Result(replayedCount.get(), nonZero(failed),
+        nonZero(skipped), replayed, scheduleLag, elapsedNanos);
+  }
+
+  private static Map<String, Long> nonZero(Map<String, AtomicLong> counts) {
+    Map<String, Long> map = new TreeMap<>();
+    for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+      if (entry.getValue().get() > 0) {
+        map.put(entry.getKey(), entry.getValue().get());
+      }
+    }
+    return map;
+  }
+
+  private void replay(CallRecording.Call call, byte[] out) {
+    long errorCode;
+    long durationNanos = 0;
+    try {
+      ReplaySession session = session(call);
+      if (session == null) {
+        durationNanos = execute(call, null, out);
+      } else {
+        synchronized (session) {
+          durationNanos = execute(call, session, out);
+        }
+      }
+      errorCode = PKCS11Constants.CKR_OK;
+    } catch (PKCS11Exception ex) {
+      errorCode = ex.getErrorCode();
+    } catch (TokenException | RuntimeException ex) {
+      errorCode = -1;
+    }
+
+    String function = call.getFunction();
+    if (durationNanos == SKIPPED) {
+      skipped.get(function).incrementAndGet();
+      return;
+    }
+
+    if (errorCode == PKCS11Constants.CKR_SIGNATURE_INVALID
+        && function.startsWith("C_Verify")
+        && !inputs.containsKey(call)) {
+      // the signature over several parts is not computed
+      errorCode = PKCS11Constants.CKR_OK;
+    }
+
+    if (errorCode == call.getErrorCode()) {
+      replayedCount.incrementAndGet();
+      if (errorCode == PKCS11Constants.CKR_OK) {
+        latencies.get(function).record(durationNanos);
+      }
+    } else {
+      failed.get(function).incrementAndGet();
+    }
+  }
+
+  /**
+   * Returns the session to replay the call of a recorded session, opens
+   * one if the recording has not opened the session.
+   *
+   * @return the session, null for functions without session.
+   */
+  private ReplaySession session(CallRecording.Call call)
+      throws TokenException {
+    long handle = call.getSessionHandle();
+    if (handle == 0 || "C_OpenSession".equals(call.getFunction())) {
+      return null;
+    }
+
+    ReplaySession session = sessions.get(handle);
+    if (session == null) {
+      session = new ReplaySession(token.openSession(true, true, null, null));
+      ReplaySession existing = sessions.putIfAbsent(handle, session);
+      if (existing != null) {
+        closeQuietly(session.session);
+        session = existing;
+      }
+    }
+    return session;
+  }
+
+  /**
+   * Makes the call.
+   *
+   * @return the duration of the call in nanoseconds, or {@link #SKIPPED}.
+   */
+  private long execute(CallRecording.Call call, ReplaySession replaySession,
+      byte[] out) throws TokenException {
+    String function = call.getFunction();
+    long mechanismCode = call.getMechanism();
+    int argument = (int) call.getArgument();
+    int bytesIn = (int) call.getBytesIn();
+    int bytesOut = (int) call.getBytesOut();
+    Session session = (replaySession == null) ? null : replaySession.session;
+    Module module = token.getSlot().getModule();
+
+    Mechanism mechanism = null;
+    Key privateKey = null;
+    Key publicKey = null;
+    if (mechanismCode != CallMetrics.NO_MECHANISM) {
+      int keyType = keyType(mechanismCode);
+      if (keyType != KEY_NONE) {
+        privateKey = privateKeys[keyType];
+        publicKey = publicKeys[keyType];
+      }
+
+      try {
+        mechanism = mechanism(mechanismCode,
+            function.endsWith("Init") ? argument : 0);
+      } catch (RuntimeException ex) {
+        // the parameters are not supported by the JDK
+        return SKIPPED;
+      }
+    }
+
+    boolean needsKey = function.startsWith("C_Sign")
+        || function.startsWith("C_Verify")
+        || function.startsWith("C_Encrypt")
+        || function.startsWith("C_Decrypt");
+    if (needsKey && privateKey == null) {
+      return SKIPPED;
+    }
+
+    byte[] in = zeros(bytesIn);
+    long start = System.nanoTime();
+    switch (function) {
+      case "C_OpenSession":
+        Session newSession = token.openSession(true,
+            (argument & PKCS11Constants.CKF_RW_SESSION) != 0, null, null);
+        start = elapsed(start);
+        ReplaySession previous = sessions.put(call.getSessionHandle(),
+            new ReplaySession(newSession));
+        if (previous != null) {
+          closeQuietly(previous.session);
+        }
+        return start;
+      case "C_CloseSession":
+        sessions.remove(call.getSessionHandle());
+        session.closeSession();
+        break;
+      case "C_GetSessionInfo":
+        session.getSessionInfo();
+        break;
+      case "C_Login":
+        login(session, argument, pin);
+        break;
+      case "C_GetInfo":
+        module.getInfo();
+        break;
+      case "C_GetSlotList":
+        module.getSlotList(argument != 0);
+        break;
+      case "C_GetSlotInfo":
+        token.getSlot().getSlotInfo();
+        break;
+      case "C_GetTokenInfo":
+        token.getTokenInfo();
+        break;
+      case "C_GetMechanismList":
+        token.getMechanismList();
+        break;
+      case "C_GetMechanismInfo":
+        token.getMechanismInfo(mechanism);
+        break;
+      case "C_FindObjectsInit":
+        GenericTemplate template = new GenericTemplate();
+        CharArrayAttribute label =
+            new CharArrayAttribute(PKCS11Constants.CKA_LABEL);
+        label.setCharArrayValue(aesKeyLabel);
+        template.addAttribute(label);
+        start = System.nanoTime();
+        session.findObjectsInit(template);
+        break;
+      case "C_FindObjects":
+        session.findObjectHandles(Math.max(1, argument));
+        break;
+      case "C_FindObjectsFinal":
+        session.findObjectsFinal();
+        break;
+      case "C_GetAttributeValue":
+        CK_ATTRIBUTE[] attributes = new CK_ATTRIBUTE[
+            Math.min(Math.max(1, bytesIn), READABLE_ATTRIBUTES.length)];
+        for (int i = 0; i < attributes.length; i++) {
+          attributes[i] = new CK_ATTRIBUTE(READABLE_ATTRIBUTES[i]);
+        }
+        // reproduce the recorded error of reading an unavailable attribute
+        if (call.getErrorCode()
+            == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
+          attributes[attributes.length - 1] =
+              new CK_ATTRIBUTE(PKCS11Constants.CKA_VALUE);
+        } else if (call.getErrorCode()
+            == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
+          attributes[attributes.length - 1] =
+              new CK_ATTRIBUTE(PKCS11Constants.CKA_MODULUS);
+        }
+        start = System.nanoTime();
+        long rv = session.getAttributeValue(
+            privateKeys[KEY_AES].getObjectHandle(), attributes);
+        if (rv != PKCS11Constants.CKR_OK) {
+          throw new PKCS11Exception(rv);
+        }
+        break;
+      case "C_EncryptInit":
+        session.encryptInit(mechanism, publicKey);
+        break;
+      case "C_Encrypt":
+        session.encrypt(in, 0, bytesIn, out, 0, out.length);
+        break;
+      case "C_EncryptUpdate":
+        session.encryptUpdate(in, 0, bytesIn, out, 0, out.length);
+        break;
+      case "C_EncryptFinal":
+        session.encryptFinal(out, 0, out.length);
+        break;
+      case "C_DecryptInit":
+        replaySession.decryptParameterLength = argument;
+        session.decryptInit(mechanism, privateKey);
+        break;
+      case "C_Decrypt":
+        byte[] ciphertext = inputs.get(call);
+        if (ciphertext == null) {
+          ciphertext = in;
+        }
+        start = System.nanoTime();
+        session.decrypt(ciphertext, 0, ciphertext.length, out, 0, out.length);
+        break;
+      case "C_DecryptUpdate":
+        session.decryptUpdate(in, 0, bytesIn, out, 0, out.length);
+        break;
+      case "C_DecryptFinal":
+        session.decryptFinal(out, 0, out.length);
+        break;
+      case "C_DigestInit":
+        session.digestInit(mechanism);
+        break;
+      case "C_Digest":
+        session.digest(in, 0, bytesIn, out, 0, out.length);
+        break;
+      case "C_DigestUpdate":
+        session.digestUpdate(in, 0, bytesIn);
+        break;
+      case "C_DigestKey":
+        if (privateKeys[KEY_AES] == null) {
+          return SKIPPED;
+        }
+        session.digestKey((SecretKey) privateKeys[KEY_AES]);
+        break;
+      case "C_DigestFinal":
+        session.digestFinal(out, 0, out.length);
+        break;
+      case "C_SignInit":
+        session.signInit(mechanism, privateKey);
+        break;
+      case "C_Sign":
+        session.sign(in);
+        break;
+      case "C_SignUpdate":
+        session.signUpdate(in, 0, bytesIn);
+        break;
+      case "C_SignFinal":
+        session.signFinal(Math.max(bytesOut, 1));
+        break;
+      case "C_VerifyInit":
+        session.verifyInit(mechanism, publicKey);
+        break;
+      case "C_Verify":
+        byte[] signature = inputs.get(call);
+        if (signature == null) {
+          signature = zeros(argument);
+        }
+        start = System.nanoTime();
+        session.verify(in, signature);
+        break;
+      case "C_VerifyUpdate":
+        session.verifyUpdate(in, 0, bytesIn);
+        break;
+      case "C_VerifyFinal":
+        session.verifyFinal(zeros(argument));
+        break;
+      case "C_GenerateKey":
+        PKCS11Object key = generateKey(session, mechanismCode, null);
+        if (key == null) {
+          return SKIPPED;
+        }
+        start = elapsed(start);
+        setupSession.destroyObject(key);
+        return start;
+      case "C_GenerateKeyPair":
+        KeyPair keyPair = generateKeyPair(session, mechanismCode, null);
+        if (keyPair == null) {
+          return SKIPPED;
+        }
+        start = elapsed(start);
+        setupSession.destroyObject(keyPair.getPrivateKey());
+        setupSession.destroyObject(keyPair.getPublicKey());
+        return start;
+      case "C_SeedRandom":
+        session.seedRandom(in);
+        break;
+      case "C_GenerateRandom":
+        session.generateRandom(bytesOut);
+        break;
+      default:
+        return SKIPPED;
+    }
+    return elapsed(start);
+  }
+
+  private static long elapsed(long start) {
+    return System.nanoTime() - start;
+  }
+
+  private static void login(Session session, long userType, char[] pin)
+      throws TokenException {
+    try {
+      session.login(userType, pin);
+    } catch (PKCS11Exception ex) {
+      if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+        throw ex;
+      }
+    }
+  }
+
+  private static void closeQuietly(Session session) {
+    try {
+      session.closeSession();
+    } catch (TokenException ex) {
+      // the session is gone anyway
+    }
+  }
+
+  private byte[] zeros(long length) {
+    synchronized (zeros) {
+      byte[] bytes = zeros.get(length);
+      if (bytes == null) {
+        bytes = new byte[(int) Math.max(0, length)];
+        zeros.put(length, bytes);
+      }
+      return bytes;
+    }
+  }
+
+  /**
+   * Generates a session key pair with the default size, RSA 2048 or EC
+   * P-256.
+   *
+   * @return the key pair, null if the mechanism is not supported.
+   */
+  private static KeyPair generateKeyPair(Session session, long mechanism,
+      String label) throws TokenException {
+    PKCS11Object publicKeyTemplate;
+    PKCS11Object privateKeyTemplate;
+    if (mechanism == PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN) {
+      RSAPublicKey publicKey = new RSAPublicKey();
+      publicKey.getModulusBits().setLongValue(2048L);
+      publicKey.getPublicExponent().setByteArrayValue(
+          new byte[] {0x01, 0x00, 0x01});
+      publicKey.getEncrypt().setBooleanValue(Boolean.TRUE);
+      publicKey.getVerify().setBooleanValue(Boolean.TRUE);
+      publicKey.getToken().setBooleanValue(Boolean.FALSE);
+      setLabel(publicKey, label);
+
+      RSAPrivateKey privateKey = new RSAPrivateKey();
+      privateKey.getDecrypt().setBooleanValue(Boolean.TRUE);
+      privateKey.getSign().setBooleanValue(Boolean.TRUE);
+      privateKey.getToken().setBooleanValue(Boolean.FALSE);
+      privateKey.getPrivate().setBooleanValue(Boolean.TRUE);
+      privateKey.getSensitive().setBooleanValue(Boolean.TRUE);
+      setLabel(privateKey, label);
+      publicKeyTemplate = publicKey;
+      privateKeyTemplate = privateKey;
+    } else if (mechanism == PKCS11Constants.CKM_EC_KEY_PAIR_GEN) {
+      ECPublicKey publicKey = new ECPublicKey();
+      publicKey.getEcdsaParams().setByteArrayValue(EC_P256_PARAMS);
+      publicKey.getVerify().setBooleanValue(Boolean.TRUE);
+      publicKey.getToken().setBooleanValue(Boolean.FALSE);
+      setLabel(publicKey, label);
+
+      ECPrivateKey privateKey = new ECPrivateKey();
+      privateKey.getSign().setBooleanValue(Boolean.TRUE);
+      privateKey.getToken().setBooleanValue(Boolean.FALSE);
+      privateKey.getPrivate().setBooleanValue(Boolean.TRUE);
+      privateKey.getSensitive().setBooleanValue(Boolean.TRUE);
+      setLabel(privateKey, label);
+      publicKeyTemplate = publicKey;
+      privateKeyTemplate = privateKey;
+    } else {
+      return null;
+    }
+
+    return session.generateKeyPair(Mechanism.get(mechanism),
+        publicKeyTemplate, privateKeyTemplate);
+  }
+
+  /**
+   * Generates a session secret key with the default size, AES-256 or a 32
+   * byte generic secret.
+   *
+   * @return the key, null if the mechanism is not supported.
+   */
+  private static PKCS11Object generateKey(Session session, long mechanism,
+      String label) throws TokenException {
+    ValuedSecretKey template;
+    if (mechanism == PKCS11Constants.CKM_AES_KEY_GEN) {
+      template = ValuedSecretKey.newAESSecretKey();
+      template.getEncrypt().setBooleanValue(Boolean.TRUE);
+      template.getDecrypt().setBooleanValue(Boolean.TRUE);
+    } else if (mechanism == PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN) {
+      template = ValuedSecretKey.newGenericSecretKey();
+    } else {
+      return null;
+    }
+
+    template.getValueLen().setLongValue(32L);
+    template.getSign().setBooleanValue(Boolean.TRUE);
+    template.getVerify().setBooleanValue(Boolean.TRUE);
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getPrivate().setBooleanValue(Boolean.TRUE);
+    template.getSensitive().setBooleanValue(Boolean.TRUE);
+    template.getExtractable().setBooleanValue(Boolean.FALSE);
+    setLabel(template, label);
+    return session.generateKey(Mechanism.get(mechanism), template);
+  }
+
+  private static void setLabel(iaik.pkcs.pkcs11.objects.Storage template,
+      String label) {
+    if (label != null) {
+      template.getLabel().setCharArrayValue(label.toCharArray());
+    }
+  }
+
+  /**
+   * Returns the type of the replay key for the mechanism.
+   */
+  private static int keyType(long mechanismCode) {
+    String name = Functions.mechanismCodeToString(mechanismCode);
+    if (name.contains("HMAC")) {
+      return KEY_GENERIC;
+    } else if (name.contains("ECDSA")) {
+      return KEY_EC;
+    } else if (name.contains("RSA")) {
+      return KEY_RSA;
+    } else if (name.startsWith("CKM_AES")) {
+      return KEY_AES;
+    } else {
+      return KEY_NONE;
+    }
+  }
+
+  /**
+   * Returns the mechanism with parameters of the recorded length.
+   */
+  private static Mechanism mechanism(long mechanismCode,
+      long parameterLength) {
+    Mechanism mechanism = Mechanism.get(mechanismCode);
+    String name = Functions.mechanismCodeToString(mechanismCode);
+    if (name.contains("GCM")) {
+      mechanism.setParameters(new GCMParameters(128,
+          new byte[parameterLength > 0 ? (int) parameterLength : 12], null));
+    } else if (name.contains("_PSS")) {
+      long hash = PKCS11Constants.CKM_SHA256;
+      long mgf = PKCS11Constants.CKG_MGF1_SHA256;
+      long saltLength = 32;
+      if (name.startsWith("CKM_SHA1_")) {
+        hash = PKCS11Constants.CKM_SHA_1;
+        mgf = PKCS11Constants.CKG_MGF1_SHA1;
+        saltLength = 20;
+      } else if (name.startsWith("CKM_SHA224_")) {
+        hash = PKCS11Constants.CKM_SHA224;
+        mgf = PKCS11Constants.CKG_MGF1_SHA224;
+        saltLength = 28;
+      } else if (name.startsWith("CKM_SHA384_")) {
+        hash = PKCS11Constants.CKM_SHA384;
+        mgf = PKCS11Constants.CKG_MGF1_SHA384;
+        saltLength = 48;
+      } else if (name.startsWith("CKM_SHA512_")) {
+        hash = PKCS11Constants.CKM_SHA512;
+        mgf = PKCS11Constants.CKG_MGF1_SHA512;
+        saltLength = 64;
+      }
+      mechanism.setParameters(
+          new RSAPkcsPssParameters(hash, mgf, saltLength));
+    } else if (name.contains("OAEP")) {
+      mechanism.setParameters(new RSAPkcsOaepParameters(
+          PKCS11Constants.CKM_SHA_1, PKCS11Constants.CKG_MGF1_SHA1,
+          RSAPkcsOaepParameters.SourceType.EMPTY, null));
+    } else if (parameterLength > 0) {
+      mechanism.setParameters(new InitializationVectorParameters(
+          new byte[(int) parameterLength]));
+    }
+    return mechanism;
+  }
+
+}
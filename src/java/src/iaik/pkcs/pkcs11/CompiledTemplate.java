@@ -0,0 +1,157 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_DATE;
+
+/**
+ * An immutable template, compiled once from a {@link PKCS11Object} into the
+ * array of CK_ATTRIBUTE expected by the PKCS#11 module, with the vendor
+ * defined key type already translated. It can be passed to the
+ * {@code *Compiled} variants of the template taking methods of
+ * {@link Session} any number of times, in any session of the same module
+ * and in any thread, without collecting the set attributes again.
+ * <pre><code>
+ *   CompiledTemplate aesTemplate = CompiledTemplate.compile(module,
+ *       aesKeyTemplate);
+ *   ...
+ *   SecretKey key = (SecretKey) session.generateKeyCompiled(
+ *       Mechanism.get(PKCS11Constants.CKM_AES_KEY_GEN), aesTemplate);
+ * </code></pre>
+ * Later changes of the source template do not affect the compiled template.
+ * If the vendor code converter of the module is changed, the template must be
+ * compiled again.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class CompiledTemplate {
+
+  private final Module module;
+
+  private final CK_ATTRIBUTE[] attributes;
+
+  private CompiledTemplate(Module module, CK_ATTRIBUTE[] attributes) {
+    this.module = module;
+    this.attributes = attributes;
+  }
+
+  /**
+   * Compiles the set attributes of the given template.
+   *
+   * @param module
+   *          The module whose vendor code converter is used to translate
+   *          the key type.
+   * @param template
+   *          The template. null is allowed and compiles to an empty
+   *          template.
+   * @return the compiled template.
+   * @exception PKCS11Exception
+   *              If translating the attributes failed.
+   */
+  public static CompiledTemplate compile(Module module, PKCS11Object template)
+      throws PKCS11Exception {
+    Util.requireNonNull("module", module);
+    CK_ATTRIBUTE[] attributes = PKCS11Object.getSetAttributes(template,
+        module.getVendorCodeConverter());
+    if (attributes == null) {
+      return new CompiledTemplate(module, null);
+    }
+
+    // copy, so that later modifications of the template have no effect
+    CK_ATTRIBUTE[] copy = new CK_ATTRIBUTE[attributes.length];
+    for (int i = 0; i < attributes.length; i++) {
+      copy[i] = copy(attributes[i]);
+    }
+    return new CompiledTemplate(module, copy);
+  }
+
+  /**
+   * Returns the compiled attributes. The PKCS#11 module does not modify the
+   * template, so that the same array can be used in concurrent calls. The
+   * returned array must not be modified.
+   *
+   * @return the compiled attributes, may be null.
+   */
+  CK_ATTRIBUTE[] getAttributes() {
+    return attributes;
+  }
+
+  /**
+   * Returns the module this template was compiled for.
+   *
+   * @return the module.
+   */
+  Module getModule() {
+    return module;
+  }
+
+  /**
+   * Returns the number of attributes in this template.
+   *
+   * @return the number of attributes.
+   */
+  public int size() {
+    return (attributes == null) ? 0 : attributes.length;
+  }
+
+  private static CK_ATTRIBUTE copy(CK_ATTRIBUTE attribute) {
+    CK_ATTRIBUTE copy = new CK_ATTRIBUTE();
+    copy.type = attribute.type;
+    Object value = attribute.pValue;
+    if (value instanceof byte[]) {
+      copy.pValue = ((byte[]) value).clone();
+    } else if (value instanceof char[]) {
+      copy.pValue = ((char[]) value).clone();
+    } else if (value instanceof long[]) {
+      copy.pValue = ((long[]) value).clone();
+    } else if (value instanceof CK_DATE) {
+      CK_DATE date = (CK_DATE) value;
+      copy.pValue = new CK_DATE(date.year.clone(), date.month.clone(),
+          date.day.clone());
+    } else if (value instanceof CK_ATTRIBUTE[]) {
+      CK_ATTRIBUTE[] nested = (CK_ATTRIBUTE[]) value;
+      CK_ATTRIBUTE[] nestedCopy = new CK_ATTRIBUTE[nested.length];
+      for (int i = 0; i < nested.length; i++) {
+        nestedCopy[i] = copy(nested[i]);
+      }
+      copy.pValue = nestedCopy;
+    } else {
+      // null, Boolean or Long: immutable
+      copy.pValue = value;
+    }
+    return copy;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("CompiledTemplate: ");
+    if (attributes == null) {
+      sb.append("<empty>");
+    } else {
+      for (CK_ATTRIBUTE attribute : attributes) {
+        sb.append("\n  ").append(attribute);
+      }
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,530 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.PKCS11;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The default {@link Backend}: delegates to the native PKCS#11 module via
+ * the PKCS11 wrapper of the JDK. The functions whose signatures differ
+ * between the JDK versions, C_Encrypt, C_Decrypt and C_WaitForSlotEvent,
+ * are called via reflection.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class JdkBackend implements Backend {
+
+  /**
+   * C_Encrypt and C_Decrypt with offsets, whose signatures differ between
+   * the JDK versions. Resolved on first use.
+   */
+  private static final class CryptMethods {
+
+    private static final Method encrypt0;
+
+    private static final Method encrypt1;
+
+    private static final Method decrypt0;
+
+    private static final Method decrypt1;
+
+    static {
+      Class<?> clazz = PKCS11.class;
+      decrypt0 = Util.getMethod(clazz, "C_Decrypt",
+          long.class, byte[].class, int.class, int.class,
+          byte[].class, int.class, int.class);
+
+      encrypt0 = Util.getMethod(clazz, "C_Encrypt",
+          long.class, byte[].class, int.class, int.class,
+          byte[].class, int.class, int.class);
+
+      if (decrypt0 == null) {
+        decrypt1 = Util.getMethod(clazz, "C_Decrypt",
+            long.class, long.class, byte[].class, int.class, int.class,
+            long.class, byte[].class, int.class, int.class);
+      } else {
+        decrypt1 = null;
+      }
+
+      if (encrypt0 == null) {
+        encrypt1 = Util.getMethod(clazz, "C_Encrypt",
+            long.class, long.class, byte[].class, int.class, int.class,
+            long.class, byte[].class, int.class, int.class);
+      } else {
+        encrypt1 = null;
+      }
+    }
+
+  }
+
+  /**
+   * The lazily initialized holder classes, see
+   * {@link Module#preloadClasses()}.
+   */
+  static final String[] LAZY_HOLDER_CLASSES = {CryptMethods.class.getName()};
+
+  /**
+   * PKCS11.C_WaitForSlotEvent(long, Object), which has been removed from
+   * the PKCS11 wrapper of newer JDKs, or null.
+   */
+  static final Method WAIT_FOR_SLOT_EVENT =
+      Util.getMethod(PKCS11.class, "C_WaitForSlotEvent",
+          long.class, Object.class);
+
+  private final PKCS11 pkcs11;
+
+  /**
+   * Creates a backend for the given, already initialized, PKCS11 wrapper.
+   *
+   * @param pkcs11
+   *          The PKCS11 wrapper of the JDK.
+   */
+  public JdkBackend(PKCS11 pkcs11) {
+    this.pkcs11 = Util.requireNonNull("pkcs11", pkcs11);
+  }
+
+  /**
+   * Gets the PKCS11 wrapper of the JDK behind this backend.
+   *
+   * @return the PKCS11 wrapper.
+   */
+  // CHECKSTYLE:SKIP
+  public PKCS11 getPKCS11() {
+    return pkcs11;
+  }
+
+  @Override
+  public void C_Finalize(Object args) throws PKCS11Exception {
+    pkcs11.C_Finalize(args);
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    return pkcs11.C_GetInfo();
+  }
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    return pkcs11.C_GetSlotList(tokenPresent);
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    return pkcs11.C_GetSlotInfo(slotID);
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    return pkcs11.C_GetTokenInfo(slotID);
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    return pkcs11.C_GetMechanismList(slotID);
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    return pkcs11.C_GetMechanismInfo(slotID, type);
+  }
+
+  @Override
+  public long C_WaitForSlotEvent(long flags, Object reserved)
+      throws PKCS11Exception {
+    if (WAIT_FOR_SLOT_EVENT == null) {
+      throw Util.newPKCS11Exception(
+          PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    }
+
+    try {
+      return (long) WAIT_FOR_SLOT_EVENT.invoke(pkcs11, flags, reserved);
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    } catch (InvocationTargetException ex) {
+      throw unwrap(ex);
+    }
+  }
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object application,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    return pkcs11.C_OpenSession(slotID, flags, application, notify);
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    pkcs11.C_CloseSession(hSession);
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    return pkcs11.C_GetSessionInfo(hSession);
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    return pkcs11.C_GetOperationState(hSession);
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] operationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    pkcs11.C_SetOperationState(hSession, operationState, hEncryptionKey,
+        hAuthenticationKey);
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pin)
+      throws PKCS11Exception {
+    pkcs11.C_Login(hSession, userType, pin);
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    pkcs11.C_Logout(hSession);
+  }
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    return pkcs11.C_CreateObject(hSession, template);
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    return pkcs11.C_CopyObject(hSession, hObject, template);
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    pkcs11.C_DestroyObject(hSession, hObject);
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    pkcs11.C_GetAttributeValue(hSession, hObject, template);
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    pkcs11.C_SetAttributeValue(hSession, hObject, template);
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    pkcs11.C_FindObjectsInit(hSession, template);
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long maxObjectCount)
+      throws PKCS11Exception {
+    return pkcs11.C_FindObjects(hSession, maxObjectCount);
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    pkcs11.C_FindObjectsFinal(hSession);
+  }
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    pkcs11.C_EncryptInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    try {
+      if (CryptMethods.encrypt0 != null) {
+        return (int) CryptMethods.encrypt0.invoke(pkcs11,
+            hSession, in, inOfs, inLen, out, outOfs, outLen);
+      } else if (CryptMethods.encrypt1 != null) {
+        return (int) CryptMethods.encrypt1.invoke(pkcs11, hSession,
+            directIn, in, inOfs, inLen, directOut, out, outOfs, outLen);
+      } else {
+        throw new IllegalStateException("could not find C_Encrypt method");
+      }
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    } catch (InvocationTargetException ex) {
+      throw unwrap(ex);
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    return pkcs11.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    return pkcs11.C_EncryptFinal(hSession, directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    pkcs11.C_DecryptInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    try {
+      if (CryptMethods.decrypt0 != null) {
+        return (int) CryptMethods.decrypt0.invoke(pkcs11,
+            hSession, in, inOfs, inLen, out, outOfs, outLen);
+      } else if (CryptMethods.decrypt1 != null) {
+        return (int) CryptMethods.decrypt1.invoke(pkcs11, hSession,
+            directIn, in, inOfs, inLen, directOut, out, outOfs, outLen);
+      } else {
+        throw new IllegalStateException("could not find C_Decrypt method");
+      }
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    } catch (InvocationTargetException ex) {
+      throw unwrap(ex);
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    return pkcs11.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+        directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    return pkcs11.C_DecryptFinal(hSession, directOut, out, outOfs, outLen);
+  }
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    pkcs11.C_DigestInit(hSession, mechanism);
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM mechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    return pkcs11.C_DigestSingle(hSession, mechanism, in, inOfs, inLen, digest,
+        digestOfs, digestLen);
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception {
+    pkcs11.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    pkcs11.C_DigestKey(hSession, hKey);
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] digest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    return pkcs11.C_DigestFinal(hSession, digest, digestOfs, digestLen);
+  }
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    pkcs11.C_SignInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] data) throws PKCS11Exception {
+    return pkcs11.C_Sign(hSession, data);
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception {
+    pkcs11.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    return pkcs11.C_SignFinal(hSession, expectedLen);
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    pkcs11.C_SignRecoverInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return pkcs11.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+        outLen);
+  }
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    pkcs11.C_VerifyInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] data, byte[] signature)
+      throws PKCS11Exception {
+    pkcs11.C_Verify(hSession, data, signature);
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen) throws PKCS11Exception {
+    pkcs11.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] signature)
+      throws PKCS11Exception {
+    pkcs11.C_VerifyFinal(hSession, signature);
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    pkcs11.C_VerifyRecoverInit(hSession, mechanism, hKey);
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    return pkcs11.C_VerifyRecover(hSession, in, inOfs, inLen, out, outOfs,
+        outLen);
+  }
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    return pkcs11.C_GenerateKey(hSession, mechanism, template);
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] publicKeyTemplate, CK_ATTRIBUTE[] privateKeyTemplate)
+      throws PKCS11Exception {
+    return pkcs11.C_GenerateKeyPair(hSession, mechanism, publicKeyTemplate,
+        privateKeyTemplate);
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM mechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    return pkcs11.C_WrapKey(hSession, mechanism, hWrappingKey, hKey);
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM mechanism,
+      long hUnwrappingKey, byte[] wrappedKey, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    return pkcs11.C_UnwrapKey(hSession, mechanism, hUnwrappingKey, wrappedKey,
+        template);
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM mechanism, long hBaseKey,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    return pkcs11.C_DeriveKey(hSession, mechanism, hBaseKey, template);
+  }
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] seed) throws PKCS11Exception {
+    pkcs11.C_SeedRandom(hSession, seed);
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    pkcs11.C_GenerateRandom(hSession, randomData);
+  }
+
+  private static PKCS11Exception unwrap(InvocationTargetException ex) {
+    Throwable cause = ex.getCause();
+    if (cause instanceof PKCS11Exception) {
+      return (PKCS11Exception) cause;
+    } else if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    } else {
+      throw new IllegalStateException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof JdkBackend)) {
+      return false;
+    }
+    return pkcs11.equals(((JdkBackend) obj).pkcs11);
+  }
+
+  @Override
+  public int hashCode() {
+    return pkcs11.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return pkcs11.toString();
+  }
+
+}
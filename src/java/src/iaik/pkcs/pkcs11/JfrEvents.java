@@ -0,0 +1,235 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * The Java Flight Recorder events of this library, see
+ * {@link CallEvents}. This class is only loaded if the Flight Recorder is
+ * available. The events can be configured in a .jfc file by their names,
+ * e.g. <code>iaik.pkcs11.Call#threshold</code>:
+ * <ul>
+ *   <li>iaik.pkcs11.Call: a call to the PKCS#11 module, with function,
+ *   mechanism, slot, session handle, bytes in and out, and return value.
+ *   </li>
+ *   <li>iaik.pkcs11.SessionOpen and iaik.pkcs11.SessionClose.</li>
+ *   <li>iaik.pkcs11.Login.</li>
+ * </ul>
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class JfrEvents {
+
+  private static final String CATEGORY = "PKCS#11";
+
+  @Name("iaik.pkcs11.Call")
+  @Label("PKCS#11 Call")
+  @Category(CATEGORY)
+  @Description("Call to the PKCS#11 module")
+  static final class CallEvent extends Event {
+
+    @Label("Function")
+    String function;
+
+    @Label("Mechanism")
+    String mechanism;
+
+    @Label("Slot")
+    long slotID;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("Bytes In")
+    @DataAmount
+    long bytesIn = -1;
+
+    @Label("Bytes Out")
+    @DataAmount
+    long bytesOut = -1;
+
+    @Label("Return Value")
+    String returnValue;
+
+    private transient long errorCode = PKCS11Constants.CKR_OK;
+
+  }
+
+  @Name("iaik.pkcs11.SessionOpen")
+  @Label("PKCS#11 Session Open")
+  @Category(CATEGORY)
+  static final class SessionOpenEvent extends Event {
+
+    @Label("Slot")
+    long slotID;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("Read-Write")
+    boolean rwSession;
+
+  }
+
+  @Name("iaik.pkcs11.SessionClose")
+  @Label("PKCS#11 Session Close")
+  @Category(CATEGORY)
+  static final class SessionCloseEvent extends Event {
+
+    @Label("Slot")
+    long slotID;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+  }
+
+  @Name("iaik.pkcs11.Login")
+  @Label("PKCS#11 Login")
+  @Category(CATEGORY)
+  static final class LoginEvent extends Event {
+
+    @Label("Slot")
+    long slotID;
+
+    @Label("Session Handle")
+    long sessionHandle;
+
+    @Label("User Type")
+    long userType;
+
+    @Label("Return Value")
+    String returnValue;
+
+  }
+
+  private JfrEvents() {
+  }
+
+  static void init() {
+    FlightRecorder.addListener(new FlightRecorderListener() {
+      @Override
+      public void recorderInitialized(FlightRecorder recorder) {
+        updateRecording();
+      }
+
+      @Override
+      public void recordingStateChanged(Recording recording) {
+        updateRecording();
+      }
+    });
+    updateRecording();
+  }
+
+  private static void updateRecording() {
+    boolean running = false;
+    if (FlightRecorder.isInitialized()) {
+      for (Recording recording
+          : FlightRecorder.getFlightRecorder().getRecordings()) {
+        if (recording.getState() == RecordingState.RUNNING) {
+          running = true;
+          break;
+        }
+      }
+    }
+    CallEvents.recording = running;
+    MeasuringBackend.recordingChanged();
+  }
+
+  static Object beginCall() {
+    CallEvent event = new CallEvent();
+    if (!event.isEnabled()) {
+      return null;
+    }
+
+    event.begin();
+    return event;
+  }
+
+  static void setCallBytes(Object event, long bytesIn, long bytesOut) {
+    CallEvent callEvent = (CallEvent) event;
+    callEvent.bytesIn = bytesIn;
+    callEvent.bytesOut = bytesOut;
+  }
+
+  static void setCallErrorCode(Object event, long errorCode) {
+    ((CallEvent) event).errorCode = errorCode;
+  }
+
+  static void endCall(Object event, String function, long mechanism,
+      long slotID, long sessionHandle) { // CHECKSTYLE:SKIP
+    CallEvent callEvent = (CallEvent) event;
+    callEvent.end();
+    if (callEvent.shouldCommit()) {
+      callEvent.function = function;
+      callEvent.mechanism = (mechanism == CallMetrics.NO_MECHANISM)
+          ? null : Functions.mechanismCodeToString(mechanism);
+      callEvent.slotID = slotID;
+      callEvent.sessionHandle = sessionHandle;
+      callEvent.returnValue = Functions.errorCodeToString(callEvent.errorCode);
+      callEvent.commit();
+    }
+  }
+
+  static void sessionOpened(long slotID, // CHECKSTYLE:SKIP
+      long sessionHandle, boolean rwSession) {
+    SessionOpenEvent event = new SessionOpenEvent();
+    if (event.shouldCommit()) {
+      event.slotID = slotID;
+      event.sessionHandle = sessionHandle;
+      event.rwSession = rwSession;
+      event.commit();
+    }
+  }
+
+  static void sessionClosed(long slotID, // CHECKSTYLE:SKIP
+      long sessionHandle) {
+    SessionCloseEvent event = new SessionCloseEvent();
+    if (event.shouldCommit()) {
+      event.slotID = slotID;
+      event.sessionHandle = sessionHandle;
+      event.commit();
+    }
+  }
+
+  static void login(long slotID, long sessionHandle, // CHECKSTYLE:SKIP
+      long userType, long errorCode) {
+    LoginEvent event = new LoginEvent();
+    if (event.shouldCommit()) {
+      event.slotID = slotID;
+      event.sessionHandle = sessionHandle;
+      event.userType = userType;
+      event.returnValue = Functions.errorCodeToString(errorCode);
+      event.commit();
+    }
+  }
+
+}
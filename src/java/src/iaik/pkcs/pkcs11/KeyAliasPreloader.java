@@ -0,0 +1,553 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Resolves a list of key aliases, each identified by its object class and
+ * CKA_ID or CKA_LABEL, into object handles in one pass, e.g. at the startup
+ * of an application with thousands of keys.
+ * <pre><code>
+ *   KeyAliasPreloader preloader = new KeyAliasPreloader();
+ *   preloader.addByLabel("signer-1", PKCS11Constants.CKO_PRIVATE_KEY,
+ *       "signer-1");
+ *   ...
+ *   KeyAliasPreloader.Result result = preloader.preload(sessions);
+ *   long handle = result.getHandle("signer-1");
+ * </code></pre>
+ * The aliases are resolved in one of two ways:
+ * <ul>
+ *   <li>Sweep: if the number of aliases reaches the sweep threshold, all
+ *   objects are found by a single find operation (filtered by the object
+ *   class if all aliases have the same one), and their CKA_CLASS, CKA_ID and
+ *   CKA_LABEL are read by one C_GetAttributeValue per object. If the token
+ *   refuses the sweep, the aliases are searched one by one.</li>
+ *   <li>Per alias: one find operation per alias.</li>
+ * </ul>
+ * In both cases the work is partitioned across the given sessions and runs
+ * in parallel, one task per session, in the executor set by
+ * {@link #setExecutor(ExecutorService)} or in the threads of this wrapper
+ * (at most 8). The resolved handles and misses are put into the
+ * {@link KeyHandleResolver} of the token as well.
+ * <p>
+ * CKA_LABEL is compared by its UTF-8 encoding, the JDK's PKCS#11 wrapper
+ * passes each byte of it as one char, see
+ * {@link Util#labelCharsToBytes(char[])}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class KeyAliasPreloader {
+
+  private static final class Entry {
+
+    private final String alias;
+
+    private final long objectClass;
+
+    private final long attributeType;
+
+    // CKA_ID, or the UTF-8 encoded CKA_LABEL
+    private final byte[] value;
+
+    private Entry(String alias, long objectClass, long attributeType,
+        byte[] value) {
+      this.alias = alias;
+      this.objectClass = objectClass;
+      this.attributeType = attributeType;
+      this.value = value;
+    }
+
+    private Object getTemplateValue() {
+      // CKA_LABEL is passed as char[], one char per byte
+      return (attributeType == PKCS11Constants.CKA_LABEL)
+          ? Util.labelBytesToChars(value) : value;
+    }
+
+  }
+
+  private static final class Key {
+
+    private final long objectClass;
+
+    private final long attributeType;
+
+    private final byte[] value;
+
+    private Key(long objectClass, long attributeType, byte[] value) {
+      this.objectClass = objectClass;
+      this.attributeType = attributeType;
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * Long.hashCode(objectClass)
+          + Long.hashCode(attributeType)) + Arrays.hashCode(value);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) obj;
+      return objectClass == other.objectClass
+          && attributeType == other.attributeType
+          && Arrays.equals(value, other.value);
+    }
+
+  }
+
+  /**
+   * The result of {@link KeyAliasPreloader#preload(List)}.
+   */
+  public static final class Result {
+
+    private final Map<String, Long> handles;
+
+    private final List<String> missingAliases;
+
+    private final List<String> ambiguousAliases;
+
+    private final boolean sweep;
+
+    private Result(Map<String, Long> handles, List<String> missingAliases,
+        List<String> ambiguousAliases, boolean sweep) {
+      this.handles = Collections.unmodifiableMap(handles);
+      this.missingAliases = Collections.unmodifiableList(missingAliases);
+      this.ambiguousAliases = Collections.unmodifiableList(ambiguousAliases);
+      this.sweep = sweep;
+    }
+
+    /**
+     * Gets the handle of the given alias.
+     *
+     * @param alias
+     *          The alias.
+     * @return the handle, or PKCS11Constants.CK_INVALID_HANDLE if the alias
+     *         has not been resolved.
+     */
+    public long getHandle(String alias) {
+      Long handle = handles.get(alias);
+      return (handle == null) ? PKCS11Constants.CK_INVALID_HANDLE : handle;
+    }
+
+    /**
+     * Returns the resolved handles.
+     *
+     * @return the handles by alias, in the order of the aliases.
+     */
+    public Map<String, Long> getHandles() {
+      return handles;
+    }
+
+    /**
+     * Returns the aliases for which no object has been found.
+     *
+     * @return the missing aliases.
+     */
+    public List<String> getMissingAliases() {
+      return missingAliases;
+    }
+
+    /**
+     * Returns the aliases for which more than one object has been found.
+     *
+     * @return the ambiguous aliases.
+     */
+    public List<String> getAmbiguousAliases() {
+      return ambiguousAliases;
+    }
+
+    /**
+     * Returns whether the aliases have been resolved by a sweep over all
+     * objects.
+     *
+     * @return true if resolved by a sweep, false if searched one by one.
+     */
+    public boolean isSweep() {
+      return sweep;
+    }
+
+    /**
+     * Returns whether all aliases have been resolved to exactly one object.
+     *
+     * @return true if all aliases have been resolved.
+     */
+    public boolean isComplete() {
+      return missingAliases.isEmpty() && ambiguousAliases.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return Util.concatObjects("KeyAliasPreloader.Result: resolved: ",
+          handles.size(), ", missing: ", missingAliases,
+          ", ambiguous: ", ambiguousAliases, ", sweep: ", sweep);
+    }
+
+  }
+
+  public static final int DEFAULT_SWEEP_THRESHOLD = 64;
+
+  private static final int FIND_BATCH_SIZE = 1000;
+
+  private final List<Entry> entries = new ArrayList<>();
+
+  private final Map<String, Entry> entriesByAlias = new HashMap<>();
+
+  private int sweepThreshold = DEFAULT_SWEEP_THRESHOLD;
+
+  private ExecutorService executor;
+
+  /**
+   * Adds an alias resolved by the CKA_ID.
+   *
+   * @param alias
+   *          The alias, must be unique in this preloader.
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param id
+   *          The value of CKA_ID.
+   */
+  public void addById(String alias, long objectClass, byte[] id) {
+    Util.requireNonNull("id", id);
+    add(new Entry(alias, objectClass, PKCS11Constants.CKA_ID, id.clone()));
+  }
+
+  /**
+   * Adds an alias resolved by the CKA_LABEL.
+   *
+   * @param alias
+   *          The alias, must be unique in this preloader.
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param label
+   *          The value of CKA_LABEL.
+   */
+  public void addByLabel(String alias, long objectClass, String label) {
+    Util.requireNonNull("label", label);
+    add(new Entry(alias, objectClass, PKCS11Constants.CKA_LABEL,
+        label.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private void add(Entry entry) {
+    Util.requireNonNull("alias", entry.alias);
+    if (entriesByAlias.containsKey(entry.alias)) {
+      throw new IllegalArgumentException("duplicated alias " + entry.alias);
+    }
+    entriesByAlias.put(entry.alias, entry);
+    entries.add(entry);
+  }
+
+  /**
+   * Returns the number of aliases.
+   *
+   * @return the number of aliases.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public int getSweepThreshold() {
+    return sweepThreshold;
+  }
+
+  /**
+   * Sets the minimal number of aliases to resolve them by a sweep over all
+   * objects instead of one find operation per alias.
+   *
+   * @param sweepThreshold
+   *          The threshold. 0 to always sweep, Integer.MAX_VALUE to never
+   *          sweep.
+   */
+  public void setSweepThreshold(int sweepThreshold) {
+    if (sweepThreshold < 0) {
+      throw new IllegalArgumentException(
+          "sweepThreshold must not be negative");
+    }
+    this.sweepThreshold = sweepThreshold;
+  }
+
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Sets the executor which runs the find operations of the sessions in
+   * parallel. It is not shut down by this preloader.
+   *
+   * @param executor
+   *          The executor. null to use the threads of this wrapper.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Resolves all aliases.
+   *
+   * @param sessions
+   *          The sessions of one token. The work is distributed across them.
+   *          No other operation may be active in these sessions.
+   * @return the result.
+   * @exception TokenException
+   *              If searching the objects failed.
+   */
+  public Result preload(List<Session> sessions) throws TokenException {
+    Util.requireNonNull("sessions", sessions);
+    if (sessions.isEmpty()) {
+      throw new IllegalArgumentException("sessions must not be empty");
+    }
+
+    Token token = sessions.get(0).getToken();
+    for (Session session : sessions) {
+      if (!token.getSlot().equals(session.getToken().getSlot())) {
+        throw new IllegalArgumentException(
+            "sessions do not belong to the same token");
+      }
+    }
+
+    KeyHandleResolver resolver = token.getKeyHandleResolver();
+    long startGeneration = resolver.getGeneration();
+
+    int count = entries.size();
+    AtomicLongArray handles = new AtomicLongArray(count);
+    boolean[] ambiguous = new boolean[count];
+    boolean sweep = false;
+    if (count > 0 && count >= sweepThreshold) {
+      try {
+        sweep(sessions, handles, ambiguous);
+        sweep = true;
+      } catch (PKCS11Exception ex) {
+        // the token does not allow the sweep, search the aliases one by one
+        for (int i = 0; i < count; i++) {
+          handles.set(i, PKCS11Constants.CK_INVALID_HANDLE);
+          ambiguous[i] = false;
+        }
+      }
+    }
+
+    if (!sweep && count > 0) {
+      findOneByOne(sessions, handles, ambiguous);
+    }
+
+    Map<String, Long> resolved = new LinkedHashMap<>();
+    List<String> missing = new ArrayList<>();
+    List<String> ambiguousAliases = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Entry entry = entries.get(i);
+      long handle = handles.get(i);
+      if (ambiguous[i]) {
+        ambiguousAliases.add(entry.alias);
+        continue;
+      }
+
+      if (handle == PKCS11Constants.CK_INVALID_HANDLE) {
+        missing.add(entry.alias);
+      } else {
+        resolved.put(entry.alias, handle);
+      }
+      resolver.put(startGeneration, entry.objectClass, entry.attributeType,
+          entry.value, handle);
+    }
+
+    return new Result(resolved, missing, ambiguousAliases, sweep);
+  }
+
+  private void findOneByOne(List<Session> sessions,
+      final AtomicLongArray handles, final boolean[] ambiguous)
+      throws TokenException {
+    final int parts = Math.min(sessions.size(), entries.size());
+    List<Callable<Void>> tasks = new ArrayList<>(parts);
+    for (int i = 0; i < parts; i++) {
+      final Session session = sessions.get(i);
+      final int part = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TokenException {
+          for (int j = part; j < entries.size(); j += parts) {
+            Entry entry = entries.get(j);
+            CK_ATTRIBUTE[] template = new CK_ATTRIBUTE[] {
+              new CK_ATTRIBUTE(PKCS11Constants.CKA_CLASS, entry.objectClass),
+              new CK_ATTRIBUTE(entry.attributeType,
+                  entry.getTemplateValue())};
+            long[] found = session.findObjectHandles(template, 2);
+            if (found.length > 1) {
+              ambiguous[j] = true;
+            } else {
+              handles.set(j, (found.length == 0)
+                  ? PKCS11Constants.CK_INVALID_HANDLE : found[0]);
+            }
+          }
+          return null;
+        }
+      });
+    }
+    invokeAll(tasks);
+  }
+
+  private void sweep(List<Session> sessions, final AtomicLongArray handles,
+      final boolean[] ambiguous) throws TokenException {
+    long objectClass = entries.get(0).objectClass;
+    boolean sameClass = true;
+    boolean byId = false;
+    boolean byLabel = false;
+    final Map<Key, List<Integer>> indexes = new HashMap<>();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      sameClass &= (entry.objectClass == objectClass);
+      if (entry.attributeType == PKCS11Constants.CKA_ID) {
+        byId = true;
+      } else {
+        byLabel = true;
+      }
+
+      Key key = new Key(entry.objectClass, entry.attributeType, entry.value);
+      List<Integer> list = indexes.get(key);
+      if (list == null) {
+        list = new ArrayList<>(1);
+        indexes.put(key, list);
+      }
+      list.add(i);
+      handles.set(i, PKCS11Constants.CK_INVALID_HANDLE);
+    }
+
+    CK_ATTRIBUTE[] template = sameClass ? new CK_ATTRIBUTE[] {
+      new CK_ATTRIBUTE(PKCS11Constants.CKA_CLASS, objectClass)} : null;
+    final long[] objectHandles = sessions.get(0).findAllObjectHandles(template,
+        FIND_BATCH_SIZE);
+
+    final long[] types = byId
+        ? (byLabel ? new long[] {PKCS11Constants.CKA_CLASS,
+            PKCS11Constants.CKA_ID, PKCS11Constants.CKA_LABEL}
+          : new long[] {PKCS11Constants.CKA_CLASS, PKCS11Constants.CKA_ID})
+        : new long[] {PKCS11Constants.CKA_CLASS, PKCS11Constants.CKA_LABEL};
+
+    final int parts = Math.max(1,
+        Math.min(sessions.size(), objectHandles.length));
+    List<Callable<Void>> tasks = new ArrayList<>(parts);
+    for (int i = 0; i < parts; i++) {
+      final Session session = sessions.get(i);
+      final int part = i;
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() throws TokenException {
+          for (int j = part; j < objectHandles.length; j += parts) {
+            long handle = objectHandles[j];
+            CK_ATTRIBUTE[] values = session.readAttributes(handle, types);
+            if (values[0].pValue == null) {
+              continue;
+            }
+
+            long objClass = values[0].getLong();
+            for (int k = 1; k < values.length; k++) {
+              byte[] value = toBytes(values[k]);
+              if (value == null) {
+                continue;
+              }
+
+              List<Integer> list =
+                  indexes.get(new Key(objClass, values[k].type, value));
+              if (list == null) {
+                continue;
+              }
+
+              for (int index : list) {
+                if (!handles.compareAndSet(index,
+                    PKCS11Constants.CK_INVALID_HANDLE, handle)
+                    && handles.get(index) != handle) {
+                  ambiguous[index] = true;
+                }
+              }
+            }
+          }
+          return null;
+        }
+      });
+    }
+    // the writes of the tasks are visible after Future.get()
+    invokeAll(tasks);
+  }
+
+  private static byte[] toBytes(CK_ATTRIBUTE attribute) {
+    Object value = attribute.pValue;
+    if (value instanceof byte[]) {
+      return (byte[]) value;
+    } else if (value instanceof char[]) {
+      return Util.labelCharsToBytes((char[]) value);
+    } else {
+      return null;
+    }
+  }
+
+  private void invokeAll(List<Callable<Void>> tasks)
+      throws TokenException {
+    if (tasks.size() == 1) {
+      try {
+        tasks.get(0).call();
+      } catch (TokenException | RuntimeException ex) {
+        throw ex;
+      } catch (Exception ex) {
+        throw new TokenException(ex);
+      }
+      return;
+    }
+
+    try {
+      List<Future<Void>> futures = (executor == null)
+          ? BlockingCalls.invokeAll(tasks) : executor.invokeAll(tasks);
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new TokenException("preloading interrupted", ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof TokenException) {
+        throw (TokenException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new TokenException((Exception) cause);
+      }
+    }
+  }
+
+}
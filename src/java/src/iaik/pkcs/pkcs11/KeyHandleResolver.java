@@ -0,0 +1,378 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Resolves the handle of an object identified by its object class and its
+ * CKA_ID or CKA_LABEL. Resolved handles are kept in a bounded LRU cache with
+ * a time-to-live, misses are cached for a (shorter) time-to-live, so that the
+ * usual findObjectsInit / findObjects / findObjectsFinal round-trip is only
+ * needed for the first lookup of an alias.
+ * <p>
+ * There is one resolver per slot, get it via
+ * {@link Token#getKeyHandleResolver()}. The cache is invalidated by the
+ * {@link Session} methods which create, modify or destroy objects, by
+ * {@link Session#closeSession()} of a session which created objects, since
+ * its session objects (CKA_TOKEN false) are destroyed with it, and if the
+ * token has been removed from the slot. Objects created or destroyed by other
+ * applications are not noticed before the entries expire.
+ * <p>
+ * CKA_LABEL is compared by its UTF-8 encoding, see
+ * {@link Util#labelCharsToBytes(char[])}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class KeyHandleResolver {
+
+  private static final class CacheKey {
+
+    private final long objectClass;
+
+    private final long attributeType;
+
+    private final byte[] value;
+
+    private final int hashCode;
+
+    private CacheKey(long objectClass, long attributeType, byte[] value) {
+      this.objectClass = objectClass;
+      this.attributeType = attributeType;
+      this.value = value;
+      this.hashCode = 31 * (31 * Long.hashCode(objectClass)
+          + Long.hashCode(attributeType)) + Arrays.hashCode(value);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return objectClass == other.objectClass
+          && attributeType == other.attributeType
+          && Arrays.equals(value, other.value);
+    }
+
+  }
+
+  private static final class CacheEntry {
+
+    // CK_INVALID_HANDLE marks a cached miss
+    private final long handle;
+
+    private final long expiresAt;
+
+    private CacheEntry(long handle, long expiresAt) {
+      this.handle = handle;
+      this.expiresAt = expiresAt;
+    }
+
+  }
+
+  public static final int DEFAULT_MAX_SIZE = 1000;
+
+  public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+  public static final long DEFAULT_NEGATIVE_TTL_MILLIS = 5 * 1000L;
+
+  private final Slot slot;
+
+  private final LinkedHashMap<CacheKey, CacheEntry> cache;
+
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  private long ttlNanos = DEFAULT_TTL_MILLIS * 1000000L;
+
+  private long negativeTtlNanos = DEFAULT_NEGATIVE_TTL_MILLIS * 1000000L;
+
+  /**
+   * Incremented by every invalidation, so that a search which raced with an
+   * invalidation does not put its (possibly stale) result into the cache.
+   */
+  private long generation;
+
+  KeyHandleResolver(Slot slot) {
+    this.slot = Util.requireNonNull("slot", slot);
+    this.cache = new LinkedHashMap<CacheKey, CacheEntry>(64, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<CacheKey, CacheEntry> eldest) {
+        return size() > maxSize;
+      }
+
+    };
+  }
+
+  /**
+   * Sets the maximal number of cached entries (hits and misses).
+   *
+   * @param maxSize
+   *          The maximal number of entries. Must be positive.
+   */
+  public synchronized void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be positive");
+    }
+    this.maxSize = maxSize;
+    Iterator<CacheKey> it = cache.keySet().iterator();
+    while (cache.size() > maxSize && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+
+  public synchronized int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Sets the time-to-live of resolved handles.
+   *
+   * @param ttlMillis
+   *          The time-to-live in milliseconds. 0 disables the caching of
+   *          resolved handles.
+   */
+  public synchronized void setTtlMillis(long ttlMillis) {
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must not be negative");
+    }
+    this.ttlNanos = ttlMillis * 1000000L;
+  }
+
+  /**
+   * Sets the time-to-live of cached misses.
+   *
+   * @param negativeTtlMillis
+   *          The time-to-live in milliseconds. 0 disables the caching of
+   *          misses.
+   */
+  public synchronized void setNegativeTtlMillis(long negativeTtlMillis) {
+    if (negativeTtlMillis < 0) {
+      throw new IllegalArgumentException(
+          "negativeTtlMillis must not be negative");
+    }
+    this.negativeTtlNanos = negativeTtlMillis * 1000000L;
+  }
+
+  /**
+   * Resolves the handle of the object with given class and CKA_ID.
+   *
+   * @param session
+   *          The session used to search the object if it is not cached. No
+   *          other find operation may be active in this session.
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param id
+   *          The value of CKA_ID.
+   * @return the object handle, or PKCS11Constants.CK_INVALID_HANDLE if no
+   *         object matches.
+   * @exception TokenException
+   *              If searching the object failed, or if more than one object
+   *              matches.
+   */
+  public long resolveById(Session session, long objectClass, byte[] id)
+      throws TokenException {
+    Util.requireNonNull("id", id);
+    byte[] value = id.clone();
+    return resolve(session,
+        new CacheKey(objectClass, PKCS11Constants.CKA_ID, value), value);
+  }
+
+  /**
+   * Resolves the handle of the object with given class and CKA_LABEL.
+   *
+   * @param session
+   *          The session used to search the object if it is not cached. No
+   *          other find operation may be active in this session.
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param label
+   *          The value of CKA_LABEL.
+   * @return the object handle, or PKCS11Constants.CK_INVALID_HANDLE if no
+   *         object matches.
+   * @exception TokenException
+   *              If searching the object failed, or if more than one object
+   *              matches.
+   */
+  public long resolveByLabel(Session session, long objectClass, String label)
+      throws TokenException {
+    Util.requireNonNull("label", label);
+    byte[] value = label.getBytes(StandardCharsets.UTF_8);
+    // CKA_LABEL is passed as char[], one char per byte
+    return resolve(session, new CacheKey(objectClass,
+        PKCS11Constants.CKA_LABEL, value), Util.labelBytesToChars(value));
+  }
+
+  private long resolve(Session session, CacheKey key, Object value)
+      throws TokenException {
+    Util.requireNonNull("session", session);
+    if (!slot.equals(session.getToken().getSlot())) {
+      throw new IllegalArgumentException(
+          "session does not belong to the slot of this resolver");
+    }
+
+    long startGeneration;
+    synchronized (this) {
+      CacheEntry entry = cache.get(key);
+      if (entry != null) {
+        if (entry.expiresAt - System.nanoTime() > 0) {
+          return entry.handle;
+        }
+        cache.remove(key);
+      }
+      startGeneration = generation;
+    }
+
+    CK_ATTRIBUTE[] template = new CK_ATTRIBUTE[] {
+      new CK_ATTRIBUTE(PKCS11Constants.CKA_CLASS, key.objectClass),
+      new CK_ATTRIBUTE(key.attributeType, value)};
+
+    long[] handles = session.findObjectHandles(template, 2);
+    if (handles.length > 1) {
+      throw new TokenException("found more than 1 object with "
+          + ((key.attributeType == PKCS11Constants.CKA_ID)
+              ? "CKA_ID " + Util.toHex(key.value)
+              : "CKA_LABEL "
+                  + new String(key.value, StandardCharsets.UTF_8)));
+    }
+
+    long handle = (handles.length == 0)
+        ? PKCS11Constants.CK_INVALID_HANDLE : handles[0];
+
+    synchronized (this) {
+      long ttl = (handle == PKCS11Constants.CK_INVALID_HANDLE)
+          ? negativeTtlNanos : ttlNanos;
+      if (ttl > 0 && startGeneration == generation) {
+        cache.put(key, new CacheEntry(handle, System.nanoTime() + ttl));
+      }
+    }
+
+    return handle;
+  }
+
+  /**
+   * Returns the current generation. A bulk resolution, e.g. by
+   * {@link KeyAliasPreloader}, gets it before searching and passes it to
+   * {@link #put(long, long, long, byte[], long)}.
+   */
+  synchronized long getGeneration() {
+    return generation;
+  }
+
+  /**
+   * Puts an externally resolved handle into the cache, unless the cache has
+   * been invalidated since the given generation.
+   *
+   * @param attributeType
+   *          PKCS11Constants.CKA_ID or PKCS11Constants.CKA_LABEL.
+   * @param value
+   *          The CKA_ID, or the UTF-8 encoded CKA_LABEL. Will not be copied.
+   * @param handle
+   *          The object handle, or PKCS11Constants.CK_INVALID_HANDLE for a
+   *          miss.
+   */
+  synchronized void put(long startGeneration, long objectClass,
+      long attributeType, byte[] value, long handle) {
+    long ttl = (handle == PKCS11Constants.CK_INVALID_HANDLE)
+        ? negativeTtlNanos : ttlNanos;
+    if (ttl > 0 && startGeneration == generation) {
+      cache.put(new CacheKey(objectClass, attributeType, value),
+          new CacheEntry(handle, System.nanoTime() + ttl));
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  public synchronized void invalidate() {
+    generation++;
+    cache.clear();
+  }
+
+  /**
+   * Called after objects have been created. Removes the cached misses, since
+   * one of them may now be resolvable.
+   */
+  synchronized void objectsCreated() {
+    generation++;
+    Iterator<CacheEntry> it = cache.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().handle == PKCS11Constants.CK_INVALID_HANDLE) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Called after the attributes of an object have been modified. Removes the
+   * entries pointing to this object and the cached misses.
+   */
+  synchronized void objectModified(long handle) {
+    generation++;
+    Iterator<CacheEntry> it = cache.values().iterator();
+    while (it.hasNext()) {
+      long cachedHandle = it.next().handle;
+      if (cachedHandle == handle
+          || cachedHandle == PKCS11Constants.CK_INVALID_HANDLE) {
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Called after an object has been destroyed. Removes the entries pointing
+   * to this object.
+   */
+  synchronized void objectDestroyed(long handle) {
+    generation++;
+    Iterator<CacheEntry> it = cache.values().iterator();
+    while (it.hasNext()) {
+      if (it.next().handle == handle) {
+        it.remove();
+      }
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return Util.concatObjects("KeyHandleResolver of slot 0x",
+        Long.toHexString(slot.getSlotID()), ", entries: ", cache.size());
+  }
+
+}
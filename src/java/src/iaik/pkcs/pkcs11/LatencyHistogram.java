@@ -0,0 +1,203 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, similar to
+ * the HdrHistogram: the values below 32 are counted exactly, above each
+ * power of 2 is divided into 32 sub-buckets, so that the relative error of
+ * a recorded value is at most 1/32. Recording is lock-free and does not
+ * allocate, the histogram has a fixed size of about 15 KB.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class LatencyHistogram {
+
+  /**
+   * A consistent copy of the histogram.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+
+    private final long count;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    private Snapshot(long[] counts, long count, long totalNanos,
+        long maxNanos) {
+      this.counts = counts;
+      this.count = count;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public double getMeanNanos() {
+      return (count == 0) ? 0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Gets the value at the given percentile.
+     *
+     * @param percentile
+     *          The percentile between 0 and 100, e.g. 99.9.
+     * @return the value in nanoseconds, 0 if no value has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+      if (percentile < 0 || percentile > 100) {
+        throw new IllegalArgumentException(
+            "percentile must be between 0 and 100");
+      }
+
+      long total = 0;
+      for (long c : counts) {
+        total += c;
+      }
+
+      if (total == 0) {
+        return 0;
+      }
+
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+      long cumulated = 0;
+      for (int i = 0; i < counts.length; i++) {
+        cumulated += counts[i];
+        if (cumulated >= rank) {
+          return Math.min(maxNanos, highestEquivalentValue(i));
+        }
+      }
+      return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+      return Util.concatObjects("count=", count,
+          ", mean=", (long) getMeanNanos(),
+          "ns, p50=", getValueAtPercentile(50),
+          "ns, p99=", getValueAtPercentile(99),
+          "ns, p99.9=", getValueAtPercentile(99.9),
+          "ns, max=", maxNanos, "ns");
+    }
+
+  }
+
+  private static final int SUB_BUCKET_BITS = 5;
+
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS)
+      * SUB_BUCKET_COUNT;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+  private final AtomicLong count = new AtomicLong();
+
+  private final AtomicLong totalNanos = new AtomicLong();
+
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Records a latency.
+   *
+   * @param nanos
+   *          The latency in nanoseconds. Negative values are recorded as 0.
+   */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketIndex(value));
+    count.incrementAndGet();
+    totalNanos.addAndGet(value);
+    long max = maxNanos.get();
+    while (value > max && !maxNanos.compareAndSet(max, value)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Returns a copy of the current state. Since the recording is not blocked,
+   * the count and total of the snapshot may include values recorded while
+   * the buckets were copied.
+   *
+   * @return the snapshot.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKET_COUNT];
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, count.get(), totalNanos.get(), maxNanos.get());
+  }
+
+  /**
+   * Removes all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts.set(i, 0);
+    }
+    count.set(0);
+    totalNanos.set(0);
+    maxNanos.set(0);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+
+    int msb = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (msb - SUB_BUCKET_BITS))
+        - SUB_BUCKET_COUNT;
+    return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long highestEquivalentValue(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+
+    int group = index / SUB_BUCKET_COUNT;
+    long subBucket = index % SUB_BUCKET_COUNT;
+    long lowest = (SUB_BUCKET_COUNT + subBucket) << (group - 1);
+    return lowest + (1L << (group - 1)) - 1;
+  }
+
+  @Override
+  public String toString() {
+    return "LatencyHistogram: " + snapshot();
+  }
+
+}
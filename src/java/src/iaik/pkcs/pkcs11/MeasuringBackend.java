@@ -0,0 +1,1419 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Backend} which measures every call to the wrapped backend with
+ * the {@link CallMetrics} of the module and emits its Flight Recorder event,
+ * see {@link CallEvents}. {@link Module} puts it in front of every backend,
+ * so that {@link Module}, {@link Slot}, {@link Token} and {@link Session}
+ * call the backend directly.
+ * <p>
+ * If no module has metrics and no Flight Recorder recording is running,
+ * each call is passed on after a single branch on a volatile flag. The slot
+ * of each open session is tracked, and while the calls are measured also
+ * the mechanism of its active operations, so that the data calls, e.g.
+ * C_Sign, are keyed by the mechanism passed to their init function. An
+ * operation initialized while the calls are not measured is keyed by
+ * {@link CallMetrics#NO_MECHANISM}. C_WaitForSlotEvent is not measured,
+ * since it mostly waits for the user.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class MeasuringBackend implements Backend {
+
+  private static final long NO_MECHANISM = CallMetrics.NO_MECHANISM;
+
+  private static final long NO_SLOT = CallMetrics.NO_SLOT;
+
+  private static final int ENCRYPT = 0;
+
+  private static final int DECRYPT = 1;
+
+  private static final int DIGEST = 2;
+
+  private static final int SIGN = 3;
+
+  private static final int VERIFY = 4;
+
+  /**
+   * The slot and the mechanisms of the active operations of a session,
+   * indexed by ENCRYPT, DECRYPT, DIGEST, SIGN and VERIFY.
+   */
+  private static final class SessionCalls {
+
+    // CHECKSTYLE:SKIP
+    private final long slotID;
+
+    private final long[] mechanisms = {NO_MECHANISM, NO_MECHANISM,
+      NO_MECHANISM, NO_MECHANISM, NO_MECHANISM};
+
+    private SessionCalls(long slotID) { // CHECKSTYLE:SKIP
+      this.slotID = slotID;
+    }
+
+  }
+
+  /**
+   * The calls of sessions which were not opened via this backend.
+   */
+  private static final SessionCalls UNKNOWN_SESSION =
+      new SessionCalls(NO_SLOT);
+
+  /**
+   * The number of modules with metrics, guarded by the class.
+   */
+  private static int measuredModules;
+
+  /**
+   * Whether at least one module has metrics or a Flight Recorder recording
+   * is running. Without explicit initializer, since it may already be set
+   * by the static initializer of {@link CallEvents}.
+   */
+  private static volatile boolean measuring;
+
+  static {
+    // registers the listener of the Flight Recorder recordings
+    CallEvents.isAvailable();
+  }
+
+  private final Module module;
+
+  private final Backend backend;
+
+  private final ConcurrentHashMap<Long, SessionCalls> sessions =
+      new ConcurrentHashMap<>();
+
+  MeasuringBackend(Module module, Backend backend) {
+    this.module = Util.requireNonNull("module", module);
+    this.backend = Util.requireNonNull("backend", backend);
+  }
+
+  Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Updates the flag whether the calls are measured after the metrics of a
+   * module have been set.
+   *
+   * @param before
+   *          Whether the module had metrics before.
+   * @param after
+   *          Whether the module has metrics now.
+   */
+  static synchronized void metricsChanged(boolean before, boolean after) {
+    if (before != after) {
+      measuredModules += after ? 1 : -1;
+    }
+    measuring = measuredModules > 0 || CallEvents.isRecording();
+  }
+
+  /**
+   * Updates the flag whether the calls are measured after a Flight Recorder
+   * recording has been started or stopped.
+   */
+  static synchronized void recordingChanged() {
+    measuring = measuredModules > 0 || CallEvents.isRecording();
+  }
+
+  static boolean isMeasuring() {
+    return measuring;
+  }
+
+  // general-purpose functions
+
+  @Override
+  public void C_Finalize(Object args) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_Finalize(args);
+      return;
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_Finalize(args);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Finalize", NO_MECHANISM, NO_SLOT, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Finalize", NO_MECHANISM, NO_SLOT, 0);
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetInfo();
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetInfo();
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetInfo", NO_MECHANISM, NO_SLOT, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetInfo", NO_MECHANISM, NO_SLOT, 0);
+    }
+  }
+
+  // slot and token management functions
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetSlotList(tokenPresent);
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSlotList(tokenPresent);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetSlotList", NO_MECHANISM, NO_SLOT, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetSlotList", NO_MECHANISM, NO_SLOT, 0);
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetSlotInfo(slotID);
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSlotInfo(slotID);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetSlotInfo", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetSlotInfo", NO_MECHANISM, slotID, 0);
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetTokenInfo(slotID);
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetTokenInfo(slotID);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetTokenInfo", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetTokenInfo", NO_MECHANISM, slotID, 0);
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetMechanismList(slotID);
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetMechanismList(slotID);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetMechanismList", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetMechanismList", NO_MECHANISM, slotID, 0);
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetMechanismInfo(slotID, type);
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetMechanismInfo(slotID, type);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetMechanismInfo", type, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetMechanismInfo", type, slotID, 0);
+    }
+  }
+
+  @Override
+  public long C_WaitForSlotEvent(long flags, Object reserved)
+      throws PKCS11Exception {
+    return backend.C_WaitForSlotEvent(flags, reserved);
+  }
+
+  // session management functions
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object application,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    long hSession;
+    if (!measuring) {
+      hSession = backend.C_OpenSession(slotID, flags, application, notify);
+    } else {
+      Object event = CallEvents.begin();
+      long start = System.nanoTime();
+      try {
+        hSession = backend.C_OpenSession(slotID, flags, application, notify);
+      } catch (PKCS11Exception ex) {
+        failed(event, "C_OpenSession", NO_MECHANISM, slotID, ex);
+        throw ex;
+      } finally {
+        end(event, start, "C_OpenSession", NO_MECHANISM, slotID, 0);
+      }
+      CallEvents.sessionOpened(slotID, hSession,
+          (flags & PKCS11Constants.CKF_RW_SESSION) != 0);
+    }
+
+    sessions.put(hSession, new SessionCalls(slotID));
+    return hSession;
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    SessionCalls calls = calls(hSession);
+    sessions.remove(hSession);
+    if (!measuring) {
+      backend.C_CloseSession(hSession);
+      return;
+    }
+
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_CloseSession(hSession);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_CloseSession", NO_MECHANISM, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_CloseSession", NO_MECHANISM, calls.slotID, hSession);
+    }
+    CallEvents.sessionClosed(calls.slotID, hSession);
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetSessionInfo(hSession);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetSessionInfo(hSession);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetSessionInfo", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetSessionInfo", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GetOperationState(hSession);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GetOperationState(hSession);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetOperationState", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetOperationState", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] operationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SetOperationState(hSession, operationState, hEncryptionKey,
+          hAuthenticationKey);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SetOperationState(hSession, operationState, hEncryptionKey,
+          hAuthenticationKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SetOperationState", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SetOperationState", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pin)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_Login(hSession, userType, pin);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_Login(hSession, userType, pin);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Login", NO_MECHANISM, slotID, ex);
+      CallEvents.login(slotID, hSession, userType, ex.getErrorCode());
+      throw ex;
+    } finally {
+      end(event, start, "C_Login", NO_MECHANISM, slotID, hSession);
+    }
+    CallEvents.login(slotID, hSession, userType, PKCS11Constants.CKR_OK);
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_Logout(hSession);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_Logout(hSession);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Logout", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Logout", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  // object management functions
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_CreateObject(hSession, template);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_CreateObject(hSession, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_CreateObject", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_CreateObject", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_CopyObject(hSession, hObject, template);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_CopyObject(hSession, hObject, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_CopyObject", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_CopyObject", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_DestroyObject(hSession, hObject);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_DestroyObject(hSession, hObject);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DestroyObject", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DestroyObject", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_GetAttributeValue(hSession, hObject, template);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_GetAttributeValue(hSession, hObject, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GetAttributeValue", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GetAttributeValue", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SetAttributeValue(hSession, hObject, template);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SetAttributeValue(hSession, hObject, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SetAttributeValue", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SetAttributeValue", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_FindObjectsInit(hSession, template);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_FindObjectsInit(hSession, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_FindObjectsInit", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_FindObjectsInit", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long maxObjectCount)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_FindObjects(hSession, maxObjectCount);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_FindObjects(hSession, maxObjectCount);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_FindObjects", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_FindObjects", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_FindObjectsFinal(hSession);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_FindObjectsFinal(hSession);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_FindObjectsFinal", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_FindObjectsFinal", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  // encryption and decryption functions
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_EncryptInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(ENCRYPT, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_EncryptInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_EncryptInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_EncryptInit", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_Encrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[ENCRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_Encrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Encrypt", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Encrypt", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[ENCRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_EncryptUpdate", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_EncryptUpdate", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_EncryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[ENCRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_EncryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      CallEvents.setBytes(event, 0, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_EncryptFinal", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_EncryptFinal", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_DecryptInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(DECRYPT, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_DecryptInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DecryptInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DecryptInit", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_Decrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DECRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_Decrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Decrypt", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Decrypt", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DECRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DecryptUpdate", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DecryptUpdate", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_DecryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DECRYPT];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DecryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      CallEvents.setBytes(event, 0, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DecryptFinal", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DecryptFinal", mech, calls.slotID, hSession);
+    }
+  }
+
+  // message digesting functions
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_DigestInit(hSession, mechanism);
+      return;
+    }
+
+    long slotID = init(DIGEST, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestInit(hSession, mechanism);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DigestInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DigestInit", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM mechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_DigestSingle(hSession, mechanism, in, inOfs, inLen,
+          digest, digestOfs, digestLen);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DigestSingle(hSession, mechanism, in, inOfs, inLen,
+          digest, digestOfs, digestLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DigestSingle", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DigestSingle", mechanism.mechanism, slotID,
+          hSession);
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DIGEST];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+      CallEvents.setBytes(event, inLen, 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DigestUpdate", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DigestUpdate", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_DigestKey(hSession, hKey);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DIGEST];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestKey(hSession, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DigestKey", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DigestKey", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] digest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_DigestFinal(hSession, digest, digestOfs, digestLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[DIGEST];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DigestFinal(hSession, digest, digestOfs, digestLen);
+      CallEvents.setBytes(event, 0, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DigestFinal", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DigestFinal", mech, calls.slotID, hSession);
+    }
+  }
+
+  // signing and MACing functions
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SignInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(SIGN, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SignInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SignInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SignInit", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] data) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_Sign(hSession, data);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[SIGN];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      byte[] signature = backend.C_Sign(hSession, data);
+      CallEvents.setBytes(event, length(data), length(signature));
+      return signature;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Sign", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Sign", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[SIGN];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+      CallEvents.setBytes(event, inLen, 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SignUpdate", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SignUpdate", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_SignFinal(hSession, expectedLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[SIGN];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      byte[] signature = backend.C_SignFinal(hSession, expectedLen);
+      CallEvents.setBytes(event, 0, length(signature));
+      return signature;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SignFinal", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SignFinal", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SignRecoverInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(SIGN, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SignRecoverInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SignRecoverInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SignRecoverInit", mechanism.mechanism, slotID,
+          hSession);
+    }
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[SIGN];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SignRecover", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SignRecover", mech, calls.slotID, hSession);
+    }
+  }
+
+  // functions for verifying signatures and MACs
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_VerifyInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(VERIFY, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_VerifyInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_VerifyInit", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] data, byte[] signature)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_Verify(hSession, data, signature);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[VERIFY];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_Verify(hSession, data, signature);
+      CallEvents.setBytes(event, length(data) + length(signature), 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_Verify", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_Verify", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[VERIFY];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+      CallEvents.setBytes(event, inLen, 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_VerifyUpdate", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_VerifyUpdate", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] signature)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_VerifyFinal(hSession, signature);
+      return;
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[VERIFY];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyFinal(hSession, signature);
+      CallEvents.setBytes(event, length(signature), 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_VerifyFinal", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_VerifyFinal", mech, calls.slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_VerifyRecoverInit(hSession, mechanism, hKey);
+      return;
+    }
+
+    long slotID = init(VERIFY, hSession, mechanism); // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyRecoverInit(hSession, mechanism, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_VerifyRecoverInit", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_VerifyRecoverInit", mechanism.mechanism, slotID,
+          hSession);
+    }
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_VerifyRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+    }
+
+    SessionCalls calls = calls(hSession);
+    long mech = calls.mechanisms[VERIFY];
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_VerifyRecover(hSession, in, inOfs, inLen, out,
+          outOfs, outLen);
+      CallEvents.setBytes(event, inLen, len);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_VerifyRecover", mech, calls.slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_VerifyRecover", mech, calls.slotID, hSession);
+    }
+  }
+
+  // key management functions
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GenerateKey(hSession, mechanism, template);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GenerateKey(hSession, mechanism, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GenerateKey", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GenerateKey", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] publicKeyTemplate, CK_ATTRIBUTE[] privateKeyTemplate)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_GenerateKeyPair(hSession, mechanism,
+          publicKeyTemplate, privateKeyTemplate);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_GenerateKeyPair(hSession, mechanism,
+          publicKeyTemplate, privateKeyTemplate);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GenerateKeyPair", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GenerateKeyPair", mechanism.mechanism, slotID,
+          hSession);
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM mechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_WrapKey(hSession, mechanism, hWrappingKey, hKey);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_WrapKey(hSession, mechanism, hWrappingKey, hKey);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_WrapKey", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_WrapKey", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM mechanism,
+      long hUnwrappingKey, byte[] wrappedKey, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_UnwrapKey(hSession, mechanism, hUnwrappingKey,
+          wrappedKey, template);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_UnwrapKey(hSession, mechanism, hUnwrappingKey,
+          wrappedKey, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_UnwrapKey", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_UnwrapKey", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM mechanism,
+      long hBaseKey, CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    if (!measuring) {
+      return backend.C_DeriveKey(hSession, mechanism, hBaseKey, template);
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      return backend.C_DeriveKey(hSession, mechanism, hBaseKey, template);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_DeriveKey", mechanism.mechanism, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_DeriveKey", mechanism.mechanism, slotID, hSession);
+    }
+  }
+
+  // random number generation functions
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] seed)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_SeedRandom(hSession, seed);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_SeedRandom(hSession, seed);
+      CallEvents.setBytes(event, length(seed), 0);
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_SeedRandom", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_SeedRandom", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    if (!measuring) {
+      backend.C_GenerateRandom(hSession, randomData);
+      return;
+    }
+
+    long slotID = calls(hSession).slotID; // CHECKSTYLE:SKIP
+    Object event = CallEvents.begin();
+    long start = System.nanoTime();
+    try {
+      backend.C_GenerateRandom(hSession, randomData);
+      CallEvents.setBytes(event, 0, length(randomData));
+    } catch (PKCS11Exception ex) {
+      failed(event, "C_GenerateRandom", NO_MECHANISM, slotID, ex);
+      throw ex;
+    } finally {
+      end(event, start, "C_GenerateRandom", NO_MECHANISM, slotID, hSession);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof MeasuringBackend)) {
+      return false;
+    }
+
+    return backend.equals(((MeasuringBackend) obj).backend);
+  }
+
+  @Override
+  public int hashCode() {
+    return backend.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return backend.toString();
+  }
+
+  private void end(Object event, long start, String function,
+      long mechanism, long slotID, long hSession) { // CHECKSTYLE:SKIP
+    CallMetrics metrics = module.getCallMetrics();
+    if (metrics != null) {
+      metrics.record(function, mechanism, slotID, System.nanoTime() - start);
+    }
+    CallEvents.end(event, function, mechanism, slotID, hSession);
+  }
+
+  private void failed(Object event, String function, long mechanism,
+      long slotID, PKCS11Exception ex) { // CHECKSTYLE:SKIP
+    CallMetrics metrics = module.getCallMetrics();
+    if (metrics != null) {
+      metrics.recordError(function, mechanism, slotID, ex.getErrorCode());
+    }
+    CallEvents.setErrorCode(event, ex.getErrorCode());
+  }
+
+  private SessionCalls calls(long hSession) {
+    SessionCalls calls = sessions.get(hSession);
+    return (calls == null) ? UNKNOWN_SESSION : calls;
+  }
+
+  /**
+   * Remembers the mechanism of an operation started in a session.
+   *
+   * @return the slot of the session.
+   */
+  private long init(int operation, long hSession, CK_MECHANISM mechanism) {
+    SessionCalls calls = sessions.get(hSession);
+    if (calls == null) {
+      return NO_SLOT;
+    }
+    calls.mechanisms[operation] = mechanism.mechanism;
+    return calls.slotID;
+  }
+
+  private static int length(byte[] bytes) {
+    return (bytes == null) ? 0 : bytes.length;
+  }
+
+}
@@ -0,0 +1,358 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Immutable snapshot of the mechanisms supported by a token, together with
+ * their flags and key size bounds. It is loaded once via C_GetMechanismList
+ * and C_GetMechanismInfo, the latter called for up to 8 mechanisms in
+ * parallel in threads of this wrapper.
+ * Afterwards no native call is needed to check whether a mechanism is
+ * supported for a given operation:
+ * <pre><code>
+ *   MechanismCatalog catalog = token.getMechanismCatalog();
+ *   if (catalog.supports(PKCS11Constants.CKM_ECDSA,
+ *       PKCS11Constants.CKF_SIGN)) {
+ *     ...
+ *   }
+ * </code></pre>
+ * The mechanism codes are the generic ones, i.e. vendor defined codes are
+ * translated by the vendor code converter of the module, as in
+ * {@link Token#getMechanismList()}.
+ * <p>
+ * There is one catalog per slot, shared by all Token objects of this slot.
+ * It is dropped if the token has been removed, and can be reloaded via
+ * {@link Token#refreshMechanismCatalog()}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class MechanismCatalog {
+
+  private static final long[] EMPTY = new long[0];
+
+  /**
+   * The supported mechanism codes, sorted ascending.
+   */
+  private final long[] codes;
+
+  private final long[] flags;
+
+  private final long[] minKeySizes;
+
+  private final long[] maxKeySizes;
+
+  /**
+   * Open addressing hash table mapping the mechanism code to its index in
+   * codes, -1 marks an empty slot.
+   */
+  private final int[] table;
+
+  private final int tableMask;
+
+  private MechanismCatalog(long[] codes, long[] flags, long[] minKeySizes,
+      long[] maxKeySizes) {
+    this.codes = codes;
+    this.flags = flags;
+    this.minKeySizes = minKeySizes;
+    this.maxKeySizes = maxKeySizes;
+
+    int capacity = 16;
+    while (capacity < 2 * codes.length) {
+      capacity <<= 1;
+    }
+    this.table = new int[capacity];
+    this.tableMask = capacity - 1;
+    Arrays.fill(table, -1);
+    for (int i = 0; i < codes.length; i++) {
+      int pos = hash(codes[i]) & tableMask;
+      while (table[pos] != -1) {
+        pos = (pos + 1) & tableMask;
+      }
+      table[pos] = i;
+    }
+  }
+
+  /**
+   * Loads the catalog of the token in the given slot.
+   *
+   * @param slot
+   *          The slot.
+   * @return the loaded catalog.
+   * @exception TokenException
+   *              If reading the mechanism list or information failed.
+   */
+  static MechanismCatalog load(Slot slot) throws TokenException {
+    final Module module = slot.getModule();
+    final Backend backend = module.getBackend();
+    final long slotID = slot.getSlotID(); // CHECKSTYLE:SKIP
+
+    final long[] rawCodes;
+    try {
+      rawCodes = backend.C_GetMechanismList(slotID);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+
+    final int n = (rawCodes == null) ? 0 : rawCodes.length;
+    if (n == 0) {
+      return new MechanismCatalog(EMPTY, EMPTY, EMPTY, EMPTY);
+    }
+
+    CK_MECHANISM_INFO[] infos = new CK_MECHANISM_INFO[n];
+    List<Callable<CK_MECHANISM_INFO>> tasks = new ArrayList<>(n);
+    for (final long rawCode : rawCodes) {
+      tasks.add(new Callable<CK_MECHANISM_INFO>() {
+        @Override
+        public CK_MECHANISM_INFO call() throws Exception {
+          return backend.C_GetMechanismInfo(slotID, rawCode);
+        }
+      });
+    }
+
+    List<Future<CK_MECHANISM_INFO>> futures;
+    try {
+      futures = BlockingCalls.invokeAll(tasks);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new TokenException("interrupted while loading mechanism info",
+          ex);
+    }
+
+    for (int i = 0; i < n; i++) {
+      try {
+        infos[i] = futures.get(i).get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new TokenException("interrupted while loading mechanism info",
+            ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
+          throw new PKCS11Exception(
+              (sun.security.pkcs11.wrapper.PKCS11Exception) cause);
+        }
+        if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new TokenException((Exception) cause);
+      }
+    }
+
+    VendorCodeConverter vendorCodeConverter =
+        module.getVendorCodeConverter();
+    long[][] entries = new long[n][];
+    for (int i = 0; i < n; i++) {
+      long code = rawCodes[i];
+      if ((code & PKCS11Constants.CKM_VENDOR_DEFINED) != 0
+          && vendorCodeConverter != null) {
+        code = vendorCodeConverter.vendorToGenericCKM(code);
+      }
+      entries[i] = new long[] {code, infos[i].flags,
+          infos[i].ulMinKeySize, infos[i].ulMaxKeySize};
+    }
+
+    Arrays.sort(entries, new Comparator<long[]>() {
+      @Override
+      public int compare(long[] a, long[] b) {
+        return Long.compare(a[0], b[0]);
+      }
+    });
+
+    // drop duplicates, some modules list a mechanism twice
+    int size = 0;
+    for (int i = 0; i < n; i++) {
+      if (size == 0 || entries[size - 1][0] != entries[i][0]) {
+        entries[size++] = entries[i];
+      }
+    }
+
+    long[] codes = new long[size];
+    long[] flags = new long[size];
+    long[] minKeySizes = new long[size];
+    long[] maxKeySizes = new long[size];
+    for (int i = 0; i < size; i++) {
+      codes[i] = entries[i][0];
+      flags[i] = entries[i][1];
+      minKeySizes[i] = entries[i][2];
+      maxKeySizes[i] = entries[i][3];
+    }
+    return new MechanismCatalog(codes, flags, minKeySizes, maxKeySizes);
+  }
+
+  private static int hash(long code) {
+    long h = code * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  private int indexOf(long mechanismCode) {
+    int pos = hash(mechanismCode) & tableMask;
+    while (true) {
+      int index = table[pos];
+      if (index == -1) {
+        return -1;
+      } else if (codes[index] == mechanismCode) {
+        return index;
+      }
+      pos = (pos + 1) & tableMask;
+    }
+  }
+
+  /**
+   * Checks whether the mechanism is supported.
+   *
+   * @param mechanismCode
+   *          The mechanism code, e.g. PKCS11Constants.CKM_ECDSA.
+   * @return true if the token supports the mechanism.
+   */
+  public boolean supports(long mechanismCode) {
+    return indexOf(mechanismCode) != -1;
+  }
+
+  /**
+   * Checks whether the mechanism is supported for the given operations.
+   *
+   * @param mechanismCode
+   *          The mechanism code, e.g. PKCS11Constants.CKM_ECDSA.
+   * @param requiredFlags
+   *          The required flags, e.g. PKCS11Constants.CKF_SIGN. If more than
+   *          one flag is set, all of them are required.
+   * @return true if the token supports the mechanism with all required
+   *         flags.
+   */
+  public boolean supports(long mechanismCode, long requiredFlags) {
+    int index = indexOf(mechanismCode);
+    return index != -1 && (flags[index] & requiredFlags) == requiredFlags;
+  }
+
+  /**
+   * Checks whether the mechanism is supported for the given operations and
+   * key size.
+   *
+   * @param mechanismCode
+   *          The mechanism code, e.g. PKCS11Constants.CKM_RSA_PKCS.
+   * @param requiredFlags
+   *          The required flags, e.g. PKCS11Constants.CKF_SIGN.
+   * @param keySize
+   *          The key size, in bits or bytes depending on the mechanism.
+   * @return true if the token supports the mechanism with all required
+   *         flags and the key size is within the bounds.
+   */
+  public boolean supports(long mechanismCode, long requiredFlags,
+      long keySize) {
+    int index = indexOf(mechanismCode);
+    return index != -1 && (flags[index] & requiredFlags) == requiredFlags
+        && keySize >= minKeySizes[index] && keySize <= maxKeySizes[index];
+  }
+
+  /**
+   * Gets the flags of the mechanism.
+   *
+   * @param mechanismCode
+   *          The mechanism code.
+   * @return the flags, or 0 if the mechanism is not supported.
+   */
+  public long getFlags(long mechanismCode) {
+    int index = indexOf(mechanismCode);
+    return (index == -1) ? 0 : flags[index];
+  }
+
+  /**
+   * Gets the minimal key size of the mechanism.
+   *
+   * @param mechanismCode
+   *          The mechanism code.
+   * @return the minimal key size, or -1 if the mechanism is not supported.
+   */
+  public long getMinKeySize(long mechanismCode) {
+    int index = indexOf(mechanismCode);
+    return (index == -1) ? -1 : minKeySizes[index];
+  }
+
+  /**
+   * Gets the maximal key size of the mechanism.
+   *
+   * @param mechanismCode
+   *          The mechanism code.
+   * @return the maximal key size, or -1 if the mechanism is not supported.
+   */
+  public long getMaxKeySize(long mechanismCode) {
+    int index = indexOf(mechanismCode);
+    return (index == -1) ? -1 : maxKeySizes[index];
+  }
+
+  /**
+   * Gets the information of the mechanism. The returned object is a new
+   * one, since MechanismInfo is mutable.
+   *
+   * @param mechanismCode
+   *          The mechanism code.
+   * @return the mechanism information, or null if the mechanism is not
+   *         supported.
+   */
+  public MechanismInfo getMechanismInfo(long mechanismCode) {
+    int index = indexOf(mechanismCode);
+    if (index == -1) {
+      return null;
+    }
+
+    CK_MECHANISM_INFO ckInfo = new CK_MECHANISM_INFO(minKeySizes[index],
+        maxKeySizes[index], flags[index]);
+    return new MechanismInfo(ckInfo);
+  }
+
+  /**
+   * Gets the codes of all supported mechanisms.
+   *
+   * @return the mechanism codes, sorted ascending.
+   */
+  public long[] getMechanismCodes() {
+    return codes.clone();
+  }
+
+  public int size() {
+    return codes.length;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("MechanismCatalog: ");
+    sb.append(codes.length).append(" mechanisms");
+    for (int i = 0; i < codes.length; i++) {
+      sb.append("\n  ").append(Functions.mechanismCodeToString(codes[i]))
+        .append(": flags=0x").append(Long.toHexString(flags[i]))
+        .append(", keySize=[").append(minKeySizes[i]).append(", ")
+        .append(maxKeySizes[i]).append("]");
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,69 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+/**
+ * Receives the metrics exported by {@link CallMetrics#export(MetricsSink)}.
+ * Implementations bridge them to a metrics library, e.g. for Micrometer
+ * <code>latency</code> maps to a <code>FunctionTimer</code> or a gauge per
+ * percentile, and <code>errors</code> to a <code>FunctionCounter</code>, both
+ * tagged with function, mechanism and slot. For Prometheus, see
+ * {@link PrometheusMetricsSink}.
+ * <p>
+ * The mechanism is {@link CallMetrics#NO_MECHANISM} for functions which are
+ * not related to a mechanism, e.g. C_FindObjects.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public interface MetricsSink {
+
+  /**
+   * Receives the latencies of a function.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link CallMetrics#NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @param latencies
+   *          The latencies.
+   */
+  void latency(String function, long mechanism,
+      long slotID, LatencyHistogram.Snapshot latencies); // CHECKSTYLE:SKIP
+
+  /**
+   * Receives the number of calls of a function which failed with the given
+   * error code.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param mechanism
+   *          The mechanism code, or {@link CallMetrics#NO_MECHANISM}.
+   * @param slotID
+   *          The slot identifier.
+   * @param errorCode
+   *          The error code, e.g. PKCS11Constants.CKR_PIN_INCORRECT.
+   * @param count
+   *          The number of failed calls.
+   */
+  void errors(String function, long mechanism,
+      long slotID, long errorCode, long count); // CHECKSTYLE:SKIP
+
+}
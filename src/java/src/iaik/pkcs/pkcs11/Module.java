@@ -43,6 +43,7 @@
 package iaik.pkcs.pkcs11;
 
 import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.UnreadableAttributeTypes;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 import sun.security.pkcs11.wrapper.*;
@@ -53,6 +54,13 @@ import java.io.IOException;
 import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * <B>Caution:
@@ -163,9 +171,24 @@ public class Module {
   }
 
   /**
-   * Interface to the underlying PKCS#11 module.
+   * The lazily initialized name tables of
+   * {@link iaik.pkcs.pkcs11.wrapper.Functions}.
    */
-  private PKCS11 pkcs11Module;
+  private static final String[] CODE_NAMES_HOLDER_CLASSES = {
+    "iaik.pkcs.pkcs11.wrapper.CodeNames$CkmNames",
+    "iaik.pkcs.pkcs11.wrapper.CodeNames$CkrNames",
+    "iaik.pkcs.pkcs11.wrapper.CodeNames$CkaNames"};
+
+  /**
+   * Interface to the underlying PKCS#11 module, set by initialize().
+   */
+  private Backend backend;
+
+  /**
+   * The backend passed to the constructor, or null if the PKCS#11 module is
+   * loaded via the PKCS11 wrapper of the JDK.
+   */
+  private final Backend customBackend;
 
   private final String pkcs11ModuleName;
 
@@ -176,6 +199,58 @@ public class Module {
    */
   private Key.VendorDefinedKeyBuilder vendorKeyBuilder;
 
+  /**
+   * The key handle resolvers, one per slot. Kept here, since the Slot and
+   * Token objects are created on each call of getSlotList and getToken.
+   */
+  private final ConcurrentHashMap<Long, KeyHandleResolver> keyHandleResolvers =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The caches of SlotInfo and TokenInfo, one per slot.
+   */
+  private final ConcurrentHashMap<Long, SlotInfoCache> slotInfoCaches =
+      new ConcurrentHashMap<>();
+
+  /**
+   * The mechanism catalogs, one per slot.
+   */
+  private final ConcurrentHashMap<Long, MechanismCatalog> mechanismCatalogs =
+      new ConcurrentHashMap<>();
+
+  private final Object slotMonitorLock = new Object();
+
+  private SlotMonitor slotMonitor;
+
+  /**
+   * The cache of object attribute values, or null.
+   */
+  private volatile ObjectValueCache objectValueCache;
+
+  /**
+   * The metrics of the calls to the PKCS#11 module, or null.
+   */
+  private volatile CallMetrics callMetrics;
+
+  /**
+   * The backend which measures the calls to {@link #backend}, set by
+   * initialize().
+   */
+  private MeasuringBackend measuringBackend;
+
+  /**
+   * The backend which records the calls to {@link #measuringBackend}, or
+   * null.
+   */
+  private volatile RecordingBackend recordingBackend;
+
+  /**
+   * The attribute types known to be invalid or sensitive for objects of
+   * this module.
+   */
+  private final UnreadableAttributeTypes unreadableAttributeTypes =
+      new UnreadableAttributeTypes();
+
   /**
    * Create a new module that uses the given PKCS11 interface to interact with
    * the token.
@@ -185,6 +260,20 @@ public class Module {
    */
   public Module(String pkcs11ModuleName) {
     this.pkcs11ModuleName = pkcs11ModuleName;
+    this.customBackend = null;
+  }
+
+  /**
+   * Create a new module that uses the given backend instead of loading a
+   * native PKCS#11 module, e.g. a simulated token. The backend is activated
+   * by {@link #initialize(InitializeArgs)}, whose arguments are ignored.
+   *
+   * @param backend
+   *          The backend to interact with the token.
+   */
+  public Module(Backend backend) {
+    this.customBackend = Util.requireNonNull("backend", backend);
+    this.pkcs11ModuleName = backend.toString();
   }
 
   /**
@@ -282,7 +371,7 @@ public class Module {
     assertInitialized();
     CK_INFO ckInfo;
     try {
-      ckInfo = pkcs11Module.C_GetInfo();
+      ckInfo = getBackend().C_GetInfo();
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -301,6 +390,12 @@ public class Module {
    *              If initialization fails.
    */
   public void initialize(InitializeArgs initArgs) throws TokenException {
+    if (customBackend != null) {
+      backend = customBackend;
+      measuringBackend = new MeasuringBackend(this, backend);
+      return;
+    }
+
     CK_C_INITIALIZE_ARGS wrapperInitArgs = null;
     if (initArgs != null) {
       InitializeArgs castedInitArgs = initArgs;
@@ -356,6 +451,7 @@ public class Module {
 
     final String functionList = "C_GetFunctionList";
     final boolean omitInitialize = false;
+    PKCS11 pkcs11Module;
     try {
       pkcs11Module = PKCS11.getInstance(pkcs11ModuleName, functionList,
           wrapperInitArgs, omitInitialize);
@@ -378,6 +474,62 @@ public class Module {
         throw new TokenException(ex1.getMessage(), ex1);
       }
     }
+    backend = new JdkBackend(pkcs11Module);
+    measuringBackend = new MeasuringBackend(this, backend);
+  }
+
+  /**
+   * Initializes in parallel the classes of this wrapper which are otherwise
+   * initialized on first use, e.g. the reflective access to the JDK
+   * internals and the name tables of mechanisms, errors and attributes.
+   * The classes are loaded in threads of this wrapper, not in the common
+   * ForkJoinPool.
+   * Applications for which the latency of the first operations matters can
+   * call it at startup, possibly in a background thread.
+   * <p>
+   * Calling this method in the training run of a class data sharing
+   * archive, e.g. with <code>-XX:ArchiveClassesAtExit=app.jsa</code>,
+   * ensures that these classes are loaded and hence archived. The archive
+   * contains only the class metadata: the static initializers, and with
+   * them the reflective lookups, still run in every JVM.
+   */
+  public static void preloadClasses() {
+    List<String> classNames = new ArrayList<>();
+    Collections.addAll(classNames, Session.LAZY_HOLDER_CLASSES);
+    Collections.addAll(classNames, Token.LAZY_HOLDER_CLASSES);
+    Collections.addAll(classNames, JdkBackend.LAZY_HOLDER_CLASSES);
+    Collections.addAll(classNames, CODE_NAMES_HOLDER_CLASSES);
+
+    final ClassLoader classLoader = Module.class.getClassLoader();
+    List<Callable<Class<?>>> tasks = new ArrayList<>(classNames.size());
+    for (final String className : classNames) {
+      tasks.add(new Callable<Class<?>>() {
+        @Override
+        public Class<?> call() throws Exception {
+          return Class.forName(className, true, classLoader);
+        }
+      });
+    }
+
+    List<Future<Class<?>>> futures;
+    try {
+      futures = BlockingCalls.invokeAll(tasks);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+
+    for (Future<Class<?>> future : futures) {
+      try {
+        future.get();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException ex) {
+        throw new IllegalStateException("could not initialize class",
+            ex.getCause());
+      }
+    }
   }
 
   /**
@@ -397,7 +549,7 @@ public class Module {
     assertInitialized();
     long[] slotIDs;
     try {
-      slotIDs = pkcs11Module.C_GetSlotList(tokenPresent);
+      slotIDs = getBackend().C_GetSlotList(tokenPresent);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -425,26 +577,268 @@ public class Module {
    * @return The slot for which an event occurred.
    * @exception TokenException
    *              If the method was called with WaitingBehavior.DONT_BLOCK but
-   *              there was no event available, or if an error occurred.
+   *              there was no event available, or if an error occurred. If
+   *              the PKCS11 wrapper of the JDK does not provide
+   *              C_WaitForSlotEvent, the error code is
+   *              CKR_FUNCTION_NOT_SUPPORTED.
+   * @see #isWaitForSlotEventSupported()
    */
-  /*
-  public Slot waitForSlotEvent(boolean dontBlock, PKCS11Object reserved)
+  public Slot waitForSlotEvent(boolean dontBlock, Object reserved)
     throws TokenException {
+    assertInitialized();
     long flags = (dontBlock) ? PKCS11Constants.CKF_DONT_BLOCK : 0L;
-    long slotID = pkcs11Module_.C_WaitForSlotEvent(flags, reserved);
+    long slotID;
+    try {
+      slotID = getBackend().C_WaitForSlotEvent(flags, reserved);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
 
     return new Slot(this, slotID);
-  }*/
+  }
+
+  /**
+   * Check, if the PKCS11 wrapper of the JDK provides C_WaitForSlotEvent.
+   * Whether the PKCS#11 module supports it is only known after the first
+   * call of {@link #waitForSlotEvent(boolean, Object)}.
+   *
+   * @return True, if C_WaitForSlotEvent is available. False, otherwise.
+   */
+  public static boolean isWaitForSlotEventSupported() {
+    return JdkBackend.WAIT_FOR_SLOT_EVENT != null;
+  }
+
+  /**
+   * Gets the slot monitor of this module, creates it if required. The
+   * monitor is not started.
+   *
+   * @return the slot monitor of this module.
+   */
+  public SlotMonitor getSlotMonitor() {
+    synchronized (slotMonitorLock) {
+      if (slotMonitor == null) {
+        slotMonitor = new SlotMonitor(this);
+      }
+      return slotMonitor;
+    }
+  }
 
   /**
    * Gets the PKCS#11 module of the wrapper package behind this object.
    *
-   * @return The PKCS#11 module behind this object.
+   * @return The PKCS#11 module behind this object, or null if this module
+   *         uses a backend other than {@link JdkBackend}.
    */
   // CHECKSTYLE:SKIP
   public PKCS11 getPKCS11Module() {
     assertInitialized();
-    return pkcs11Module;
+    return (backend instanceof JdkBackend)
+        ? ((JdkBackend) backend).getPKCS11() : null;
+  }
+
+  /**
+   * Gets the backend which performs the PKCS#11 calls of this module.
+   *
+   * @return the backend.
+   */
+  public Backend getBackend() {
+    assertInitialized();
+    RecordingBackend recording = recordingBackend;
+    return (recording != null) ? recording : measuringBackend;
+  }
+
+  /**
+   * Set the cache of object attribute values which shall be used by
+   * {@link Session#getAttributeValue(long, long)}.
+   *
+   * @param cache
+   *          The cache. Null to disable the caching.
+   */
+  public void setObjectValueCache(ObjectValueCache cache) {
+    this.objectValueCache = cache;
+  }
+
+  /**
+   * Get the cache of object attribute values.
+   *
+   * @return the cache of object attribute values, or null if none is set.
+   */
+  public ObjectValueCache getObjectValueCache() {
+    return objectValueCache;
+  }
+
+  /**
+   * Set the metrics which record the latencies and errors of the calls to
+   * the PKCS#11 module.
+   *
+   * @param callMetrics
+   *          The metrics. Null to disable the recording.
+   */
+  public synchronized void setCallMetrics(CallMetrics callMetrics) {
+    boolean before = this.callMetrics != null;
+    this.callMetrics = callMetrics;
+    MeasuringBackend.metricsChanged(before, callMetrics != null);
+  }
+
+  /**
+   * Set the recorder which writes the calls to the PKCS#11 module to a file,
+   * see {@link CallRecorder}. The recorder applies to the calls of this
+   * module, its slots and tokens, and to the sessions opened afterwards;
+   * sessions keep the recorder which was set when they were opened.
+   *
+   * @param callRecorder
+   *          The recorder. Null to stop the recording.
+   */
+  public void setCallRecorder(CallRecorder callRecorder) {
+    assertInitialized();
+    this.recordingBackend = (callRecorder == null) ? null
+        : new RecordingBackend(measuringBackend, callRecorder);
+  }
+
+  /**
+   * Get the recorder of the calls to the PKCS#11 module.
+   *
+   * @return the recorder, or null if none is set.
+   */
+  public CallRecorder getCallRecorder() {
+    RecordingBackend recording = recordingBackend;
+    return (recording == null) ? null : recording.getRecorder();
+  }
+
+  /**
+   * Get the metrics of the calls to the PKCS#11 module.
+   *
+   * @return the metrics, or null if none are set.
+   */
+  public CallMetrics getCallMetrics() {
+    return callMetrics;
+  }
+
+  /**
+   * Get the attribute types which this module reported as invalid or
+   * sensitive while reading objects.
+   *
+   * @return the attribute types known to be unreadable.
+   */
+  public UnreadableAttributeTypes getUnreadableAttributeTypes() {
+    return unreadableAttributeTypes;
+  }
+
+  /**
+   * Gets the key handle resolver of the given slot, creates it if required.
+   *
+   * @param slot
+   *          The slot.
+   * @return the key handle resolver of the given slot.
+   */
+  KeyHandleResolver getKeyHandleResolver(Slot slot) {
+    KeyHandleResolver resolver = keyHandleResolvers.get(slot.getSlotID());
+    if (resolver == null) {
+      resolver = new KeyHandleResolver(slot);
+      KeyHandleResolver existing =
+          keyHandleResolvers.putIfAbsent(slot.getSlotID(), resolver);
+      if (existing != null) {
+        resolver = existing;
+      }
+    }
+    return resolver;
+  }
+
+  /**
+   * Gets the key handle resolver of the given slot.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @return the key handle resolver, or null if it has not been created yet.
+   */
+  KeyHandleResolver getExistingKeyHandleResolver(long slotID) {
+    return keyHandleResolvers.get(slotID);
+  }
+
+  /**
+   * Gets the SlotInfo and TokenInfo cache of the given slot, creates it if
+   * required.
+   *
+   * @param slot
+   *          The slot.
+   * @return the info cache of the given slot.
+   */
+  SlotInfoCache getSlotInfoCache(Slot slot) {
+    SlotInfoCache cache = slotInfoCaches.get(slot.getSlotID());
+    if (cache == null) {
+      cache = new SlotInfoCache(slot);
+      SlotInfoCache existing =
+          slotInfoCaches.putIfAbsent(slot.getSlotID(), cache);
+      if (existing != null) {
+        cache = existing;
+      }
+    }
+    return cache;
+  }
+
+  /**
+   * Gets the mechanism catalog of the given slot, loads it if required.
+   *
+   * @param slot
+   *          The slot.
+   * @return the mechanism catalog of the given slot.
+   * @exception TokenException
+   *              If loading the catalog failed.
+   */
+  MechanismCatalog getMechanismCatalog(Slot slot) throws TokenException {
+    MechanismCatalog catalog = mechanismCatalogs.get(slot.getSlotID());
+    if (catalog == null) {
+      // concurrent first calls may load twice, the result is the same
+      catalog = MechanismCatalog.load(slot);
+      MechanismCatalog existing =
+          mechanismCatalogs.putIfAbsent(slot.getSlotID(), catalog);
+      if (existing != null) {
+        catalog = existing;
+      }
+    }
+    return catalog;
+  }
+
+  /**
+   * Reloads the mechanism catalog of the given slot.
+   *
+   * @param slot
+   *          The slot.
+   * @return the reloaded mechanism catalog.
+   * @exception TokenException
+   *              If loading the catalog failed.
+   */
+  MechanismCatalog refreshMechanismCatalog(Slot slot) throws TokenException {
+    MechanismCatalog catalog = MechanismCatalog.load(slot);
+    mechanismCatalogs.put(slot.getSlotID(), catalog);
+    return catalog;
+  }
+
+  /**
+   * Called if no token is present in the given slot. Clears all state
+   * bound to the token previously in this slot.
+   *
+   * @param slotID
+   *          The slot identifier.
+   */
+  void tokenRemoved(long slotID) {
+    KeyHandleResolver resolver = keyHandleResolvers.get(slotID);
+    if (resolver != null) {
+      resolver.invalidate();
+    }
+
+    ObjectValueCache cache = objectValueCache;
+    if (cache != null) {
+      cache.invalidate(slotID);
+    }
+
+    SlotInfoCache infoCache = slotInfoCaches.get(slotID);
+    if (infoCache != null) {
+      infoCache.invalidate();
+    }
+
+    // the next token may support other mechanisms
+    mechanismCatalogs.remove(slotID);
   }
 
   /**
@@ -453,7 +847,7 @@ public class Module {
    * @return The string representation of object
    */
   public String toString() {
-    return (pkcs11Module != null) ? pkcs11Module.toString() : null;
+    return (backend != null) ? backend.toString() : null;
   }
 
   /**
@@ -476,12 +870,18 @@ public class Module {
    *              If finalization fails.
    */
   public void finalize(Object args) throws TokenException {
-    if (pkcs11Module == null) {
+    if (backend == null) {
       return;
     }
 
+    synchronized (slotMonitorLock) {
+      if (slotMonitor != null) {
+        slotMonitor.stop();
+      }
+    }
+
     try {
-      pkcs11Module.C_Finalize(args);
+      getBackend().C_Finalize(args);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -505,7 +905,7 @@ public class Module {
     }
 
     Module other = (Module) otherObject;
-    return Util.objEquals(this.pkcs11Module, other.pkcs11Module);
+    return Util.objEquals(this.backend, other.backend);
   }
 
   /**
@@ -516,11 +916,11 @@ public class Module {
    */
   @Override
   public int hashCode() {
-    return pkcs11Module == null ? 0 : pkcs11Module.hashCode();
+    return backend == null ? 0 : backend.hashCode();
   }
 
   private void assertInitialized() {
-    if (pkcs11Module == null) {
+    if (backend == null) {
       throw new IllegalStateException(
           "Module not initialized yet, please call initialize() first");
     }
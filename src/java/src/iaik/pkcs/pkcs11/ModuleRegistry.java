@@ -0,0 +1,194 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Process-wide registry of initialized modules, keyed by the canonical path
+ * of the PKCS#11 library. A PKCS#11 library can be initialized only once
+ * per process, and once it has been finalized, it cannot be initialized
+ * again. Components which use the same library must therefore share one
+ * {@link Module}:
+ * <pre><code>
+ *   Module module = ModuleRegistry.acquire("/usr/lib/softhsm/libsofthsm2.so");
+ *   try {
+ *     // ... work with the module
+ *   } finally {
+ *     ModuleRegistry.release(module);
+ *   }
+ * </code></pre>
+ * The first acquire of a library creates and initializes the module, the
+ * following ones return the same module and increase its reference count.
+ * {@link #release(Module)} decreases it. A module whose reference count
+ * dropped to 0 is kept initialized, so that it can be acquired again; it is
+ * finalized by {@link #shutdown()}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class ModuleRegistry {
+
+  private static final class Entry {
+
+    private final Module module;
+
+    private int referenceCount;
+
+    private Entry(Module module) {
+      this.module = module;
+    }
+
+  }
+
+  private static final Map<String, Entry> entries = new HashMap<>();
+
+  private static boolean shutdown;
+
+  private ModuleRegistry() {
+  }
+
+  /**
+   * Acquires the module of the given PKCS#11 library, initialized with
+   * default arguments if it is not initialized yet.
+   *
+   * @param pkcs11ModuleName
+   *          The path of the PKCS#11 library.
+   * @return the initialized module.
+   * @exception IOException
+   *              If the library cannot be read.
+   * @exception TokenException
+   *              If initializing the module failed.
+   */
+  public static Module acquire(String pkcs11ModuleName)
+      throws IOException, TokenException {
+    return acquire(pkcs11ModuleName, null);
+  }
+
+  /**
+   * Acquires the module of the given PKCS#11 library.
+   *
+   * @param pkcs11ModuleName
+   *          The path of the PKCS#11 library.
+   * @param initArgs
+   *          The arguments to initialize the module, only used if the module
+   *          is not initialized yet. May be null.
+   * @return the initialized module.
+   * @exception IOException
+   *              If the library cannot be read.
+   * @exception TokenException
+   *              If initializing the module failed.
+   * @exception IllegalStateException
+   *              If the registry has been shut down.
+   */
+  public static synchronized Module acquire(String pkcs11ModuleName,
+      InitializeArgs initArgs) throws IOException, TokenException {
+    Util.requireNonNull("pkcs11ModuleName", pkcs11ModuleName);
+    if (shutdown) {
+      throw new IllegalStateException("module registry has been shut down");
+    }
+
+    String key = new File(pkcs11ModuleName).getCanonicalPath();
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      Module module = Module.getInstance(pkcs11ModuleName);
+      module.initialize(initArgs);
+      entry = new Entry(module);
+      entries.put(key, entry);
+    }
+
+    entry.referenceCount++;
+    return entry.module;
+  }
+
+  /**
+   * Releases a module acquired via {@link #acquire(String)}.
+   *
+   * @param module
+   *          The module.
+   * @return the remaining reference count.
+   * @exception IllegalArgumentException
+   *              If the module was not acquired from this registry or has
+   *              been released more often than acquired.
+   */
+  public static synchronized int release(Module module) {
+    Util.requireNonNull("module", module);
+    for (Entry entry : entries.values()) {
+      if (entry.module == module) {
+        if (entry.referenceCount == 0) {
+          throw new IllegalArgumentException(
+              "module has been released more often than acquired");
+        }
+        return --entry.referenceCount;
+      }
+    }
+
+    throw new IllegalArgumentException(
+        "module has not been acquired from the registry");
+  }
+
+  /**
+   * Gets the reference count of the given library.
+   *
+   * @param pkcs11ModuleName
+   *          The path of the PKCS#11 library.
+   * @return the reference count, 0 if not acquired.
+   * @exception IOException
+   *              If the canonical path cannot be determined.
+   */
+  public static synchronized int getReferenceCount(String pkcs11ModuleName)
+      throws IOException {
+    Entry entry = entries.get(new File(pkcs11ModuleName).getCanonicalPath());
+    return (entry == null) ? 0 : entry.referenceCount;
+  }
+
+  /**
+   * Finalizes all modules of this registry, e.g. in a shutdown hook. The
+   * modules cannot be used anymore, and {@link #acquire(String)} fails
+   * afterwards, since a finalized library cannot be initialized again.
+   *
+   * @exception TokenException
+   *              If finalizing a module failed. The other modules are
+   *              finalized nevertheless.
+   */
+  public static synchronized void shutdown() throws TokenException {
+    shutdown = true;
+    TokenException firstException = null;
+    Iterator<Entry> it = entries.values().iterator();
+    while (it.hasNext()) {
+      Module module = it.next().module;
+      it.remove();
+      try {
+        module.finalize(null);
+      } catch (TokenException ex) {
+        if (firstException == null) {
+          firstException = ex;
+        }
+      }
+    }
+
+    if (firstException != null) {
+      throw firstException;
+    }
+  }
+
+}
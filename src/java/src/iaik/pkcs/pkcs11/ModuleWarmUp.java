@@ -0,0 +1,341 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declarative warm-up of a module: opens the configured number of sessions
+ * in each slot, logs in, loads the {@link MechanismCatalog} and resolves the
+ * configured keys into the {@link KeyHandleResolver} of the token. The slots
+ * are warmed up in parallel, and the keys of a slot are resolved by a
+ * {@link KeyAliasPreloader} using all sessions of that slot, so that the
+ * latency of the first requests is not dominated by C_OpenSession, C_Login
+ * and C_FindObjects.
+ * <pre><code>
+ *   ModuleWarmUp warmUp = new ModuleWarmUp();
+ *   warmUp.setSessionsPerSlot(4);
+ *   warmUp.setPin(pin);
+ *   warmUp.addKeyLabel(PKCS11Constants.CKO_PRIVATE_KEY, "signer");
+ *   Map&lt;Long, List&lt;Session&gt;&gt; sessions = warmUp.run(module);
+ * </code></pre>
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class ModuleWarmUp {
+
+  private int sessionsPerSlot = 1;
+
+  private boolean readWrite;
+
+  private long userType = PKCS11Constants.CKU_USER;
+
+  private char[] pin;
+
+  private long[] slotIDs;
+
+  private boolean failOnMissingKey = true;
+
+  private final KeyAliasPreloader keyAliasPreloader = new KeyAliasPreloader();
+
+  public int getSessionsPerSlot() {
+    return sessionsPerSlot;
+  }
+
+  public void setSessionsPerSlot(int sessionsPerSlot) {
+    if (sessionsPerSlot < 1) {
+      throw new IllegalArgumentException("sessionsPerSlot must be positive");
+    }
+    this.sessionsPerSlot = sessionsPerSlot;
+  }
+
+  public boolean isReadWrite() {
+    return readWrite;
+  }
+
+  public void setReadWrite(boolean readWrite) {
+    this.readWrite = readWrite;
+  }
+
+  public long getUserType() {
+    return userType;
+  }
+
+  /**
+   * Sets the user type to login.
+   *
+   * @param userType
+   *          PKCS11Constants.CKU_USER (default), PKCS11Constants.CKU_SO or a
+   *          vendor defined user type.
+   */
+  public void setUserType(long userType) {
+    this.userType = userType;
+  }
+
+  /**
+   * Sets the PIN to login.
+   *
+   * @param pin
+   *          The PIN. null to not login, e.g. for public keys only or if the
+   *          token has a protected authentication path.
+   */
+  public void setPin(char[] pin) {
+    this.pin = (pin == null) ? null : pin.clone();
+  }
+
+  /**
+   * Sets the slots to warm up.
+   *
+   * @param slotIDs
+   *          The identifiers of the slots. null (default) for all slots with
+   *          a token present.
+   */
+  public void setSlotIDs(long... slotIDs) { // CHECKSTYLE:SKIP
+    this.slotIDs = (slotIDs == null) ? null : slotIDs.clone();
+  }
+
+  public boolean isFailOnMissingKey() {
+    return failOnMissingKey;
+  }
+
+  /**
+   * Sets whether the warm-up fails if a configured key does not exist.
+   *
+   * @param failOnMissingKey
+   *          true (default) to fail, false to ignore missing keys.
+   */
+  public void setFailOnMissingKey(boolean failOnMissingKey) {
+    this.failOnMissingKey = failOnMissingKey;
+  }
+
+  /**
+   * Adds a key to be resolved by its CKA_LABEL.
+   *
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param label
+   *          The label.
+   */
+  public void addKeyLabel(long objectClass, String label) {
+    keyAliasPreloader.addByLabel(
+        Util.concatObjects("0x", Long.toHexString(objectClass), "/label/",
+            label), objectClass, label);
+  }
+
+  /**
+   * Adds a key to be resolved by its CKA_ID.
+   *
+   * @param objectClass
+   *          The object class, e.g. PKCS11Constants.CKO_PRIVATE_KEY.
+   * @param id
+   *          The identifier.
+   */
+  public void addKeyId(long objectClass, byte[] id) {
+    Util.requireNonNull("id", id);
+    keyAliasPreloader.addById(
+        Util.concatObjects("0x", Long.toHexString(objectClass), "/id/",
+            Util.toHex(id)), objectClass, id);
+  }
+
+  /**
+   * Returns the preloader which resolves the configured keys in each slot,
+   * e.g. to add keys with own aliases or to change the sweep threshold.
+   *
+   * @return the key alias preloader.
+   */
+  public KeyAliasPreloader getKeyAliasPreloader() {
+    return keyAliasPreloader;
+  }
+
+  /**
+   * Warms up the given module. The slots are processed in parallel, one
+   * thread per slot. If the warm-up of any slot fails, all sessions opened
+   * so far are closed again. If the calling thread is interrupted, the
+   * threads are interrupted as well, and the sessions are closed after the
+   * calls still running in the module have returned.
+   *
+   * @param module
+   *          The initialized module.
+   * @return the opened sessions per slot identifier. The caller is
+   *         responsible for closing them, e.g. by returning them to a pool.
+   * @exception TokenException
+   *              If opening a session, the login or resolving a key failed.
+   */
+  public Map<Long, List<Session>> run(Module module) throws TokenException {
+    Util.requireNonNull("module", module);
+    List<Slot> slots = new ArrayList<>();
+    if (slotIDs == null) {
+      Collections.addAll(slots, module.getSlotList(Module.SlotRequirement
+          .TOKEN_PRESENT));
+    } else {
+      for (long slotID : slotIDs) {
+        slots.add(new Slot(module, slotID));
+      }
+    }
+
+    Map<Long, List<Session>> result = new LinkedHashMap<>();
+    if (slots.isEmpty()) {
+      return result;
+    }
+
+    // each task adds its sessions before doing anything else, so that they
+    // can be closed if any task fails.
+    final Map<Long, List<Session>> opened = new HashMap<>();
+    List<Callable<List<Session>>> tasks = new ArrayList<>(slots.size());
+    for (final Slot slot : slots) {
+      final List<Session> sessions = new ArrayList<>(sessionsPerSlot);
+      opened.put(slot.getSlotID(), sessions);
+      tasks.add(new Callable<List<Session>>() {
+        @Override
+        public List<Session> call() throws TokenException {
+          warmUp(slot, sessions);
+          return sessions;
+        }
+      });
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(slots.size());
+    TokenException firstException = null;
+    try {
+      List<Future<List<Session>>> futures = executor.invokeAll(tasks);
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          result.put(slots.get(i).getSlotID(), futures.get(i).get());
+        } catch (ExecutionException ex) {
+          if (firstException == null) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof TokenException) {
+              firstException = (TokenException) cause;
+            } else if (cause instanceof Error) {
+              throw (Error) cause;
+            } else {
+              firstException = new TokenException((Exception) cause);
+            }
+          }
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      firstException = new TokenException("warm-up interrupted", ex);
+    } finally {
+      executor.shutdownNow();
+      // the tasks may still open sessions, wait for them before closing
+      awaitTermination(executor);
+    }
+
+    if (firstException != null) {
+      for (List<Session> sessions : opened.values()) {
+        synchronized (sessions) {
+          for (Session session : sessions) {
+            try {
+              session.closeSession();
+            } catch (TokenException ex) {
+              // ignore, the first exception is more relevant
+            }
+          }
+        }
+      }
+      throw firstException;
+    }
+
+    return result;
+  }
+
+  private static void awaitTermination(ExecutorService executor) {
+    // wait also if interrupted, and keep the interrupt status
+    boolean interrupted = Thread.interrupted();
+    while (true) {
+      try {
+        if (executor.awaitTermination(1, TimeUnit.MINUTES)) {
+          break;
+        }
+      } catch (InterruptedException ex) {
+        interrupted = true;
+      }
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void warmUp(Slot slot, List<Session> sessions)
+      throws TokenException {
+    Token token = slot.getToken();
+    if (token == null) {
+      throw new TokenException("no token present in slot "
+          + slot.getSlotID());
+    }
+
+    for (int i = 0; i < sessionsPerSlot; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        throw new TokenException("warm-up interrupted");
+      }
+      Session session = token.openSession(Token.SessionType.SERIAL_SESSION,
+          readWrite, null, null);
+      synchronized (sessions) {
+        sessions.add(session);
+      }
+    }
+
+    Session session = sessions.get(0);
+    if (pin != null) {
+      // all sessions of a token share the login state
+      try {
+        session.login(userType, pin);
+      } catch (PKCS11Exception ex) {
+        if (ex.getErrorCode() != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+          throw ex;
+        }
+      }
+    }
+
+    token.getMechanismCatalog();
+
+    if (keyAliasPreloader.size() == 0) {
+      return;
+    }
+
+    KeyAliasPreloader.Result result = keyAliasPreloader.preload(sessions);
+    if (!result.getAmbiguousAliases().isEmpty()) {
+      throw new TokenException("found more than 1 object for keys "
+          + result.getAmbiguousAliases() + " in slot " + slot.getSlotID());
+    }
+
+    if (failOnMissingKey && !result.getMissingAliases().isEmpty()) {
+      throw new TokenException("could not find keys "
+          + result.getMissingAliases() + " in slot " + slot.getSlotID());
+    }
+  }
+
+}
@@ -0,0 +1,536 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of attribute values of token objects, e.g. CKA_VALUE of certificates
+ * or CKA_MODULUS and CKA_EC_POINT of public keys, keyed by (slot, object
+ * handle, attribute type).
+ * <p>
+ * The cache is bounded by the total number of bytes of the cached values.
+ * It uses the segmented LRU eviction: new entries are put in the probation
+ * segment, an entry is moved to the protected segment when it is hit again.
+ * If the protected segment is full, its least recently used entries are
+ * moved back to the probation segment, if the cache is full, the least
+ * recently used entries of the probation segment are evicted. In this way
+ * values read only once (e.g. by a scan over all objects) cannot replace
+ * the frequently used values.
+ * <p>
+ * Values whose length reaches the off-heap threshold are stored in direct
+ * byte buffers outside of the Java heap.
+ * <p>
+ * The cache is used by {@link Session#getAttributeValue(long, long)} once it
+ * has been set via {@link Module#setObjectValueCache(ObjectValueCache)}.
+ * Since a cached value is returned without asking the token, the session
+ * caches only the values of public objects which everybody may read:
+ * certificates and public keys with CKA_PRIVATE false.
+ * <p>
+ * The entries are keyed by a generation per slot as well. A new generation
+ * is started, and the entries of the older ones are removed, by login and
+ * logout, and by closing a session which has created objects, since its
+ * session objects are destroyed and their handles may be reused. The
+ * entries of an object are removed if the object is modified or destroyed
+ * via {@link Session}, and all entries of a slot are removed if the token
+ * has been removed. Changes by other applications are not noticed before
+ * the entries expire.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class ObjectValueCache {
+
+  private static final class CacheKey {
+
+    // CHECKSTYLE:SKIP
+    private final long slotID;
+
+    private final long generation;
+
+    private final long objectHandle;
+
+    private final long attributeType;
+
+    private CacheKey(long slotID, long generation, // CHECKSTYLE:SKIP
+        long objectHandle, long attributeType) {
+      this.slotID = slotID;
+      this.generation = generation;
+      this.objectHandle = objectHandle;
+      this.attributeType = attributeType;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * (31 * Long.hashCode(slotID)
+          + Long.hashCode(generation)) + Long.hashCode(objectHandle))
+          + Long.hashCode(attributeType);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return slotID == other.slotID && generation == other.generation
+          && objectHandle == other.objectHandle
+          && attributeType == other.attributeType;
+    }
+
+  }
+
+  private static final class CacheEntry {
+
+    private final byte[] heapValue;
+
+    private final ByteBuffer offHeapValue;
+
+    private final int weight;
+
+    private final long expiresAt;
+
+    private CacheEntry(byte[] heapValue, ByteBuffer offHeapValue, int length,
+        long expiresAt) {
+      this.heapValue = heapValue;
+      this.offHeapValue = offHeapValue;
+      this.weight = length + ENTRY_OVERHEAD;
+      this.expiresAt = expiresAt;
+    }
+
+    private byte[] getValue() {
+      if (heapValue != null) {
+        return heapValue.clone();
+      }
+
+      byte[] value = new byte[offHeapValue.capacity()];
+      // use a duplicate, so that concurrent reads do not share the position
+      offHeapValue.duplicate().get(value);
+      return value;
+    }
+
+  }
+
+  public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000L;
+
+  /**
+   * Approximated memory used by one entry in addition to its value.
+   */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  /**
+   * Share of the protected segment in the whole cache.
+   */
+  private static final int PROTECTED_PERCENT = 80;
+
+  private final long maxBytes;
+
+  private final long maxProtectedBytes;
+
+  private final int offHeapThreshold;
+
+  private final LinkedHashMap<CacheKey, CacheEntry> probation =
+      new LinkedHashMap<>(64, 0.75f, true);
+
+  private final LinkedHashMap<CacheKey, CacheEntry> protectedSegment =
+      new LinkedHashMap<>(64, 0.75f, true);
+
+  /**
+   * The current generation of each slot, 0 if not present.
+   */
+  private final Map<Long, Long> generations = new HashMap<>();
+
+  private long ttlNanos = DEFAULT_TTL_MILLIS * 1000000L;
+
+  private long probationBytes;
+
+  private long protectedBytes;
+
+  private long offHeapBytes;
+
+  private long hitCount;
+
+  private long missCount;
+
+  private long evictionCount;
+
+  /**
+   * Creates a cache which stores all values in the Java heap.
+   *
+   * @param maxBytes
+   *          Maximal number of bytes used by the cached values.
+   */
+  public ObjectValueCache(long maxBytes) {
+    this(maxBytes, -1);
+  }
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxBytes
+   *          Maximal number of bytes used by the cached values.
+   * @param offHeapThreshold
+   *          Values with at least this number of bytes are stored off-heap in
+   *          direct memory. Negative to store all values in the Java heap.
+   */
+  public ObjectValueCache(long maxBytes, int offHeapThreshold) {
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("maxBytes must be positive");
+    }
+    this.maxBytes = maxBytes;
+    this.maxProtectedBytes = maxBytes / 100 * PROTECTED_PERCENT;
+    this.offHeapThreshold = offHeapThreshold;
+  }
+
+  /**
+   * Sets the time-to-live of the entries, so that changes by other
+   * applications are noticed after this time.
+   *
+   * @param ttlMillis
+   *          The time-to-live in milliseconds, must be positive.
+   */
+  public synchronized void setTtlMillis(long ttlMillis) {
+    if (ttlMillis < 1) {
+      throw new IllegalArgumentException("ttlMillis must be positive");
+    }
+    this.ttlNanos = ttlMillis * 1000000L;
+  }
+
+  public synchronized long getTtlMillis() {
+    return ttlNanos / 1000000L;
+  }
+
+  /**
+   * Returns the current generation of the slot. A reader gets it before
+   * reading the value from the token and passes it to
+   * {@link #put(long, long, long, long, byte[])}, so that a value read
+   * before a new generation is not cached.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @return the current generation.
+   */
+  public synchronized long getGeneration(long slotID) { // CHECKSTYLE:SKIP
+    Long generation = generations.get(slotID);
+    return (generation == null) ? 0 : generation;
+  }
+
+  /**
+   * Starts a new generation of the slot and removes the entries of the
+   * older ones, e.g. after login or logout.
+   *
+   * @param slotID
+   *          The slot identifier.
+   */
+  public synchronized void newGeneration(long slotID) { // CHECKSTYLE:SKIP
+    generations.put(slotID, getGeneration(slotID) + 1);
+    invalidate(slotID);
+  }
+
+  /**
+   * Gets the cached value.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @param objectHandle
+   *          The object handle.
+   * @param attributeType
+   *          The attribute type, e.g. PKCS11Constants.CKA_VALUE.
+   * @return a copy of the cached value, or null if not cached.
+   */
+  public byte[] get(long slotID, long objectHandle, // CHECKSTYLE:SKIP
+      long attributeType) {
+    CacheEntry entry;
+    synchronized (this) {
+      CacheKey key = new CacheKey(slotID, getGeneration(slotID),
+          objectHandle, attributeType);
+      entry = protectedSegment.get(key);
+      if (entry == null) {
+        entry = probation.remove(key);
+        if (entry != null) {
+          // second hit, promote to the protected segment
+          probationBytes -= entry.weight;
+          protectedSegment.put(key, entry);
+          protectedBytes += entry.weight;
+          demoteProtected();
+        }
+      }
+
+      if (entry != null && entry.expiresAt - System.nanoTime() <= 0) {
+        remove(key);
+        entry = null;
+      }
+
+      if (entry == null) {
+        missCount++;
+        return null;
+      }
+      hitCount++;
+    }
+
+    return entry.getValue();
+  }
+
+  /**
+   * Puts the value in the cache, in the current generation of the slot.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @param objectHandle
+   *          The object handle.
+   * @param attributeType
+   *          The attribute type, e.g. PKCS11Constants.CKA_VALUE.
+   * @param value
+   *          The attribute value. Will be copied.
+   */
+  public void put(long slotID, long objectHandle, // CHECKSTYLE:SKIP
+      long attributeType, byte[] value) {
+    put(slotID, getGeneration(slotID), objectHandle, attributeType, value);
+  }
+
+  /**
+   * Puts the value in the cache, unless a new generation of the slot has
+   * been started since the given one.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @param generation
+   *          The generation of the slot before the value has been read.
+   * @param objectHandle
+   *          The object handle.
+   * @param attributeType
+   *          The attribute type, e.g. PKCS11Constants.CKA_VALUE.
+   * @param value
+   *          The attribute value. Will be copied.
+   */
+  public void put(long slotID, long generation, // CHECKSTYLE:SKIP
+      long objectHandle, long attributeType, byte[] value) {
+    Util.requireNonNull("value", value);
+    if (value.length + ENTRY_OVERHEAD > maxBytes - maxProtectedBytes) {
+      // would evict the whole probation segment
+      return;
+    }
+
+    ByteBuffer offHeapValue = null;
+    byte[] heapValue = null;
+    if (offHeapThreshold >= 0 && value.length >= offHeapThreshold) {
+      offHeapValue = ByteBuffer.allocateDirect(value.length);
+      offHeapValue.put(value);
+      offHeapValue.flip();
+    } else {
+      heapValue = value.clone();
+    }
+
+    CacheKey key = new CacheKey(slotID, generation, objectHandle,
+        attributeType);
+    synchronized (this) {
+      if (generation != getGeneration(slotID)) {
+        return;
+      }
+
+      CacheEntry entry = new CacheEntry(heapValue, offHeapValue,
+          value.length, System.nanoTime() + ttlNanos);
+      remove(key);
+      probation.put(key, entry);
+      probationBytes += entry.weight;
+      if (entry.offHeapValue != null) {
+        offHeapBytes += value.length;
+      }
+      evictProbation();
+    }
+  }
+
+  /**
+   * Removes all cached values of the given object.
+   *
+   * @param slotID
+   *          The slot identifier.
+   * @param objectHandle
+   *          The object handle.
+   */
+  public synchronized void invalidate(long slotID, // CHECKSTYLE:SKIP
+      long objectHandle) {
+    invalidate(probation, slotID, objectHandle, false);
+    invalidate(protectedSegment, slotID, objectHandle, false);
+  }
+
+  /**
+   * Removes all cached values of the given slot.
+   *
+   * @param slotID
+   *          The slot identifier.
+   */
+  public synchronized void invalidate(long slotID) { // CHECKSTYLE:SKIP
+    invalidate(probation, slotID, 0, true);
+    invalidate(protectedSegment, slotID, 0, true);
+  }
+
+  /**
+   * Removes all cached values.
+   */
+  public synchronized void invalidateAll() {
+    probation.clear();
+    protectedSegment.clear();
+    probationBytes = 0;
+    protectedBytes = 0;
+    offHeapBytes = 0;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  /**
+   * Returns the number of bytes currently used, including the approximated
+   * overhead of the entries.
+   *
+   * @return the number of bytes currently used.
+   */
+  public synchronized long getUsedBytes() {
+    return probationBytes + protectedBytes;
+  }
+
+  /**
+   * Returns the number of bytes of the values stored off-heap.
+   *
+   * @return the number of bytes of the values stored off-heap.
+   */
+  public synchronized long getOffHeapBytes() {
+    return offHeapBytes;
+  }
+
+  public synchronized int getSize() {
+    return probation.size() + protectedSegment.size();
+  }
+
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized long getEvictionCount() {
+    return evictionCount;
+  }
+
+  /**
+   * Returns the hit rate.
+   *
+   * @return the hit rate between 0 and 1, or 0 if there was no request yet.
+   */
+  public synchronized double getHitRate() {
+    long requests = hitCount + missCount;
+    return (requests == 0) ? 0 : (double) hitCount / requests;
+  }
+
+  /**
+   * Resets the hit, miss and eviction counters.
+   */
+  public synchronized void resetStatistics() {
+    hitCount = 0;
+    missCount = 0;
+    evictionCount = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return Util.concatObjects("ObjectValueCache: entries: ", getSize(),
+        ", used bytes: ", getUsedBytes(), "/", maxBytes,
+        ", off-heap bytes: ", offHeapBytes,
+        ", hits: ", hitCount, ", misses: ", missCount,
+        ", evictions: ", evictionCount);
+  }
+
+  private void remove(CacheKey key) {
+    CacheEntry entry = probation.remove(key);
+    if (entry != null) {
+      probationBytes -= entry.weight;
+    } else {
+      entry = protectedSegment.remove(key);
+      if (entry != null) {
+        protectedBytes -= entry.weight;
+      }
+    }
+
+    if (entry != null && entry.offHeapValue != null) {
+      offHeapBytes -= entry.offHeapValue.capacity();
+    }
+  }
+
+  private void invalidate(Map<CacheKey, CacheEntry> segment,
+      long slotID, long objectHandle, // CHECKSTYLE:SKIP
+      boolean allObjects) {
+    Iterator<Map.Entry<CacheKey, CacheEntry>> it =
+        segment.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<CacheKey, CacheEntry> mapEntry = it.next();
+      CacheKey key = mapEntry.getKey();
+      if (key.slotID == slotID
+          && (allObjects || key.objectHandle == objectHandle)) {
+        CacheEntry entry = mapEntry.getValue();
+        it.remove();
+        if (segment == probation) {
+          probationBytes -= entry.weight;
+        } else {
+          protectedBytes -= entry.weight;
+        }
+
+        if (entry.offHeapValue != null) {
+          offHeapBytes -= entry.offHeapValue.capacity();
+        }
+      }
+    }
+  }
+
+  private void demoteProtected() {
+    Iterator<Map.Entry<CacheKey, CacheEntry>> it =
+        protectedSegment.entrySet().iterator();
+    while (protectedBytes > maxProtectedBytes && it.hasNext()) {
+      Map.Entry<CacheKey, CacheEntry> mapEntry = it.next();
+      it.remove();
+      CacheEntry entry = mapEntry.getValue();
+      protectedBytes -= entry.weight;
+      probation.put(mapEntry.getKey(), entry);
+      probationBytes += entry.weight;
+    }
+    evictProbation();
+  }
+
+  private void evictProbation() {
+    Iterator<CacheEntry> it = probation.values().iterator();
+    while (probationBytes + protectedBytes > maxBytes && it.hasNext()) {
+      CacheEntry entry = it.next();
+      it.remove();
+      probationBytes -= entry.weight;
+      if (entry.offHeapValue != null) {
+        offHeapBytes -= entry.offHeapValue.capacity();
+      }
+      evictionCount++;
+    }
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.Functions;
+
+/**
+ * Writes the metrics in the Prometheus text exposition format:
+ * <pre>
+ * pkcs11_call_duration_seconds{function="C_Sign",mechanism="CKM_ECDSA",
+ *     slot="0",quantile="0.99"} 0.0012
+ * pkcs11_call_duration_seconds_count{...} 1000
+ * pkcs11_call_duration_seconds_sum{...} 0.9
+ * pkcs11_call_errors_total{function="C_Login",mechanism="",slot="0",
+ *     code="CKR_PIN_INCORRECT"} 1
+ * </pre>
+ * A scrape endpoint can simply return {@link #scrape(CallMetrics)}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class PrometheusMetricsSink implements MetricsSink {
+
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private static final String DURATION = "pkcs11_call_duration_seconds";
+
+  private static final String ERRORS = "pkcs11_call_errors_total";
+
+  private final StringBuilder latencyLines = new StringBuilder();
+
+  private final StringBuilder errorLines = new StringBuilder();
+
+  /**
+   * Exports the given metrics in the Prometheus text format.
+   *
+   * @param metrics
+   *          The metrics.
+   * @return the metrics in the Prometheus text format.
+   */
+  public static String scrape(CallMetrics metrics) {
+    PrometheusMetricsSink sink = new PrometheusMetricsSink();
+    metrics.export(sink);
+    return sink.getText();
+  }
+
+  @Override
+  public void latency(String function, long mechanism,
+      long slotID, LatencyHistogram.Snapshot latencies) { // CHECKSTYLE:SKIP
+    String labels = labels(function, mechanism, slotID);
+    for (double quantile : QUANTILES) {
+      latencyLines.append(DURATION).append('{').append(labels)
+        .append(",quantile=\"").append(quantile).append("\"} ")
+        .append(toSeconds(latencies.getValueAtPercentile(quantile * 100)))
+        .append('\n');
+    }
+
+    latencyLines.append(DURATION).append("_count{").append(labels)
+      .append("} ").append(latencies.getCount()).append('\n');
+    latencyLines.append(DURATION).append("_sum{").append(labels)
+      .append("} ").append(toSeconds(latencies.getTotalNanos()))
+      .append('\n');
+  }
+
+  @Override
+  public void errors(String function, long mechanism,
+      long slotID, long errorCode, long count) { // CHECKSTYLE:SKIP
+    String name = Functions.errorCodeToString(errorCode);
+    if (name.startsWith("Unknown")) {
+      name = "0x" + Functions.toFullHex(errorCode);
+    }
+
+    errorLines.append(ERRORS).append('{')
+      .append(labels(function, mechanism, slotID))
+      .append(",code=\"").append(name).append("\"} ").append(count)
+      .append('\n');
+  }
+
+  /**
+   * Returns the metrics received so far in the Prometheus text format.
+   *
+   * @return the metrics in the Prometheus text format.
+   */
+  public String getText() {
+    StringBuilder sb = new StringBuilder(
+        latencyLines.length() + errorLines.length() + 200);
+    sb.append("# HELP ").append(DURATION)
+      .append(" Latency of the PKCS#11 calls.\n");
+    sb.append("# TYPE ").append(DURATION).append(" summary\n");
+    sb.append(latencyLines);
+    sb.append("# HELP ").append(ERRORS)
+      .append(" Number of failed PKCS#11 calls.\n");
+    sb.append("# TYPE ").append(ERRORS).append(" counter\n");
+    sb.append(errorLines);
+    return sb.toString();
+  }
+
+  private static String labels(String function, long mechanism,
+      long slotID) { // CHECKSTYLE:SKIP
+    String mechanismName;
+    if (mechanism == CallMetrics.NO_MECHANISM) {
+      mechanismName = "";
+    } else {
+      mechanismName = Functions.mechanismCodeToString(mechanism);
+      if (mechanismName.startsWith("Unknown")) {
+        mechanismName = "0x" + Functions.toFullHex(mechanism);
+      }
+    }
+
+    return Util.concatObjects("function=\"", function, "\",mechanism=\"",
+        mechanismName, "\",slot=\"", slotID, "\"");
+  }
+
+  private static double toSeconds(long nanos) {
+    return nanos / 1e9;
+  }
+
+}
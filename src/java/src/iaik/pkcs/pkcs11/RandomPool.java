@@ -0,0 +1,506 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of random bytes generated by the token, for applications which need
+ * many small random values, e.g. nonces and IVs, without one call to the
+ * token each.
+ * <pre><code>
+ *   RandomPool pool = new RandomPool(token, RandomPool.DEFAULT_BLOCK_SIZE);
+ *   ...
+ *   pool.nextBytes(iv, 0, 12);
+ * </code></pre>
+ * The pool has two blocks of random bytes. The requests are served from the
+ * current block without locks: a request claims its part of the block by a
+ * compare-and-set and copies it, so that no byte is given out twice. When
+ * the remaining bytes of the current block fall below the low-water mark,
+ * the daemon thread of the pool fills the other block by one
+ * C_GenerateRandom directly into the block, and the requests continue with
+ * it once the current block is exhausted. The bytes given out are cleared in the block.
+ * <p>
+ * With a reseed interval, the thread replaces both blocks by new random
+ * bytes of the token at this interval, so that no buffered byte is older
+ * than twice the interval.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class RandomPool implements Closeable {
+
+  public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+  public static final long DEFAULT_TIMEOUT_MILLIS = 10 * 1000L;
+
+  private static final int EMPTY = 0;
+
+  private static final int READY = 1;
+
+  private static final int CURRENT = 2;
+
+  /**
+   * Time the requests wait for the refill between checks.
+   */
+  private static final long WAIT_NANOS = 50 * 1000L;
+
+  /**
+   * Time the refill thread waits after an error.
+   */
+  private static final long RETRY_MILLIS = 100L;
+
+  private static final class Block {
+
+    private final byte[] data;
+
+    /**
+     * Index of the next byte to give out, data.length if exhausted.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * Number of requests copying from this block.
+     */
+    private final AtomicInteger readers = new AtomicInteger();
+
+    private final AtomicInteger state;
+
+    private Block(int size, int state) {
+      this.data = new byte[size];
+      this.next = new AtomicInteger(size);
+      this.state = new AtomicInteger(state);
+    }
+
+    /**
+     * Claims and copies up to len bytes.
+     *
+     * @return the number of bytes copied, 0 if the block is exhausted.
+     */
+    private int read(byte[] out, int off, int len) {
+      readers.incrementAndGet();
+      try {
+        int pos;
+        int count;
+        do {
+          pos = next.get();
+          count = Math.min(len, data.length - pos);
+          if (count <= 0) {
+            return 0;
+          }
+        } while (!next.compareAndSet(pos, pos + count));
+
+        System.arraycopy(data, pos, out, off, count);
+        Arrays.fill(data, pos, pos + count, (byte) 0);
+        return count;
+      } finally {
+        readers.decrementAndGet();
+      }
+    }
+
+    private int remaining() {
+      return data.length - next.get();
+    }
+
+    /**
+     * Marks all bytes as given out, so that no request claims them.
+     */
+    private void exhaust() {
+      next.set(data.length);
+    }
+
+  }
+
+  private final Token token;
+
+  private final Block[] blocks;
+
+  private final AtomicReference<Block> current;
+
+  private final AtomicLong refillCount = new AtomicLong();
+
+  private final AtomicLong reseedCount = new AtomicLong();
+
+  private final Thread thread;
+
+  private volatile int lowWaterMark;
+
+  private volatile long reseedIntervalNanos;
+
+  private volatile long timeoutNanos = DEFAULT_TIMEOUT_MILLIS * 1000000L;
+
+  private volatile boolean running = true;
+
+  /**
+   * The last error of the refill thread, cleared by the next successful
+   * refill.
+   */
+  private volatile TokenException lastError;
+
+  /**
+   * Session of the refill thread, only used by it after the start.
+   */
+  private Session session;
+
+  private long lastReseed;
+
+  /**
+   * Creates the pool, fills both blocks and starts the refill thread.
+   *
+   * @param token
+   *          The token generating the random bytes.
+   * @param blockSize
+   *          The number of bytes fetched by one C_GenerateRandom.
+   * @exception TokenException
+   *              If the blocks cannot be filled.
+   */
+  public RandomPool(Token token, int blockSize) throws TokenException {
+    this.token = Util.requireNonNull("token", token);
+    if (blockSize < 1) {
+      throw new IllegalArgumentException("blockSize must be at least 1");
+    }
+
+    this.lowWaterMark = blockSize / 2;
+    this.blocks = new Block[] {new Block(blockSize, EMPTY),
+      new Block(blockSize, EMPTY)};
+    try {
+      fill(blocks[0]);
+      fill(blocks[1]);
+    } catch (TokenException ex) {
+      closeSession();
+      throw ex;
+    }
+    blocks[0].state.set(CURRENT);
+    blocks[1].state.set(READY);
+    this.current = new AtomicReference<>(blocks[0]);
+    this.lastReseed = System.nanoTime();
+
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        refill();
+      }
+    }, "pkcs11-random-pool");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public Token getToken() {
+    return token;
+  }
+
+  public int getBlockSize() {
+    return blocks[0].data.length;
+  }
+
+  public int getLowWaterMark() {
+    return lowWaterMark;
+  }
+
+  /**
+   * Sets the number of remaining bytes of the current block at which the
+   * other block is filled. The default is half of the block size.
+   *
+   * @param lowWaterMark
+   *          The low-water mark, between 0 and the block size.
+   */
+  public void setLowWaterMark(int lowWaterMark) {
+    if (lowWaterMark < 0 || lowWaterMark > getBlockSize()) {
+      throw new IllegalArgumentException(
+          "lowWaterMark must be between 0 and the block size");
+    }
+    this.lowWaterMark = lowWaterMark;
+  }
+
+  /**
+   * Sets the interval at which the buffered random bytes are replaced by new
+   * ones of the token.
+   *
+   * @param reseedIntervalMillis
+   *          The interval in milliseconds, 0 to reseed never (default).
+   */
+  public void setReseedIntervalMillis(long reseedIntervalMillis) {
+    if (reseedIntervalMillis < 0) {
+      throw new IllegalArgumentException(
+          "reseedIntervalMillis must not be negative");
+    }
+    this.reseedIntervalNanos = reseedIntervalMillis * 1000000L;
+    LockSupport.unpark(thread);
+  }
+
+  /**
+   * Sets how long a request waits for the refill of a block.
+   *
+   * @param timeoutMillis
+   *          The timeout in milliseconds.
+   */
+  public void setTimeoutMillis(long timeoutMillis) {
+    if (timeoutMillis < 0) {
+      throw new IllegalArgumentException(
+          "timeoutMillis must not be negative");
+    }
+    this.timeoutNanos = timeoutMillis * 1000000L;
+  }
+
+  /**
+   * Returns the number of blocks filled by the refill thread.
+   *
+   * @return the number of refills.
+   */
+  public long getRefillCount() {
+    return refillCount.get();
+  }
+
+  /**
+   * Returns the number of reseeds.
+   *
+   * @return the number of reseeds.
+   */
+  public long getReseedCount() {
+    return reseedCount.get();
+  }
+
+  /**
+   * Fills the buffer with random bytes.
+   *
+   * @param out
+   *          The buffer.
+   * @exception TokenException
+   *              If no random bytes are available within the timeout.
+   */
+  public void nextBytes(byte[] out) throws TokenException {
+    nextBytes(out, 0, out.length);
+  }
+
+  /**
+   * Fills the given part of the buffer with random bytes. If the current
+   * block does not have enough bytes, the remaining ones are taken from the
+   * next block.
+   *
+   * @param out
+   *          The buffer.
+   * @param off
+   *          The offset in the buffer.
+   * @param len
+   *          The number of random bytes.
+   * @exception TokenException
+   *              If no random bytes are available within the timeout.
+   */
+  public void nextBytes(byte[] out, int off, int len) throws TokenException {
+    Util.requireNonNull("out", out);
+    if (off < 0 || len < 0 || len > out.length - off) {
+      throw new IndexOutOfBoundsException("invalid off " + off + " and len "
+          + len + " for a buffer of length " + out.length);
+    }
+
+    long deadline = 0;
+    while (len > 0) {
+      if (!running) {
+        throw new TokenException("random pool closed");
+      }
+
+      Block block = current.get();
+      int count = block.read(out, off, len);
+      if (count > 0) {
+        off += count;
+        len -= count;
+        if (block.remaining() <= lowWaterMark
+            && other(block).state.get() == EMPTY) {
+          LockSupport.unpark(thread);
+        }
+        continue;
+      }
+
+      if (switchBlock(block)) {
+        continue;
+      }
+
+      // the other block is not filled yet
+      LockSupport.unpark(thread);
+      long now = System.nanoTime();
+      if (deadline == 0) {
+        deadline = now + timeoutNanos;
+      } else if (now - deadline >= 0) {
+        TokenException error = lastError;
+        throw (error != null) ? new TokenException(
+            "no random bytes available: " + error.getMessage(), error)
+            : new TokenException("no random bytes available within "
+                + timeoutNanos / 1000000 + " ms");
+      }
+      LockSupport.parkNanos(this, WAIT_NANOS);
+    }
+  }
+
+  private Block other(Block block) {
+    return (block == blocks[0]) ? blocks[1] : blocks[0];
+  }
+
+  /**
+   * Makes the other block the current one if it is filled.
+   *
+   * @return true if the current block has been switched, by this or another
+   *         thread.
+   */
+  private boolean switchBlock(Block block) {
+    if (current.get() != block) {
+      return true;
+    }
+
+    Block next = other(block);
+    if (!next.state.compareAndSet(READY, CURRENT)) {
+      return false;
+    }
+
+    current.set(next);
+    block.exhaust();
+    block.state.set(EMPTY);
+    LockSupport.unpark(thread);
+    return true;
+  }
+
+  private void refill() {
+    while (running) {
+      try {
+        long interval = reseedIntervalNanos;
+        if (interval > 0 && System.nanoTime() - lastReseed >= interval) {
+          reseed();
+        }
+
+        Block block = current.get();
+        Block next = other(block);
+        if (next.state.get() == EMPTY
+            && block.remaining() <= lowWaterMark) {
+          fill(next);
+          next.state.set(READY);
+          refillCount.incrementAndGet();
+          continue;
+        }
+
+        long waitNanos = (interval > 0)
+            ? Math.max(1, interval - (System.nanoTime() - lastReseed))
+            : 1000000000L;
+        LockSupport.parkNanos(this, waitNanos);
+      } catch (TokenException ex) {
+        lastError = ex;
+        closeSession();
+        try {
+          Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException ex2) {
+          // closed
+          break;
+        }
+      }
+    }
+    closeSession();
+  }
+
+  /**
+   * Replaces the bytes of both blocks by new random bytes.
+   */
+  private void reseed() throws TokenException {
+    Block block = current.get();
+    Block next = other(block);
+    // take the other block from the requests, fill it and make it current
+    if (next.state.compareAndSet(READY, EMPTY)
+        || next.state.get() == EMPTY) {
+      fill(next);
+      next.state.set(CURRENT);
+      current.set(next);
+      block.exhaust();
+      block.state.set(EMPTY);
+      // the previous block is filled at the low-water mark of the new one
+      reseedCount.incrementAndGet();
+      lastReseed = System.nanoTime();
+    }
+  }
+
+  /**
+   * Fills the block, after all requests have finished copying from it.
+   */
+  private void fill(Block block) throws TokenException {
+    block.exhaust();
+    while (block.readers.get() != 0) {
+      Thread.yield();
+    }
+
+    if (session == null) {
+      session = token.openSession(true, false, null, null);
+    }
+
+    TokenException error = null;
+    try {
+      session.generateRandom(block.data, 0, block.data.length);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      if (error == null) {
+        lastError = null;
+        block.next.set(0);
+      }
+    }
+  }
+
+  private void closeSession() {
+    if (session != null) {
+      try {
+        session.closeSession();
+      } catch (TokenException ex) {
+        // ignore, the session is not used anymore
+      }
+      session = null;
+    }
+  }
+
+  /**
+   * Stops the refill thread, clears the blocks and closes the session.
+   */
+  @Override
+  public void close() {
+    running = false;
+    thread.interrupt();
+    try {
+      thread.join(timeoutNanos / 1000000 + 1);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (Block block : blocks) {
+      block.exhaust();
+      while (block.readers.get() != 0) {
+        Thread.yield();
+      }
+      Arrays.fill(block.data, (byte) 0);
+    }
+  }
+
+  @Override
+  public String toString() {
+    Block block = current.get();
+    return Util.concatObjects("RandomPool: block size: ", getBlockSize(),
+        ", remaining: ", block.remaining(), ", next block ready: ",
+        other(block).state.get() == READY, ", refills: ", refillCount.get(),
+        ", reseeds: ", reseedCount.get());
+  }
+
+}
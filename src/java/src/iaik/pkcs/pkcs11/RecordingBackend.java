@@ -0,0 +1,1007 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Backend} which records every call to the wrapped backend with a
+ * {@link CallRecorder}. The mechanism of the active operations is tracked
+ * per session, so that the data calls, e.g. C_Sign, are recorded with the
+ * mechanism passed to their init function.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class RecordingBackend implements Backend {
+
+  private static final long NO_MECHANISM = CallMetrics.NO_MECHANISM;
+
+  private static final int ENCRYPT = 0;
+
+  private static final int DECRYPT = 1;
+
+  private static final int DIGEST = 2;
+
+  private static final int SIGN = 3;
+
+  private static final int VERIFY = 4;
+
+  private final Backend backend;
+
+  private final CallRecorder recorder;
+
+  /**
+   * Mechanisms of the active operations, keyed by the session handle and
+   * indexed by ENCRYPT, DECRYPT, DIGEST, SIGN and VERIFY.
+   */
+  private final ConcurrentHashMap<Long, long[]> operations =
+      new ConcurrentHashMap<>();
+
+  RecordingBackend(Backend backend, CallRecorder recorder) {
+    this.backend = Util.requireNonNull("backend", backend);
+    this.recorder = Util.requireNonNull("recorder", recorder);
+  }
+
+  CallRecorder getRecorder() {
+    return recorder;
+  }
+
+  // general-purpose functions
+
+  @Override
+  public void C_Finalize(Object args) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_Finalize(args);
+      done("C_Finalize", 0, NO_MECHANISM, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_Finalize", 0, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_INFO info = backend.C_GetInfo();
+      done("C_GetInfo", 0, NO_MECHANISM, 0, 0, 0, start);
+      return info;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetInfo", 0, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // slot and token management functions
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    long start = System.nanoTime();
+    long present = tokenPresent ? 1 : 0;
+    try {
+      long[] slots = backend.C_GetSlotList(tokenPresent);
+      done("C_GetSlotList", 0, NO_MECHANISM, present, 0, slots.length,
+          start);
+      return slots;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetSlotList", 0, NO_MECHANISM, present, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_SLOT_INFO info = backend.C_GetSlotInfo(slotID);
+      done("C_GetSlotInfo", 0, NO_MECHANISM, slotID, 0, 0, start);
+      return info;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetSlotInfo", 0, NO_MECHANISM, slotID, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_TOKEN_INFO info = backend.C_GetTokenInfo(slotID);
+      done("C_GetTokenInfo", 0, NO_MECHANISM, slotID, 0, 0, start);
+      return info;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetTokenInfo", 0, NO_MECHANISM, slotID, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] mechanisms = backend.C_GetMechanismList(slotID);
+      done("C_GetMechanismList", 0, NO_MECHANISM, slotID, 0,
+          mechanisms.length, start);
+      return mechanisms;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetMechanismList", 0, NO_MECHANISM, slotID, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_MECHANISM_INFO info = backend.C_GetMechanismInfo(slotID, type);
+      done("C_GetMechanismInfo", 0, type, slotID, 0, 0, start);
+      return info;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetMechanismInfo", 0, type, slotID, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long C_WaitForSlotEvent(long flags, Object reserved)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long slotID = backend.C_WaitForSlotEvent(flags, reserved);
+      done("C_WaitForSlotEvent", 0, NO_MECHANISM, flags, 0, 0, start);
+      return slotID;
+    } catch (PKCS11Exception ex) {
+      failed("C_WaitForSlotEvent", 0, NO_MECHANISM, flags, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // session management functions
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object application,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long hSession = backend.C_OpenSession(slotID, flags, application,
+          notify);
+      done("C_OpenSession", hSession, NO_MECHANISM, flags, 0, 0, start);
+      return hSession;
+    } catch (PKCS11Exception ex) {
+      failed("C_OpenSession", 0, NO_MECHANISM, flags, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_CloseSession(hSession);
+      done("C_CloseSession", hSession, NO_MECHANISM, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_CloseSession", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    } finally {
+      operations.remove(hSession);
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      CK_SESSION_INFO info = backend.C_GetSessionInfo(hSession);
+      done("C_GetSessionInfo", hSession, NO_MECHANISM, 0, 0, 0, start);
+      return info;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetSessionInfo", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] state = backend.C_GetOperationState(hSession);
+      done("C_GetOperationState", hSession, NO_MECHANISM, 0, 0,
+          state.length, start);
+      return state;
+    } catch (PKCS11Exception ex) {
+      failed("C_GetOperationState", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] operationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(operationState);
+    try {
+      backend.C_SetOperationState(hSession, operationState, hEncryptionKey,
+          hAuthenticationKey);
+      done("C_SetOperationState", hSession, NO_MECHANISM, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SetOperationState", hSession, NO_MECHANISM, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * Records the user type, not the PIN.
+   */
+  @Override
+  public void C_Login(long hSession, long userType, char[] pin)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_Login(hSession, userType, pin);
+      done("C_Login", hSession, NO_MECHANISM, userType, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_Login", hSession, NO_MECHANISM, userType, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_Logout(hSession);
+      done("C_Logout", hSession, NO_MECHANISM, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_Logout", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // object management functions
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      long hObject = backend.C_CreateObject(hSession, template);
+      done("C_CreateObject", hSession, NO_MECHANISM, 0, inLen, 0, start);
+      return hObject;
+    } catch (PKCS11Exception ex) {
+      failed("C_CreateObject", hSession, NO_MECHANISM, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      long hNewObject = backend.C_CopyObject(hSession, hObject, template);
+      done("C_CopyObject", hSession, NO_MECHANISM, 0, inLen, 0, start);
+      return hNewObject;
+    } catch (PKCS11Exception ex) {
+      failed("C_CopyObject", hSession, NO_MECHANISM, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_DestroyObject(hSession, hObject);
+      done("C_DestroyObject", hSession, NO_MECHANISM, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_DestroyObject", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      backend.C_GetAttributeValue(hSession, hObject, template);
+      done("C_GetAttributeValue", hSession, NO_MECHANISM, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_GetAttributeValue", hSession, NO_MECHANISM, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      backend.C_SetAttributeValue(hSession, hObject, template);
+      done("C_SetAttributeValue", hSession, NO_MECHANISM, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SetAttributeValue", hSession, NO_MECHANISM, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      backend.C_FindObjectsInit(hSession, template);
+      done("C_FindObjectsInit", hSession, NO_MECHANISM, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_FindObjectsInit", hSession, NO_MECHANISM, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long maxObjectCount)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      long[] handles = backend.C_FindObjects(hSession, maxObjectCount);
+      done("C_FindObjects", hSession, NO_MECHANISM, maxObjectCount, 0,
+          handles.length, start);
+      return handles;
+    } catch (PKCS11Exception ex) {
+      failed("C_FindObjects", hSession, NO_MECHANISM, maxObjectCount, 0,
+          start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      backend.C_FindObjectsFinal(hSession);
+      done("C_FindObjectsFinal", hSession, NO_MECHANISM, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_FindObjectsFinal", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // encryption and decryption functions
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    init(ENCRYPT, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_EncryptInit(hSession, mechanism, hKey);
+      done("C_EncryptInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_EncryptInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    long mech = mechanism(hSession, ENCRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_Encrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      done("C_Encrypt", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_Encrypt", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, ENCRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_EncryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      done("C_EncryptUpdate", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_EncryptUpdate", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, ENCRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_EncryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      done("C_EncryptFinal", hSession, mech, 0, 0, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_EncryptFinal", hSession, mech, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    init(DECRYPT, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_DecryptInit(hSession, mechanism, hKey);
+      done("C_DecryptInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_DecryptInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    long mech = mechanism(hSession, DECRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_Decrypt(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      done("C_Decrypt", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_Decrypt", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, DECRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DecryptUpdate(hSession, directIn, in, inOfs, inLen,
+          directOut, out, outOfs, outLen);
+      done("C_DecryptUpdate", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_DecryptUpdate", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, DECRYPT);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DecryptFinal(hSession, directOut, out, outOfs,
+          outLen);
+      done("C_DecryptFinal", hSession, mech, 0, 0, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_DecryptFinal", hSession, mech, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // message digesting functions
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    init(DIGEST, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestInit(hSession, mechanism);
+      done("C_DigestInit", hSession, mechanism.mechanism, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_DigestInit", hSession, mechanism.mechanism, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM mechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DigestSingle(hSession, mechanism, in, inOfs, inLen,
+          digest, digestOfs, digestLen);
+      done("C_DigestSingle", hSession, mechanism.mechanism, 0, inLen, len,
+          start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_DigestSingle", hSession, mechanism.mechanism, 0, inLen,
+          start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, DIGEST);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestUpdate(hSession, directIn, in, inOfs, inLen);
+      done("C_DigestUpdate", hSession, mech, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_DigestUpdate", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    long mech = mechanism(hSession, DIGEST);
+    long start = System.nanoTime();
+    try {
+      backend.C_DigestKey(hSession, hKey);
+      done("C_DigestKey", hSession, mech, 0, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_DigestKey", hSession, mech, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] digest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, DIGEST);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_DigestFinal(hSession, digest, digestOfs, digestLen);
+      done("C_DigestFinal", hSession, mech, 0, 0, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_DigestFinal", hSession, mech, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  // signing and MACing functions
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    init(SIGN, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignInit(hSession, mechanism, hKey);
+      done("C_SignInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SignInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] data) throws PKCS11Exception {
+    long mech = mechanism(hSession, SIGN);
+    long start = System.nanoTime();
+    int inLen = length(data);
+    try {
+      byte[] signature = backend.C_Sign(hSession, data);
+      done("C_Sign", hSession, mech, 0, inLen, length(signature), start);
+      return signature;
+    } catch (PKCS11Exception ex) {
+      failed("C_Sign", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, SIGN);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignUpdate(hSession, directIn, in, inOfs, inLen);
+      done("C_SignUpdate", hSession, mech, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SignUpdate", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    long mech = mechanism(hSession, SIGN);
+    long start = System.nanoTime();
+    try {
+      byte[] signature = backend.C_SignFinal(hSession, expectedLen);
+      done("C_SignFinal", hSession, mech, 0, 0, length(signature), start);
+      return signature;
+    } catch (PKCS11Exception ex) {
+      failed("C_SignFinal", hSession, mech, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    init(SIGN, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_SignRecoverInit(hSession, mechanism, hKey);
+      done("C_SignRecoverInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SignRecoverInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, SIGN);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_SignRecover(hSession, in, inOfs, inLen, out, outOfs,
+          outLen);
+      done("C_SignRecover", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_SignRecover", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  // functions for verifying signatures and MACs
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    init(VERIFY, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyInit(hSession, mechanism, hKey);
+      done("C_VerifyInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_VerifyInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * Records the length of the signature as argument.
+   */
+  @Override
+  public void C_Verify(long hSession, byte[] data, byte[] signature)
+      throws PKCS11Exception {
+    long mech = mechanism(hSession, VERIFY);
+    long start = System.nanoTime();
+    int inLen = length(data);
+    int sigLen = length(signature);
+    try {
+      backend.C_Verify(hSession, data, signature);
+      done("C_Verify", hSession, mech, sigLen, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_Verify", hSession, mech, sigLen, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, VERIFY);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyUpdate(hSession, directIn, in, inOfs, inLen);
+      done("C_VerifyUpdate", hSession, mech, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_VerifyUpdate", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  /**
+   * Records the length of the signature as argument.
+   */
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] signature)
+      throws PKCS11Exception {
+    long mech = mechanism(hSession, VERIFY);
+    long start = System.nanoTime();
+    int sigLen = length(signature);
+    try {
+      backend.C_VerifyFinal(hSession, signature);
+      done("C_VerifyFinal", hSession, mech, sigLen, 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_VerifyFinal", hSession, mech, sigLen, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    init(VERIFY, hSession, mechanism);
+    long start = System.nanoTime();
+    try {
+      backend.C_VerifyRecoverInit(hSession, mechanism, hKey);
+      done("C_VerifyRecoverInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_VerifyRecoverInit", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    long mech = mechanism(hSession, VERIFY);
+    long start = System.nanoTime();
+    try {
+      int len = backend.C_VerifyRecover(hSession, in, inOfs, inLen, out,
+          outOfs, outLen);
+      done("C_VerifyRecover", hSession, mech, 0, inLen, len, start);
+      return len;
+    } catch (PKCS11Exception ex) {
+      failed("C_VerifyRecover", hSession, mech, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  // key management functions
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      long hKey = backend.C_GenerateKey(hSession, mechanism, template);
+      done("C_GenerateKey", hSession, mechanism.mechanism, 0, inLen, 0,
+          start);
+      return hKey;
+    } catch (PKCS11Exception ex) {
+      failed("C_GenerateKey", hSession, mechanism.mechanism, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] publicKeyTemplate, CK_ATTRIBUTE[] privateKeyTemplate)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(publicKeyTemplate) + length(privateKeyTemplate);
+    try {
+      long[] hKeys = backend.C_GenerateKeyPair(hSession, mechanism,
+          publicKeyTemplate, privateKeyTemplate);
+      done("C_GenerateKeyPair", hSession, mechanism.mechanism, 0, inLen, 0,
+          start);
+      return hKeys;
+    } catch (PKCS11Exception ex) {
+      failed("C_GenerateKeyPair", hSession, mechanism.mechanism, 0, inLen,
+          start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM mechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    long start = System.nanoTime();
+    try {
+      byte[] wrappedKey = backend.C_WrapKey(hSession, mechanism, hWrappingKey,
+          hKey);
+      done("C_WrapKey", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, length(wrappedKey), start);
+      return wrappedKey;
+    } catch (PKCS11Exception ex) {
+      failed("C_WrapKey", hSession, mechanism.mechanism,
+          parameterLength(mechanism), 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM mechanism,
+      long hUnwrappingKey, byte[] wrappedKey, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(wrappedKey);
+    try {
+      long hKey = backend.C_UnwrapKey(hSession, mechanism, hUnwrappingKey,
+          wrappedKey, template);
+      done("C_UnwrapKey", hSession, mechanism.mechanism,
+          parameterLength(mechanism), inLen, 0, start);
+      return hKey;
+    } catch (PKCS11Exception ex) {
+      failed("C_UnwrapKey", hSession, mechanism.mechanism,
+          parameterLength(mechanism), inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM mechanism,
+      long hBaseKey, CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(template);
+    try {
+      long hKey = backend.C_DeriveKey(hSession, mechanism, hBaseKey,
+          template);
+      done("C_DeriveKey", hSession, mechanism.mechanism, 0, inLen, 0, start);
+      return hKey;
+    } catch (PKCS11Exception ex) {
+      failed("C_DeriveKey", hSession, mechanism.mechanism, 0, inLen, start,
+          ex);
+      throw ex;
+    }
+  }
+
+  // random number generation functions
+
+  @Override
+  public void C_SeedRandom(long hSession, byte[] seed)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int inLen = length(seed);
+    try {
+      backend.C_SeedRandom(hSession, seed);
+      done("C_SeedRandom", hSession, NO_MECHANISM, 0, inLen, 0, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_SeedRandom", hSession, NO_MECHANISM, 0, inLen, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    long start = System.nanoTime();
+    int outLen = length(randomData);
+    try {
+      backend.C_GenerateRandom(hSession, randomData);
+      done("C_GenerateRandom", hSession, NO_MECHANISM, 0, 0, outLen, start);
+    } catch (PKCS11Exception ex) {
+      failed("C_GenerateRandom", hSession, NO_MECHANISM, 0, 0, start, ex);
+      throw ex;
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    } else if (!(obj instanceof RecordingBackend)) {
+      return false;
+    }
+
+    RecordingBackend other = (RecordingBackend) obj;
+    return backend.equals(other.backend) && recorder == other.recorder;
+  }
+
+  @Override
+  public int hashCode() {
+    return backend.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return backend.toString();
+  }
+
+  private void done(String function, long hSession, long mechanism,
+      long argument, long bytesIn, long bytesOut, long start) {
+    recorder.record(function, hSession, mechanism, argument, bytesIn,
+        bytesOut, start, System.nanoTime() - start, PKCS11Constants.CKR_OK);
+  }
+
+  private void failed(String function, long hSession, long mechanism,
+      long argument, long bytesIn, long start, PKCS11Exception ex) {
+    recorder.record(function, hSession, mechanism, argument, bytesIn, 0,
+        start, System.nanoTime() - start, ex.getErrorCode());
+  }
+
+  /**
+   * Remembers the mechanism of an operation started in a session.
+   */
+  private void init(int operation, long hSession, CK_MECHANISM mechanism) {
+    long[] mechanisms = operations.get(hSession);
+    if (mechanisms == null) {
+      mechanisms = new long[]{NO_MECHANISM, NO_MECHANISM, NO_MECHANISM,
+        NO_MECHANISM, NO_MECHANISM};
+      long[] existing = operations.putIfAbsent(hSession, mechanisms);
+      if (existing != null) {
+        mechanisms = existing;
+      }
+    }
+    mechanisms[operation] = mechanism.mechanism;
+  }
+
+  private long mechanism(long hSession, int operation) {
+    long[] mechanisms = operations.get(hSession);
+    return (mechanisms == null) ? NO_MECHANISM : mechanisms[operation];
+  }
+
+  /**
+   * Returns the length of a byte array parameter, e.g. an IV, 0 for other
+   * parameters, whose values are not recorded.
+   */
+  private static long parameterLength(CK_MECHANISM mechanism) {
+    Object parameter = mechanism.pParameter;
+    return (parameter instanceof byte[]) ? ((byte[]) parameter).length : 0;
+  }
+
+  private static int length(byte[] bytes) {
+    return (bytes == null) ? 0 : bytes.length;
+  }
+
+  private static int length(CK_ATTRIBUTE[] template) {
+    return (template == null) ? 0 : template.length;
+  }
+
+}
@@ -52,6 +52,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -162,38 +163,15 @@ public class Session {
 
   }
 
-  private static final Method encrypt0;
-
-  private static final Method encrypt1;
-
-  private static final Method decrypt0;
-
-  private static final Method decrypt1;
-
-  private static final Field field_CK_MECHANISM_pParameter;
-
-  private static final Method method_CK_MECHANISM_setParameter;
-
-  private static final Constructor<?> constructor_CK_MECHANISM_CCM;
-
-  private static final Constructor<?> constructor_CK_MECHANISM_GCM;
-
-  private static final Constructor<?> constructor_CK_MECHANISM_TLS12KeyMat;
-
-  private static final Constructor<?>
-      constructor_CK_MECHANISM_TLS12MasterKeyDerive;
-
-  private static final Constructor<?> constructor_CK_MECHANISM_TLSMac;
-
   /**
    * A reference to the underlying PKCS#11 module to perform the operations.
    */
   private final Module module;
 
   /**
-   * A reference to the underlying PKCS#11 module to perform the operations.
+   * The backend of the underlying PKCS#11 module to perform the operations.
    */
-  private final PKCS11 pkcs11Module;
+  private final Backend pkcs11Module;
 
   /**
    * The session handle to perform the operations with.
@@ -207,55 +185,64 @@ public class Session {
    */
   private final Token token;
 
-  static {
-    Class<?> clazz = PKCS11.class;
-    decrypt0 = Util.getMethod(clazz, "C_Decrypt",
-        long.class, byte[].class, int.class, int.class,
-        byte[].class, int.class, int.class);
+  /**
+   * Whether objects have been created in this session, which may be session
+   * objects destroyed when the session is closed.
+   */
+  private volatile boolean objectsCreated;
 
-    encrypt0 = Util.getMethod(clazz, "C_Encrypt",
-        long.class, byte[].class, int.class, int.class,
-        byte[].class, int.class, int.class);
+  /**
+   * Access to the parameter of CK_MECHANISM, which differs between the JDK
+   * versions. Resolved on first use.
+   */
+  private static final class MechanismParameterAccess {
 
-    if (decrypt0 == null) {
-      decrypt1 = Util.getMethod(clazz, "C_Decrypt",
-          long.class, long.class, byte[].class, int.class, int.class,
-          long.class, byte[].class, int.class, int.class);
-    } else {
-      decrypt1 = null;
-    }
+    private static final Field pParameterField;
 
-    if (encrypt0 == null) {
-      encrypt1 = Util.getMethod(clazz, "C_Encrypt",
-          long.class, long.class, byte[].class, int.class, int.class,
-          long.class, byte[].class, int.class, int.class);
-    } else {
-      encrypt1 = null;
+    private static final Method setParameterMethod;
+
+    static {
+      Class<?> clazz = CK_MECHANISM.class;
+      pParameterField = Util.getField(clazz, "pParameter");
+      setParameterMethod = Util.getMethod(clazz,
+          "setParameter", CK_RSA_PKCS_PSS_PARAMS.class);
     }
 
-    clazz = CK_MECHANISM.class;
-    field_CK_MECHANISM_pParameter = Util.getField(clazz, "pParameter");
-    method_CK_MECHANISM_setParameter = Util.getMethod(clazz, "setParameter",
-        CK_RSA_PKCS_PSS_PARAMS.class);
+  }
+
+  /**
+   * Constructors of CK_MECHANISM for parameters which are not available in
+   * all JDK versions. Resolved on first use.
+   */
+  private static final class MechanismConstructors {
 
-    constructor_CK_MECHANISM_CCM =
+    private static final Constructor<?> CCM =
         getConstructofOfCK_MECHANISM(CCMParameters.CLASS_CK_PARAMS);
 
-    constructor_CK_MECHANISM_GCM =
+    private static final Constructor<?> GCM =
         getConstructofOfCK_MECHANISM(GCMParameters.CLASS_CK_PARAMS);
 
-    constructor_CK_MECHANISM_TLS12KeyMat =
+    private static final Constructor<?> TLS12_KEY_MAT =
         getConstructofOfCK_MECHANISM(
             TLS12KeyMaterialParameters.CLASS_CK_PARAMS);
 
-    constructor_CK_MECHANISM_TLS12MasterKeyDerive =
+    private static final Constructor<?> TLS12_MASTER_KEY_DERIVE =
         getConstructofOfCK_MECHANISM(
             TLS12MasterKeyDeriveParameters.CLASS_CK_PARAMS);
 
-    constructor_CK_MECHANISM_TLSMac =
+    private static final Constructor<?> TLS_MAC =
         getConstructofOfCK_MECHANISM(TLSMacParameters.CLASS_CK_PARAMS);
+
   }
 
+  /**
+   * The lazily initialized holder classes, see
+   * {@link Module#preloadClasses()}.
+   */
+  static final String[] LAZY_HOLDER_CLASSES = {
+    MechanismParameterAccess.class.getName(),
+    MechanismConstructors.class.getName()};
+
   private static Constructor<?> getConstructofOfCK_MECHANISM(
       String paramsClassName) {
     Class<?> paramsClass;
@@ -280,7 +267,7 @@ public class Session {
     this.token = Util.requireNonNull("token", token);
     this.module = token.getSlot().getModule();
     this.vendorCodeConverter = module.getVendorCodeConverter();
-    this.pkcs11Module = module.getPKCS11Module();
+    this.pkcs11Module = module.getBackend();
     this.sessionHandle = sessionHandle;
   }
 
@@ -333,6 +320,15 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    if (objectsCreated) {
+      // the session objects created in this session are destroyed
+      KeyHandleResolver resolver =
+          module.getExistingKeyHandleResolver(token.getTokenID());
+      if (resolver != null) {
+        resolver.invalidate();
+      }
+      newCacheGeneration();
+    }
   }
 
   /**
@@ -489,6 +485,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    newCacheGeneration();
   }
 
   /**
@@ -511,6 +508,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    newCacheGeneration();
   }
 
   /**
@@ -525,6 +523,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    newCacheGeneration();
   }
 
   /**
@@ -565,13 +564,34 @@ public class Session {
    */
   public PKCS11Object createObject(PKCS11Object templateObject)
       throws TokenException {
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(templateObject);
+    return createObject0(getSetAttributes(templateObject));
+  }
+
+  /**
+   * Create a new object on the token (or in the session) from a compiled
+   * template. See {@link #createObject(PKCS11Object)}.
+   *
+   * @param template
+   *          The compiled template of the new object.
+   * @return A new PKCS#11 PKCS11Object that serves holds all the (readable)
+   *         attributes of the object on the token.
+   * @exception TokenException
+   *              If the creation of the new object fails.
+   */
+  public PKCS11Object createObjectCompiled(CompiledTemplate template)
+      throws TokenException {
+    return createObject0(toCkAttributes(template));
+  }
+
+  private PKCS11Object createObject0(CK_ATTRIBUTE[] ckAttributes)
+      throws TokenException {
     long objectHandle;
     try {
       objectHandle = pkcs11Module.C_CreateObject(sessionHandle, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     return PKCS11Object.getInstance(this, objectHandle);
   }
@@ -596,8 +616,30 @@ public class Session {
    */
   public PKCS11Object copyObject(PKCS11Object sourceObject,
       PKCS11Object templateObject) throws TokenException {
+    return copyObject0(sourceObject, getSetAttributes(templateObject));
+  }
+
+  /**
+   * Copy an existing object, the attributes of the compiled template
+   * override the corresponding values of the source object. See
+   * {@link #copyObject(PKCS11Object, PKCS11Object)}.
+   *
+   * @param sourceObject
+   *          The source object of the copy operation.
+   * @param template
+   *          The compiled template. May be null.
+   * @return The new object.
+   * @exception TokenException
+   *              If copying the object fails for some reason.
+   */
+  public PKCS11Object copyObjectCompiled(PKCS11Object sourceObject,
+      CompiledTemplate template) throws TokenException {
+    return copyObject0(sourceObject, toCkAttributes(template));
+  }
+
+  private PKCS11Object copyObject0(PKCS11Object sourceObject,
+      CK_ATTRIBUTE[] ckAttributes) throws TokenException {
     long sourceObjectHandle = sourceObject.getObjectHandle();
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(templateObject);
     long newObjectHandle;
     try {
       newObjectHandle = pkcs11Module.C_CopyObject(sessionHandle,
@@ -605,6 +647,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     return PKCS11Object.getInstance(this, newObjectHandle);
   }
@@ -631,13 +674,37 @@ public class Session {
    */
   public void setAttributeValues(PKCS11Object objectToUpdate,
       PKCS11Object templateObject) throws TokenException {
+    setAttributeValues0(objectToUpdate, getSetAttributes(templateObject));
+  }
+
+  /**
+   * Writes the attributes of the compiled template to the object to update.
+   * See {@link #setAttributeValues(PKCS11Object, PKCS11Object)}.
+   *
+   * @param objectToUpdate
+   *          The attributes of this object get updated.
+   * @param template
+   *          The compiled template with the attributes to set.
+   * @exception TokenException
+   *              If update of the attributes fails. All or no attributes are
+   *              updated.
+   */
+  public void setAttributeValuesCompiled(PKCS11Object objectToUpdate,
+      CompiledTemplate template) throws TokenException {
+    setAttributeValues0(objectToUpdate, toCkAttributes(template));
+  }
+
+  private void setAttributeValues0(PKCS11Object objectToUpdate,
+      CK_ATTRIBUTE[] ckAttributesTemplates) throws TokenException {
     long objectToUpdateHandle = objectToUpdate.getObjectHandle();
-    CK_ATTRIBUTE[] ckAttributesTemplates = getSetAttributes(templateObject);
     try {
       pkcs11Module.C_SetAttributeValue(sessionHandle,
           objectToUpdateHandle, ckAttributesTemplates);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
+    } finally {
+      // also if failed, the object may have been partially updated
+      objectModified(objectToUpdateHandle);
     }
   }
 
@@ -661,6 +728,150 @@ public class Session {
     return PKCS11Object.getInstance(this, objectHandle);
   }
 
+  /**
+   * Reads the given attributes of an object by one C_GetAttributeValue call,
+   * and returns the return value instead of throwing an exception. This is
+   * meant for the hot paths which read attributes that may be invalid or
+   * sensitive for the object, e.g. optional attributes, and handle these
+   * return values as normal results.
+   *
+   * @param objectHandle
+   *          The handle of the object to read.
+   * @param template
+   *          The attributes to read. Receives the attribute values.
+   * @return CKR_OK if all attributes have been read, or the error code
+   *         returned by the module, e.g. CKR_ATTRIBUTE_TYPE_INVALID.
+   */
+  public long getAttributeValue(long objectHandle, CK_ATTRIBUTE[] template) {
+    Util.requireNonNull("template", template);
+    try {
+      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle, template);
+      return PKCS11Constants.CKR_OK;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      return ex.getErrorCode();
+    }
+  }
+
+  /**
+   * Reads the given attributes of an object by one C_GetAttributeValue. If
+   * this fails because an attribute is not defined for the object or is
+   * sensitive, the attributes are read one by one, and the unreadable ones
+   * have a null value.
+   *
+   * @param objectHandle
+   *          The handle of the object to read.
+   * @param types
+   *          The attribute types.
+   * @return the attributes, in the order of the types.
+   * @exception PKCS11Exception
+   *              If reading an attribute failed for another reason.
+   */
+  public CK_ATTRIBUTE[] readAttributes(long objectHandle, long[] types)
+      throws PKCS11Exception {
+    CK_ATTRIBUTE[] attributes = new CK_ATTRIBUTE[types.length];
+    for (int i = 0; i < types.length; i++) {
+      attributes[i] = new CK_ATTRIBUTE(types[i]);
+    }
+
+    long rv = getAttributeValue(objectHandle, attributes);
+    if (rv == PKCS11Constants.CKR_OK) {
+      return attributes;
+    } else if (!isUnreadable(rv)) {
+      throw new PKCS11Exception(rv);
+    }
+
+    for (int i = 0; i < types.length; i++) {
+      CK_ATTRIBUTE[] single = new CK_ATTRIBUTE[] {new CK_ATTRIBUTE(types[i])};
+      rv = getAttributeValue(objectHandle, single);
+      if (rv == PKCS11Constants.CKR_OK) {
+        attributes[i] = single[0];
+      } else if (isUnreadable(rv)) {
+        attributes[i] = new CK_ATTRIBUTE(types[i]);
+      } else {
+        throw new PKCS11Exception(rv);
+      }
+    }
+    return attributes;
+  }
+
+  private static boolean isUnreadable(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID
+        || errorCode == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE;
+  }
+
+  /**
+   * Reads the value of a single attribute with byte array value, e.g.
+   * CKA_VALUE of a certificate or CKA_EC_POINT of a public key. If an
+   * {@link ObjectValueCache} has been set in the module, the value is
+   * read from the cache, and stored in the cache if the object is a
+   * certificate or public key with CKA_PRIVATE false. Values of other
+   * objects are always read from the token, so that its access checks
+   * apply.
+   *
+   * @param objectHandle
+   *          The handle of the object to read.
+   * @param attributeType
+   *          The attribute type, e.g. PKCS11Constants.CKA_VALUE.
+   * @return the attribute value. May be null if the value is empty.
+   * @exception TokenException
+   *              If reading the attribute failed, e.g. because the
+   *              attribute is sensitive or invalid for the object.
+   */
+  public byte[] getAttributeValue(long objectHandle, long attributeType)
+      throws TokenException {
+    ObjectValueCache cache = module.getObjectValueCache();
+    if (cache == null) {
+      return getByteArrayAttributeValue(objectHandle,
+          new CK_ATTRIBUTE[]{new CK_ATTRIBUTE(attributeType)});
+    }
+
+    long slotID = token.getTokenID();
+    byte[] value = cache.get(slotID, objectHandle, attributeType);
+    if (value != null) {
+      return value;
+    }
+
+    long generation = cache.getGeneration(slotID);
+    CK_ATTRIBUTE[] template = {new CK_ATTRIBUTE(attributeType),
+        new CK_ATTRIBUTE(PKCS11Constants.CKA_CLASS),
+        new CK_ATTRIBUTE(PKCS11Constants.CKA_PRIVATE)};
+    if (getAttributeValue(objectHandle, template) != PKCS11Constants.CKR_OK) {
+      // e.g. CKA_PRIVATE is missing, read without caching
+      return getByteArrayAttributeValue(objectHandle,
+          new CK_ATTRIBUTE[]{new CK_ATTRIBUTE(attributeType)});
+    }
+
+    value = getByteArrayAttributeValue(template);
+    Object objectClass = template[1].pValue;
+    boolean publicObject = Boolean.FALSE.equals(template[2].pValue)
+        && objectClass instanceof Long
+        && ((Long) objectClass == PKCS11Constants.CKO_CERTIFICATE
+          || (Long) objectClass == PKCS11Constants.CKO_PUBLIC_KEY);
+    if (publicObject && value != null) {
+      cache.put(slotID, generation, objectHandle, attributeType, value);
+    }
+    return value;
+  }
+
+  private byte[] getByteArrayAttributeValue(long objectHandle,
+      CK_ATTRIBUTE[] template) throws TokenException {
+    long rv = getAttributeValue(objectHandle, template);
+    if (rv != PKCS11Constants.CKR_OK) {
+      throw new PKCS11Exception(rv);
+    }
+    return getByteArrayAttributeValue(template);
+  }
+
+  private static byte[] getByteArrayAttributeValue(CK_ATTRIBUTE[] template)
+      throws TokenException {
+    Object value = template[0].pValue;
+    if (value != null && !(value instanceof byte[])) {
+      throw new TokenException("attribute 0x"
+          + Long.toHexString(template[0].type) + " has no byte array value");
+    }
+    return (byte[]) value;
+  }
+
   /**
    * Destroy a certain object on the token (or in the session). Give the
    * object that you want to destroy. This method uses only the internal
@@ -678,6 +889,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectDestroyed(objectHandle);
   }
 
   /**
@@ -713,7 +925,26 @@ public class Session {
    */
   public void findObjectsInit(PKCS11Object templateObject)
       throws TokenException {
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(templateObject);
+    findObjectsInit0(getSetAttributes(templateObject));
+  }
+
+  /**
+   * Initializes a find operation with a compiled template. See
+   * {@link #findObjectsInit(PKCS11Object)}.
+   *
+   * @param template
+   *          The compiled search template. If null, the find operation will
+   *          find all objects that this session can see.
+   * @exception TokenException
+   *              If initializing the find operation fails.
+   */
+  public void findObjectsInitCompiled(CompiledTemplate template)
+      throws TokenException {
+    findObjectsInit0(toCkAttributes(template));
+  }
+
+  private void findObjectsInit0(CK_ATTRIBUTE[] ckAttributes)
+      throws TokenException {
     try {
       pkcs11Module.C_FindObjectsInit(sessionHandle, ckAttributes);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
@@ -762,6 +993,111 @@ public class Session {
     }
   }
 
+  /**
+   * Finds objects that match the template object passed to findObjectsInit,
+   * like {@link #findObjects(int)}, but returns only the object handles. Since
+   * no attribute is read, this method requires only one call to the
+   * PKCS#11 module.
+   *
+   * @param maxObjectCount
+   *          Specifies how many objects to return with this call.
+   * @return An array of handles of the found objects. The maximum size of
+   *         this array is maxObjectCount, the minimum length is 0. Never
+   *         returns null.
+   * @exception TokenException
+   *              If something during PKCS11 FindObject went wrong.
+   */
+  public long[] findObjectHandles(int maxObjectCount) throws TokenException {
+    try {
+      return pkcs11Module.C_FindObjects(sessionHandle, maxObjectCount);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+  }
+
+  /**
+   * Runs a complete find operation, findObjectsInit, findObjects and
+   * findObjectsFinal, with the given template.
+   *
+   * @param template
+   *          The search template.
+   * @param maxObjectCount
+   *          Specifies how many objects to return at most.
+   * @return An array of handles of the found objects. Never returns null.
+   * @exception TokenException
+   *              If searching the objects failed.
+   */
+  long[] findObjectHandles(CK_ATTRIBUTE[] template, int maxObjectCount)
+      throws TokenException {
+    try {
+      pkcs11Module.C_FindObjectsInit(sessionHandle, template);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+
+    try {
+      return pkcs11Module.C_FindObjects(sessionHandle, maxObjectCount);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    } finally {
+      try {
+        pkcs11Module.C_FindObjectsFinal(sessionHandle);
+      } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+        // ignore: the result of C_FindObjects or its error is more relevant
+      }
+    }
+  }
+
+  /**
+   * Finds all objects matching the template by one find operation, e.g. to
+   * sweep the objects of the token, and returns their handles. The handles
+   * are read by C_FindObjects in batches of the given size.
+   *
+   * @param template
+   *          The search template. If null, all objects that this session can
+   *          see are found.
+   * @param batchSize
+   *          The maximal number of handles read by one C_FindObjects.
+   * @return An array of handles of the found objects. Never returns null.
+   * @exception TokenException
+   *              If searching the objects failed.
+   */
+  public long[] findAllObjectHandles(CK_ATTRIBUTE[] template, int batchSize)
+      throws TokenException {
+    try {
+      pkcs11Module.C_FindObjectsInit(sessionHandle, template);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+
+    long[] handles = new long[0];
+    try {
+      while (true) {
+        long[] batch;
+        try {
+          batch = pkcs11Module.C_FindObjects(sessionHandle, batchSize);
+        } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+          throw new PKCS11Exception(ex);
+        }
+
+        if (batch == null || batch.length == 0) {
+          break;
+        }
+
+        int oldLength = handles.length;
+        handles = Arrays.copyOf(handles, oldLength + batch.length);
+        System.arraycopy(batch, 0, handles, oldLength, batch.length);
+      }
+    } finally {
+      try {
+        pkcs11Module.C_FindObjectsFinal(sessionHandle);
+      } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+        // ignore: the result of C_FindObjects or its error is more relevant
+      }
+    }
+    return handles;
+  }
+
   /**
    * Finalizes a find operation. The application must call this method to
    * finalize a find operation before attempting to start any other operation.
@@ -832,28 +1168,11 @@ public class Session {
     Util.requireNonNull("in", in);
     Util.requireNonNull("out", out);
     try {
-      if (encrypt0 != null) {
-        return (int) encrypt0.invoke(pkcs11Module,
-            sessionHandle, in, inOfs, inLen, out, outOfs, outLen);
-      } else if (encrypt1 != null) {
-        return (int) encrypt1.invoke(pkcs11Module,
-            sessionHandle, 0, in, inOfs, inLen, 0, out, outOfs, outLen);
-      } else {
-        throw new IllegalStateException("could not find C_ENCRYPT method");
-      }
-    } catch (IllegalAccessException ex) {
-      throw new TokenException("", ex);
-    } catch (InvocationTargetException ex) {
-      Throwable cause = ex.getCause();
-      if (cause instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
-        throw new PKCS11Exception(
-            ((sun.security.pkcs11.wrapper.PKCS11Exception) cause)
-                .getErrorCode());
-      } else if (cause instanceof RuntimeException) {
-        throw (RuntimeException) cause;
-      } else {
-        throw new TokenException("Error " + ex.getMessage(), ex);
-      }
+      int len = pkcs11Module.C_Encrypt(sessionHandle,
+          0, in, inOfs, inLen, 0, out, outOfs, outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
     }
   }
 
@@ -886,8 +1205,9 @@ public class Session {
     Util.requireNonNull("out", out);
 
     try {
-      return pkcs11Module.C_EncryptUpdate(sessionHandle, 0, in, inOfs,
+      int len = pkcs11Module.C_EncryptUpdate(sessionHandle, 0, in, inOfs,
           inLen, 0, out, outOfs, outLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -914,8 +1234,9 @@ public class Session {
     Util.requireNonNull("out", out);
 
     try {
-      return pkcs11Module.C_EncryptFinal(sessionHandle, 0,
+      int len = pkcs11Module.C_EncryptFinal(sessionHandle, 0,
           out, outOfs, outLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -977,28 +1298,11 @@ public class Session {
     Util.requireNonNull("out", out);
 
     try {
-      if (decrypt0 != null) {
-        return (int) decrypt0.invoke(pkcs11Module,
-            sessionHandle, in, inOfs, inLen, out, outOfs, outLen);
-      } else if (decrypt1 != null) {
-        return (int) decrypt1.invoke(pkcs11Module,
-            sessionHandle, 0, in, inOfs, inLen, 0, out, outOfs, outLen);
-      } else {
-        throw new IllegalStateException("could not find C_DECRYPT method");
-      }
-    } catch (IllegalAccessException ex) {
-      throw new TokenException("", ex);
-    } catch (InvocationTargetException ex) {
-      Throwable cause = ex.getCause();
-      if (cause instanceof sun.security.pkcs11.wrapper.PKCS11Exception) {
-        throw new PKCS11Exception(
-            ((sun.security.pkcs11.wrapper.PKCS11Exception) cause)
-                .getErrorCode());
-      } else if (cause instanceof RuntimeException) {
-        throw (RuntimeException) cause;
-      } else {
-        throw new TokenException("Error " + ex.getMessage(), ex);
-      }
+      int len = pkcs11Module.C_Decrypt(sessionHandle,
+          0, in, inOfs, inLen, 0, out, outOfs, outLen);
+      return len;
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
     }
   }
 
@@ -1031,8 +1335,9 @@ public class Session {
     Util.requireNonNull("out", out);
 
     try {
-      return pkcs11Module.C_DecryptUpdate(sessionHandle, 0, in, inOfs,
+      int len = pkcs11Module.C_DecryptUpdate(sessionHandle, 0, in, inOfs,
           inLen, 0, out, outOfs, outLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1059,8 +1364,9 @@ public class Session {
     Util.requireNonNull("out", out);
 
     try {
-      return pkcs11Module.C_DecryptFinal(sessionHandle, 0,
+      int len = pkcs11Module.C_DecryptFinal(sessionHandle, 0,
           out, outOfs, outLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1144,9 +1450,10 @@ public class Session {
     Util.requireNonNull("digest", digest);
 
     try {
-      return pkcs11Module.C_DigestSingle(sessionHandle,
+      int len = pkcs11Module.C_DigestSingle(sessionHandle,
           toCkMechanism(mechanism),
           in, inOfs, inLen, digest, digestOfs, digestLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1219,8 +1526,9 @@ public class Session {
     Util.requireNonNull("digest", digest);
 
     try {
-      return pkcs11Module.C_DigestFinal(sessionHandle,
+      int len = pkcs11Module.C_DigestFinal(sessionHandle,
           digest, digestOfs, digestLen);
+      return len;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1270,7 +1578,8 @@ public class Session {
     Util.requireNonNull("data", data);
 
     try {
-      return pkcs11Module.C_Sign(sessionHandle, data);
+      byte[] signature = pkcs11Module.C_Sign(sessionHandle, data);
+      return signature;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1318,7 +1627,8 @@ public class Session {
    */
   public byte[] signFinal(int expectedLen) throws TokenException {
     try {
-      return pkcs11Module.C_SignFinal(sessionHandle, expectedLen);
+      byte[] signature = pkcs11Module.C_SignFinal(sessionHandle, expectedLen);
+      return signature;
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -1652,8 +1962,28 @@ public class Session {
    */
   public PKCS11Object generateKey(Mechanism mechanism, PKCS11Object template)
       throws TokenException {
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(template);
+    return generateKey0(mechanism, getSetAttributes(template));
+  }
+
+  /**
+   * Generate a new secret key or a set of domain parameters from a compiled
+   * template. See {@link #generateKey(Mechanism, PKCS11Object)}.
+   *
+   * @param mechanism
+   *          The mechanism to generate a key for.
+   * @param template
+   *          The compiled template for the new key or domain parameters.
+   * @return The newly generated secret key or domain parameters.
+   * @exception TokenException
+   *              If generating a new secret key or domain parameters failed.
+   */
+  public PKCS11Object generateKeyCompiled(Mechanism mechanism,
+      CompiledTemplate template) throws TokenException {
+    return generateKey0(mechanism, toCkAttributes(template));
+  }
 
+  private PKCS11Object generateKey0(Mechanism mechanism,
+      CK_ATTRIBUTE[] ckAttributes) throws TokenException {
     long objectHandle;
     try {
       objectHandle = pkcs11Module.C_GenerateKey(sessionHandle,
@@ -1661,6 +1991,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     return PKCS11Object.getInstance(this, objectHandle);
   }
@@ -1688,9 +2019,34 @@ public class Session {
   public KeyPair generateKeyPair(Mechanism mechanism,
       PKCS11Object publicKeyTemplate, PKCS11Object privateKeyTemplate)
       throws TokenException {
-    CK_ATTRIBUTE[] ckPublicKeyAttributes = getSetAttributes(publicKeyTemplate);
-    CK_ATTRIBUTE[] ckPrivateKeyAttributes = getSetAttributes(privateKeyTemplate);
+    return generateKeyPair0(mechanism, getSetAttributes(publicKeyTemplate),
+        getSetAttributes(privateKeyTemplate));
+  }
+
+  /**
+   * Generate a new key-pair from compiled templates. See
+   * {@link #generateKeyPair(Mechanism, PKCS11Object, PKCS11Object)}.
+   *
+   * @param mechanism
+   *          The mechanism to generate a key for.
+   * @param publicKeyTemplate
+   *          The compiled template for the new public key part.
+   * @param privateKeyTemplate
+   *          The compiled template for the new private key part.
+   * @return The newly generated key-pair.
+   * @exception TokenException
+   *              If generating a new key-pair failed.
+   */
+  public KeyPair generateKeyPairCompiled(Mechanism mechanism,
+      CompiledTemplate publicKeyTemplate, CompiledTemplate privateKeyTemplate)
+      throws TokenException {
+    return generateKeyPair0(mechanism, toCkAttributes(publicKeyTemplate),
+        toCkAttributes(privateKeyTemplate));
+  }
 
+  private KeyPair generateKeyPair0(Mechanism mechanism,
+      CK_ATTRIBUTE[] ckPublicKeyAttributes,
+      CK_ATTRIBUTE[] ckPrivateKeyAttributes) throws TokenException {
     long[] objectHandles;
     try {
       objectHandles = pkcs11Module.C_GenerateKeyPair(sessionHandle,
@@ -1699,6 +2055,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     PublicKey publicKey =
         (PublicKey) PKCS11Object.getInstance(this, objectHandles[0]);
@@ -1753,9 +2110,37 @@ public class Session {
   public Key unwrapKey(Mechanism mechanism, Key unwrappingKey,
       byte[] wrappedKey, PKCS11Object keyTemplate)
       throws TokenException {
-    Util.requireNonNull("wrappedKey", wrappedKey);
+    return unwrapKey0(mechanism, unwrappingKey, wrappedKey,
+        getSetAttributes(keyTemplate));
+  }
+
+  /**
+   * Unwraps (decrypts) the given encrypted key with the unwrapping key, the
+   * new key object is created from the compiled template. See
+   * {@link #unwrapKey(Mechanism, Key, byte[], PKCS11Object)}.
+   *
+   * @param mechanism
+   *          The mechanism to use for unwrapping the key.
+   * @param unwrappingKey
+   *          The key to use for unwrapping (decrypting).
+   * @param wrappedKey
+   *          The encrypted key to unwrap (decrypt).
+   * @param keyTemplate
+   *          The compiled template for creating the new key object.
+   * @return A key object representing the newly created key object.
+   * @exception TokenException
+   *              If unwrapping the key or creating a new key object failed.
+   */
+  public Key unwrapKeyCompiled(Mechanism mechanism, Key unwrappingKey,
+      byte[] wrappedKey, CompiledTemplate keyTemplate)
+      throws TokenException {
+    return unwrapKey0(mechanism, unwrappingKey, wrappedKey,
+        toCkAttributes(keyTemplate));
+  }
 
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(keyTemplate);
+  private Key unwrapKey0(Mechanism mechanism, Key unwrappingKey,
+      byte[] wrappedKey, CK_ATTRIBUTE[] ckAttributes) throws TokenException {
+    Util.requireNonNull("wrappedKey", wrappedKey);
 
     long objectHandle;
     try {
@@ -1765,6 +2150,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     return (Key) PKCS11Object.getInstance(this, objectHandle);
   }
@@ -1789,9 +2175,35 @@ public class Session {
    */
   public Key deriveKey(Mechanism mechanism, Key baseKey, Key template)
       throws TokenException {
+    return deriveKey0(mechanism, baseKey, getSetAttributes(template));
+  }
+
+  /**
+   * Derives a new key from a specified base key, the new key object is
+   * created from the compiled template. See
+   * {@link #deriveKey(Mechanism, Key, Key)}.
+   *
+   * @param mechanism
+   *          The mechanism to use for deriving the new key from the base key.
+   * @param baseKey
+   *          The key to use as base for derivation.
+   * @param template
+   *          The compiled template for creating the new key object.
+   * @return A key object representing the newly derived (created) key object
+   *         or null, if the used mechanism uses other means to return its
+   *         values.
+   * @exception TokenException
+   *              If deriving the key or creating a new key object failed.
+   */
+  public Key deriveKeyCompiled(Mechanism mechanism, Key baseKey,
+      CompiledTemplate template) throws TokenException {
+    return deriveKey0(mechanism, baseKey, toCkAttributes(template));
+  }
+
+  private Key deriveKey0(Mechanism mechanism, Key baseKey,
+      CK_ATTRIBUTE[] ckAttributes) throws TokenException {
     CK_MECHANISM ckMechanism = toCkMechanism(mechanism);
     Parameters params = mechanism.getParameters();
-    CK_ATTRIBUTE[] ckAttributes = getSetAttributes(template);
 
     long objectHandle;
     try {
@@ -1800,6 +2212,7 @@ public class Session {
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
+    objectsCreated();
 
     /*
      * for certain mechanisms we must copy back the returned values to the
@@ -1909,6 +2322,51 @@ public class Session {
     return randomBytesBuffer;
   }
 
+  /**
+   * Generates random bytes into the given part of the buffer. Only if the
+   * part is the whole buffer, the token writes directly into it without any
+   * allocation. The JDK's PKCS#11 wrapper always fills a whole array, so for
+   * any other part the bytes are generated into a temporary array of len
+   * bytes, which is copied and cleared. Allocation-sensitive callers which
+   * need many small values of mixed sizes, e.g. IVs and nonces, should use
+   * a {@link RandomPool}.
+   *
+   * @param out
+   *          The buffer for the random bytes.
+   * @param off
+   *          The offset in the buffer.
+   * @param len
+   *          The number of random bytes to generate.
+   * @exception TokenException
+   *              If generating random bytes failed.
+   */
+  public void generateRandom(byte[] out, int off, int len)
+      throws TokenException {
+    Util.requireNonNull("out", out);
+    if (off < 0 || len < 0 || len > out.length - off) {
+      throw new IndexOutOfBoundsException("invalid off " + off + " and len "
+          + len + " for a buffer of length " + out.length);
+    }
+
+    if (len == 0) {
+      return;
+    }
+
+    boolean direct = off == 0 && len == out.length;
+    byte[] buffer = direct ? out : new byte[len];
+
+    try {
+      pkcs11Module.C_GenerateRandom(sessionHandle, buffer);
+    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+      throw new PKCS11Exception(ex);
+    }
+
+    if (!direct) {
+      System.arraycopy(buffer, 0, out, off, len);
+      Arrays.fill(buffer, (byte) 0);
+    }
+  }
+
   /**
    * Legacy function that will normally throw an PKCS11Exception with the
    * error-code PKCS11Constants.CKR_FUNCTION_NOT_PARALLEL.
@@ -1948,6 +2406,16 @@ public class Session {
   }
 
   private CK_MECHANISM toCkMechanism(Mechanism mechanism) {
+    return toCkMechanism(mechanism, vendorCodeConverter);
+  }
+
+  /**
+   * Converts the mechanism to the CK_MECHANISM expected by the PKCS#11
+   * module. Does not depend on the state of a session, so that it can be
+   * measured without token.
+   */
+  static CK_MECHANISM toCkMechanism(Mechanism mechanism,
+      VendorCodeConverter vendorCodeConverter) {
     long code = mechanism.getMechanismCode();
     if ((code & PKCS11Constants.CKM_VENDOR_DEFINED) != 0) {
       if (vendorCodeConverter != null) {
@@ -1999,10 +2467,13 @@ public class Session {
       CK_RSA_PKCS_PSS_PARAMS pParams =
           ((RSAPkcsPssParameters) params).getPKCS11ParamsObject();
       try {
-        if (field_CK_MECHANISM_pParameter != null) {
-          field_CK_MECHANISM_pParameter.set(mech, pParams);
-        } else if (method_CK_MECHANISM_setParameter != null) {
-          method_CK_MECHANISM_setParameter.invoke(mech, pParams);
+        Field pParameterField = MechanismParameterAccess.pParameterField;
+        Method setParameterMethod =
+            MechanismParameterAccess.setParameterMethod;
+        if (pParameterField != null) {
+          pParameterField.set(mech, pParams);
+        } else if (setParameterMethod != null) {
+          setParameterMethod.invoke(mech, pParams);
         } else {
           throw new IllegalStateException(
               "could not construct CK_MECHANISM for RSAPkcsPssParams");
@@ -2036,15 +2507,16 @@ public class Session {
     } else {
       Constructor<?> constructor;
       if (params instanceof CCMParameters) {
-        constructor = constructor_CK_MECHANISM_CCM;
+        constructor = MechanismConstructors.CCM;
       } else if (params instanceof GCMParameters) {
-        constructor = constructor_CK_MECHANISM_GCM;
+        constructor = MechanismConstructors.GCM;
       } else if (params instanceof TLS12KeyMaterialParameters) {
-        constructor = constructor_CK_MECHANISM_TLS12KeyMat;
+        constructor = MechanismConstructors.TLS12_KEY_MAT;
       } else if (params instanceof TLS12MasterKeyDeriveParameters) {
-        constructor = constructor_CK_MECHANISM_TLS12MasterKeyDerive;
+        constructor =
+            MechanismConstructors.TLS12_MASTER_KEY_DERIVE;
       } else if (params instanceof TLSMacParameters) {
-        constructor = constructor_CK_MECHANISM_TLSMac;
+        constructor = MechanismConstructors.TLS_MAC;
       } else {
         constructor = null;
       }
@@ -2066,6 +2538,58 @@ public class Session {
         "Unsupported Parameters " + params.getClass().getName());
   }
 
+  private void newCacheGeneration() {
+    ObjectValueCache cache = module.getObjectValueCache();
+    if (cache != null) {
+      cache.newGeneration(token.getTokenID());
+    }
+  }
+
+  private void objectsCreated() {
+    objectsCreated = true;
+    KeyHandleResolver resolver =
+        module.getExistingKeyHandleResolver(token.getTokenID());
+    if (resolver != null) {
+      resolver.objectsCreated();
+    }
+  }
+
+  private void objectModified(long objectHandle) {
+    KeyHandleResolver resolver =
+        module.getExistingKeyHandleResolver(token.getTokenID());
+    if (resolver != null) {
+      resolver.objectModified(objectHandle);
+    }
+
+    ObjectValueCache cache = module.getObjectValueCache();
+    if (cache != null) {
+      cache.invalidate(token.getTokenID(), objectHandle);
+    }
+  }
+
+  private void objectDestroyed(long objectHandle) {
+    KeyHandleResolver resolver =
+        module.getExistingKeyHandleResolver(token.getTokenID());
+    if (resolver != null) {
+      resolver.objectDestroyed(objectHandle);
+    }
+
+    ObjectValueCache cache = module.getObjectValueCache();
+    if (cache != null) {
+      cache.invalidate(token.getTokenID(), objectHandle);
+    }
+  }
+
+  private CK_ATTRIBUTE[] toCkAttributes(CompiledTemplate template) {
+    if (template == null) {
+      return null;
+    } else if (template.getModule() != module) {
+      throw new IllegalArgumentException(
+          "template was compiled for a different module");
+    }
+    return template.getAttributes();
+  }
+
   private CK_ATTRIBUTE[] getSetAttributes(PKCS11Object object) throws PKCS11Exception {
     return PKCS11Object.getSetAttributes(object, module.getVendorCodeConverter());
   }
@@ -0,0 +1,290 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.io.Closeable;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of read-write sessions of a token, for applications which borrow
+ * a session per operation instead of keeping one per thread.
+ * <pre><code>
+ *   Session session = pool.borrow();
+ *   TokenException error = null;
+ *   try {
+ *     ...
+ *   } catch (TokenException ex) {
+ *     error = ex;
+ *     throw ex;
+ *   } finally {
+ *     pool.release(session, error);
+ *   }
+ * </code></pre>
+ * Sessions are opened on demand up to the maximal number, and the most
+ * recently released session is borrowed first. If a PIN is given, the user
+ * is logged in with every new session; since the login state is shared by
+ * all sessions of the application, only the first login reaches the token.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class SessionPool implements Closeable {
+
+  public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 10 * 1000L;
+
+  /**
+   * How long a waiting borrower sleeps at most before it checks whether a
+   * discarded session can be replaced by a new one.
+   */
+  private static final long POLL_NANOS = 10 * 1000000L;
+
+  private final Token token;
+
+  private final int maxSessions;
+
+  private final char[] pin;
+
+  private final LinkedBlockingDeque<Session> idleSessions =
+      new LinkedBlockingDeque<>();
+
+  private final AtomicInteger openSessions = new AtomicInteger();
+
+  private volatile long borrowTimeoutNanos =
+      DEFAULT_BORROW_TIMEOUT_MILLIS * 1000000L;
+
+  private volatile boolean closed;
+
+  /**
+   * Constructor.
+   *
+   * @param token
+   *          The token.
+   * @param maxSessions
+   *          The maximal number of open sessions, greater than 0.
+   * @param pin
+   *          The PIN of the user, null if the sessions shall not log in.
+   */
+  public SessionPool(Token token, int maxSessions, char[] pin) {
+    this.token = Util.requireNonNull("token", token);
+    if (maxSessions < 1) {
+      throw new IllegalArgumentException("maxSessions must be at least 1");
+    }
+    this.maxSessions = maxSessions;
+    this.pin = (pin == null) ? null : pin.clone();
+  }
+
+  /**
+   * Sets how long {@link #borrow()} waits for a session if all sessions
+   * are in use. The default is {@link #DEFAULT_BORROW_TIMEOUT_MILLIS}.
+   *
+   * @param borrowTimeoutMillis
+   *          The timeout in milliseconds, not negative.
+   */
+  public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+    if (borrowTimeoutMillis < 0) {
+      throw new IllegalArgumentException(
+          "borrowTimeoutMillis must not be negative");
+    }
+    this.borrowTimeoutNanos = borrowTimeoutMillis * 1000000L;
+  }
+
+  public Token getToken() {
+    return token;
+  }
+
+  public int getMaxSessions() {
+    return maxSessions;
+  }
+
+  /**
+   * Returns the number of sessions opened by this pool and not yet
+   * closed, borrowed or idle.
+   *
+   * @return the number of open sessions.
+   */
+  public int getOpenSessionCount() {
+    return openSessions.get();
+  }
+
+  public int getIdleSessionCount() {
+    return idleSessions.size();
+  }
+
+  /**
+   * Borrows a session. An idle session is returned if available, otherwise
+   * a new session is opened if the maximal number has not been reached,
+   * otherwise this method waits until a session is released.
+   *
+   * @return the session, to be returned by {@link #release(Session)}.
+   * @exception TokenException
+   *              If no session could be opened, or if no session has been
+   *              released within the borrow timeout.
+   */
+  public Session borrow() throws TokenException {
+    Session session = idleSessions.pollFirst();
+    if (session != null) {
+      return session;
+    }
+
+    long deadline = System.nanoTime() + borrowTimeoutNanos;
+    while (true) {
+      if (closed) {
+        throw new TokenException("session pool is closed");
+      }
+
+      int count = openSessions.get();
+      if (count < maxSessions) {
+        if (openSessions.compareAndSet(count, count + 1)) {
+          return openSession();
+        }
+        continue;
+      }
+
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        throw new TokenException(Util.concatObjects("no session of ",
+            maxSessions, " sessions released within ",
+            borrowTimeoutNanos / 1000000, " ms"));
+      }
+
+      try {
+        session = idleSessions.pollFirst(Math.min(remaining, POLL_NANOS),
+            TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new TokenException("interrupted while waiting for a session",
+            ex);
+      }
+
+      if (session != null) {
+        return session;
+      }
+    }
+  }
+
+  /**
+   * Returns a borrowed session to the pool.
+   *
+   * @param session
+   *          The session.
+   */
+  public void release(Session session) {
+    if (closed) {
+      discard(session);
+    } else {
+      idleSessions.offerFirst(session);
+    }
+  }
+
+  /**
+   * Returns a borrowed session to the pool, or closes it if the error of
+   * the operation shows that it is lost (e.g. CKR_SESSION_HANDLE_INVALID or
+   * CKR_DEVICE_REMOVED), or that an operation may still be active (e.g.
+   * CKR_BUFFER_TOO_SMALL).
+   *
+   * @param session
+   *          The session.
+   * @param error
+   *          The error of the operation, null if it succeeded.
+   */
+  public void release(Session session, TokenException error) {
+    if (error instanceof PKCS11Exception
+        && isUnusable(((PKCS11Exception) error).getErrorCode())) {
+      discard(session);
+    } else {
+      release(session);
+    }
+  }
+
+  /**
+   * Closes a borrowed session instead of returning it to the pool, so that
+   * a new session may be opened.
+   *
+   * @param session
+   *          The session.
+   */
+  public void discard(Session session) {
+    openSessions.decrementAndGet();
+    try {
+      session.closeSession();
+    } catch (TokenException ex) {
+      // the session is gone anyway
+    }
+  }
+
+  /**
+   * Closes the idle sessions. The borrowed sessions are closed when they
+   * are released, further borrows fail.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Session session;
+    while ((session = idleSessions.pollFirst()) != null) {
+      discard(session);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("SessionPool: open sessions: ",
+        openSessions.get(), ", idle sessions: ", idleSessions.size(),
+        ", max sessions: ", maxSessions);
+  }
+
+  private Session openSession() throws TokenException {
+    Session session = null;
+    try {
+      session = token.openSession(true, true, null, null);
+      if (pin != null) {
+        try {
+          session.login(PKCS11Constants.CKU_USER, pin);
+        } catch (PKCS11Exception ex) {
+          if (ex.getErrorCode()
+              != PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN) {
+            throw ex;
+          }
+        }
+      }
+      return session;
+    } catch (TokenException | RuntimeException ex) {
+      if (session == null) {
+        openSessions.decrementAndGet();
+      } else {
+        discard(session);
+      }
+      throw ex;
+    }
+  }
+
+  private static boolean isUnusable(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_CLOSED
+        || errorCode == PKCS11Constants.CKR_DEVICE_REMOVED
+        || errorCode == PKCS11Constants.CKR_DEVICE_ERROR
+        || errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT
+        || errorCode == PKCS11Constants.CKR_BUFFER_TOO_SMALL
+        || errorCode == PKCS11Constants.CKR_OPERATION_ACTIVE;
+  }
+
+}
@@ -165,7 +165,7 @@ public class Slot {
   public SlotInfo getSlotInfo() throws TokenException {
     CK_SLOT_INFO ckSlotInfo;
     try {
-      ckSlotInfo = module.getPKCS11Module().C_GetSlotInfo(slotID);
+      ckSlotInfo = module.getBackend().C_GetSlotInfo(slotID);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
     }
@@ -173,6 +173,16 @@ public class Slot {
     return new SlotInfo(ckSlotInfo);
   }
 
+  /**
+   * Get the cache of the SlotInfo and TokenInfo of this slot. All Slot
+   * objects with the same ID share the same cache.
+   *
+   * @return the info cache of this slot.
+   */
+  public SlotInfoCache getInfoCache() {
+    return module.getSlotInfoCache(this);
+  }
+
   /**
    * Get an object for handling the token that is currently present in this
    * slot, or null, if there is no token present.
@@ -187,6 +197,8 @@ public class Slot {
 
     if (getSlotInfo().isTokenPresent()) {
       token = new Token(this);
+    } else {
+      module.tokenRemoved(slotID);
     }
 
     return token;
@@ -0,0 +1,246 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Caches the {@link SlotInfo} and {@link TokenInfo} of a slot for a
+ * configurable time-to-live. Until a snapshot expires, the same (immutable)
+ * instance is returned without calling the PKCS#11 module, so that it can
+ * be queried as often as required, e.g. by health checks.
+ * <p>
+ * Whenever a new TokenInfo snapshot is read, it is compared with the
+ * previous one, and if anything except the time has changed, the registered
+ * {@link TokenInfoListener}s are notified with the difference.
+ * <p>
+ * There is one cache per slot, get it via {@link Slot#getInfoCache()}. It is
+ * cleared if the token has been removed.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class SlotInfoCache {
+
+  /**
+   * Listener for changes of the TokenInfo.
+   */
+  public interface TokenInfoListener {
+
+    /**
+     * Called after a new TokenInfo snapshot has been read which differs
+     * from the previous one. It is called in the thread which read the
+     * snapshot, and must not block. A RuntimeException thrown by the
+     * listener is ignored and does not reach the reader.
+     *
+     * @param slotID
+     *          The slot identifier.
+     * @param change
+     *          The difference between the previous and the new snapshot.
+     */
+    // CHECKSTYLE:SKIP
+    void tokenInfoChanged(long slotID, TokenInfoChange change);
+
+  }
+
+  private static final class Snapshot<T> {
+
+    private final T info;
+
+    private final long expiresAt;
+
+    private Snapshot(T info, long expiresAt) {
+      this.info = info;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean isValid() {
+      return expiresAt - System.nanoTime() > 0;
+    }
+
+  }
+
+  public static final long DEFAULT_TTL_MILLIS = 1000L;
+
+  private final Slot slot;
+
+  private final CopyOnWriteArrayList<TokenInfoListener> listeners =
+      new CopyOnWriteArrayList<>();
+
+  private volatile long ttlNanos = DEFAULT_TTL_MILLIS * 1000000L;
+
+  private volatile Snapshot<SlotInfo> slotInfo;
+
+  private volatile Snapshot<TokenInfo> tokenInfo;
+
+  /**
+   * The last read TokenInfo, kept after the expiry to compute the changes.
+   */
+  private TokenInfo lastTokenInfo;
+
+  SlotInfoCache(Slot slot) {
+    this.slot = Util.requireNonNull("slot", slot);
+  }
+
+  /**
+   * Sets the time-to-live of the snapshots.
+   *
+   * @param ttlMillis
+   *          The time-to-live in milliseconds. 0 disables the caching.
+   */
+  public void setTtlMillis(long ttlMillis) {
+    if (ttlMillis < 0) {
+      throw new IllegalArgumentException("ttlMillis must not be negative");
+    }
+    this.ttlNanos = ttlMillis * 1000000L;
+  }
+
+  public long getTtlMillis() {
+    return ttlNanos / 1000000L;
+  }
+
+  public void addTokenInfoListener(TokenInfoListener listener) {
+    listeners.addIfAbsent(Util.requireNonNull("listener", listener));
+  }
+
+  public void removeTokenInfoListener(TokenInfoListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Get the information about the slot. The returned instance is shared
+   * until the snapshot expires.
+   *
+   * @return the information about the slot.
+   * @exception TokenException
+   *              If reading the information fails.
+   */
+  public SlotInfo getSlotInfo() throws TokenException {
+    Snapshot<SlotInfo> snapshot = slotInfo;
+    if (snapshot != null && snapshot.isValid()) {
+      return snapshot.info;
+    }
+
+    synchronized (this) {
+      snapshot = slotInfo;
+      if (snapshot != null && snapshot.isValid()) {
+        return snapshot.info;
+      }
+
+      CK_SLOT_INFO ckSlotInfo;
+      try {
+        ckSlotInfo = slot.getModule().getBackend()
+            .C_GetSlotInfo(slot.getSlotID());
+      } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+        throw new PKCS11Exception(ex);
+      }
+
+      SlotInfo info = new SlotInfo(ckSlotInfo);
+      slotInfo = new Snapshot<>(info, System.nanoTime() + ttlNanos);
+      return info;
+    }
+  }
+
+  /**
+   * Get the information about the token in the slot. The returned instance
+   * is shared until the snapshot expires.
+   *
+   * @return the information about the token.
+   * @exception TokenException
+   *              If reading the information fails.
+   */
+  public TokenInfo getTokenInfo() throws TokenException {
+    Snapshot<TokenInfo> snapshot = tokenInfo;
+    if (snapshot != null && snapshot.isValid()) {
+      return snapshot.info;
+    }
+
+    TokenInfoChange change = null;
+    TokenInfo info;
+    synchronized (this) {
+      snapshot = tokenInfo;
+      if (snapshot != null && snapshot.isValid()) {
+        return snapshot.info;
+      }
+
+      CK_TOKEN_INFO ckTokenInfo;
+      try {
+        ckTokenInfo = slot.getModule().getBackend()
+            .C_GetTokenInfo(slot.getSlotID());
+      } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
+        throw new PKCS11Exception(ex);
+      }
+
+      info = new TokenInfo(ckTokenInfo);
+      tokenInfo = new Snapshot<>(info, System.nanoTime() + ttlNanos);
+      if (lastTokenInfo != null && !listeners.isEmpty()) {
+        change = new TokenInfoChange(lastTokenInfo, info);
+        if (!change.isChanged()) {
+          change = null;
+        }
+      }
+      lastTokenInfo = info;
+    }
+
+    if (change != null) {
+      notifyListeners(change);
+    }
+    return info;
+  }
+
+  /**
+   * Drops the current snapshots, so that the next call reads them from the
+   * PKCS#11 module. The listeners are still notified about the changes
+   * against the last read TokenInfo.
+   */
+  public void refresh() {
+    slotInfo = null;
+    tokenInfo = null;
+  }
+
+  /**
+   * Drops the current snapshots and the last read TokenInfo.
+   */
+  synchronized void invalidate() {
+    slotInfo = null;
+    tokenInfo = null;
+    lastTokenInfo = null;
+  }
+
+  private void notifyListeners(TokenInfoChange change) {
+    for (TokenInfoListener listener : listeners) {
+      try {
+        listener.tokenInfoChanged(slot.getSlotID(), change);
+      } catch (RuntimeException ex) {
+        // ignore, see TokenInfoListener
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("SlotInfoCache of slot 0x",
+        Long.toHexString(slot.getSlotID()), ", TTL: ", getTtlMillis(),
+        " ms, listeners: ", listeners.size());
+  }
+
+}
@@ -0,0 +1,311 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Monitors the slots of a module in a daemon thread and notifies the
+ * registered {@link SlotEventListener}s when a token has been inserted or
+ * removed.
+ * <p>
+ * If the PKCS11 wrapper of the JDK provides C_WaitForSlotEvent, the monitor
+ * blocks in this function. Otherwise, or if the PKCS#11 module does not
+ * support it, the monitor polls the list of slots with a token present and
+ * compares it with the previous one. The polling interval starts with the
+ * minimal interval after a change and doubles up to the maximal interval
+ * while nothing changes.
+ * <p>
+ * Before the listeners are notified, the state kept by the module for the
+ * token in this slot (key handle resolver, object value cache, info cache
+ * and mechanism catalog) is cleared, so that it does not need to fail a
+ * request first to notice the change.
+ * <pre><code>
+ *   SlotMonitor monitor = module.getSlotMonitor();
+ *   monitor.addSlotEventListener(listener);
+ *   monitor.start();
+ * </code></pre>
+ * The monitor is stopped by {@link Module#finalize(Object)}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class SlotMonitor {
+
+  /**
+   * Listener for the slot events. The methods are called in the thread of
+   * the monitor and should not block. Exceptions thrown by the listeners
+   * are ignored.
+   */
+  public interface SlotEventListener {
+
+    /**
+     * Called after a token has been inserted into the slot.
+     *
+     * @param slot
+     *          The slot.
+     */
+    void tokenInserted(Slot slot);
+
+    /**
+     * Called after the token has been removed from the slot.
+     *
+     * @param slot
+     *          The slot.
+     */
+    void tokenRemoved(Slot slot);
+
+  }
+
+  public static final long DEFAULT_MIN_POLL_INTERVAL_MILLIS = 250L;
+
+  public static final long DEFAULT_MAX_POLL_INTERVAL_MILLIS = 5000L;
+
+  private final Module module;
+
+  private final CopyOnWriteArrayList<SlotEventListener> listeners =
+      new CopyOnWriteArrayList<>();
+
+  private volatile long minPollIntervalMillis =
+      DEFAULT_MIN_POLL_INTERVAL_MILLIS;
+
+  private volatile long maxPollIntervalMillis =
+      DEFAULT_MAX_POLL_INTERVAL_MILLIS;
+
+  private volatile boolean running;
+
+  private volatile boolean usingSlotEvents;
+
+  private Thread thread;
+
+  /**
+   * IDs of the slots with a token present. Only accessed by the monitor
+   * thread after it has been started.
+   */
+  private Set<Long> presentSlots;
+
+  SlotMonitor(Module module) {
+    this.module = Util.requireNonNull("module", module);
+  }
+
+  public void addSlotEventListener(SlotEventListener listener) {
+    listeners.addIfAbsent(Util.requireNonNull("listener", listener));
+  }
+
+  public void removeSlotEventListener(SlotEventListener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Sets the bounds of the polling interval, used only if
+   * C_WaitForSlotEvent is not available.
+   *
+   * @param minMillis
+   *          The interval after a change, in milliseconds.
+   * @param maxMillis
+   *          The maximal interval, in milliseconds.
+   */
+  public void setPollIntervalMillis(long minMillis, long maxMillis) {
+    if (minMillis < 1 || maxMillis < minMillis) {
+      throw new IllegalArgumentException(
+          "invalid poll interval [" + minMillis + ", " + maxMillis + "]");
+    }
+    this.minPollIntervalMillis = minMillis;
+    this.maxPollIntervalMillis = maxMillis;
+  }
+
+  /**
+   * Starts the monitor thread. Does nothing if it is already running.
+   *
+   * @exception TokenException
+   *              If reading the initial list of slots failed.
+   */
+  public synchronized void start() throws TokenException {
+    if (running) {
+      return;
+    }
+
+    presentSlots = getPresentSlots();
+    usingSlotEvents = Module.isWaitForSlotEventSupported();
+    running = true;
+    thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        monitor();
+      }
+    }, "pkcs11-slot-monitor");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops the monitor thread. A thread blocked in C_WaitForSlotEvent
+   * terminates after the next event or when the module is finalized.
+   */
+  public synchronized void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  public boolean isRunning() {
+    return running;
+  }
+
+  /**
+   * Check, if the monitor waits for slot events instead of polling.
+   *
+   * @return True, if C_WaitForSlotEvent is used. False, otherwise.
+   */
+  public boolean isUsingSlotEvents() {
+    return usingSlotEvents;
+  }
+
+  private void monitor() {
+    long interval = minPollIntervalMillis;
+    while (running) {
+      try {
+        if (usingSlotEvents) {
+          Slot slot;
+          try {
+            slot = module.waitForSlotEvent(Module.WaitingBehavior.BLOCK, null);
+          } catch (PKCS11Exception ex) {
+            long code = ex.getErrorCode();
+            if (code == PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED) {
+              usingSlotEvents = false;
+              continue;
+            } else if (code == PKCS11Constants.CKR_CRYPTOKI_NOT_INITIALIZED) {
+              // module has been finalized
+              running = false;
+              break;
+            }
+            throw ex;
+          }
+
+          if (running) {
+            checkSlot(slot);
+          }
+        } else {
+          interval = pollSlots() ? minPollIntervalMillis
+              : Math.min(2 * interval, maxPollIntervalMillis);
+          Thread.sleep(interval);
+        }
+      } catch (InterruptedException ex) {
+        // stopped
+        break;
+      } catch (TokenException | IllegalStateException ex) {
+        // e.g. a transient device error, try again later
+        try {
+          Thread.sleep(maxPollIntervalMillis);
+        } catch (InterruptedException ex2) {
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Compares the current list of slots with a token present with the
+   * previous one.
+   *
+   * @return true if a change has been detected.
+   */
+  private boolean pollSlots() throws TokenException {
+    Set<Long> current = getPresentSlots();
+    boolean changed = false;
+    for (Long slotID : presentSlots) {
+      if (!current.contains(slotID)) {
+        changed = true;
+        fireTokenRemoved(new Slot(module, slotID));
+      }
+    }
+
+    for (Long slotID : current) {
+      if (!presentSlots.contains(slotID)) {
+        changed = true;
+        fireTokenInserted(new Slot(module, slotID));
+      }
+    }
+
+    presentSlots = current;
+    return changed;
+  }
+
+  private void checkSlot(Slot slot) throws TokenException {
+    Long slotID = slot.getSlotID();
+    boolean wasPresent = presentSlots.contains(slotID);
+    boolean present = slot.getSlotInfo().isTokenPresent();
+    if (wasPresent) {
+      // if the token is still present, it has been replaced
+      fireTokenRemoved(slot);
+    }
+
+    if (present) {
+      presentSlots.add(slotID);
+      fireTokenInserted(slot);
+    } else {
+      presentSlots.remove(slotID);
+    }
+  }
+
+  private Set<Long> getPresentSlots() throws TokenException {
+    Slot[] slots = module.getSlotList(Module.SlotRequirement.TOKEN_PRESENT);
+    Set<Long> slotIDs = new HashSet<>(slots.length * 2);
+    for (Slot slot : slots) {
+      slotIDs.add(slot.getSlotID());
+    }
+    return slotIDs;
+  }
+
+  private void fireTokenInserted(Slot slot) {
+    // drop the state of a token which was removed unnoticed
+    module.tokenRemoved(slot.getSlotID());
+    for (SlotEventListener listener : listeners) {
+      try {
+        listener.tokenInserted(slot);
+      } catch (RuntimeException ex) {
+        // ignore, see SlotEventListener
+      }
+    }
+  }
+
+  private void fireTokenRemoved(Slot slot) {
+    module.tokenRemoved(slot.getSlotID());
+    for (SlotEventListener listener : listeners) {
+      try {
+        listener.tokenRemoved(slot);
+      } catch (RuntimeException ex) {
+        // ignore, see SlotEventListener
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("SlotMonitor: running: ", running,
+        ", using slot events: ", usingSlotEvents);
+  }
+
+}
@@ -101,33 +101,49 @@ public class Token {
   public static final String CLASS_PKCS11Exception =
           "sun.security.pkcs11.wrapper.PKCS11Exception";
 
-  private static final Constructor<?> PKCS11ExceptionConstructor;
+  /**
+   * The constructor of sun.security.pkcs11.wrapper.PKCS11Exception, which
+   * differs between the JDK versions. Only needed to report errors from a
+   * Notify callback, and therefore resolved on first use.
+   */
+  private static final class PKCS11ExceptionConstructorHolder {
 
-  private static final int PKCS11ExceptionConstructorType;
+    private static final Constructor<?> PKCS11ExceptionConstructor;
 
-  static {
-    Constructor<?> constructor = null;
-    int type = 0;
+    private static final int PKCS11ExceptionConstructorType;
 
-    try {
-      Class<?> clazz = Class.forName(CLASS_PKCS11Exception);
+    static {
+      Constructor<?> constructor = null;
+      int type = 0;
 
-      constructor = Util.getConstructor(clazz, long.class);
-      if (constructor != null) {
-        type = 1;
-      } else {
-        constructor= Util.getConstructor(clazz, long.class, String.class);
+      try {
+        Class<?> clazz = Class.forName(CLASS_PKCS11Exception);
+
+        constructor = Util.getConstructor(clazz, long.class);
         if (constructor != null) {
-          type = 2;
+          type = 1;
+        } else {
+          constructor= Util.getConstructor(clazz, long.class, String.class);
+          if (constructor != null) {
+            type = 2;
+          }
         }
+      } catch (Exception ex) {
       }
-    } catch (Exception ex) {
+
+      PKCS11ExceptionConstructor = constructor;
+      PKCS11ExceptionConstructorType = type;
     }
 
-    PKCS11ExceptionConstructor = constructor;
-    PKCS11ExceptionConstructorType = type;
   }
 
+  /**
+   * The lazily initialized holder classes, see
+   * {@link Module#preloadClasses()}.
+   */
+  static final String[] LAZY_HOLDER_CLASSES = {
+    PKCS11ExceptionConstructorHolder.class.getName()};
+
   /**
    * This interface defines constants for the type of session that should
    * be opened upon a call to openSession. The version 2.x of PKCS#11 only
@@ -240,6 +256,43 @@ public class Token {
     return slot.getSlotID();
   }
 
+  /**
+   * Get the resolver which maps the CKA_ID or CKA_LABEL of objects in this
+   * token to object handles. All Token objects of the same slot share the
+   * same resolver.
+   *
+   * @return the key handle resolver of this token.
+   */
+  public KeyHandleResolver getKeyHandleResolver() {
+    return slot.getModule().getKeyHandleResolver(slot);
+  }
+
+  /**
+   * Get the catalog of the mechanisms supported by this token. It is loaded
+   * on the first call and shared by all Token objects of the same slot, so
+   * that checking the support of a mechanism needs no call to the PKCS#11
+   * module.
+   *
+   * @return the mechanism catalog of this token.
+   * @exception TokenException
+   *              If loading the catalog failed.
+   */
+  public MechanismCatalog getMechanismCatalog() throws TokenException {
+    return slot.getModule().getMechanismCatalog(slot);
+  }
+
+  /**
+   * Reload the catalog of the mechanisms supported by this token, e.g. after
+   * the configuration of the token has been changed.
+   *
+   * @return the reloaded mechanism catalog.
+   * @exception TokenException
+   *              If loading the catalog failed.
+   */
+  public MechanismCatalog refreshMechanismCatalog() throws TokenException {
+    return slot.getModule().refreshMechanismCatalog(slot);
+  }
+
   /**
    * Get information about this token.
    *
@@ -250,7 +303,7 @@ public class Token {
   public TokenInfo getTokenInfo() throws TokenException {
     CK_TOKEN_INFO ckTokenInfo;
     try {
-      ckTokenInfo = slot.getModule().getPKCS11Module()
+      ckTokenInfo = slot.getModule().getBackend()
         .C_GetTokenInfo(slot.getSlotID());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -259,6 +312,19 @@ public class Token {
     return new TokenInfo(ckTokenInfo);
   }
 
+  /**
+   * Get information about this token from the info cache of the slot. The
+   * same instance is returned until the cached snapshot expires.
+   *
+   * @return An object containing information about this token.
+   * @exception TokenException
+   *              If reading the information fails.
+   * @see SlotInfoCache
+   */
+  public TokenInfo getCachedTokenInfo() throws TokenException {
+    return slot.getInfoCache().getTokenInfo();
+  }
+
   /**
    * Get the list of mechanisms that this token supports. An application can
    * use this method to determine, if this token supports the required
@@ -274,7 +340,7 @@ public class Token {
             slot.getModule().getVendorCodeConverter();
     long[] mechanismIdList;
     try {
-      mechanismIdList = slot.getModule().getPKCS11Module()
+      mechanismIdList = slot.getModule().getBackend()
         .C_GetMechanismList(slot.getSlotID());
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -316,7 +382,7 @@ public class Token {
 
     CK_MECHANISM_INFO ckMechanismInfo;
     try {
-      ckMechanismInfo = slot.getModule().getPKCS11Module()
+      ckMechanismInfo = slot.getModule().getBackend()
         .C_GetMechanismInfo(slot.getSlotID(), mechanismCode);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -408,17 +474,21 @@ public class Token {
           } catch (PKCS11Exception ex) {
             long errorCode = ex.getErrorCode();
             try {
-              if (PKCS11ExceptionConstructorType == 0) {
+              int constructorType = PKCS11ExceptionConstructorHolder
+                  .PKCS11ExceptionConstructorType;
+              Constructor<?> constructor = PKCS11ExceptionConstructorHolder
+                  .PKCS11ExceptionConstructor;
+              if (constructorType == 0) {
                 // ignore
-              } else if (PKCS11ExceptionConstructorType == 1) {
+              } else if (constructorType == 1) {
                 // JDK 8 - 16
                 throw (sun.security.pkcs11.wrapper.PKCS11Exception)
-                        PKCS11ExceptionConstructor.newInstance(errorCode);
-              } else if (PKCS11ExceptionConstructorType == 2) {
+                        constructor.newInstance(errorCode);
+              } else if (constructorType == 2) {
                 // JDK 17+
                 String extraInfo = null;
                 throw (sun.security.pkcs11.wrapper.PKCS11Exception)
-                        PKCS11ExceptionConstructor.newInstance(errorCode, extraInfo);
+                        constructor.newInstance(errorCode, extraInfo);
               }
             } catch (Throwable th) {
               // ignore
@@ -430,7 +500,7 @@ public class Token {
 
     long sessionHandle;
     try {
-      sessionHandle = slot.getModule().getPKCS11Module()
+      sessionHandle = slot.getModule().getBackend()
         .C_OpenSession(slot.getSlotID(), flags, application, ckNotify);
     } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
       throw new PKCS11Exception(ex);
@@ -76,6 +76,22 @@ public class TokenException extends Exception {
     super(message);
   }
 
+  /**
+   * Constructor taking an exception message, which can create the exception
+   * without stack trace. Filling in the stack trace is the most expensive
+   * part of creating an exception, and is not required for exceptions which
+   * are expected to be caught and handled by the caller.
+   *
+   * @param message
+   *          The message giving details about the exception to ease
+   *          debugging.
+   * @param writableStackTrace
+   *          Whether the stack trace should be filled in.
+   */
+  protected TokenException(String message, boolean writableStackTrace) {
+    super(message, null, true, writableStackTrace);
+  }
+
   /**
    * Constructor taking an other exception to wrap.
    *
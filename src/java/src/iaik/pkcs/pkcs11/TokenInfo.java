@@ -350,7 +350,8 @@ public class TokenInfo {
    * @see #isClockOnToken()
    */
   public Date getTime() {
-    return time;
+    // Date is mutable, and instances of this class may be shared
+    return (time == null) ? null : (Date) time.clone();
   }
 
   /**
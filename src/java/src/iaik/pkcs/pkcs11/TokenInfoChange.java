@@ -0,0 +1,138 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+/**
+ * The difference between two consecutive {@link TokenInfo} snapshots of the
+ * same slot, as passed to the
+ * {@link SlotInfoCache.TokenInfoListener}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class TokenInfoChange {
+
+  /**
+   * The flags which describe the state of the user and SO PIN.
+   */
+  public static final long PIN_FLAGS = PKCS11Constants.CKF_USER_PIN_COUNT_LOW
+      | PKCS11Constants.CKF_USER_PIN_FINAL_TRY
+      | PKCS11Constants.CKF_USER_PIN_LOCKED
+      | PKCS11Constants.CKF_USER_PIN_TO_BE_CHANGED
+      | PKCS11Constants.CKF_SO_PIN_COUNT_LOW
+      | PKCS11Constants.CKF_SO_PIN_FINAL_TRY
+      | PKCS11Constants.CKF_SO_PIN_LOCKED
+      | PKCS11Constants.CKF_SO_PIN_TO_BE_CHANGED;
+
+  private final TokenInfo previous;
+
+  private final TokenInfo current;
+
+  TokenInfoChange(TokenInfo previous, TokenInfo current) {
+    this.previous = Util.requireNonNull("previous", previous);
+    this.current = Util.requireNonNull("current", current);
+  }
+
+  public TokenInfo getPrevious() {
+    return previous;
+  }
+
+  public TokenInfo getCurrent() {
+    return current;
+  }
+
+  /**
+   * Check, if the token in the slot has been replaced by another one, i.e.
+   * the label, model or serial number differ.
+   *
+   * @return True, if the token has been replaced. False, otherwise.
+   */
+  public boolean isTokenReplaced() {
+    return !previous.getSerialNumber().equals(current.getSerialNumber())
+        || !previous.getModel().equals(current.getModel())
+        || !previous.getLabel().equals(current.getLabel());
+  }
+
+  public boolean isSessionCountChanged() {
+    return previous.getSessionCount() != current.getSessionCount()
+        || previous.getRwSessionCount() != current.getRwSessionCount();
+  }
+
+  public boolean isFreeMemoryChanged() {
+    return previous.getFreePublicMemory() != current.getFreePublicMemory()
+        || previous.getFreePrivateMemory() != current.getFreePrivateMemory();
+  }
+
+  public boolean isPinFlagsChanged() {
+    return (getChangedFlags() & PIN_FLAGS) != 0;
+  }
+
+  /**
+   * Get the token flags which have been set or cleared.
+   *
+   * @return The changed flags.
+   */
+  public long getChangedFlags() {
+    return previous.getFlags() ^ current.getFlags();
+  }
+
+  /**
+   * Check, if anything except the time of the token has changed.
+   *
+   * @return True, if anything except the time has changed. False, otherwise.
+   */
+  public boolean isChanged() {
+    return isTokenReplaced() || isSessionCountChanged()
+        || isFreeMemoryChanged() || getChangedFlags() != 0
+        || previous.getTotalPublicMemory() != current.getTotalPublicMemory()
+        || previous.getTotalPrivateMemory()
+            != current.getTotalPrivateMemory()
+        || !previous.getFirmwareVersion().equals(
+            current.getFirmwareVersion());
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("TokenInfoChange:");
+    if (isTokenReplaced()) {
+      sb.append("\n  token replaced: ").append(previous.getSerialNumber())
+        .append(" -> ").append(current.getSerialNumber());
+    }
+    if (isSessionCountChanged()) {
+      sb.append("\n  sessions: ").append(previous.getSessionCount())
+        .append("/").append(previous.getRwSessionCount()).append(" -> ")
+        .append(current.getSessionCount()).append("/")
+        .append(current.getRwSessionCount());
+    }
+    if (isFreeMemoryChanged()) {
+      sb.append("\n  free memory: ").append(previous.getFreePublicMemory())
+        .append("/").append(previous.getFreePrivateMemory()).append(" -> ")
+        .append(current.getFreePublicMemory()).append("/")
+        .append(current.getFreePrivateMemory());
+    }
+    long changedFlags = getChangedFlags();
+    if (changedFlags != 0) {
+      sb.append("\n  flags: 0x").append(Long.toHexString(previous.getFlags()))
+        .append(" -> 0x").append(Long.toHexString(current.getFlags()));
+    }
+    return sb.toString();
+  }
+
+}
@@ -65,6 +65,22 @@ import java.util.*;
  */
 public class Util {
 
+  /**
+   * Constructor of the PKCS11Exception of the JDK, whose signature differs
+   * between the JDK versions. Resolved on first use.
+   */
+  private static final class PKCS11ExceptionConstructors {
+
+    private static final Constructor<?> code =
+        getConstructor(sun.security.pkcs11.wrapper.PKCS11Exception.class,
+            long.class);
+
+    private static final Constructor<?> codeAndMessage =
+        getConstructor(sun.security.pkcs11.wrapper.PKCS11Exception.class,
+            long.class, String.class);
+
+  }
+
   public static <T> T requireNonNull(String paramName, T param) {
     if (param == null) {
       throw new NullPointerException(
@@ -221,6 +237,51 @@ public class Util {
     return charArray;
   }
 
+  /**
+   * Returns the bytes of a CKA_LABEL value as read from the token. The JDK's
+   * PKCS#11 wrapper passes each byte of the label as one char, so that a
+   * label containing non-ASCII characters arrives as its UTF-8 bytes, one
+   * char each.
+   *
+   * @param labelChars
+   *          The label as read from the token.
+   * @return the bytes of the label, i.e. the UTF-8 encoded label.
+   *         null, if the given array is null.
+   */
+  public static byte[] labelCharsToBytes(char[] labelChars) {
+    if (labelChars == null) {
+      return null;
+    }
+
+    byte[] bytes = new byte[labelChars.length];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) labelChars[i];
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the CKA_LABEL value to pass to the JDK's PKCS#11 wrapper for a
+   * label given by its bytes, one char per byte. See
+   * {@link #labelCharsToBytes(char[])}.
+   *
+   * @param labelBytes
+   *          The bytes of the label, i.e. the UTF-8 encoded label.
+   * @return the label to pass to the wrapper. null, if the given array is
+   *         null.
+   */
+  public static char[] labelBytesToChars(byte[] labelBytes) {
+    if (labelBytes == null) {
+      return null;
+    }
+
+    char[] chars = new char[labelBytes.length];
+    for (int i = 0; i < chars.length; i++) {
+      chars[i] = (char) (labelBytes[i] & 0xff);
+    }
+    return chars;
+  }
+
   /**
    * Convert a BigInteger to a byte-array, but treat the byte-array given from
    * the BigInteger as unsigned and removing any leading zero bytes; e.g. a
@@ -400,6 +461,33 @@ public class Util {
     return hash;
   }
 
+  /**
+   * Creates the PKCS11Exception of the JDK, as thrown by the native PKCS#11
+   * wrapper, for the given error code.
+   *
+   * @param errorCode
+   *          The PKCS#11 return value, e.g. CKR_DEVICE_ERROR.
+   * @return the exception.
+   */
+  public static sun.security.pkcs11.wrapper.PKCS11Exception
+      newPKCS11Exception(long errorCode) {
+    try {
+      if (PKCS11ExceptionConstructors.code != null) {
+        return (sun.security.pkcs11.wrapper.PKCS11Exception)
+            PKCS11ExceptionConstructors.code.newInstance(errorCode);
+      } else if (PKCS11ExceptionConstructors.codeAndMessage != null) {
+        return (sun.security.pkcs11.wrapper.PKCS11Exception)
+            PKCS11ExceptionConstructors.codeAndMessage.newInstance(
+                errorCode, null);
+      }
+    } catch (ReflectiveOperationException ex) {
+      throw new IllegalStateException(
+          "could not create PKCS11Exception", ex);
+    }
+    throw new IllegalStateException(
+        "could not find constructor of PKCS11Exception");
+  }
+
   public static Field getField(Class<?> clazz, String fieldName) {
     try {
       return clazz.getField(fieldName);
@@ -44,6 +44,8 @@ package iaik.pkcs.pkcs11.objects;
 
 import iaik.pkcs.pkcs11.Util;
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -66,6 +68,8 @@ public class ByteArrayAttribute extends Attribute {
     super(type);
   }
 
+  private transient DecodedValue<BigInteger> decodedBigInteger;
+
   /**
    * Set the byte-array value of this attribute. Null, is also valid.
    * A call to this method sets the present flag to true.
@@ -87,6 +91,46 @@ public class ByteArrayAttribute extends Attribute {
     return (byte[]) ckAttribute.pValue;
   }
 
+  /**
+   * Get a read-only view of the value of this attribute, e.g. to pass it to
+   * code which must not modify it. The value is not copied, but each call
+   * allocates the buffer; {@link #getByteArrayValue()} returns the value
+   * itself without any allocation.
+   *
+   * @return The read-only view of the value or null.
+   */
+  public ByteBuffer getReadOnlyValue() {
+    byte[] value = (byte[]) ckAttribute.pValue;
+    return (value == null) ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the length of the value of this attribute without copying it.
+   *
+   * @return The length of the value, or -1 if the value is null.
+   */
+  public int getValueLength() {
+    byte[] value = (byte[]) ckAttribute.pValue;
+    return (value == null) ? -1 : value.length;
+  }
+
+  /**
+   * Get the value of this attribute as unsigned big integer, e.g. of the
+   * CKA_MODULUS. The value is decoded on the first call only.
+   *
+   * @return The unsigned big integer value or null.
+   */
+  public BigInteger getUnsignedBigIntegerValue() {
+    Object rawValue = ckAttribute.pValue;
+    DecodedValue<BigInteger> decoded = decodedBigInteger;
+    if (decoded == null || !decoded.isDecodedFrom(rawValue)) {
+      decoded = new DecodedValue<>(rawValue,
+          (rawValue == null) ? null : new BigInteger(1, (byte[]) rawValue));
+      decodedBigInteger = decoded;
+    }
+    return decoded.getValue();
+  }
+
   /**
    * Get a string representation of the value of this attribute.
    *
@@ -483,7 +483,7 @@ public class Certificate extends Storage {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle,
+    readAttributeValues(session,
         new Attribute[] {
             trusted, certificateCategory, checkValue, startDate, endDate});
   }
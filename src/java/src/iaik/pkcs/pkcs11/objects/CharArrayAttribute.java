@@ -44,6 +44,7 @@ package iaik.pkcs.pkcs11.objects;
 
 import iaik.pkcs.pkcs11.Util;
 
+import java.nio.CharBuffer;
 import java.util.Arrays;
 
 /**
@@ -66,6 +67,8 @@ public class CharArrayAttribute extends Attribute {
     super(type);
   }
 
+  private transient DecodedValue<String> decodedString;
+
   /**
    * Set the char-array value of this attribute. Null, is also valid.
    * A call to this method sets the present flag to true.
@@ -87,6 +90,36 @@ public class CharArrayAttribute extends Attribute {
     return (char[]) ckAttribute.pValue;
   }
 
+  /**
+   * Get a read-only view of the value of this attribute, e.g. to compare it
+   * with a label. The value is not copied, but each call allocates the
+   * view; {@link #getCharArrayValue()} returns the value itself without any
+   * allocation.
+   *
+   * @return The read-only view of the value or null.
+   */
+  public CharSequence getCharSequenceValue() {
+    char[] value = (char[]) ckAttribute.pValue;
+    return (value == null) ? null : CharBuffer.wrap(value).asReadOnlyBuffer();
+  }
+
+  /**
+   * Get the value of this attribute as String. The String is created on the
+   * first call only.
+   *
+   * @return The String value or null.
+   */
+  public String getStringValue() {
+    Object rawValue = ckAttribute.pValue;
+    DecodedValue<String> decoded = decodedString;
+    if (decoded == null || !decoded.isDecodedFrom(rawValue)) {
+      decoded = new DecodedValue<>(rawValue,
+          (rawValue == null) ? null : new String((char[]) rawValue));
+      decodedString = decoded;
+    }
+    return decoded.getValue();
+  }
+
   /**
    * Get a string representation of the value of this attribute.
    *
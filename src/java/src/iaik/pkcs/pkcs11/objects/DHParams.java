@@ -211,7 +211,7 @@ public class DHParams extends DomainParameters {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, base, primeBits });
   }
 
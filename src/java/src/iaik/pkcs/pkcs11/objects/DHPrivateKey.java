@@ -229,7 +229,7 @@ public class DHPrivateKey extends PrivateKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, base, valueBits, value });
   }
 
@@ -212,7 +212,7 @@ public class DHPublicKey extends PublicKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, base, value });
   }
 
@@ -229,7 +229,7 @@ public class DSAParams extends DomainParameters {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, subprime, base, primeBits});
   }
 
@@ -230,7 +230,7 @@ public class DSAPrivateKey extends PrivateKey {
       throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, subprime, base, value });
   }
 
@@ -224,7 +224,7 @@ public class Data extends Storage {
   @Override
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         application, objectID, value });
   }
 
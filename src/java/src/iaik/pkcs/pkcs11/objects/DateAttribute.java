@@ -68,6 +68,8 @@ public class DateAttribute extends Attribute {
     super(type);
   }
 
+  private transient DecodedValue<Date> decodedDate;
+
   /**
    * Set the date value of this attribute. Null, is also valid.
    * A call to this method sets the present flag to true.
@@ -86,7 +88,59 @@ public class DateAttribute extends Attribute {
    * @return The date value of this attribute or null.
    */
   public Date getDateValue() {
-    return Util.convertToDate((CK_DATE) ckAttribute.pValue);
+    Object rawValue = ckAttribute.pValue;
+    DecodedValue<Date> decoded = decodedDate;
+    if (decoded == null || !decoded.isDecodedFrom(rawValue)) {
+      decoded = new DecodedValue<>(rawValue,
+          Util.convertToDate((CK_DATE) rawValue));
+      decodedDate = decoded;
+    }
+
+    Date date = decoded.getValue();
+    // Date is mutable
+    return (date == null) ? null : (Date) date.clone();
+  }
+
+  /**
+   * Get the year of the date value without creating a Date object.
+   *
+   * @return The year, or -1 if the value is null.
+   */
+  public int getYear() {
+    CK_DATE date = (CK_DATE) ckAttribute.pValue;
+    return (date == null) ? -1 : parseDigits(date.year);
+  }
+
+  /**
+   * Get the month (1 to 12) of the date value without creating a Date
+   * object.
+   *
+   * @return The month, or -1 if the value is null.
+   */
+  public int getMonth() {
+    CK_DATE date = (CK_DATE) ckAttribute.pValue;
+    return (date == null) ? -1 : parseDigits(date.month);
+  }
+
+  /**
+   * Get the day of month of the date value without creating a Date object.
+   *
+   * @return The day of month, or -1 if the value is null.
+   */
+  public int getDay() {
+    CK_DATE date = (CK_DATE) ckAttribute.pValue;
+    return (date == null) ? -1 : parseDigits(date.day);
+  }
+
+  private static int parseDigits(char[] digits) {
+    int value = 0;
+    for (char c : digits) {
+      if (c < '0' || c > '9') {
+        throw new NumberFormatException("invalid digit in CK_DATE: " + c);
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
   }
 
   /**
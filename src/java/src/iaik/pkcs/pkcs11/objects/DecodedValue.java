@@ -0,0 +1,49 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.objects;
+
+/**
+ * A memoized decoding of an attribute value. It is valid as long as the
+ * attribute still holds the same (identical) raw value, so that setting a
+ * new value or reading the attribute again invalidates it without further
+ * bookkeeping. Both fields are final, so an instance can be published to
+ * other threads without synchronization.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class DecodedValue<T> {
+
+  private final Object source;
+
+  private final T value;
+
+  DecodedValue(Object source, T value) {
+    this.source = source;
+    this.value = value;
+  }
+
+  boolean isDecodedFrom(Object rawValue) {
+    return source == rawValue;
+  }
+
+  T getValue() {
+    return value;
+  }
+
+}
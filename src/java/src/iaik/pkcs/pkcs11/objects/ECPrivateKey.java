@@ -217,7 +217,7 @@ public class ECPrivateKey extends PrivateKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         ecdsaParams, value });
   }
 
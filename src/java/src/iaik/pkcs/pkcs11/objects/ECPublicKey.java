@@ -218,7 +218,7 @@ public class ECPublicKey extends PublicKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         ecdsaParams, ecPoint });
   }
 
@@ -192,7 +192,7 @@ public class GenericTemplate extends PKCS11Object {
     }
 
     if (!attrs.isEmpty()) {
-      PKCS11Object.getAttributeValues(session, objectHandle,
+      readAttributeValues(session,
           attrs.toArray(new Attribute[0]));
     }
   }
@@ -229,7 +229,7 @@ public class KEAPublicKey extends PublicKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, subprime, base, value });
   }
 
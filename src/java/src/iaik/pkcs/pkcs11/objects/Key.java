@@ -561,7 +561,7 @@ public class Key extends Storage {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         keyType, id, startDate, endDate, derive, local, keyGenMechanism,
         allowedMechanisms });
   }
@@ -91,6 +91,18 @@ public class LongAttribute extends Attribute {
     return (Long) ckAttribute.pValue;
   }
 
+  /**
+   * Get the long value of this attribute as primitive.
+   *
+   * @param defaultValue
+   *          The value returned if the value of this attribute is null.
+   * @return The long value of this attribute or the defaultValue.
+   */
+  public long getLongValue(long defaultValue) {
+    Long value = (Long) ckAttribute.pValue;
+    return (value == null) ? defaultValue : value.longValue();
+  }
+
   /**
    * Get a string representation of the value of this attribute. The radix
    * for the presentation can be specified; e.g. 16 for hex, 10 for decimal.
@@ -225,7 +225,7 @@ public class MonotonicCounter extends HardwareFeature {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         resetOnInit, hasReset, value });
   }
 
@@ -46,10 +46,11 @@ import iaik.pkcs.pkcs11.*;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
 import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
 import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
-import sun.security.pkcs11.wrapper.PKCS11;
 
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
 
 /**
@@ -186,6 +187,12 @@ public class PKCS11Object {
    */
   protected long objectHandle = -1;
 
+  /**
+   * Whether the key type or certificate type of the profile has been read,
+   * see {@link #readAttributeValues(Session, Attribute[])}.
+   */
+  private boolean profileTypeRead;
+
   /**
    * The default constructor. An application use this constructor to
    * instantiate an object that serves as a template. It may also be useful
@@ -701,37 +708,28 @@ public class PKCS11Object {
       Attribute attribute) throws PKCS11Exception {
     Util.requireNonNull("session", session);
 
-    PKCS11 pkcs11Module = session.getModule().getPKCS11Module();
-    long sessionHandle = session.getSessionHandle();
-    long attributeCode = attribute.getCkAttribute().type;
-
-    try {
-      CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
-      attributeTemplateList[0] = new CK_ATTRIBUTE();
-      attributeTemplateList[0].type = attributeCode;
-      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
-          attributeTemplateList);
+    CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[1];
+    attributeTemplateList[0] = new CK_ATTRIBUTE();
+    attributeTemplateList[0].type = attribute.getCkAttribute().type;
+    long rv = session.getAttributeValue(objectHandle, attributeTemplateList);
+    if (rv == PKCS11Constants.CKR_OK) {
       attribute.setCkAttribute(attributeTemplateList[0]);
       attribute.setPresent(true);
       attribute.setSensitive(false);
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      if (ex.getErrorCode()
-          == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
-        // this means, that some requested attributes are missing, but
-        // we can ignore this and proceed; e.g. a v2.01 module won't
-        // have the object ID attribute
-        attribute.setPresent(false);
-      } else if (ex.getErrorCode()
-          == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
-        // this means, that some requested attributes are missing, but
-        // we can ignore this and proceed; e.g. a v2.01 module won't
-        // have the object ID attribute
-        attribute.setPresent(true);
-        attribute.setSensitive(true);
-      } else {
-        // there was a different error that we should propagate
-        throw new PKCS11Exception(ex);
-      }
+    } else if (rv == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
+      // this means, that some requested attributes are missing, but
+      // we can ignore this and proceed; e.g. a v2.01 module won't
+      // have the object ID attribute
+      attribute.setPresent(false);
+    } else if (rv == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
+      // this means, that some requested attributes are missing, but
+      // we can ignore this and proceed; e.g. a v2.01 module won't
+      // have the object ID attribute
+      attribute.setPresent(true);
+      attribute.setSensitive(true);
+    } else {
+      // there was a different error that we should propagate
+      throw new PKCS11Exception(rv);
     }
   }
 
@@ -739,7 +737,8 @@ public class PKCS11Object {
    * This method reads the attributes in a similar way as
    * {@link #getAttributeValue}, but a complete array at once. This can lead
    * to performance improvements. If reading all attributes at once fails, it
-   * tries to read each attributes individually.
+   * splits the attributes in two halves and reads each of them in the same
+   * way, until the failing attributes have been isolated.
    *
    * @param session
    *          The session to use for reading the attributes.
@@ -757,30 +756,238 @@ public class PKCS11Object {
     Util.requireNonNull("session", session);
     Util.requireNonNull("attributes", attributes);
 
-    PKCS11 pkcs11Module = session.getModule().getPKCS11Module();
-    long sessionHandle = session.getSessionHandle();
+    if (attributes.length == 0) {
+      return;
+    }
+
+    getAttributeValues(session, objectHandle, attributes, 0,
+        attributes.length, null);
+  }
+
+  /**
+   * Reads the given attributes of this object like
+   * {@link #getAttributeValues(Session, long, Attribute[])}. Additionally,
+   * the attribute types which turned out to be invalid or sensitive are
+   * remembered per module for objects with the same object class, key type
+   * and certificate type, and will not be requested from the token again.
+   * <p>
+   * The key type or certificate type of this object is read together with
+   * the first attributes, so that the profile never costs an own call. Only
+   * the attributes of this first call are not filtered. Since the key type
+   * and certificate type cannot be modified, they are not read again. If
+   * they cannot be read, nothing is remembered.
+   *
+   * @param session
+   *          The session to use for reading the attributes.
+   * @param attributes
+   *          The attributes of this object to read.
+   * @exception PKCS11Exception
+   *              If getting the attributes failed.
+   * @see UnreadableAttributeTypes
+   */
+  protected void readAttributeValues(Session session, Attribute[] attributes)
+      throws PKCS11Exception {
+    Util.requireNonNull("session", session);
+    Util.requireNonNull("attributes", attributes);
+
+    LongAttribute typeAttribute = getProfileTypeAttribute();
+    boolean readType = typeAttribute != null && !profileTypeRead;
+    UnreadableAttributeTypes unreadableTypes =
+        session.getModule().getUnreadableAttributeTypes();
+    UnreadableAttributeTypes.Profile profile =
+        readType ? null : getAttributeProfile();
+    if (profile == null && !readType) {
+      getAttributeValues(session, objectHandle, attributes);
+      return;
+    }
 
-    try {
-      CK_ATTRIBUTE[] attributeTemplateList
-        = new CK_ATTRIBUTE[attributes.length];
-      for (int i = 0; i < attributes.length; i++) {
-        CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
-        attribute.type = attributes[i].getCkAttribute().type;
-        attributeTemplateList[i] = attribute;
+    Attribute[] toRead = new Attribute[attributes.length + 1];
+    int count = 0;
+    if (readType) {
+      toRead[count++] = typeAttribute;
+    }
+    for (Attribute attribute : attributes) {
+      if (attribute == typeAttribute) {
+        // read above, or before
+        continue;
+      } else if (profile == null
+          || !unreadableTypes.applyIfUnreadable(profile, attribute)) {
+        toRead[count++] = attribute;
       }
-      pkcs11Module.C_GetAttributeValue(sessionHandle, objectHandle,
-            attributeTemplateList);
-      for (int i = 0; i < attributes.length; i++) {
-        attributes[i].setCkAttribute(attributeTemplateList[i]);
-        attributes[i].setPresent(true);
-        attributes[i].setSensitive(false);
+    }
+
+    if (count == 0) {
+      return;
+    }
+
+    Map<Long, Boolean> unreadable = new HashMap<>();
+    getAttributeValues(session, objectHandle, toRead, 0, count, unreadable);
+    if (readType) {
+      profileTypeRead = true;
+      profile = getAttributeProfile();
+    }
+
+    if (profile != null) {
+      for (Map.Entry<Long, Boolean> entry : unreadable.entrySet()) {
+        if (entry.getValue()) {
+          unreadableTypes.addSensitive(profile, entry.getKey());
+        } else {
+          unreadableTypes.addInvalid(profile, entry.getKey());
+        }
       }
-    } catch (sun.security.pkcs11.wrapper.PKCS11Exception ex) {
-      // try to read values separately
-      for (Attribute attribute : attributes) {
-        getAttributeValue(session, objectHandle, attribute);
+    }
+  }
+
+  /**
+   * Reads the attributes from fromIndex to toIndex, and isolates the
+   * unreadable ones by bisection. The types of these are put into
+   * unreadable, if not null, with the value true for sensitive and false
+   * for invalid types.
+   */
+  private static void getAttributeValues(Session session,
+      long objectHandle, Attribute[] attributes, int fromIndex, int toIndex,
+      Map<Long, Boolean> unreadable) throws PKCS11Exception {
+    int count = toIndex - fromIndex;
+    CK_ATTRIBUTE[] attributeTemplateList = new CK_ATTRIBUTE[count];
+    for (int i = 0; i < count; i++) {
+      CK_ATTRIBUTE attribute = new CK_ATTRIBUTE();
+      attribute.type = attributes[fromIndex + i].getCkAttribute().type;
+      attributeTemplateList[i] = attribute;
+    }
+
+    long rv = session.getAttributeValue(objectHandle, attributeTemplateList);
+    if (rv == PKCS11Constants.CKR_OK) {
+      for (int i = 0; i < count; i++) {
+        Attribute attribute = attributes[fromIndex + i];
+        attribute.setCkAttribute(attributeTemplateList[i]);
+        attribute.setPresent(true);
+        attribute.setSensitive(false);
+      }
+      return;
+    } else if (count == 1) {
+      Attribute attribute = attributes[fromIndex];
+      if (rv == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID) {
+        attribute.setPresent(false);
+        if (unreadable != null) {
+          unreadable.put(attributeTemplateList[0].type, Boolean.FALSE);
+        }
+      } else if (rv == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE) {
+        attribute.setPresent(true);
+        attribute.setSensitive(true);
+        if (unreadable != null) {
+          unreadable.put(attributeTemplateList[0].type, Boolean.TRUE);
+        }
+      } else {
+        // there was a different error that we should propagate
+        throw new PKCS11Exception(rv);
       }
+      return;
+    } else if (isObjectOrSessionError(rv)) {
+      // splitting the attributes would fail with the same error
+      throw new PKCS11Exception(rv);
     }
+
+    // isolate the attributes which cannot be read
+    int middleIndex = (fromIndex + toIndex) >>> 1;
+    getAttributeValues(session, objectHandle, attributes,
+        fromIndex, middleIndex, unreadable);
+    getAttributeValues(session, objectHandle, attributes,
+        middleIndex, toIndex, unreadable);
+  }
+
+  private static boolean isObjectOrSessionError(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || errorCode == PKCS11Constants.CKR_SESSION_CLOSED
+        || errorCode == PKCS11Constants.CKR_DEVICE_REMOVED
+        || errorCode == PKCS11Constants.CKR_TOKEN_NOT_PRESENT
+        || errorCode == PKCS11Constants.CKR_CRYPTOKI_NOT_INITIALIZED;
+  }
+
+  /**
+   * Returns the attribute of this object which is part of the profile
+   * besides the object class: the key type of keys and domain parameters,
+   * the certificate type of certificates, or null.
+   */
+  private LongAttribute getProfileTypeAttribute() {
+    if (this instanceof Key) {
+      return ((Key) this).getKeyType();
+    } else if (this instanceof DomainParameters) {
+      return ((DomainParameters) this).getKeyType();
+    } else if (this instanceof Certificate) {
+      return ((Certificate) this).getCertificateType();
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the profile of this object used to remember the unreadable
+   * attribute types, or null if it is not known. While the attributes are
+   * read, the object class of this object is only given by its Java class,
+   * and the CKA_SENSITIVE and CKA_EXTRACTABLE are only known after they
+   * have been read by the super classes. No attribute is read here.
+   */
+  private UnreadableAttributeTypes.Profile getAttributeProfile() {
+    long objectClassCode;
+    if (this instanceof PrivateKey) {
+      objectClassCode = ObjectClass.PRIVATE_KEY;
+    } else if (this instanceof PublicKey) {
+      objectClassCode = ObjectClass.PUBLIC_KEY;
+    } else if (this instanceof SecretKey) {
+      objectClassCode = ObjectClass.SECRET_KEY;
+    } else if (this instanceof Certificate) {
+      objectClassCode = ObjectClass.CERTIFICATE;
+    } else if (this instanceof Data) {
+      objectClassCode = ObjectClass.DATA;
+    } else if (this instanceof DomainParameters) {
+      objectClassCode = ObjectClass.DOMAIN_PARAMETERS;
+    } else if (this instanceof HardwareFeature) {
+      objectClassCode = ObjectClass.HW_FEATURE;
+    } else if (this instanceof Mechanism) {
+      objectClassCode = ObjectClass.MECHANISM;
+    } else {
+      // e.g. a GenericTemplate, whose key type or certificate type
+      // is not known
+      return null;
+    }
+
+    Long keyTypeCode = null;
+    Long certificateTypeCode = null;
+    LongAttribute typeAttribute = getProfileTypeAttribute();
+    if (typeAttribute != null) {
+      Long typeCode = readValue(typeAttribute);
+      if (typeCode == null) {
+        return null;
+      } else if (this instanceof Certificate) {
+        certificateTypeCode = typeCode;
+      } else {
+        keyTypeCode = typeCode;
+      }
+    }
+
+    Boolean sensitive = null;
+    Boolean extractable = null;
+    if (this instanceof PrivateKey) {
+      sensitive = readValue(((PrivateKey) this).getSensitive());
+      extractable = readValue(((PrivateKey) this).getExtractable());
+    } else if (this instanceof SecretKey) {
+      sensitive = readValue(((SecretKey) this).getSensitive());
+      extractable = readValue(((SecretKey) this).getExtractable());
+    }
+
+    return new UnreadableAttributeTypes.Profile(objectClassCode, keyTypeCode,
+        certificateTypeCode, sensitive, extractable);
+  }
+
+  private static Long readValue(LongAttribute attribute) {
+    return (attribute != null && attribute.isPresent()
+        && !attribute.isSensitive()) ? attribute.getLongValue() : null;
+  }
+
+  private static Boolean readValue(BooleanAttribute attribute) {
+    return (attribute != null && attribute.isPresent()
+        && !attribute.isSensitive()) ? attribute.getBooleanValue() : null;
   }
 
 }
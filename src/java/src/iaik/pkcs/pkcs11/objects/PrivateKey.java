@@ -496,7 +496,7 @@ public class PrivateKey extends Key {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         subject, sensitive, secondaryAuth, authPinFlags, decrypt,
         sign, signRecover, unwrap, extractable, alwaysSensitive,
         neverExtractable, wrapWithTrusted, alwaysAuthenticate,
@@ -367,7 +367,7 @@ public class PublicKey extends Key {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         subject, encrypt, verify, verifyRecover, wrap, trusted, wrapTemplate });
   }
 
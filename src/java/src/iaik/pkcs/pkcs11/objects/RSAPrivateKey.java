@@ -299,7 +299,7 @@ public class RSAPrivateKey extends PrivateKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         modulus, publicExponent,
         privateExponent, prime1, prime2, exponent1, exponent2, coefficient });
   }
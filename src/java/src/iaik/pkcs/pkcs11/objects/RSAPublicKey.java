@@ -215,7 +215,7 @@ public class RSAPublicKey extends PublicKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         modulus, publicExponent, modulusBits });
   }
 
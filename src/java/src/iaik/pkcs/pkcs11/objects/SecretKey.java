@@ -484,7 +484,7 @@ public class SecretKey extends Key {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         sensitive, encrypt, decrypt, sign, verify, wrap, unwrap,
         extractable, alwaysSensitive, neverExtractable, checkValue,
         wrapWithTrusted, trusted, wrapTemplate, unwrapTemplate });
@@ -211,7 +211,7 @@ public class Storage extends PKCS11Object {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         token, private_, modifiable, label});
   }
 
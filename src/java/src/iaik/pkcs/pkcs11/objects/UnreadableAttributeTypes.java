@@ -0,0 +1,176 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.objects;
+
+import iaik.pkcs.pkcs11.Util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the attribute types which the PKCS#11 module reported as
+ * invalid (CKR_ATTRIBUTE_TYPE_INVALID) or as sensitive
+ * (CKR_ATTRIBUTE_SENSITIVE) for objects of a given object class, key
+ * type and certificate type.
+ * {@link PKCS11Object#readAttributeValues(iaik.pkcs.pkcs11.Session,
+ * Attribute[])} does not request these attribute types again, so that the
+ * bulk C_GetAttributeValue call does not fail for them.
+ * <p>
+ * Whether an attribute of a key is sensitive depends on the CKA_SENSITIVE
+ * and CKA_EXTRACTABLE of this key. These are part of the profile of
+ * private and secret keys, and sensitive attribute types are only
+ * remembered if both values are known.
+ * <p>
+ * There is one instance per module, see
+ * {@link iaik.pkcs.pkcs11.Module#getUnreadableAttributeTypes()}.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class UnreadableAttributeTypes {
+
+  static final class Profile {
+
+    private final long objectClass;
+
+    private final Long keyType;
+
+    private final Long certificateType;
+
+    private final Boolean sensitive;
+
+    private final Boolean extractable;
+
+    Profile(long objectClass, Long keyType, Long certificateType,
+        Boolean sensitive, Boolean extractable) {
+      this.objectClass = objectClass;
+      this.keyType = keyType;
+      this.certificateType = certificateType;
+      this.sensitive = sensitive;
+      this.extractable = extractable;
+    }
+
+    private boolean isSensitivityKnown() {
+      return sensitive != null && extractable != null;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = Long.hashCode(objectClass);
+      hash = 31 * hash + ((keyType == null) ? 0 : keyType.hashCode());
+      hash = 31 * hash
+          + ((certificateType == null) ? 0 : certificateType.hashCode());
+      hash = 31 * hash + ((sensitive == null) ? 0 : sensitive.hashCode());
+      return 31 * hash + ((extractable == null) ? 0 : extractable.hashCode());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof Profile)) {
+        return false;
+      }
+
+      Profile other = (Profile) obj;
+      return objectClass == other.objectClass
+          && Util.objEquals(keyType, other.keyType)
+          && Util.objEquals(certificateType, other.certificateType)
+          && Util.objEquals(sensitive, other.sensitive)
+          && Util.objEquals(extractable, other.extractable);
+    }
+
+    @Override
+    public String toString() {
+      return Util.concatObjects("(class=0x", Long.toHexString(objectClass),
+          ", keyType=", (keyType == null) ? null : Long.toHexString(keyType),
+          ", certificateType=", (certificateType == null)
+              ? null : Long.toHexString(certificateType),
+          ", sensitive=", sensitive, ", extractable=", extractable, ")");
+    }
+
+  }
+
+  /**
+   * Maps the profile to the unreadable types. The value of the inner map is
+   * true for sensitive, and false for invalid attribute types.
+   */
+  private final ConcurrentHashMap<Profile, Map<Long, Boolean>> types =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Checks whether the type of the given attribute is known to be unreadable
+   * for objects of the given profile, and if so, marks the attribute in the
+   * same way as a failed read would do.
+   *
+   * @return true if the attribute is known to be unreadable.
+   */
+  boolean applyIfUnreadable(Profile profile, Attribute attribute) {
+    Map<Long, Boolean> map = types.get(profile);
+    if (map == null) {
+      return false;
+    }
+
+    Boolean sensitive = map.get(attribute.getCkAttribute().type);
+    if (sensitive == null) {
+      return false;
+    } else if (sensitive) {
+      attribute.setPresent(true);
+      attribute.setSensitive(true);
+    } else {
+      attribute.setPresent(false);
+    }
+    return true;
+  }
+
+  void addInvalid(Profile profile, long type) {
+    getTypes(profile).put(type, Boolean.FALSE);
+  }
+
+  void addSensitive(Profile profile, long type) {
+    if (profile.isSensitivityKnown()) {
+      getTypes(profile).put(type, Boolean.TRUE);
+    }
+  }
+
+  private Map<Long, Boolean> getTypes(Profile profile) {
+    Map<Long, Boolean> map = types.get(profile);
+    if (map == null) {
+      map = new ConcurrentHashMap<>();
+      Map<Long, Boolean> existing = types.putIfAbsent(profile, map);
+      if (existing != null) {
+        map = existing;
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Forgets all remembered attribute types, e.g. after the firmware of the
+   * HSM has been updated.
+   */
+  public void clear() {
+    types.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "UnreadableAttributeTypes: " + types;
+  }
+
+}
@@ -301,7 +301,7 @@ public class UserInterface extends HardwareFeature {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         pixelX, pixelY, resolution, charRows, charColumns, color,
         bitsPerPixel, charSets, encodingMethods, mimeTypes });
   }
@@ -223,7 +223,7 @@ public class ValuedSecretKey extends SecretKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         value, valueLen });
   }
 
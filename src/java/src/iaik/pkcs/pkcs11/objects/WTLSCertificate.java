@@ -286,7 +286,7 @@ public class WTLSCertificate extends Certificate {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         subject, issuer, value,
         url, hashOfSubjectPublicKey, hashOfIssuerPublicKey });
   }
@@ -262,7 +262,7 @@ public class X509AttributeCertificate extends Certificate {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         owner, acIssuer, serialNumber, attrTypes, value });
   }
 
@@ -342,7 +342,7 @@ public class X509PublicKeyCertificate extends Certificate {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         subject, id, issuer, serialNumber, value,
         url, hashOfSubjectPublicKey, hashOfIssuerPublicKey,
         javaMidpSecurityDomain });
@@ -235,7 +235,7 @@ public class X942DHParams extends DHParams {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, base, subprime, primeBits, subprimeBits });
   }
 
@@ -218,7 +218,7 @@ public class X942DHPrivateKey extends DHPrivateKey {
   public void readAttributes(Session session) throws TokenException {
     super.readAttributes(session);
 
-    PKCS11Object.getAttributeValues(session, objectHandle, new Attribute[] {
+    readAttributeValues(session, new Attribute[] {
         prime, base, subprime, value });
   }
 
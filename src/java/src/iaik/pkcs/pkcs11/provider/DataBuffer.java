@@ -0,0 +1,100 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The data collected by the update methods of an engine, passed to the
+ * token as a whole by the final method. Unlike ByteArrayOutputStream, the
+ * array is not copied on read and the buffer is not synchronized.
+ * <p>
+ * The engines collect at most {@link #MAX_SIZE} bytes. If more data is
+ * given, they pass it to the token by the multi-part functions in a
+ * session borrowed until the operation is finished.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class DataBuffer {
+
+  static final int MAX_SIZE = 64 * 1024;
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private byte[] buf = EMPTY;
+
+  private int size;
+
+  void write(byte b) {
+    ensureCapacity(1);
+    buf[size++] = b;
+  }
+
+  void write(byte[] bytes, int ofs, int len) {
+    if (len > 0) {
+      ensureCapacity(len);
+      System.arraycopy(bytes, ofs, buf, size, len);
+      size += len;
+    }
+  }
+
+  void write(ByteBuffer bytes) {
+    int len = bytes.remaining();
+    if (len > 0) {
+      ensureCapacity(len);
+      bytes.get(buf, size, len);
+      size += len;
+    }
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * Returns the internal array, valid up to {@link #size()}.
+   *
+   * @return the internal array.
+   */
+  byte[] array() {
+    return buf;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(buf, size);
+  }
+
+  /**
+   * Clears the data. The array is kept for the next operation, and
+   * overwritten with zeros since it may contain plaintext.
+   */
+  void reset() {
+    Arrays.fill(buf, 0, size, (byte) 0);
+    size = 0;
+  }
+
+  private void ensureCapacity(int len) {
+    int capacity = size + len;
+    if (capacity > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(capacity, 2 * buf.length));
+    }
+  }
+
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.SignatureException;
+import java.util.Arrays;
+
+/**
+ * The DER encodings used to convert between PKCS#11 and JCA: ECDSA
+ * signatures (r || s vs. SEQUENCE of two INTEGERs) and the octet string of
+ * CKA_EC_POINT.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class Der {
+
+  private static final int TAG_INTEGER = 0x02;
+
+  private static final int TAG_OCTET_STRING = 0x04;
+
+  private static final int TAG_SEQUENCE = 0x30;
+
+  private Der() {
+  }
+
+  /**
+   * Encodes a PKCS#11 ECDSA signature r || s as DER SEQUENCE.
+   *
+   * @param rs
+   *          The signature returned by the token.
+   * @return the DER encoded signature.
+   */
+  static byte[] encodeEcdsaSignature(byte[] rs) {
+    int len = rs.length / 2;
+    byte[] r = new BigInteger(1, Arrays.copyOfRange(rs, 0, len))
+        .toByteArray();
+    byte[] s = new BigInteger(1, Arrays.copyOfRange(rs, len, 2 * len))
+        .toByteArray();
+
+    ByteArrayOutputStream content = new ByteArrayOutputStream(rs.length + 8);
+    writeTlv(content, TAG_INTEGER, r);
+    writeTlv(content, TAG_INTEGER, s);
+    ByteArrayOutputStream out = new ByteArrayOutputStream(rs.length + 12);
+    writeTlv(out, TAG_SEQUENCE, content.toByteArray());
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a DER encoded ECDSA signature to r || s as expected by the
+   * token.
+   *
+   * @param der
+   *          The DER encoded signature.
+   * @param orderLength
+   *          The length of the curve order in bytes.
+   * @return the signature r || s.
+   * @throws SignatureException
+   *           If the signature is not correctly encoded.
+   */
+  static byte[] decodeEcdsaSignature(byte[] der, int orderLength)
+      throws SignatureException {
+    int[] pos = new int[1];
+    int seqLen = readHeader(der, pos, TAG_SEQUENCE);
+    if (pos[0] + seqLen != der.length) {
+      throw new SignatureException("invalid ECDSA signature encoding");
+    }
+
+    byte[] rs = new byte[2 * orderLength];
+    for (int i = 0; i < 2; i++) {
+      int intLen = readHeader(der, pos, TAG_INTEGER);
+      if (intLen == 0) {
+        throw new SignatureException("invalid ECDSA signature encoding");
+      }
+      BigInteger value = new BigInteger(
+          Arrays.copyOfRange(der, pos[0], pos[0] + intLen));
+      pos[0] += intLen;
+      byte[] bytes = value.toByteArray();
+      int ofs = (bytes[0] == 0 && bytes.length > 1) ? 1 : 0;
+      int valueLen = bytes.length - ofs;
+      if (value.signum() < 0 || valueLen > orderLength) {
+        throw new SignatureException("invalid ECDSA signature value");
+      }
+      System.arraycopy(bytes, ofs, rs, (i + 1) * orderLength - valueLen,
+          valueLen);
+    }
+
+    if (pos[0] != der.length) {
+      throw new SignatureException("invalid ECDSA signature encoding");
+    }
+    return rs;
+  }
+
+  /**
+   * Encodes a byte array as DER OCTET STRING.
+   *
+   * @param value
+   *          The value.
+   * @return the DER encoded value.
+   */
+  static byte[] encodeOctetString(byte[] value) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(value.length + 4);
+    writeTlv(out, TAG_OCTET_STRING, value);
+    return out.toByteArray();
+  }
+
+  private static void writeTlv(ByteArrayOutputStream out, int tag,
+      byte[] value) {
+    out.write(tag);
+    int len = value.length;
+    if (len < 0x80) {
+      out.write(len);
+    } else if (len < 0x100) {
+      out.write(0x81);
+      out.write(len);
+    } else {
+      out.write(0x82);
+      out.write(len >> 8);
+      out.write(len);
+    }
+    out.write(value, 0, len);
+  }
+
+  private static int readHeader(byte[] der, int[] pos, int tag)
+      throws SignatureException {
+    int p = pos[0];
+    if (p + 2 > der.length || (der[p] & 0xFF) != tag) {
+      throw new SignatureException("invalid ECDSA signature encoding");
+    }
+
+    int len = der[p + 1] & 0xFF;
+    p += 2;
+    if (len == 0x81 && p < der.length) {
+      len = der[p++] & 0xFF;
+    } else if (len == 0x82 && p + 1 < der.length) {
+      len = ((der[p] & 0xFF) << 8) | (der[p + 1] & 0xFF);
+      p += 2;
+    } else if (len >= 0x80) {
+      throw new SignatureException("invalid ECDSA signature encoding");
+    }
+
+    if (len > der.length - p) {
+      throw new SignatureException("invalid ECDSA signature encoding");
+    }
+    pos[0] = p;
+    return len;
+  }
+
+}
@@ -0,0 +1,137 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+
+import java.security.InvalidKeyException;
+
+/**
+ * The key of an engine: a key of the token, or a software key imported by
+ * {@link ImportedKeys}. The handle of an imported key is not kept by the
+ * engine, it is leased from {@link ImportedKeys} by {@link #acquire()} for
+ * each operation and returned by {@link #release(TokenException)}, so that
+ * the key is not destroyed while the token uses it.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class EngineKey {
+
+  private final Key key;
+
+  private final ImportedKeys importedKeys;
+
+  private final ImportedKeys.KeyId keyId;
+
+  /**
+   * The lease of the current operation, null if none.
+   */
+  private ImportedKeys.Entry lease;
+
+  /**
+   * Creates the engine key of a key of the token.
+   *
+   * @param key
+   *          The key of the token.
+   */
+  EngineKey(Key key) {
+    this.key = key;
+    this.importedKeys = null;
+    this.keyId = null;
+  }
+
+  /**
+   * Creates the engine key of a software key. The key is imported now, so
+   * that an unsupported key is rejected by the init method of the engine.
+   *
+   * @param importedKeys
+   *          The imported keys of the provider.
+   * @param keyId
+   *          The identifier of the software key.
+   * @throws InvalidKeyException
+   *           If the key cannot be imported.
+   */
+  EngineKey(ImportedKeys importedKeys, ImportedKeys.KeyId keyId)
+      throws InvalidKeyException {
+    this.key = null;
+    this.importedKeys = importedKeys;
+    this.keyId = keyId;
+    importedKeys.release(importedKeys.acquire(keyId), null);
+  }
+
+  /**
+   * Returns whether this is the imported key of the given software key.
+   *
+   * @param javaKey
+   *          The software key.
+   * @return whether this key has been created for javaKey.
+   */
+  boolean isImportOf(java.security.Key javaKey) {
+    return keyId != null && keyId.getJavaKey() == javaKey;
+  }
+
+  /**
+   * Returns whether this key and the other one are the same key of the
+   * token.
+   *
+   * @param other
+   *          The other key, may be null.
+   * @return whether the keys are the same.
+   */
+  boolean isSame(EngineKey other) {
+    if (other == null) {
+      return false;
+    }
+    return (keyId == null) ? key == other.key
+        : other.keyId != null && keyId.isSame(other.keyId);
+  }
+
+  /**
+   * Returns the key to be passed to the init function of an operation. An
+   * imported key is leased until {@link #release(TokenException)}.
+   *
+   * @return the key of the token.
+   * @throws InvalidKeyException
+   *           If the software key cannot be imported.
+   */
+  Key acquire() throws InvalidKeyException {
+    if (keyId == null) {
+      return key;
+    }
+
+    release(null);
+    lease = importedKeys.acquire(keyId);
+    return lease.getKey();
+  }
+
+  /**
+   * Ends the lease of the current operation, if any.
+   *
+   * @param error
+   *          The error of the operation, null if it succeeded.
+   */
+  void release(TokenException error) {
+    if (lease != null) {
+      importedKeys.release(lease, error);
+      lease = null;
+    }
+  }
+
+}
@@ -0,0 +1,593 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.objects.PKCS11Object;
+import iaik.pkcs.pkcs11.objects.ValuedSecretKey;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import javax.crypto.SecretKey;
+
+/**
+ * The software keys imported into the token as session objects, e.g. the
+ * public key of a certificate to verify a signature, or an AES key given
+ * as SecretKeySpec. The handles are kept in an LRU cache keyed by the
+ * algorithm and the SHA-256 hash of the encoded key, so that a key is
+ * imported only once. The session objects are owned by a session outside
+ * of the pool, they are destroyed when the provider is closed.
+ * <p>
+ * An engine leases the key for each operation, from the init function to
+ * the final function, see {@link EngineKey}. A key evicted from the cache
+ * is destroyed when its last lease is released. If the owner session is
+ * lost, e.g. since the token has been removed, the cache is cleared and a
+ * new owner session is opened by the next import. The keys are imported
+ * without holding the lock of the cache, so that an import does not delay
+ * the engines using other keys.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class ImportedKeys {
+
+  private static final class CacheKey {
+
+    private final long keyType;
+
+    private final long usage;
+
+    private final byte[] hash;
+
+    private final int hashCode;
+
+    private CacheKey(long keyType, long usage, byte[] hash) {
+      this.keyType = keyType;
+      this.usage = usage;
+      this.hash = hash;
+      this.hashCode = 31 * (31 * Long.hashCode(keyType)
+          + Long.hashCode(usage)) + Arrays.hashCode(hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return keyType == other.keyType && usage == other.usage
+          && Arrays.equals(hash, other.hash);
+    }
+
+  }
+
+  /**
+   * A software key with its cache key, so that the key is hashed only once
+   * by an engine initialized with the same key again.
+   */
+  static final class KeyId {
+
+    private final java.security.Key javaKey;
+
+    private final CacheKey cacheKey;
+
+    private KeyId(java.security.Key javaKey, CacheKey cacheKey) {
+      this.javaKey = javaKey;
+      this.cacheKey = cacheKey;
+    }
+
+    java.security.Key getJavaKey() {
+      return javaKey;
+    }
+
+    boolean isSame(KeyId other) {
+      return cacheKey.equals(other.cacheKey);
+    }
+
+  }
+
+  /**
+   * An imported key and the number of its leases, guarded by the lock of
+   * {@link ImportedKeys}.
+   */
+  static final class Entry {
+
+    private final Session owner;
+
+    private final Key key;
+
+    private int leases;
+
+    /**
+     * Whether the entry has been removed from the cache, so that the key
+     * is destroyed when the last lease is released.
+     */
+    private boolean removed;
+
+    /**
+     * Whether the object is known to be gone, so that it is not destroyed.
+     */
+    private boolean lost;
+
+    private Entry(Session owner, Key key) {
+      this.owner = owner;
+      this.key = key;
+    }
+
+    Key getKey() {
+      return key;
+    }
+
+  }
+
+  static final int DEFAULT_MAX_SIZE = 1000;
+
+  private final PKCS11Provider provider;
+
+  private final LinkedHashMap<CacheKey, Entry> cache;
+
+  private int maxSize = DEFAULT_MAX_SIZE;
+
+  /**
+   * The session owning the imported keys, opened on the first import.
+   */
+  private Session ownerSession;
+
+  ImportedKeys(PKCS11Provider provider) {
+    this.provider = provider;
+    this.cache = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  void setMaxSize(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("maxSize must be at least 1");
+    }
+
+    List<Entry> unused;
+    synchronized (this) {
+      this.maxSize = maxSize;
+      unused = evict();
+    }
+    destroy(unused);
+  }
+
+  synchronized int size() {
+    return cache.size();
+  }
+
+  /**
+   * Returns the identifier of an RSA or EC public key.
+   *
+   * @param publicKey
+   *          The public key.
+   * @return the identifier of the key.
+   * @throws InvalidKeyException
+   *           If the key is not supported.
+   */
+  static KeyId publicKeyId(PublicKey publicKey) throws InvalidKeyException {
+    long keyType;
+    if (publicKey instanceof RSAPublicKey) {
+      keyType = PKCS11Constants.CKK_RSA;
+    } else if (publicKey instanceof ECPublicKey) {
+      keyType = PKCS11Constants.CKK_EC;
+    } else {
+      throw new InvalidKeyException("unsupported public key "
+          + publicKey.getClass().getName());
+    }
+    return keyId(publicKey, keyType, 0);
+  }
+
+  /**
+   * Returns the identifier of a secret key.
+   *
+   * @param secretKey
+   *          The secret key, its format must be RAW.
+   * @param keyType
+   *          The key type, CKK_AES or CKK_GENERIC_SECRET.
+   * @param usage
+   *          The attribute of the usage, CKA_ENCRYPT or CKA_SIGN.
+   * @return the identifier of the key.
+   * @throws InvalidKeyException
+   *           If the key is not in RAW format.
+   */
+  static KeyId secretKeyId(SecretKey secretKey, long keyType, long usage)
+      throws InvalidKeyException {
+    if (!"RAW".equalsIgnoreCase(secretKey.getFormat())
+        || secretKey.getEncoded() == null) {
+      throw new InvalidKeyException("secret key is not in RAW format");
+    }
+    return keyId(secretKey, keyType, usage);
+  }
+
+  /**
+   * Leases the imported key, imports the key if it is not in the cache.
+   * The lease must be returned by {@link #release(Entry, TokenException)}.
+   *
+   * @param keyId
+   *          The identifier of the key.
+   * @return the leased entry.
+   * @throws InvalidKeyException
+   *           If the key cannot be imported.
+   */
+  Entry acquire(KeyId keyId) throws InvalidKeyException {
+    PKCS11Object template = null;
+    for (int attempt = 0; ; attempt++) {
+      Session owner;
+      synchronized (this) {
+        Entry entry = cache.get(keyId.cacheKey);
+        if (entry != null) {
+          entry.leases++;
+          return entry;
+        }
+        owner = ownerSession;
+      }
+
+      if (template == null) {
+        template = template(keyId);
+      }
+
+      Key key;
+      try {
+        if (owner == null) {
+          owner = openOwnerSession();
+        }
+        key = (Key) owner.createObject(template);
+      } catch (TokenException ex) {
+        if (attempt == 0 && owner != null && isLost(ex)) {
+          // open a new owner session and import again
+          dropOwnerSession(owner);
+          continue;
+        }
+        throw new InvalidKeyException("could not import the key: "
+            + ex.getMessage(), ex);
+      }
+
+      Entry entry;
+      List<Entry> unused;
+      synchronized (this) {
+        entry = cache.get(keyId.cacheKey);
+        if (entry != null || owner != ownerSession) {
+          // imported by another thread, or the owner session has been lost
+          unused = Collections.singletonList(new Entry(owner, key));
+          if (entry != null) {
+            entry.leases++;
+          }
+        } else {
+          entry = new Entry(owner, key);
+          entry.leases = 1;
+          cache.put(keyId.cacheKey, entry);
+          unused = evict();
+        }
+      }
+
+      destroy(unused);
+      if (entry != null) {
+        return entry;
+      }
+    }
+  }
+
+  /**
+   * Returns a lease of an imported key. If the error of the operation shows
+   * that the owner session or the key is lost, e.g. CKR_DEVICE_REMOVED or
+   * CKR_KEY_HANDLE_INVALID, the key, respectively all keys, are removed
+   * from the cache.
+   *
+   * @param entry
+   *          The leased entry.
+   * @param error
+   *          The error of the operation, null if it succeeded.
+   */
+  void release(Entry entry, TokenException error) {
+    long code = (error instanceof PKCS11Exception)
+        ? ((PKCS11Exception) error).getErrorCode() : PKCS11Constants.CKR_OK;
+    Session lostOwner = null;
+    boolean destroy;
+    synchronized (this) {
+      entry.leases--;
+      if (isDeviceLost(code)) {
+        lostOwner = entry.owner;
+      } else if (code == PKCS11Constants.CKR_KEY_HANDLE_INVALID
+          || code == PKCS11Constants.CKR_OBJECT_HANDLE_INVALID) {
+        if (!entry.removed) {
+          remove(entry);
+          entry.removed = true;
+        }
+        entry.lost = true;
+      }
+      destroy = lostOwner == null && entry.removed && !entry.lost
+          && entry.leases == 0 && entry.owner == ownerSession;
+    }
+
+    if (lostOwner != null) {
+      dropOwnerSession(lostOwner);
+    } else if (destroy) {
+      destroy(entry.owner, entry.key);
+    }
+  }
+
+  /**
+   * Destroys all imported keys by closing the owner session.
+   */
+  void clear() {
+    Session owner;
+    synchronized (this) {
+      owner = ownerSession;
+      ownerSession = null;
+      for (Entry entry : cache.values()) {
+        entry.removed = true;
+      }
+      cache.clear();
+    }
+    close(owner);
+  }
+
+  private static KeyId keyId(java.security.Key javaKey, long keyType,
+      long usage) {
+    byte[] encoded = javaKey.getEncoded();
+    byte[] hash;
+    try {
+      hash = MessageDigest.getInstance("SHA-256").digest(encoded);
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    } finally {
+      if (javaKey instanceof SecretKey) {
+        Arrays.fill(encoded, (byte) 0);
+      }
+    }
+    return new KeyId(javaKey, new CacheKey(keyType, usage, hash));
+  }
+
+  private static PKCS11Object template(KeyId keyId)
+      throws InvalidKeyException {
+    long keyType = keyId.cacheKey.keyType;
+    if (keyType == PKCS11Constants.CKK_RSA) {
+      return rsaTemplate((RSAPublicKey) keyId.javaKey);
+    } else if (keyType == PKCS11Constants.CKK_EC) {
+      return ecTemplate((ECPublicKey) keyId.javaKey);
+    } else {
+      return secretTemplate((SecretKey) keyId.javaKey, keyType,
+          keyId.cacheKey.usage);
+    }
+  }
+
+  /**
+   * Opens the owner session, unless another thread has done it meanwhile.
+   */
+  private Session openOwnerSession() throws TokenException {
+    // a session of the pool ensures that the user is logged in, a session
+    // lost together with the owner session is discarded
+    SessionPool pool = provider.getSessionPool();
+    Session newOwner = null;
+    for (int attempt = 0; newOwner == null; attempt++) {
+      Session session = pool.borrow();
+      TokenException error = null;
+      try {
+        session.getSessionInfo();
+        newOwner = pool.getToken().openSession(true, true, null, null);
+      } catch (TokenException ex) {
+        error = ex;
+        if (!isLost(ex) || attempt == pool.getMaxSessions()) {
+          throw ex;
+        }
+      } finally {
+        pool.release(session, error);
+      }
+    }
+
+    Session session;
+    synchronized (this) {
+      if (ownerSession == null) {
+        ownerSession = newOwner;
+        return newOwner;
+      }
+      session = ownerSession;
+    }
+    close(newOwner);
+    return session;
+  }
+
+  /**
+   * Forgets the lost owner session and its keys, unless it has been
+   * replaced already.
+   */
+  private void dropOwnerSession(Session owner) {
+    synchronized (this) {
+      if (ownerSession != owner) {
+        return;
+      }
+
+      ownerSession = null;
+      for (Entry entry : cache.values()) {
+        entry.removed = true;
+      }
+      cache.clear();
+    }
+    close(owner);
+  }
+
+  /**
+   * Removes the least recently used entries above the maximal size, and
+   * returns those without lease. Must be called with the lock.
+   */
+  private List<Entry> evict() {
+    List<Entry> unused = new ArrayList<>(0);
+    Iterator<Entry> it = cache.values().iterator();
+    while (cache.size() > maxSize) {
+      Entry eldest = it.next();
+      it.remove();
+      eldest.removed = true;
+      if (eldest.leases == 0) {
+        unused.add(eldest);
+      }
+    }
+    return unused;
+  }
+
+  private void remove(Entry entry) {
+    Iterator<Entry> it = cache.values().iterator();
+    while (it.hasNext()) {
+      if (it.next() == entry) {
+        it.remove();
+        return;
+      }
+    }
+  }
+
+  private static void destroy(List<Entry> entries) {
+    for (Entry entry : entries) {
+      destroy(entry.owner, entry.key);
+    }
+  }
+
+  private static void destroy(Session owner, Key key) {
+    try {
+      owner.destroyObject(key);
+    } catch (TokenException ex) {
+      // destroyed with the owner session at the latest
+    }
+  }
+
+  private static void close(Session session) {
+    if (session != null) {
+      try {
+        session.closeSession();
+      } catch (TokenException ex) {
+        // the session objects are gone anyway
+      }
+    }
+  }
+
+  private static boolean isLost(TokenException ex) {
+    if (!(ex instanceof PKCS11Exception)) {
+      return false;
+    }
+
+    long code = ((PKCS11Exception) ex).getErrorCode();
+    return code == PKCS11Constants.CKR_SESSION_HANDLE_INVALID
+        || code == PKCS11Constants.CKR_SESSION_CLOSED
+        || isDeviceLost(code);
+  }
+
+  private static boolean isDeviceLost(long code) {
+    return code == PKCS11Constants.CKR_DEVICE_REMOVED
+        || code == PKCS11Constants.CKR_TOKEN_NOT_PRESENT;
+  }
+
+  private static PKCS11Object rsaTemplate(RSAPublicKey publicKey) {
+    iaik.pkcs.pkcs11.objects.RSAPublicKey template =
+        new iaik.pkcs.pkcs11.objects.RSAPublicKey();
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getVerify().setBooleanValue(Boolean.TRUE);
+    template.getEncrypt().setBooleanValue(Boolean.TRUE);
+    template.getModulus().setByteArrayValue(
+        unsigned(publicKey.getModulus()));
+    template.getPublicExponent().setByteArrayValue(
+        unsigned(publicKey.getPublicExponent()));
+    return template;
+  }
+
+  private static PKCS11Object ecTemplate(ECPublicKey publicKey)
+      throws InvalidKeyException {
+    ECParameterSpec params = publicKey.getParams();
+    byte[] encodedParams;
+    try {
+      AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+      parameters.init(params);
+      encodedParams = parameters.getEncoded();
+    } catch (GeneralSecurityException | java.io.IOException ex) {
+      throw new InvalidKeyException("unsupported curve", ex);
+    }
+
+    int fieldSize = (params.getCurve().getField().getFieldSize() + 7) / 8;
+    ECPoint w = publicKey.getW();
+    byte[] point = new byte[1 + 2 * fieldSize];
+    point[0] = 0x04;
+    copyUnsigned(w.getAffineX(), point, 1, fieldSize);
+    copyUnsigned(w.getAffineY(), point, 1 + fieldSize, fieldSize);
+
+    iaik.pkcs.pkcs11.objects.ECPublicKey template =
+        new iaik.pkcs.pkcs11.objects.ECPublicKey();
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getVerify().setBooleanValue(Boolean.TRUE);
+    template.getEcdsaParams().setByteArrayValue(encodedParams);
+    template.getEcPoint().setByteArrayValue(Der.encodeOctetString(point));
+    return template;
+  }
+
+  private static PKCS11Object secretTemplate(SecretKey secretKey,
+      long keyType, long usage) {
+    ValuedSecretKey template = new ValuedSecretKey(keyType);
+    template.getToken().setBooleanValue(Boolean.FALSE);
+    template.getSensitive().setBooleanValue(Boolean.TRUE);
+    template.getExtractable().setBooleanValue(Boolean.FALSE);
+    if (usage == PKCS11Constants.CKA_SIGN) {
+      template.getSign().setBooleanValue(Boolean.TRUE);
+      template.getVerify().setBooleanValue(Boolean.TRUE);
+    } else {
+      template.getEncrypt().setBooleanValue(Boolean.TRUE);
+      template.getDecrypt().setBooleanValue(Boolean.TRUE);
+    }
+    template.getValue().setByteArrayValue(secretKey.getEncoded());
+    return template;
+  }
+
+  private static byte[] unsigned(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    return (bytes[0] == 0 && bytes.length > 1)
+        ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+  }
+
+  private static void copyUnsigned(BigInteger value, byte[] dest, int ofs,
+      int len) throws InvalidKeyException {
+    byte[] bytes = unsigned(value);
+    if (bytes.length > len) {
+      throw new InvalidKeyException("invalid EC point");
+    }
+    System.arraycopy(bytes, 0, dest, ofs + len - bytes.length, bytes.length);
+  }
+
+}
@@ -0,0 +1,849 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.parameters.GCMParameters;
+import iaik.pkcs.pkcs11.parameters.InitializationVectorParameters;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsOaepParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.ProviderException;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.InvalidParameterSpecException;
+import java.security.spec.MGF1ParameterSpec;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.CipherSpi;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.SecretKey;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+/**
+ * Cipher engine for AES (ECB, CBC, CBC with PKCS#5 padding and GCM) and
+ * RSA (PKCS#1 v1.5 and OAEP). Up to {@link DataBuffer#MAX_SIZE} bytes are
+ * collected by the update methods, which return no output, and encrypted
+ * or decrypted by a single C_Encrypt or C_Decrypt in a session borrowed
+ * from the pool when the cipher is finished. With more data, AES ECB and
+ * CBC continue by C_EncryptUpdate or C_DecryptUpdate in a session borrowed
+ * until the cipher is finished, and the update methods return the output
+ * of the token. Like the SunPKCS11 provider, GCM collects all data, since
+ * the tag is checked only at the end. RSA accepts no more data than the
+ * modulus length.
+ * <p>
+ * Heap byte arrays and buffers are passed to the token without copying,
+ * direct buffers are copied by the default implementation. Wrap and
+ * unwrap are not supported.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class PKCS11CipherSpi extends CipherSpi {
+
+  private static final byte[] EMPTY = new byte[0];
+
+  private static final int AES_BLOCK_SIZE = 16;
+
+  private static final int GCM_IV_LENGTH = 12;
+
+  private static final int GCM_TAG_LENGTH = 128;
+
+  /**
+   * The digests supported by OAEP.
+   */
+  private static final String[] OAEP_DIGESTS =
+      {"SHA-1", "SHA-224", "SHA-256", "SHA-384", "SHA-512"};
+
+  /**
+   * Hash mechanism and MGF of each digest in {@link #OAEP_DIGESTS}.
+   */
+  private static final long[][] OAEP_PARAMS = {
+    {PKCS11Constants.CKM_SHA_1, PKCS11Constants.CKG_MGF1_SHA1},
+    {PKCS11Constants.CKM_SHA224, PKCS11Constants.CKG_MGF1_SHA224},
+    {PKCS11Constants.CKM_SHA256, PKCS11Constants.CKG_MGF1_SHA256},
+    {PKCS11Constants.CKM_SHA384, PKCS11Constants.CKG_MGF1_SHA384},
+    {PKCS11Constants.CKM_SHA512, PKCS11Constants.CKG_MGF1_SHA512}};
+
+  private final PKCS11Provider provider;
+
+  private final long mechanismCode;
+
+  private final String mode;
+
+  private final String padding;
+
+  private final boolean rsa;
+
+  private final boolean gcm;
+
+  private final DataBuffer data = new DataBuffer();
+
+  private final DataBuffer aad = new DataBuffer();
+
+  private boolean encrypt;
+
+  private EngineKey key;
+
+  /**
+   * The length of the RSA modulus in bytes.
+   */
+  private int modulusLength;
+
+  private byte[] iv;
+
+  private int tagLength;
+
+  private OAEPParameterSpec oaepParameterSpec;
+
+  private Mechanism mechanism;
+
+  /**
+   * The session of a multi-part operation, null if the data is collected.
+   */
+  private Session session;
+
+  /**
+   * The number of bytes passed to the token in the multi-part operation,
+   * less the bytes it returned. The token keeps these bytes until it has a
+   * full block, or the end for the last block of CBC-PAD decryption.
+   */
+  private int heldBytes;
+
+  /**
+   * Whether more data than the RSA modulus length has been given.
+   */
+  private boolean tooLong;
+
+  /**
+   * Whether the GCM IV has been used for an encryption, so that it must not
+   * be used again.
+   */
+  private boolean ivUsed;
+
+  /**
+   * Constructor.
+   *
+   * @param provider
+   *          The provider.
+   * @param mechanismCode
+   *          The mechanism.
+   * @param transformation
+   *          The transformation, algorithm/mode/padding.
+   */
+  PKCS11CipherSpi(PKCS11Provider provider, long mechanismCode,
+      String transformation) {
+    this.provider = provider;
+    this.mechanismCode = mechanismCode;
+    String[] parts = transformation.split("/");
+    this.mode = parts[1];
+    this.padding = parts[2];
+    this.rsa = mechanismCode == PKCS11Constants.CKM_RSA_PKCS
+        || mechanismCode == PKCS11Constants.CKM_RSA_PKCS_OAEP;
+    this.gcm = mechanismCode == PKCS11Constants.CKM_AES_GCM;
+  }
+
+  @Override
+  protected void engineSetMode(String mode) throws NoSuchAlgorithmException {
+    if (!this.mode.equalsIgnoreCase(mode)) {
+      throw new NoSuchAlgorithmException("unsupported mode " + mode);
+    }
+  }
+
+  @Override
+  protected void engineSetPadding(String padding)
+      throws NoSuchPaddingException {
+    if (!this.padding.equalsIgnoreCase(padding)) {
+      throw new NoSuchPaddingException("unsupported padding " + padding);
+    }
+  }
+
+  @Override
+  protected int engineGetBlockSize() {
+    return rsa ? 0 : AES_BLOCK_SIZE;
+  }
+
+  @Override
+  protected int engineGetOutputSize(int inputLen) {
+    int len = data.size() + heldBytes + Math.max(0, inputLen);
+    if (rsa) {
+      return modulusLength;
+    } else if (gcm) {
+      return encrypt ? len + tagLength / 8 : Math.max(0, len - tagLength / 8);
+    } else if (mechanismCode == PKCS11Constants.CKM_AES_CBC_PAD && encrypt) {
+      return (len / AES_BLOCK_SIZE + 1) * AES_BLOCK_SIZE;
+    } else {
+      return len;
+    }
+  }
+
+  @Override
+  protected byte[] engineGetIV() {
+    return (iv == null) ? null : iv.clone();
+  }
+
+  @Override
+  protected AlgorithmParameters engineGetParameters() {
+    try {
+      AlgorithmParameters params;
+      if (gcm && iv != null) {
+        params = AlgorithmParameters.getInstance("GCM");
+        params.init(new GCMParameterSpec(tagLength, iv));
+      } else if (iv != null) {
+        params = AlgorithmParameters.getInstance("AES");
+        params.init(new IvParameterSpec(iv));
+      } else if (oaepParameterSpec != null) {
+        params = AlgorithmParameters.getInstance("OAEP");
+        params.init(oaepParameterSpec);
+      } else {
+        return null;
+      }
+      return params;
+    } catch (GeneralSecurityException ex) {
+      throw new ProviderException("could not encode the parameters", ex);
+    }
+  }
+
+  @Override
+  protected int engineGetKeySize(java.security.Key key)
+      throws InvalidKeyException {
+    if (key instanceof RSAKey) {
+      return ((RSAKey) key).getModulus().bitLength();
+    }
+
+    byte[] encoded = key.getEncoded();
+    if (encoded != null) {
+      int bits = encoded.length * 8;
+      Arrays.fill(encoded, (byte) 0);
+      return bits;
+    }
+
+    if (key instanceof PKCS11SecretKey) {
+      // the length is not known, the maximal AES key size
+      return 256;
+    }
+    throw new InvalidKeyException("unsupported key " + key.getAlgorithm());
+  }
+
+  @Override
+  protected void engineInit(int opmode, java.security.Key key,
+      SecureRandom random) throws InvalidKeyException {
+    try {
+      engineInit(opmode, key, (AlgorithmParameterSpec) null, random);
+    } catch (InvalidAlgorithmParameterException ex) {
+      throw new InvalidKeyException(ex.getMessage(), ex);
+    }
+  }
+
+  @Override
+  protected void engineInit(int opmode, java.security.Key key,
+      AlgorithmParameters params, SecureRandom random)
+      throws InvalidKeyException, InvalidAlgorithmParameterException {
+    AlgorithmParameterSpec spec = null;
+    if (params != null) {
+      try {
+        if (gcm) {
+          spec = params.getParameterSpec(GCMParameterSpec.class);
+        } else if (rsa) {
+          spec = params.getParameterSpec(OAEPParameterSpec.class);
+        } else {
+          spec = params.getParameterSpec(IvParameterSpec.class);
+        }
+      } catch (InvalidParameterSpecException ex) {
+        throw new InvalidAlgorithmParameterException(ex.getMessage(), ex);
+      }
+    }
+    engineInit(opmode, key, spec, random);
+  }
+
+  @Override
+  protected void engineInit(int opmode, java.security.Key key,
+      AlgorithmParameterSpec params, SecureRandom random)
+      throws InvalidKeyException, InvalidAlgorithmParameterException {
+    if (opmode != Cipher.ENCRYPT_MODE && opmode != Cipher.DECRYPT_MODE) {
+      throw new UnsupportedOperationException(
+          "wrap and unwrap are not supported");
+    }
+
+    boolean encrypt = opmode == Cipher.ENCRYPT_MODE;
+    EngineKey newKey = rsa ? initRsaKey(encrypt, key) : initAesKey(key);
+    Mechanism newMechanism = rsa
+        ? initRsaParameters(params) : initAesParameters(encrypt, params,
+            newKey.isSame(this.key), random);
+
+    abort();
+    this.encrypt = encrypt;
+    this.key = newKey;
+    this.mechanism = newMechanism;
+    data.reset();
+    aad.reset();
+  }
+
+  private EngineKey initRsaKey(boolean encrypt, java.security.Key key)
+      throws InvalidKeyException {
+    if (encrypt) {
+      if (!(key instanceof RSAPublicKey)) {
+        throw new InvalidKeyException("RSA public key required");
+      }
+      modulusLength = (((RSAPublicKey) key).getModulus().bitLength() + 7) / 8;
+      return importKey(key);
+    }
+
+    if (!(key instanceof PKCS11RSAPrivateKey)) {
+      throw new InvalidKeyException("PKCS11RSAPrivateKey required");
+    }
+    modulusLength = (((PKCS11RSAPrivateKey) key).getModulus().bitLength()
+        + 7) / 8;
+    return new EngineKey(((PKCS11RSAPrivateKey) key).getKey());
+  }
+
+  private EngineKey initAesKey(java.security.Key key)
+      throws InvalidKeyException {
+    if (key instanceof PKCS11SecretKey) {
+      if (((PKCS11SecretKey) key).getKeyType() != PKCS11Constants.CKK_AES) {
+        throw new InvalidKeyException("AES key required");
+      }
+      return new EngineKey(((PKCS11SecretKey) key).getKey());
+    }
+
+    if (!(key instanceof SecretKey) || !"AES".equals(key.getAlgorithm())) {
+      throw new InvalidKeyException("AES key required");
+    }
+    return importKey(key);
+  }
+
+  private EngineKey importKey(java.security.Key key)
+      throws InvalidKeyException {
+    if (this.key != null && this.key.isImportOf(key)) {
+      return this.key;
+    }
+
+    return new EngineKey(provider.getImportedKeys(), rsa
+        ? ImportedKeys.publicKeyId((RSAPublicKey) key)
+        : ImportedKeys.secretKeyId((SecretKey) key,
+            PKCS11Constants.CKK_AES, PKCS11Constants.CKA_ENCRYPT));
+  }
+
+  private Mechanism initRsaParameters(AlgorithmParameterSpec params)
+      throws InvalidAlgorithmParameterException {
+    Mechanism newMechanism = Mechanism.get(mechanismCode);
+    if (mechanismCode == PKCS11Constants.CKM_RSA_PKCS) {
+      if (params != null) {
+        throw new InvalidAlgorithmParameterException(
+            "no parameters supported");
+      }
+      return newMechanism;
+    }
+
+    OAEPParameterSpec spec = (params == null)
+        ? OAEPParameterSpec.DEFAULT : null;
+    if (params instanceof OAEPParameterSpec) {
+      spec = (OAEPParameterSpec) params;
+    } else if (spec == null) {
+      throw new InvalidAlgorithmParameterException(
+          "OAEPParameterSpec required");
+    }
+
+    long hash = oaepParameter(spec.getDigestAlgorithm(), 0);
+    long mgf = -1;
+    if ("MGF1".equalsIgnoreCase(spec.getMGFAlgorithm())
+        && spec.getMGFParameters() instanceof MGF1ParameterSpec) {
+      mgf = oaepParameter(((MGF1ParameterSpec) spec.getMGFParameters())
+          .getDigestAlgorithm(), 1);
+    }
+
+    if (hash == -1 || mgf == -1 || !(spec.getPSource()
+        instanceof PSource.PSpecified) || ((PSource.PSpecified)
+            spec.getPSource()).getValue().length != 0) {
+      throw new InvalidAlgorithmParameterException(
+          "unsupported OAEP parameters");
+    }
+
+    newMechanism.setParameters(new RSAPkcsOaepParameters(hash, mgf,
+        RSAPkcsOaepParameters.SourceType.EMPTY, null));
+    oaepParameterSpec = spec;
+    return newMechanism;
+  }
+
+  private static long oaepParameter(String digest, int index) {
+    for (int i = 0; i < OAEP_DIGESTS.length; i++) {
+      if (OAEP_DIGESTS[i].equalsIgnoreCase(digest)) {
+        return OAEP_PARAMS[i][index];
+      }
+    }
+    return -1;
+  }
+
+  private Mechanism initAesParameters(boolean encrypt,
+      AlgorithmParameterSpec params, boolean sameKey, SecureRandom random)
+      throws InvalidAlgorithmParameterException {
+    Mechanism newMechanism = Mechanism.get(mechanismCode);
+    if (mechanismCode == PKCS11Constants.CKM_AES_ECB) {
+      if (params != null) {
+        throw new InvalidAlgorithmParameterException(
+            "no parameters supported");
+      }
+      iv = null;
+      return newMechanism;
+    }
+
+    byte[] newIv;
+    int newTagLength = GCM_TAG_LENGTH;
+    if (params == null) {
+      if (!encrypt) {
+        throw new InvalidAlgorithmParameterException(
+            "IV required for decryption");
+      }
+      newIv = new byte[gcm ? GCM_IV_LENGTH : AES_BLOCK_SIZE];
+      (random == null ? new SecureRandom() : random).nextBytes(newIv);
+    } else if (gcm) {
+      if (!(params instanceof GCMParameterSpec)) {
+        throw new InvalidAlgorithmParameterException(
+            "GCMParameterSpec required");
+      }
+      newIv = ((GCMParameterSpec) params).getIV();
+      newTagLength = ((GCMParameterSpec) params).getTLen();
+    } else {
+      if (!(params instanceof IvParameterSpec)) {
+        throw new InvalidAlgorithmParameterException(
+            "IvParameterSpec required");
+      }
+      newIv = ((IvParameterSpec) params).getIV();
+      if (newIv.length != AES_BLOCK_SIZE) {
+        throw new InvalidAlgorithmParameterException(
+            "IV must have 16 bytes");
+      }
+    }
+
+    if (gcm && encrypt && sameKey && ivUsed && Arrays.equals(iv, newIv)) {
+      throw new InvalidAlgorithmParameterException(
+          "the IV must not be used again for GCM encryption with this key");
+    }
+
+    if (!gcm) {
+      newMechanism.setParameters(new InitializationVectorParameters(newIv));
+    }
+    iv = newIv;
+    tagLength = newTagLength;
+    ivUsed = false;
+    return newMechanism;
+  }
+
+  @Override
+  protected byte[] engineUpdate(byte[] input, int inputOffset,
+      int inputLen) {
+    checkInitialized();
+    if (!multiPart(inputLen)) {
+      collect(input, inputOffset, inputLen);
+      return EMPTY;
+    }
+
+    byte[] output = new byte[updateOutputSize(inputLen)];
+    int len = update(input, inputOffset, inputLen, output, 0);
+    return (len == output.length) ? output : Arrays.copyOf(output, len);
+  }
+
+  @Override
+  protected int engineUpdate(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset) throws ShortBufferException {
+    checkInitialized();
+    if (!multiPart(inputLen)) {
+      collect(input, inputOffset, inputLen);
+      return 0;
+    }
+
+    if (output.length - outputOffset < updateOutputSize(inputLen)) {
+      throw new ShortBufferException("output buffer too short");
+    }
+    return update(input, inputOffset, inputLen, output, outputOffset);
+  }
+
+  /**
+   * Passes the arrays of heap buffers directly to the token in a
+   * multi-part operation, other buffers are copied by the default
+   * implementation.
+   */
+  @Override
+  protected int engineUpdate(ByteBuffer input, ByteBuffer output)
+      throws ShortBufferException {
+    checkInitialized();
+    int inputLen = input.remaining();
+    if (!multiPart(inputLen)) {
+      if (rsa && data.size() + inputLen > modulusLength) {
+        tooLong = true;
+        input.position(input.limit());
+      } else {
+        data.write(input);
+      }
+      return 0;
+    } else if (!input.hasArray() || !output.hasArray()) {
+      return super.engineUpdate(input, output);
+    }
+
+    int len = engineUpdate(input.array(),
+        input.arrayOffset() + input.position(), inputLen, output.array(),
+        output.arrayOffset() + output.position());
+    input.position(input.limit());
+    output.position(output.position() + len);
+    return len;
+  }
+
+  /**
+   * Returns whether the data must be passed to the token by a multi-part
+   * operation instead of being collected.
+   */
+  private boolean multiPart(int inputLen) {
+    return session != null || (!rsa && !gcm
+        && data.size() + inputLen > DataBuffer.MAX_SIZE);
+  }
+
+  private void collect(byte[] input, int inputOffset, int inputLen) {
+    if (rsa && data.size() + inputLen > modulusLength) {
+      tooLong = true;
+    } else {
+      data.write(input, inputOffset, inputLen);
+    }
+  }
+
+  /**
+   * Returns the maximal output of an update in a multi-part operation, all
+   * full blocks.
+   */
+  private int updateOutputSize(int inputLen) {
+    int len = data.size() + heldBytes + inputLen;
+    return len - len % AES_BLOCK_SIZE;
+  }
+
+  private int update(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset) {
+    int outputLen = output.length - outputOffset;
+    try {
+      int len = (session == null) ? start(output, outputOffset, outputLen)
+          : 0;
+      return len + cryptUpdate(input, inputOffset, inputLen, output,
+          outputOffset + len, outputLen - len);
+    } catch (TokenException ex) {
+      endMultiPart(ex);
+      throw new ProviderException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Starts the multi-part operation with the collected data.
+   *
+   * @return the length of the output.
+   */
+  private int start(byte[] output, int outputOffset, int outputLen)
+      throws TokenException {
+    SessionPool pool = provider.getSessionPool();
+    Key tokenKey;
+    try {
+      session = pool.borrow();
+      tokenKey = key.acquire();
+    } catch (TokenException | InvalidKeyException ex) {
+      if (session != null) {
+        pool.release(session);
+        session = null;
+      }
+      data.reset();
+      throw new ProviderException(ex.getMessage(), ex);
+    }
+
+    if (encrypt) {
+      session.encryptInit(mechanism, tokenKey);
+    } else {
+      session.decryptInit(mechanism, tokenKey);
+    }
+    int len = cryptUpdate(data.array(), 0, data.size(), output, outputOffset,
+        outputLen);
+    data.reset();
+    return len;
+  }
+
+  private int cryptUpdate(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset, int outputLen) throws TokenException {
+    if (inputLen == 0) {
+      return 0;
+    }
+
+    int len = encrypt
+        ? session.encryptUpdate(input, inputOffset, inputLen, output,
+            outputOffset, outputLen)
+        : session.decryptUpdate(input, inputOffset, inputLen, output,
+            outputOffset, outputLen);
+    heldBytes += inputLen - len;
+    return len;
+  }
+
+  /**
+   * Returns the session of the multi-part operation to the pool.
+   */
+  private void endMultiPart(TokenException error) {
+    if (session != null) {
+      key.release(error);
+      provider.getSessionPool().release(session, error);
+      session = null;
+    }
+    heldBytes = 0;
+    data.reset();
+  }
+
+  /**
+   * Closes the session of an unfinished multi-part operation, which cannot
+   * be cancelled otherwise.
+   */
+  private void abort() {
+    if (session != null) {
+      provider.getSessionPool().discard(session);
+      session = null;
+      key.release(null);
+    }
+    heldBytes = 0;
+    tooLong = false;
+  }
+
+  @Override
+  protected void engineUpdateAAD(byte[] src, int offset, int len) {
+    checkAad();
+    aad.write(src, offset, len);
+  }
+
+  @Override
+  protected void engineUpdateAAD(ByteBuffer src) {
+    checkAad();
+    aad.write(src);
+  }
+
+  @Override
+  protected byte[] engineDoFinal(byte[] input, int inputOffset,
+      int inputLen) throws IllegalBlockSizeException, BadPaddingException {
+    byte[] output = new byte[engineGetOutputSize(inputLen)];
+    int len = doFinal(input, inputOffset, inputLen, output, 0,
+        output.length);
+    return (len == output.length) ? output : Arrays.copyOf(output, len);
+  }
+
+  @Override
+  protected int engineDoFinal(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset) throws ShortBufferException,
+      IllegalBlockSizeException, BadPaddingException {
+    int outputLen = output.length - outputOffset;
+    if (outputLen < engineGetOutputSize(inputLen)) {
+      throw new ShortBufferException("output buffer too short");
+    }
+    return doFinal(input, inputOffset, inputLen, output, outputOffset,
+        outputLen);
+  }
+
+  /**
+   * Passes the arrays of heap buffers directly to the token, other
+   * buffers are copied by the default implementation.
+   */
+  @Override
+  protected int engineDoFinal(ByteBuffer input, ByteBuffer output)
+      throws ShortBufferException, IllegalBlockSizeException,
+      BadPaddingException {
+    if (!input.hasArray() || !output.hasArray()) {
+      return super.engineDoFinal(input, output);
+    }
+
+    int inputLen = input.remaining();
+    int outputLen = output.remaining();
+    if (outputLen < engineGetOutputSize(inputLen)) {
+      throw new ShortBufferException("output buffer too short");
+    }
+
+    int len = doFinal(input.array(), input.arrayOffset() + input.position(),
+        inputLen, output.array(), output.arrayOffset() + output.position(),
+        outputLen);
+    input.position(input.limit());
+    output.position(output.position() + len);
+    return len;
+  }
+
+  private int doFinal(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset, int outputLen)
+      throws IllegalBlockSizeException, BadPaddingException {
+    checkInitialized();
+    if (session != null || (data.size() > 0 && multiPart(inputLen))) {
+      return doFinalMultiPart((input == null) ? EMPTY : input, inputOffset,
+          inputLen, output, outputOffset, outputLen);
+    }
+
+    byte[] in = input;
+    int inOfs = inputOffset;
+    int inLen = inputLen;
+    if (data.size() > 0) {
+      data.write(input, inputOffset, inputLen);
+      in = data.array();
+      inOfs = 0;
+      inLen = data.size();
+    } else if (in == null) {
+      in = EMPTY;
+    }
+
+    try {
+      if (rsa) {
+        if (tooLong || (encrypt && inLen > modulusLength)) {
+          throw new IllegalBlockSizeException("data too long for the key");
+        }
+      } else if (!gcm && inLen % AES_BLOCK_SIZE != 0
+          && (!encrypt || mechanismCode != PKCS11Constants.CKM_AES_CBC_PAD)) {
+        throw new IllegalBlockSizeException(
+            "data length is not a multiple of 16");
+      } else if (gcm && encrypt && ivUsed) {
+        throw new IllegalStateException(
+            "re-initialize the cipher with a new IV");
+      }
+
+      Mechanism mech = mechanism;
+      if (gcm) {
+        mech = Mechanism.get(mechanismCode);
+        mech.setParameters(new GCMParameters(tagLength, iv,
+            (aad.size() == 0) ? null : aad.toByteArray()));
+      }
+      return crypt(mech, in, inOfs, inLen, output, outputOffset, outputLen);
+    } finally {
+      data.reset();
+      aad.reset();
+      tooLong = false;
+      if (gcm && encrypt) {
+        ivUsed = true;
+      }
+    }
+  }
+
+  private int doFinalMultiPart(byte[] input, int inputOffset, int inputLen,
+      byte[] output, int outputOffset, int outputLen)
+      throws IllegalBlockSizeException, BadPaddingException {
+    if ((data.size() + heldBytes + inputLen) % AES_BLOCK_SIZE != 0
+        && (!encrypt || mechanismCode != PKCS11Constants.CKM_AES_CBC_PAD)) {
+      abort();
+      data.reset();
+      throw new IllegalBlockSizeException(
+          "data length is not a multiple of 16");
+    }
+
+    TokenException error = null;
+    try {
+      int len = (session == null) ? start(output, outputOffset, outputLen)
+          : 0;
+      len += cryptUpdate(input, inputOffset, inputLen, output,
+          outputOffset + len, outputLen - len);
+      return len + (encrypt
+          ? session.encryptFinal(output, outputOffset + len, outputLen - len)
+          : session.decryptFinal(output, outputOffset + len,
+              outputLen - len));
+    } catch (TokenException ex) {
+      error = ex;
+      checkCryptError(ex);
+      throw new ProviderException(ex.getMessage(), ex);
+    } finally {
+      endMultiPart(error);
+    }
+  }
+
+  private int crypt(Mechanism mech, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen)
+      throws IllegalBlockSizeException, BadPaddingException {
+    SessionPool pool = provider.getSessionPool();
+    Session session;
+    try {
+      session = pool.borrow();
+    } catch (TokenException ex) {
+      throw new ProviderException(ex.getMessage(), ex);
+    }
+
+    TokenException error = null;
+    try {
+      if (encrypt) {
+        session.encryptInit(mech, key.acquire());
+        return session.encrypt(in, inOfs, inLen, out, outOfs, outLen);
+      } else {
+        session.decryptInit(mech, key.acquire());
+        return session.decrypt(in, inOfs, inLen, out, outOfs, outLen);
+      }
+    } catch (InvalidKeyException ex) {
+      throw new ProviderException(ex.getMessage(), ex);
+    } catch (TokenException ex) {
+      error = ex;
+      checkCryptError(ex);
+      throw new ProviderException(ex.getMessage(), ex);
+    } finally {
+      key.release(error);
+      pool.release(session, error);
+    }
+  }
+
+  /**
+   * Throws the JCA exception of an error of the token about the data.
+   */
+  private void checkCryptError(TokenException ex)
+      throws IllegalBlockSizeException, BadPaddingException {
+    if (!(ex instanceof PKCS11Exception)) {
+      return;
+    }
+
+    long code = ((PKCS11Exception) ex).getErrorCode();
+    if (code == PKCS11Constants.CKR_ENCRYPTED_DATA_INVALID) {
+      if (gcm) {
+        throw new AEADBadTagException("tag mismatch");
+      }
+      throw new BadPaddingException("invalid encrypted data");
+    } else if (code == PKCS11Constants.CKR_ENCRYPTED_DATA_LEN_RANGE
+        || code == PKCS11Constants.CKR_DATA_LEN_RANGE) {
+      throw new IllegalBlockSizeException("invalid data length");
+    }
+  }
+
+  private void checkInitialized() {
+    if (key == null) {
+      throw new IllegalStateException("cipher not initialized");
+    }
+  }
+
+  private void checkAad() {
+    checkInitialized();
+    if (!gcm) {
+      throw new UnsupportedOperationException("AAD requires GCM");
+    } else if (data.size() > 0) {
+      throw new IllegalStateException("AAD must be given before the data");
+    }
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.security.interfaces.ECKey;
+import java.security.spec.ECParameterSpec;
+
+/**
+ * An EC private key on the token.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class PKCS11ECPrivateKey extends PKCS11PrivateKey implements ECKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient ECParameterSpec params;
+
+  PKCS11ECPrivateKey(long handle, ECParameterSpec params) {
+    super("EC", PKCS11Constants.CKK_EC, handle);
+    this.params = params;
+  }
+
+  /**
+   * Returns the curve of the key.
+   *
+   * @return the curve, null if the curve is not known to the JDK.
+   */
+  @Override
+  public ECParameterSpec getParams() {
+    return params;
+  }
+
+}
@@ -0,0 +1,647 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.objects.X509PublicKeyCertificate;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.KeyStoreSpi;
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.UnrecoverableEntryException;
+import java.security.UnrecoverableKeyException;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.crypto.SecretKey;
+
+/**
+ * Read-only key store over the private keys, secret keys and certificates
+ * of the token. {@code load(null, null)} builds only an index of the
+ * aliases: the token objects are found by one find operation, and their
+ * CKA_CLASS, CKA_ID and CKA_LABEL are read by one C_GetAttributeValue per
+ * object. Keys, certificates and certificate chains are read on first use
+ * and kept in a bounded LRU cache.
+ * <p>
+ * The alias of a private key is its CKA_LABEL, or the CKA_LABEL of the
+ * certificate with the same CKA_ID, or the hex encoded CKA_ID. A private key
+ * with a certificate of the same CKA_ID is a key entry with this certificate,
+ * the other certificates are certificate entries. Duplicated aliases are
+ * made unique by the suffix #2, #3, and so on.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class PKCS11KeyStoreSpi extends KeyStoreSpi {
+
+  private static final int MAX_CHAIN_LENGTH = 10;
+
+  private static final long[] INDEX_ATTRIBUTES = {PKCS11Constants.CKA_CLASS,
+    PKCS11Constants.CKA_ID, PKCS11Constants.CKA_LABEL};
+
+  private static final int FIND_BATCH_SIZE = 1000;
+
+  /**
+   * An entry of the alias index.
+   */
+  private static final class Entry {
+
+    private final long objectClass;
+
+    private final long keyHandle;
+
+    private final long certHandle;
+
+    private Entry(long objectClass, long keyHandle, long certHandle) {
+      this.objectClass = objectClass;
+      this.keyHandle = keyHandle;
+      this.certHandle = certHandle;
+    }
+
+  }
+
+  /**
+   * An object found by the index sweep.
+   */
+  private static final class IndexedObject {
+
+    private final long handle;
+
+    private final long objectClass;
+
+    private final byte[] id;
+
+    private final String label;
+
+    private IndexedObject(long handle, long objectClass, byte[] id,
+        String label) {
+      this.handle = handle;
+      this.objectClass = objectClass;
+      this.id = id;
+      this.label = label;
+    }
+
+    private String getAlias() {
+      if (label != null && !label.isEmpty()) {
+        return label;
+      } else if (id != null && id.length > 0) {
+        return Util.toHex(id);
+      } else {
+        return "object-" + handle;
+      }
+    }
+
+  }
+
+  /**
+   * Key of the cache: the handle and what has been read, the key, the
+   * certificate or the certificate chain.
+   */
+  private static final class CacheKey {
+
+    private static final int KEY = 0;
+
+    private static final int CERTIFICATE = 1;
+
+    private static final int CHAIN = 2;
+
+    private final int kind;
+
+    private final long handle;
+
+    private CacheKey(int kind, long handle) {
+      this.kind = kind;
+      this.handle = handle;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * kind + Long.hashCode(handle);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      } else if (!(obj instanceof CacheKey)) {
+        return false;
+      }
+
+      CacheKey other = (CacheKey) obj;
+      return kind == other.kind && handle == other.handle;
+    }
+
+  }
+
+  private final PKCS11Provider provider;
+
+  private final LinkedHashMap<CacheKey, Object> cache;
+
+  private Map<String, Entry> entries = Collections.emptyMap();
+
+  /**
+   * The aliases of the certificates by their handles.
+   */
+  private Map<Long, String> certificateAliases = Collections.emptyMap();
+
+  /**
+   * Constructor.
+   *
+   * @param provider
+   *          The provider.
+   * @param maxCacheSize
+   *          The maximal number of keys, certificates and chains in the
+   *          cache.
+   */
+  PKCS11KeyStoreSpi(PKCS11Provider provider, final int maxCacheSize) {
+    this.provider = provider;
+    this.cache = new LinkedHashMap<CacheKey, Object>(16, 0.75f, true) {
+
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(
+          Map.Entry<CacheKey, Object> eldest) {
+        return size() > maxCacheSize;
+      }
+
+    };
+  }
+
+  /**
+   * Builds the alias index. The stream must be null, and the password is
+   * ignored, since the sessions of the pool are logged in.
+   */
+  @Override
+  public void engineLoad(InputStream stream, char[] password)
+      throws IOException, CertificateException {
+    if (stream != null) {
+      throw new IOException("stream must be null");
+    }
+
+    List<IndexedObject> objects;
+    try {
+      objects = sweep();
+    } catch (TokenException ex) {
+      throw new IOException("could not index the objects: "
+          + ex.getMessage(), ex);
+    }
+
+    Map<String, IndexedObject> certificatesById = new HashMap<>();
+    for (IndexedObject object : objects) {
+      if (object.objectClass == PKCS11Constants.CKO_CERTIFICATE
+          && object.id != null && object.id.length > 0) {
+        String id = Util.toHex(object.id);
+        if (!certificatesById.containsKey(id)) {
+          certificatesById.put(id, object);
+        }
+      }
+    }
+
+    Map<String, Entry> newEntries = new LinkedHashMap<>();
+    Map<Long, String> newCertificateAliases = new HashMap<>();
+    Set<Long> pairedCertificates = new HashSet<>();
+    for (IndexedObject object : objects) {
+      if (object.objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+        IndexedObject certificate = (object.id == null)
+            ? null : certificatesById.get(Util.toHex(object.id));
+        String alias = object.getAlias();
+        long certHandle = PKCS11Constants.CK_INVALID_HANDLE;
+        if (certificate != null) {
+          certHandle = certificate.handle;
+          pairedCertificates.add(certHandle);
+          if (object.label == null || object.label.isEmpty()) {
+            alias = certificate.getAlias();
+          }
+        }
+        alias = put(newEntries, alias, new Entry(object.objectClass,
+            object.handle, certHandle));
+        if (certificate != null) {
+          newCertificateAliases.put(certHandle, alias);
+        }
+      } else if (object.objectClass == PKCS11Constants.CKO_SECRET_KEY) {
+        put(newEntries, object.getAlias(), new Entry(object.objectClass,
+            object.handle, PKCS11Constants.CK_INVALID_HANDLE));
+      }
+    }
+
+    for (IndexedObject object : objects) {
+      if (object.objectClass == PKCS11Constants.CKO_CERTIFICATE
+          && !pairedCertificates.contains(object.handle)) {
+        String alias = put(newEntries, object.getAlias(),
+            new Entry(object.objectClass, PKCS11Constants.CK_INVALID_HANDLE,
+                object.handle));
+        newCertificateAliases.put(object.handle, alias);
+      }
+    }
+
+    synchronized (this) {
+      entries = newEntries;
+      certificateAliases = newCertificateAliases;
+      cache.clear();
+    }
+  }
+
+  private static String put(Map<String, Entry> entries, String alias,
+      Entry entry) {
+    String uniqueAlias = alias;
+    for (int i = 2; entries.containsKey(uniqueAlias); i++) {
+      uniqueAlias = alias + "#" + i;
+    }
+    entries.put(uniqueAlias, entry);
+    return uniqueAlias;
+  }
+
+  /**
+   * Finds all token objects and reads their CKA_CLASS, CKA_ID and
+   * CKA_LABEL.
+   */
+  private List<IndexedObject> sweep() throws TokenException {
+    SessionPool pool = provider.getSessionPool();
+    Session session = pool.borrow();
+    TokenException error = null;
+    try {
+      // CKA_TOKEN excludes the session objects, e.g. the imported keys
+      long[] handles = session.findAllObjectHandles(new CK_ATTRIBUTE[] {
+        new CK_ATTRIBUTE(PKCS11Constants.CKA_TOKEN, true)}, FIND_BATCH_SIZE);
+
+      List<IndexedObject> objects = new ArrayList<>(handles.length);
+      for (long handle : handles) {
+        CK_ATTRIBUTE[] values = session.readAttributes(handle,
+            INDEX_ATTRIBUTES);
+        if (values[0].pValue == null) {
+          continue;
+        }
+
+        long objectClass = values[0].getLong();
+        if (objectClass != PKCS11Constants.CKO_PRIVATE_KEY
+            && objectClass != PKCS11Constants.CKO_SECRET_KEY
+            && objectClass != PKCS11Constants.CKO_CERTIFICATE) {
+          continue;
+        }
+
+        byte[] id = (values[1].pValue instanceof byte[])
+            ? (byte[]) values[1].pValue : null;
+        String label = null;
+        if (values[2].pValue instanceof char[]) {
+          // one char per byte of the UTF-8 encoded label
+          label = new String(
+              Util.labelCharsToBytes((char[]) values[2].pValue),
+              StandardCharsets.UTF_8);
+        } else if (values[2].pValue instanceof byte[]) {
+          label = new String((byte[]) values[2].pValue,
+              StandardCharsets.UTF_8);
+        }
+        objects.add(new IndexedObject(handle, objectClass, id, label));
+      }
+      return objects;
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      pool.release(session, error);
+    }
+  }
+
+  private synchronized Entry getEntry(String alias) {
+    return entries.get(alias);
+  }
+
+  private synchronized Object getCached(CacheKey key) {
+    return cache.get(key);
+  }
+
+  private synchronized void putCached(CacheKey key, Object value) {
+    cache.put(key, value);
+  }
+
+  @Override
+  public Key engineGetKey(String alias, char[] password)
+      throws UnrecoverableKeyException {
+    Entry entry = getEntry(alias);
+    if (entry == null || entry.keyHandle == PKCS11Constants.CK_INVALID_HANDLE) {
+      return null;
+    }
+
+    CacheKey cacheKey = new CacheKey(CacheKey.KEY, entry.keyHandle);
+    Key key = (Key) getCached(cacheKey);
+    if (key != null) {
+      return key;
+    }
+
+    try {
+      key = (entry.objectClass == PKCS11Constants.CKO_PRIVATE_KEY)
+          ? provider.getPrivateKey(entry.keyHandle)
+          : provider.getSecretKey(entry.keyHandle);
+    } catch (TokenException ex) {
+      UnrecoverableKeyException ex2 = new UnrecoverableKeyException(
+          "could not read the key " + alias + ": " + ex.getMessage());
+      ex2.initCause(ex);
+      throw ex2;
+    }
+    putCached(cacheKey, key);
+    return key;
+  }
+
+  @Override
+  public Certificate[] engineGetCertificateChain(String alias) {
+    Entry entry = getEntry(alias);
+    if (entry == null
+        || entry.objectClass != PKCS11Constants.CKO_PRIVATE_KEY
+        || entry.certHandle == PKCS11Constants.CK_INVALID_HANDLE) {
+      return null;
+    }
+
+    CacheKey cacheKey = new CacheKey(CacheKey.CHAIN, entry.certHandle);
+    Certificate[] chain = (Certificate[]) getCached(cacheKey);
+    if (chain == null) {
+      try {
+        chain = buildChain(entry.certHandle);
+      } catch (TokenException | CertificateException ex) {
+        throw new ProviderException("could not read the certificate chain of "
+            + alias + ": " + ex.getMessage(), ex);
+      }
+      putCached(cacheKey, chain);
+    }
+    return chain.clone();
+  }
+
+  /**
+   * Builds the chain by searching the certificate whose CKA_SUBJECT is the
+   * issuer, until a self-issued certificate or no issuer is found.
+   */
+  private Certificate[] buildChain(long certHandle)
+      throws TokenException, CertificateException {
+    List<Certificate> chain = new ArrayList<>();
+    List<Long> handles = new ArrayList<>();
+    long handle = certHandle;
+    while (true) {
+      X509Certificate cert = getCertificate(handle);
+      chain.add(cert);
+      handles.add(handle);
+      if (chain.size() == MAX_CHAIN_LENGTH || cert.getIssuerX500Principal()
+          .equals(cert.getSubjectX500Principal())) {
+        break;
+      }
+
+      handle = findIssuer(cert, handles);
+      if (handle == PKCS11Constants.CK_INVALID_HANDLE) {
+        break;
+      }
+    }
+    return chain.toArray(new Certificate[0]);
+  }
+
+  private long findIssuer(X509Certificate cert, List<Long> excludedHandles)
+      throws TokenException, CertificateException {
+    X509PublicKeyCertificate template = new X509PublicKeyCertificate();
+    template.getSubject().setByteArrayValue(
+        cert.getIssuerX500Principal().getEncoded());
+    for (long handle : findCertificates(template)) {
+      if (excludedHandles.contains(handle)) {
+        continue;
+      }
+
+      try {
+        cert.verify(getCertificate(handle).getPublicKey());
+        return handle;
+      } catch (java.security.GeneralSecurityException ex) {
+        // same subject but another key, try the next one
+      }
+    }
+    return PKCS11Constants.CK_INVALID_HANDLE;
+  }
+
+  private long[] findCertificates(X509PublicKeyCertificate template)
+      throws TokenException {
+    SessionPool pool = provider.getSessionPool();
+    Session session = pool.borrow();
+    TokenException error = null;
+    try {
+      session.findObjectsInit(template);
+      try {
+        return session.findObjectHandles(MAX_CHAIN_LENGTH);
+      } finally {
+        session.findObjectsFinal();
+      }
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      pool.release(session, error);
+    }
+  }
+
+  private X509Certificate getCertificate(long handle)
+      throws TokenException, CertificateException {
+    CacheKey cacheKey = new CacheKey(CacheKey.CERTIFICATE, handle);
+    X509Certificate cert = (X509Certificate) getCached(cacheKey);
+    if (cert != null) {
+      return cert;
+    }
+
+    SessionPool pool = provider.getSessionPool();
+    Session session = pool.borrow();
+    TokenException error = null;
+    byte[] encoded;
+    try {
+      encoded = PKCS11PrivateKey.readAttribute(session, handle,
+          PKCS11Constants.CKA_VALUE).getByteArray();
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      pool.release(session, error);
+    }
+
+    // a factory per call, CertificateFactory is not thread-safe
+    cert = (X509Certificate) CertificateFactory.getInstance("X.509")
+        .generateCertificate(new ByteArrayInputStream(encoded));
+    putCached(cacheKey, cert);
+    return cert;
+  }
+
+  @Override
+  public Certificate engineGetCertificate(String alias) {
+    Entry entry = getEntry(alias);
+    if (entry == null
+        || entry.certHandle == PKCS11Constants.CK_INVALID_HANDLE) {
+      return null;
+    }
+
+    try {
+      return getCertificate(entry.certHandle);
+    } catch (TokenException | CertificateException ex) {
+      throw new ProviderException("could not read the certificate "
+          + alias + ": " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * The keys are protected by the login of the sessions, so the protection
+   * parameter is ignored.
+   */
+  @Override
+  public KeyStore.Entry engineGetEntry(String alias,
+      KeyStore.ProtectionParameter protParam)
+      throws UnrecoverableEntryException {
+    Entry entry = getEntry(alias);
+    if (entry == null) {
+      return null;
+    } else if (entry.objectClass == PKCS11Constants.CKO_CERTIFICATE) {
+      return new KeyStore.TrustedCertificateEntry(
+          engineGetCertificate(alias));
+    }
+
+    Key key = engineGetKey(alias, null);
+    if (key instanceof SecretKey) {
+      return new KeyStore.SecretKeyEntry((SecretKey) key);
+    }
+
+    Certificate[] chain = engineGetCertificateChain(alias);
+    if (chain == null) {
+      throw new UnrecoverableEntryException(
+          "no certificate for the private key " + alias);
+    }
+    return new KeyStore.PrivateKeyEntry((PrivateKey) key, chain);
+  }
+
+  /**
+   * Not known, returns null.
+   */
+  @Override
+  public Date engineGetCreationDate(String alias) {
+    return null;
+  }
+
+  @Override
+  public void engineSetKeyEntry(String alias, Key key, char[] password,
+      Certificate[] chain) throws KeyStoreException {
+    throw new KeyStoreException("read-only key store");
+  }
+
+  @Override
+  public void engineSetKeyEntry(String alias, byte[] key,
+      Certificate[] chain) throws KeyStoreException {
+    throw new KeyStoreException("read-only key store");
+  }
+
+  @Override
+  public void engineSetCertificateEntry(String alias, Certificate cert)
+      throws KeyStoreException {
+    throw new KeyStoreException("read-only key store");
+  }
+
+  @Override
+  public void engineDeleteEntry(String alias) throws KeyStoreException {
+    throw new KeyStoreException("read-only key store");
+  }
+
+  @Override
+  public synchronized Enumeration<String> engineAliases() {
+    return Collections.enumeration(new ArrayList<>(entries.keySet()));
+  }
+
+  @Override
+  public synchronized boolean engineContainsAlias(String alias) {
+    return entries.containsKey(alias);
+  }
+
+  @Override
+  public synchronized int engineSize() {
+    return entries.size();
+  }
+
+  @Override
+  public boolean engineIsKeyEntry(String alias) {
+    Entry entry = getEntry(alias);
+    return entry != null
+        && entry.keyHandle != PKCS11Constants.CK_INVALID_HANDLE;
+  }
+
+  @Override
+  public boolean engineIsCertificateEntry(String alias) {
+    Entry entry = getEntry(alias);
+    return entry != null
+        && entry.objectClass == PKCS11Constants.CKO_CERTIFICATE;
+  }
+
+  /**
+   * Searches the certificate by its CKA_VALUE, so that no other certificate
+   * needs to be read.
+   */
+  @Override
+  public String engineGetCertificateAlias(Certificate cert) {
+    X509PublicKeyCertificate template = new X509PublicKeyCertificate();
+    try {
+      template.getValue().setByteArrayValue(cert.getEncoded());
+    } catch (CertificateEncodingException ex) {
+      return null;
+    }
+
+    long[] handles;
+    try {
+      handles = findCertificates(template);
+    } catch (TokenException ex) {
+      throw new ProviderException("could not find the certificate: "
+          + ex.getMessage(), ex);
+    }
+
+    synchronized (this) {
+      for (long handle : handles) {
+        String alias = certificateAliases.get(handle);
+        if (alias != null) {
+          return alias;
+        }
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public void engineStore(OutputStream stream, char[] password)
+      throws IOException {
+    throw new IOException("read-only key store");
+  }
+
+}
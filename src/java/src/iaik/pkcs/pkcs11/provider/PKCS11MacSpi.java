@@ -0,0 +1,249 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.ProviderException;
+import java.security.spec.AlgorithmParameterSpec;
+import javax.crypto.MacSpi;
+import javax.crypto.SecretKey;
+
+/**
+ * HMAC engine. Up to {@link DataBuffer#MAX_SIZE} bytes are collected by the
+ * update methods, and the MAC is computed by a single C_Sign in a session
+ * borrowed from the pool. Larger data is passed by C_SignUpdate in a
+ * session borrowed until the MAC is finished. The key is either a
+ * {@link PKCS11SecretKey} or a raw secret key, which is imported into the
+ * token as generic secret.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class PKCS11MacSpi extends MacSpi {
+
+  private final PKCS11Provider provider;
+
+  private final long mechanismCode;
+
+  private final int macLength;
+
+  private final DataBuffer data = new DataBuffer();
+
+  private EngineKey key;
+
+  /**
+   * The session of a multi-part operation, null if the data is collected.
+   */
+  private Session session;
+
+  /**
+   * Constructor.
+   *
+   * @param provider
+   *          The provider.
+   * @param mechanismCode
+   *          The HMAC mechanism.
+   * @param macLength
+   *          The length of the MAC in bytes.
+   */
+  PKCS11MacSpi(PKCS11Provider provider, long mechanismCode, int macLength) {
+    this.provider = provider;
+    this.mechanismCode = mechanismCode;
+    this.macLength = macLength;
+  }
+
+  @Override
+  protected int engineGetMacLength() {
+    return macLength;
+  }
+
+  @Override
+  protected void engineInit(java.security.Key key,
+      AlgorithmParameterSpec params)
+      throws InvalidKeyException, InvalidAlgorithmParameterException {
+    if (params != null) {
+      throw new InvalidAlgorithmParameterException("no parameters supported");
+    }
+
+    if (!(key instanceof SecretKey)) {
+      throw new InvalidKeyException("secret key required");
+    }
+
+    abort();
+    data.reset();
+    if (key instanceof PKCS11SecretKey) {
+      this.key = new EngineKey(((PKCS11SecretKey) key).getKey());
+    } else if (this.key == null || !this.key.isImportOf(key)) {
+      this.key = new EngineKey(provider.getImportedKeys(),
+          ImportedKeys.secretKeyId((SecretKey) key,
+              PKCS11Constants.CKK_GENERIC_SECRET, PKCS11Constants.CKA_SIGN));
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte input) {
+    if (session == null && data.size() < DataBuffer.MAX_SIZE) {
+      data.write(input);
+    } else {
+      update(new byte[]{input}, 0, 1);
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte[] input, int offset, int len) {
+    if (session == null && data.size() + len <= DataBuffer.MAX_SIZE) {
+      data.write(input, offset, len);
+    } else {
+      update(input, offset, len);
+    }
+  }
+
+  /**
+   * Copies the input directly into the data buffer, without the temporary
+   * array of the default implementation. In a multi-part operation, the
+   * array of a heap buffer is passed to the token without copying, other
+   * buffers are copied by the default implementation.
+   */
+  @Override
+  protected void engineUpdate(ByteBuffer input) {
+    int len = input.remaining();
+    if (session == null && data.size() + len <= DataBuffer.MAX_SIZE) {
+      data.write(input);
+    } else if (input.hasArray()) {
+      update(input.array(), input.arrayOffset() + input.position(), len);
+      input.position(input.limit());
+    } else {
+      super.engineUpdate(input);
+    }
+  }
+
+  /**
+   * Passes the data to the token, and starts the multi-part operation with
+   * the collected data if not done yet.
+   */
+  private void update(byte[] input, int offset, int len) {
+    checkInitialized();
+    SessionPool pool = provider.getSessionPool();
+    try {
+      if (session == null) {
+        session = pool.borrow();
+        session.signInit(Mechanism.get(mechanismCode), acquireKey());
+        session.signUpdate(data.array(), 0, data.size());
+        data.reset();
+      }
+      session.signUpdate(input, offset, len);
+    } catch (TokenException ex) {
+      key.release(ex);
+      if (session != null) {
+        pool.release(session, ex);
+        session = null;
+      }
+      data.reset();
+      throw new ProviderException("could not compute the MAC: "
+          + ex.getMessage(), ex);
+    } catch (ProviderException ex) {
+      pool.release(session);
+      session = null;
+      data.reset();
+      throw ex;
+    }
+  }
+
+  /**
+   * Closes the session of an unfinished multi-part operation, which cannot
+   * be cancelled otherwise.
+   */
+  private void abort() {
+    if (session != null) {
+      provider.getSessionPool().discard(session);
+      session = null;
+      key.release(null);
+    }
+  }
+
+  /**
+   * Returns the key for the init function, an imported key is leased until
+   * the operation is finished.
+   */
+  private Key acquireKey() {
+    try {
+      return key.acquire();
+    } catch (InvalidKeyException ex) {
+      throw new ProviderException("could not import the key: "
+          + ex.getMessage(), ex);
+    }
+  }
+
+  private void checkInitialized() {
+    if (key == null) {
+      throw new IllegalStateException("MAC not initialized");
+    }
+  }
+
+  @Override
+  protected byte[] engineDoFinal() {
+    checkInitialized();
+    SessionPool pool = provider.getSessionPool();
+    boolean multiPart = this.session != null;
+    Session session;
+    if (multiPart) {
+      session = this.session;
+      this.session = null;
+    } else {
+      try {
+        session = pool.borrow();
+      } catch (TokenException ex) {
+        data.reset();
+        throw new ProviderException(ex.getMessage(), ex);
+      }
+    }
+
+    TokenException error = null;
+    try {
+      if (multiPart) {
+        return session.signFinal(macLength);
+      }
+      session.signInit(Mechanism.get(mechanismCode), acquireKey());
+      return session.sign(data.toByteArray());
+    } catch (TokenException ex) {
+      error = ex;
+      throw new ProviderException("could not compute the MAC: "
+          + ex.getMessage(), ex);
+    } finally {
+      key.release(error);
+      pool.release(session, error);
+      data.reset();
+    }
+  }
+
+  @Override
+  protected void engineReset() {
+    abort();
+    data.reset();
+  }
+
+}
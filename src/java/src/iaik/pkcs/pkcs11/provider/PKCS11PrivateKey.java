@@ -0,0 +1,168 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.spec.ECParameterSpec;
+
+/**
+ * A private key on the token, referenced by its object handle. The key
+ * value never leaves the token, {@link #getEncoded()} returns null. RSA and
+ * EC keys are instances of {@link PKCS11RSAPrivateKey} and
+ * {@link PKCS11ECPrivateKey}, which expose the modulus and the curve as
+ * required by e.g. TLS implementations.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class PKCS11PrivateKey implements PrivateKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String algorithm;
+
+  private final long keyType;
+
+  /**
+   * The key passed to the {@link Session} methods, only its handle is set.
+   */
+  private final transient iaik.pkcs.pkcs11.objects.PrivateKey key;
+
+  PKCS11PrivateKey(String algorithm, long keyType, long handle) {
+    this.algorithm = algorithm;
+    this.keyType = keyType;
+    this.key = new iaik.pkcs.pkcs11.objects.PrivateKey();
+    this.key.setObjectHandle(handle);
+  }
+
+  /**
+   * Creates the private key of the given handle, reads the key type, and
+   * the modulus of RSA keys, or the curve of EC keys.
+   *
+   * @param session
+   *          The session to read the attributes.
+   * @param handle
+   *          The handle of the private key.
+   * @return the private key.
+   * @throws TokenException
+   *           If the attributes cannot be read.
+   */
+  static PKCS11PrivateKey getInstance(Session session, long handle)
+      throws TokenException {
+    long keyType = readAttribute(session, handle,
+        PKCS11Constants.CKA_KEY_TYPE).getLong();
+    if (keyType == PKCS11Constants.CKK_RSA) {
+      BigInteger modulus = readAttribute(session, handle,
+          PKCS11Constants.CKA_MODULUS).getBigInteger();
+      return new PKCS11RSAPrivateKey(handle, modulus);
+    } else if (keyType == PKCS11Constants.CKK_EC) {
+      byte[] ecParams = readAttribute(session, handle,
+          PKCS11Constants.CKA_EC_PARAMS).getByteArray();
+      ECParameterSpec params;
+      try {
+        AlgorithmParameters parameters = AlgorithmParameters.getInstance("EC");
+        parameters.init(ecParams);
+        params = parameters.getParameterSpec(ECParameterSpec.class);
+      } catch (GeneralSecurityException | java.io.IOException ex) {
+        // curve unknown to the JDK
+        params = null;
+      }
+      return new PKCS11ECPrivateKey(handle, params);
+    } else if (keyType == PKCS11Constants.CKK_DSA) {
+      return new PKCS11PrivateKey("DSA", keyType, handle);
+    } else if (keyType == PKCS11Constants.CKK_EC_EDWARDS) {
+      return new PKCS11PrivateKey("EdDSA", keyType, handle);
+    } else {
+      return new PKCS11PrivateKey("PKCS11", keyType, handle);
+    }
+  }
+
+  static CK_ATTRIBUTE readAttribute(Session session, long handle, long type)
+      throws TokenException {
+    CK_ATTRIBUTE[] template = {new CK_ATTRIBUTE(type)};
+    long rv = session.getAttributeValue(handle, template);
+    if (rv != PKCS11Constants.CKR_OK) {
+      throw new PKCS11Exception(rv);
+    }
+    return template[0];
+  }
+
+  /**
+   * Returns the handle of the key object.
+   *
+   * @return the object handle.
+   */
+  public long getHandle() {
+    return key.getObjectHandle();
+  }
+
+  /**
+   * Returns the key type.
+   *
+   * @return the key type, e.g. PKCS11Constants.CKK_RSA.
+   */
+  public long getKeyType() {
+    return keyType;
+  }
+
+  iaik.pkcs.pkcs11.objects.PrivateKey getKey() {
+    return key;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * The key cannot be encoded.
+   *
+   * @return null.
+   */
+  @Override
+  public String getFormat() {
+    return null;
+  }
+
+  /**
+   * The key cannot be encoded.
+   *
+   * @return null.
+   */
+  @Override
+  public byte[] getEncoded() {
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("PKCS11PrivateKey: algorithm: ", algorithm,
+        ", handle: ", getHandle());
+  }
+
+}
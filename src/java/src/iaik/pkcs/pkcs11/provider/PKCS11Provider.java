@@ -0,0 +1,425 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.MechanismCatalog;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.io.Closeable;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JCA provider whose Signature, Cipher and Mac engines run on the token of
+ * a {@link SessionPool}. Only the algorithms whose mechanisms the token
+ * supports are registered.
+ * <ul>
+ *   <li>Signature: SHA*withRSA, NONEwithRSA, SHA*withRSAandMGF1,
+ *     RSASSA-PSS, SHA*withECDSA and NONEwithECDSA.</li>
+ *   <li>Cipher: AES/ECB/NoPadding, AES/CBC/NoPadding, AES/CBC/PKCS5Padding,
+ *     AES/GCM/NoPadding, RSA/ECB/PKCS1Padding and RSA/ECB/OAEPPadding.</li>
+ *   <li>Mac: HmacSHA1, HmacSHA224, HmacSHA256, HmacSHA384 and
+ *     HmacSHA512.</li>
+ *   <li>KeyStore: PKCS11, a read-only key store over the keys and
+ *     certificates of the token. Loading it indexes only the aliases, the
+ *     keys and certificates are read on first use.</li>
+ * </ul>
+ * An engine collects up to 64 KiB of data and borrows a session only for
+ * the final operation, which is a single C_*Init and C_Sign, C_Verify,
+ * C_Encrypt or C_Decrypt. Beyond 64 KiB, the engine starts a multi-part
+ * operation and keeps the session until the final function; except for
+ * RSA and AES-GCM ciphers, which always collect the data. Private and
+ * secret keys of the token are got with {@link #getPrivateKey(String)} and
+ * {@link #getSecretKey(String)}. Public keys and raw secret keys are
+ * imported into the token as session objects and cached, until
+ * {@link #close()} is called.
+ * <p>
+ * The provider is not signed, so that it can be used for Cipher and Mac only
+ * with JDKs which do not verify the JCE providers, e.g. OpenJDK.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public final class PKCS11Provider extends Provider implements Closeable {
+
+  public static final int DEFAULT_KEYSTORE_CACHE_SIZE = 1000;
+
+  private static final long serialVersionUID = 1L;
+
+  private static final String SIGNATURE = "Signature";
+
+  private static final String CIPHER = "Cipher";
+
+  private static final String MAC = "Mac";
+
+  private static final String KEYSTORE = "KeyStore";
+
+  /**
+   * The signature algorithms without parameters and their mechanisms.
+   */
+  private static final Object[][] SIGNATURES = {
+    {"SHA1withRSA", PKCS11Constants.CKM_SHA1_RSA_PKCS},
+    {"SHA224withRSA", PKCS11Constants.CKM_SHA224_RSA_PKCS},
+    {"SHA256withRSA", PKCS11Constants.CKM_SHA256_RSA_PKCS},
+    {"SHA384withRSA", PKCS11Constants.CKM_SHA384_RSA_PKCS},
+    {"SHA512withRSA", PKCS11Constants.CKM_SHA512_RSA_PKCS},
+    {"NONEwithRSA", PKCS11Constants.CKM_RSA_PKCS},
+    {"SHA1withRSAandMGF1", PKCS11Constants.CKM_SHA1_RSA_PKCS_PSS},
+    {"SHA224withRSAandMGF1", PKCS11Constants.CKM_SHA224_RSA_PKCS_PSS},
+    {"SHA256withRSAandMGF1", PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS},
+    {"SHA384withRSAandMGF1", PKCS11Constants.CKM_SHA384_RSA_PKCS_PSS},
+    {"SHA512withRSAandMGF1", PKCS11Constants.CKM_SHA512_RSA_PKCS_PSS},
+    {"SHA1withECDSA", PKCS11Constants.CKM_ECDSA_SHA1},
+    {"SHA224withECDSA", PKCS11Constants.CKM_ECDSA_SHA224},
+    {"SHA256withECDSA", PKCS11Constants.CKM_ECDSA_SHA256},
+    {"SHA384withECDSA", PKCS11Constants.CKM_ECDSA_SHA384},
+    {"SHA512withECDSA", PKCS11Constants.CKM_ECDSA_SHA512},
+    {"NONEwithECDSA", PKCS11Constants.CKM_ECDSA}};
+
+  /**
+   * The cipher transformations and their mechanisms.
+   */
+  private static final Object[][] CIPHERS = {
+    {"AES/ECB/NoPadding", PKCS11Constants.CKM_AES_ECB},
+    {"AES/CBC/NoPadding", PKCS11Constants.CKM_AES_CBC},
+    {"AES/CBC/PKCS5Padding", PKCS11Constants.CKM_AES_CBC_PAD},
+    {"AES/GCM/NoPadding", PKCS11Constants.CKM_AES_GCM},
+    {"RSA/ECB/PKCS1Padding", PKCS11Constants.CKM_RSA_PKCS},
+    {"RSA/ECB/OAEPPadding", PKCS11Constants.CKM_RSA_PKCS_OAEP}};
+
+  /**
+   * The MAC algorithms, their mechanisms and MAC lengths.
+   */
+  private static final Object[][] MACS = {
+    {"HmacSHA1", PKCS11Constants.CKM_SHA_1_HMAC, 20},
+    {"HmacSHA224", PKCS11Constants.CKM_SHA224_HMAC, 28},
+    {"HmacSHA256", PKCS11Constants.CKM_SHA256_HMAC, 32},
+    {"HmacSHA384", PKCS11Constants.CKM_SHA384_HMAC, 48},
+    {"HmacSHA512", PKCS11Constants.CKM_SHA512_HMAC, 64}};
+
+  /**
+   * Service which creates the engines without reflection, and which
+   * accepts only keys the engine can use.
+   */
+  private final class PKCS11Service extends Service {
+
+    private final long mechanismCode;
+
+    private final int macLength;
+
+    PKCS11Service(String type, String algorithm, List<String> aliases,
+        long mechanismCode, int macLength) {
+      super(PKCS11Provider.this, type, algorithm,
+          PKCS11Service.class.getName(), aliases, null);
+      this.mechanismCode = mechanismCode;
+      this.macLength = macLength;
+    }
+
+    @Override
+    public Object newInstance(Object constructorParameter)
+        throws NoSuchAlgorithmException {
+      String type = getType();
+      if (SIGNATURE.equals(type)) {
+        return new PKCS11SignatureSpi(PKCS11Provider.this, mechanismCode);
+      } else if (CIPHER.equals(type)) {
+        return new PKCS11CipherSpi(PKCS11Provider.this, mechanismCode,
+            getAlgorithm());
+      } else if (MAC.equals(type)) {
+        return new PKCS11MacSpi(PKCS11Provider.this, mechanismCode,
+            macLength);
+      } else if (KEYSTORE.equals(type)) {
+        return new PKCS11KeyStoreSpi(PKCS11Provider.this,
+            keyStoreCacheSize);
+      } else {
+        throw new NoSuchAlgorithmException("unknown service type " + type);
+      }
+    }
+
+    @Override
+    public boolean supportsParameter(Object parameter) {
+      if (parameter == null) {
+        return true;
+      } else if (!(parameter instanceof java.security.Key)) {
+        return false;
+      }
+
+      java.security.Key key = (java.security.Key) parameter;
+      if (key instanceof PrivateKey && !(key instanceof PKCS11PrivateKey)) {
+        // private keys cannot be imported
+        return false;
+      }
+
+      String keyAlgorithm = key.getAlgorithm();
+      String algorithm = getAlgorithm();
+      if (MAC.equals(getType())) {
+        return key instanceof PKCS11SecretKey || "RAW".equals(key.getFormat());
+      } else if (algorithm.startsWith("AES/")) {
+        return "AES".equals(keyAlgorithm);
+      } else if (algorithm.endsWith("ECDSA")) {
+        return "EC".equals(keyAlgorithm);
+      } else {
+        return "RSA".equals(keyAlgorithm);
+      }
+    }
+
+  }
+
+  private final transient SessionPool sessionPool;
+
+  private final transient MechanismCatalog mechanismCatalog;
+
+  private final transient ImportedKeys importedKeys;
+
+  private volatile int keyStoreCacheSize = DEFAULT_KEYSTORE_CACHE_SIZE;
+
+  /**
+   * Constructor.
+   *
+   * @param name
+   *          The name of the provider.
+   * @param sessionPool
+   *          The pool of the sessions. The pool is not closed by this
+   *          provider.
+   * @throws TokenException
+   *           If the mechanisms of the token cannot be read.
+   */
+  // Provider(String, String, String) requires Java 9, this library Java 8
+  @SuppressWarnings("deprecation")
+  public PKCS11Provider(String name, SessionPool sessionPool)
+      throws TokenException {
+    super(name, 1.0, "PKCS#11 provider for the token "
+        + sessionPool.getToken().getTokenInfo().getLabel().trim());
+    this.sessionPool = sessionPool;
+    this.mechanismCatalog = sessionPool.getToken().getMechanismCatalog();
+    this.importedKeys = new ImportedKeys(this);
+
+    boolean pss = false;
+    for (Object[] entry : SIGNATURES) {
+      long code = (Long) entry[1];
+      if (supports(code)) {
+        putService(new PKCS11Service(SIGNATURE, (String) entry[0], null,
+            code, 0));
+        pss |= isPss(code);
+      }
+    }
+
+    if (pss) {
+      putService(new PKCS11Service(SIGNATURE, "RSASSA-PSS", null, -1, 0));
+    }
+
+    for (Object[] entry : CIPHERS) {
+      long code = (Long) entry[1];
+      if (supports(code)) {
+        List<String> aliases = (code == PKCS11Constants.CKM_RSA_PKCS_OAEP)
+            ? Arrays.asList("RSA/ECB/OAEPWithSHA-1AndMGF1Padding") : null;
+        putService(new PKCS11Service(CIPHER, (String) entry[0], aliases,
+            code, 0));
+      }
+    }
+
+    for (Object[] entry : MACS) {
+      long code = (Long) entry[1];
+      if (supports(code)) {
+        putService(new PKCS11Service(MAC, (String) entry[0], null, code,
+            (Integer) entry[2]));
+      }
+    }
+
+    putService(new PKCS11Service(KEYSTORE, "PKCS11", null, 0, 0));
+  }
+
+  private static boolean isPss(long code) {
+    return code == PKCS11Constants.CKM_SHA1_RSA_PKCS_PSS
+        || code == PKCS11Constants.CKM_SHA224_RSA_PKCS_PSS
+        || code == PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS
+        || code == PKCS11Constants.CKM_SHA384_RSA_PKCS_PSS
+        || code == PKCS11Constants.CKM_SHA512_RSA_PKCS_PSS;
+  }
+
+  public SessionPool getSessionPool() {
+    return sessionPool;
+  }
+
+  ImportedKeys getImportedKeys() {
+    return importedKeys;
+  }
+
+  boolean supports(long mechanismCode) {
+    return mechanismCatalog.supports(mechanismCode);
+  }
+
+  /**
+   * Returns the private key with the given label.
+   *
+   * @param label
+   *          The label of the private key.
+   * @return the private key, or null if there is no such key.
+   * @throws TokenException
+   *           If the key cannot be searched or read.
+   */
+  public PKCS11PrivateKey getPrivateKey(String label) throws TokenException {
+    Session session = sessionPool.borrow();
+    TokenException error = null;
+    try {
+      long handle = sessionPool.getToken().getKeyHandleResolver()
+          .resolveByLabel(session, PKCS11Constants.CKO_PRIVATE_KEY, label);
+      return (handle == PKCS11Constants.CK_INVALID_HANDLE)
+          ? null : PKCS11PrivateKey.getInstance(session, handle);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      sessionPool.release(session, error);
+    }
+  }
+
+  /**
+   * Returns the private key with the given id.
+   *
+   * @param id
+   *          The id (CKA_ID) of the private key.
+   * @return the private key, or null if there is no such key.
+   * @throws TokenException
+   *           If the key cannot be searched or read.
+   */
+  public PKCS11PrivateKey getPrivateKeyById(byte[] id)
+      throws TokenException {
+    Session session = sessionPool.borrow();
+    TokenException error = null;
+    try {
+      long handle = sessionPool.getToken().getKeyHandleResolver()
+          .resolveById(session, PKCS11Constants.CKO_PRIVATE_KEY, id);
+      return (handle == PKCS11Constants.CK_INVALID_HANDLE)
+          ? null : PKCS11PrivateKey.getInstance(session, handle);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      sessionPool.release(session, error);
+    }
+  }
+
+  /**
+   * Returns the private key with the given handle.
+   *
+   * @param handle
+   *          The handle of the private key.
+   * @return the private key.
+   * @throws TokenException
+   *           If the key cannot be read.
+   */
+  public PKCS11PrivateKey getPrivateKey(long handle) throws TokenException {
+    Session session = sessionPool.borrow();
+    TokenException error = null;
+    try {
+      return PKCS11PrivateKey.getInstance(session, handle);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      sessionPool.release(session, error);
+    }
+  }
+
+  /**
+   * Returns the secret key with the given label.
+   *
+   * @param label
+   *          The label of the secret key.
+   * @return the secret key, or null if there is no such key.
+   * @throws TokenException
+   *           If the key cannot be searched or read.
+   */
+  public PKCS11SecretKey getSecretKey(String label) throws TokenException {
+    Session session = sessionPool.borrow();
+    TokenException error = null;
+    try {
+      long handle = sessionPool.getToken().getKeyHandleResolver()
+          .resolveByLabel(session, PKCS11Constants.CKO_SECRET_KEY, label);
+      return (handle == PKCS11Constants.CK_INVALID_HANDLE)
+          ? null : PKCS11SecretKey.getInstance(session, handle);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      sessionPool.release(session, error);
+    }
+  }
+
+  /**
+   * Returns the secret key with the given handle.
+   *
+   * @param handle
+   *          The handle of the secret key.
+   * @return the secret key.
+   * @throws TokenException
+   *           If the key cannot be read.
+   */
+  public PKCS11SecretKey getSecretKey(long handle) throws TokenException {
+    Session session = sessionPool.borrow();
+    TokenException error = null;
+    try {
+      return PKCS11SecretKey.getInstance(session, handle);
+    } catch (TokenException ex) {
+      error = ex;
+      throw ex;
+    } finally {
+      sessionPool.release(session, error);
+    }
+  }
+
+  /**
+   * Sets the maximal number of imported public and secret keys, the least
+   * recently used keys above are destroyed.
+   *
+   * @param maxSize
+   *          The maximal number of imported keys.
+   */
+  public void setMaxImportedKeys(int maxSize) {
+    importedKeys.setMaxSize(maxSize);
+  }
+
+  /**
+   * Sets the maximal number of keys, certificates and certificate chains
+   * cached by each key store created afterwards.
+   *
+   * @param cacheSize
+   *          The maximal number of cached objects.
+   */
+  public void setKeyStoreCacheSize(int cacheSize) {
+    if (cacheSize < 1) {
+      throw new IllegalArgumentException("cacheSize must be at least 1");
+    }
+    this.keyStoreCacheSize = cacheSize;
+  }
+
+  /**
+   * Destroys the imported keys. The session pool is not closed.
+   */
+  @Override
+  public void close() {
+    importedKeys.clear();
+  }
+
+}
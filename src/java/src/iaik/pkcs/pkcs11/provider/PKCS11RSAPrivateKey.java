@@ -0,0 +1,47 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import java.math.BigInteger;
+import java.security.interfaces.RSAKey;
+
+/**
+ * An RSA private key on the token.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class PKCS11RSAPrivateKey extends PKCS11PrivateKey implements RSAKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final BigInteger modulus;
+
+  PKCS11RSAPrivateKey(long handle, BigInteger modulus) {
+    super("RSA", PKCS11Constants.CKK_RSA, handle);
+    this.modulus = modulus;
+  }
+
+  @Override
+  public BigInteger getModulus() {
+    return modulus;
+  }
+
+}
@@ -0,0 +1,133 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A secret key on the token, referenced by its object handle. The key
+ * value never leaves the token, {@link #getEncoded()} returns null.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class PKCS11SecretKey implements SecretKey {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String algorithm;
+
+  private final long keyType;
+
+  /**
+   * The key passed to the {@link Session} methods, only its handle is set.
+   */
+  private final transient iaik.pkcs.pkcs11.objects.SecretKey key;
+
+  PKCS11SecretKey(String algorithm, long keyType, long handle) {
+    this.algorithm = algorithm;
+    this.keyType = keyType;
+    this.key = new iaik.pkcs.pkcs11.objects.SecretKey();
+    this.key.setObjectHandle(handle);
+  }
+
+  /**
+   * Creates the secret key of the given handle and reads its key type.
+   *
+   * @param session
+   *          The session to read the key type.
+   * @param handle
+   *          The handle of the secret key.
+   * @return the secret key.
+   * @throws TokenException
+   *           If the key type cannot be read.
+   */
+  static PKCS11SecretKey getInstance(Session session, long handle)
+      throws TokenException {
+    long keyType = PKCS11PrivateKey.readAttribute(session, handle,
+        PKCS11Constants.CKA_KEY_TYPE).getLong();
+    String algorithm;
+    if (keyType == PKCS11Constants.CKK_AES) {
+      algorithm = "AES";
+    } else if (keyType == PKCS11Constants.CKK_DES3) {
+      algorithm = "DESede";
+    } else {
+      algorithm = "GenericSecret";
+    }
+    return new PKCS11SecretKey(algorithm, keyType, handle);
+  }
+
+  /**
+   * Returns the handle of the key object.
+   *
+   * @return the object handle.
+   */
+  public long getHandle() {
+    return key.getObjectHandle();
+  }
+
+  /**
+   * Returns the key type.
+   *
+   * @return the key type, e.g. PKCS11Constants.CKK_AES.
+   */
+  public long getKeyType() {
+    return keyType;
+  }
+
+  iaik.pkcs.pkcs11.objects.SecretKey getKey() {
+    return key;
+  }
+
+  @Override
+  public String getAlgorithm() {
+    return algorithm;
+  }
+
+  /**
+   * The key cannot be encoded.
+   *
+   * @return null.
+   */
+  @Override
+  public String getFormat() {
+    return null;
+  }
+
+  /**
+   * The key cannot be encoded.
+   *
+   * @return null.
+   */
+  @Override
+  public byte[] getEncoded() {
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return Util.concatObjects("PKCS11SecretKey: algorithm: ", algorithm,
+        ", handle: ", getHandle());
+  }
+
+}
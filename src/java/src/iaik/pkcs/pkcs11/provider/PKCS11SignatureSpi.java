@@ -0,0 +1,486 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.provider;
+
+import iaik.pkcs.pkcs11.Mechanism;
+import iaik.pkcs.pkcs11.Session;
+import iaik.pkcs.pkcs11.SessionPool;
+import iaik.pkcs.pkcs11.TokenException;
+import iaik.pkcs.pkcs11.objects.Key;
+import iaik.pkcs.pkcs11.parameters.RSAPkcsPssParameters;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Exception;
+
+import java.nio.ByteBuffer;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.InvalidParameterException;
+import java.security.PrivateKey;
+import java.security.ProviderException;
+import java.security.PublicKey;
+import java.security.SignatureException;
+import java.security.SignatureSpi;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PSSParameterSpec;
+
+/**
+ * Signature engine for RSA (PKCS#1 v1.5 and PSS) and ECDSA. Up to
+ * {@link DataBuffer#MAX_SIZE} bytes are collected by the update methods,
+ * and signed or verified by a single C_Sign or C_Verify in a session
+ * borrowed from the pool, so that a signature takes one session for two
+ * calls only. Larger data is passed by C_SignUpdate or C_VerifyUpdate in a
+ * session borrowed until the signature is finished. Signing requires a
+ * {@link PKCS11PrivateKey}, public keys for the verification are imported
+ * into the token.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class PKCS11SignatureSpi extends SignatureSpi {
+
+  /**
+   * The digests supported by RSA-PSS.
+   */
+  private static final String[] PSS_DIGESTS =
+      {"SHA-1", "SHA-224", "SHA-256", "SHA-384", "SHA-512"};
+
+  /**
+   * Hash mechanism, MGF, PSS mechanism and hash length of each digest in
+   * {@link #PSS_DIGESTS}.
+   */
+  private static final long[][] PSS_PARAMS = {
+    {PKCS11Constants.CKM_SHA_1, PKCS11Constants.CKG_MGF1_SHA1,
+      PKCS11Constants.CKM_SHA1_RSA_PKCS_PSS, 20},
+    {PKCS11Constants.CKM_SHA224, PKCS11Constants.CKG_MGF1_SHA224,
+      PKCS11Constants.CKM_SHA224_RSA_PKCS_PSS, 28},
+    {PKCS11Constants.CKM_SHA256, PKCS11Constants.CKG_MGF1_SHA256,
+      PKCS11Constants.CKM_SHA256_RSA_PKCS_PSS, 32},
+    {PKCS11Constants.CKM_SHA384, PKCS11Constants.CKG_MGF1_SHA384,
+      PKCS11Constants.CKM_SHA384_RSA_PKCS_PSS, 48},
+    {PKCS11Constants.CKM_SHA512, PKCS11Constants.CKG_MGF1_SHA512,
+      PKCS11Constants.CKM_SHA512_RSA_PKCS_PSS, 64}};
+
+  private final PKCS11Provider provider;
+
+  private final boolean ecdsa;
+
+  /**
+   * Whether the PSS parameters are given by setParameter (RSASSA-PSS).
+   */
+  private final boolean pssWithParameters;
+
+  private final DataBuffer data = new DataBuffer();
+
+  private Mechanism mechanism;
+
+  private PSSParameterSpec pssParameterSpec;
+
+  private EngineKey key;
+
+  private boolean signing;
+
+  /**
+   * The session of a multi-part operation, null if the data is collected.
+   */
+  private Session session;
+
+  /**
+   * The length of the curve order in bytes, for the verification of ECDSA
+   * signatures.
+   */
+  private int orderLength;
+
+  /**
+   * Constructor.
+   *
+   * @param provider
+   *          The provider.
+   * @param mechanismCode
+   *          The mechanism, -1 for RSASSA-PSS.
+   */
+  PKCS11SignatureSpi(PKCS11Provider provider, long mechanismCode) {
+    this.provider = provider;
+    this.pssWithParameters = mechanismCode == -1;
+    if (pssWithParameters) {
+      this.ecdsa = false;
+      return;
+    }
+
+    this.ecdsa = mechanismCode == PKCS11Constants.CKM_ECDSA
+        || mechanismCode == PKCS11Constants.CKM_ECDSA_SHA1
+        || mechanismCode == PKCS11Constants.CKM_ECDSA_SHA224
+        || mechanismCode == PKCS11Constants.CKM_ECDSA_SHA256
+        || mechanismCode == PKCS11Constants.CKM_ECDSA_SHA384
+        || mechanismCode == PKCS11Constants.CKM_ECDSA_SHA512;
+    this.mechanism = Mechanism.get(mechanismCode);
+    for (long[] params : PSS_PARAMS) {
+      if (params[2] == mechanismCode) {
+        // the salt has the length of the hash, as usual
+        mechanism.setParameters(
+            new RSAPkcsPssParameters(params[0], params[1], params[3]));
+      }
+    }
+  }
+
+  @Override
+  protected void engineInitSign(PrivateKey privateKey)
+      throws InvalidKeyException {
+    if (!(privateKey instanceof PKCS11PrivateKey)) {
+      throw new InvalidKeyException("only PKCS11PrivateKey is supported");
+    }
+
+    String algorithm = privateKey.getAlgorithm();
+    if (!(ecdsa ? "EC" : "RSA").equals(algorithm)) {
+      throw new InvalidKeyException("unsupported key algorithm "
+          + algorithm);
+    }
+
+    abort();
+    key = new EngineKey(((PKCS11PrivateKey) privateKey).getKey());
+    signing = true;
+    data.reset();
+  }
+
+  @Override
+  protected void engineInitVerify(PublicKey publicKey)
+      throws InvalidKeyException {
+    if (ecdsa) {
+      if (!(publicKey instanceof ECPublicKey)) {
+        throw new InvalidKeyException("EC public key required");
+      }
+      orderLength = (((ECPublicKey) publicKey).getParams().getOrder()
+          .bitLength() + 7) / 8;
+    } else if (!(publicKey instanceof RSAPublicKey)) {
+      throw new InvalidKeyException("RSA public key required");
+    }
+
+    abort();
+    if (key == null || !key.isImportOf(publicKey)) {
+      key = new EngineKey(provider.getImportedKeys(),
+          ImportedKeys.publicKeyId(publicKey));
+    }
+    signing = false;
+    data.reset();
+  }
+
+  @Override
+  protected void engineUpdate(byte b) throws SignatureException {
+    checkInitialized();
+    if (session == null && data.size() < DataBuffer.MAX_SIZE) {
+      data.write(b);
+    } else {
+      update(new byte[]{b}, 0, 1);
+    }
+  }
+
+  @Override
+  protected void engineUpdate(byte[] b, int off, int len)
+      throws SignatureException {
+    checkInitialized();
+    if (session == null && data.size() + len <= DataBuffer.MAX_SIZE) {
+      data.write(b, off, len);
+    } else {
+      update(b, off, len);
+    }
+  }
+
+  /**
+   * Copies the input directly into the data buffer, without the temporary
+   * array of the default implementation. In a multi-part operation, the
+   * array of a heap buffer is passed to the token without copying, other
+   * buffers are copied by the default implementation.
+   */
+  @Override
+  protected void engineUpdate(ByteBuffer input) {
+    int len = input.remaining();
+    if (session == null && data.size() + len <= DataBuffer.MAX_SIZE) {
+      data.write(input);
+    } else if (input.hasArray()) {
+      try {
+        engineUpdate(input.array(), input.arrayOffset() + input.position(),
+            len);
+      } catch (SignatureException ex) {
+        throw new ProviderException(ex.getMessage(), ex);
+      }
+      input.position(input.limit());
+    } else {
+      super.engineUpdate(input);
+    }
+  }
+
+  /**
+   * Passes the data to the token, and starts the multi-part operation with
+   * the collected data if not done yet.
+   */
+  private void update(byte[] b, int off, int len) throws SignatureException {
+    SessionPool pool = provider.getSessionPool();
+    if (session == null) {
+      Session newSession = borrow(pool);
+      try {
+        if (signing) {
+          newSession.signInit(getMechanism(), acquireKey());
+          newSession.signUpdate(data.array(), 0, data.size());
+        } else {
+          newSession.verifyInit(getMechanism(), acquireKey());
+          newSession.verifyUpdate(data.array(), 0, data.size());
+        }
+      } catch (TokenException ex) {
+        key.release(ex);
+        pool.release(newSession, ex);
+        data.reset();
+        throw new SignatureException(ex.getMessage(), ex);
+      } catch (SignatureException ex) {
+        key.release(null);
+        pool.release(newSession);
+        throw ex;
+      }
+      session = newSession;
+      data.reset();
+    }
+
+    try {
+      if (signing) {
+        session.signUpdate(b, off, len);
+      } else {
+        session.verifyUpdate(b, off, len);
+      }
+    } catch (TokenException ex) {
+      key.release(ex);
+      pool.release(session, ex);
+      session = null;
+      throw new SignatureException(ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Closes the session of an unfinished multi-part operation, which cannot
+   * be cancelled otherwise.
+   */
+  private void abort() {
+    if (session != null) {
+      provider.getSessionPool().discard(session);
+      session = null;
+      key.release(null);
+    }
+  }
+
+  @Override
+  protected byte[] engineSign() throws SignatureException {
+    checkInitialized();
+    if (!signing) {
+      throw new SignatureException("not initialized for signing");
+    }
+
+    SessionPool pool = provider.getSessionPool();
+    boolean multiPart = this.session != null;
+    Session session = multiPart ? this.session : borrow(pool);
+    this.session = null;
+    TokenException error = null;
+    byte[] signature;
+    try {
+      if (multiPart) {
+        signature = session.signFinal(0);
+      } else {
+        session.signInit(getMechanism(), acquireKey());
+        signature = session.sign(data.toByteArray());
+      }
+    } catch (TokenException ex) {
+      error = ex;
+      throw new SignatureException("could not sign: " + ex.getMessage(),
+          ex);
+    } finally {
+      key.release(error);
+      pool.release(session, error);
+      data.reset();
+    }
+
+    return ecdsa ? Der.encodeEcdsaSignature(signature) : signature;
+  }
+
+  @Override
+  protected boolean engineVerify(byte[] sigBytes) throws SignatureException {
+    checkInitialized();
+    if (signing) {
+      throw new SignatureException("not initialized for verification");
+    }
+
+    byte[] signature;
+    try {
+      signature = ecdsa
+          ? Der.decodeEcdsaSignature(sigBytes, orderLength) : sigBytes;
+    } catch (SignatureException ex) {
+      abort();
+      data.reset();
+      throw ex;
+    }
+
+    SessionPool pool = provider.getSessionPool();
+    boolean multiPart = this.session != null;
+    Session session = multiPart ? this.session : borrow(pool);
+    this.session = null;
+    TokenException error = null;
+    try {
+      if (multiPart) {
+        session.verifyFinal(signature);
+      } else {
+        session.verifyInit(getMechanism(), acquireKey());
+        session.verify(data.toByteArray(), signature);
+      }
+      return true;
+    } catch (PKCS11Exception ex) {
+      long code = ex.getErrorCode();
+      if (code == PKCS11Constants.CKR_SIGNATURE_INVALID
+          || code == PKCS11Constants.CKR_SIGNATURE_LEN_RANGE) {
+        return false;
+      }
+      error = ex;
+      throw new SignatureException("could not verify: " + ex.getMessage(),
+          ex);
+    } catch (TokenException ex) {
+      error = ex;
+      throw new SignatureException("could not verify: " + ex.getMessage(),
+          ex);
+    } finally {
+      key.release(error);
+      pool.release(session, error);
+      data.reset();
+    }
+  }
+
+  @Override
+  protected void engineSetParameter(AlgorithmParameterSpec params)
+      throws InvalidAlgorithmParameterException {
+    if (!pssWithParameters) {
+      if (params == null) {
+        return;
+      }
+      throw new InvalidAlgorithmParameterException(
+          "no parameters supported");
+    }
+
+    if (!(params instanceof PSSParameterSpec)) {
+      throw new InvalidAlgorithmParameterException(
+          "PSSParameterSpec required");
+    }
+
+    PSSParameterSpec spec = (PSSParameterSpec) params;
+    String digest = spec.getDigestAlgorithm();
+    int index = -1;
+    for (int i = 0; i < PSS_DIGESTS.length; i++) {
+      if (PSS_DIGESTS[i].equalsIgnoreCase(digest)) {
+        index = i;
+        break;
+      }
+    }
+
+    if (index == -1 || !"MGF1".equalsIgnoreCase(spec.getMGFAlgorithm())
+        || !(spec.getMGFParameters() instanceof MGF1ParameterSpec)
+        || !digest.equalsIgnoreCase(((MGF1ParameterSpec)
+            spec.getMGFParameters()).getDigestAlgorithm())
+        || spec.getTrailerField() != 1) {
+      throw new InvalidAlgorithmParameterException(
+          "unsupported PSS parameters");
+    }
+
+    long[] pssParams = PSS_PARAMS[index];
+    if (!provider.supports(pssParams[2])) {
+      throw new InvalidAlgorithmParameterException(
+          "token does not support RSA-PSS with " + digest);
+    }
+
+    Mechanism newMechanism = Mechanism.get(pssParams[2]);
+    newMechanism.setParameters(new RSAPkcsPssParameters(pssParams[0],
+        pssParams[1], spec.getSaltLength()));
+    mechanism = newMechanism;
+    pssParameterSpec = spec;
+  }
+
+  @Override
+  protected AlgorithmParameters engineGetParameters() {
+    if (pssParameterSpec == null) {
+      return null;
+    }
+
+    try {
+      AlgorithmParameters params =
+          AlgorithmParameters.getInstance("RSASSA-PSS");
+      params.init(pssParameterSpec);
+      return params;
+    } catch (GeneralSecurityException ex) {
+      // not supported by JDK 8
+      return null;
+    }
+  }
+
+  /**
+   * Deprecated by the JCA, not supported.
+   */
+  @Override
+  @Deprecated
+  protected void engineSetParameter(String param, Object value) {
+    throw new InvalidParameterException("parameter not supported");
+  }
+
+  /**
+   * Deprecated by the JCA, not supported.
+   */
+  @Override
+  @Deprecated
+  protected Object engineGetParameter(String param) {
+    throw new InvalidParameterException("parameter not supported");
+  }
+
+  private Mechanism getMechanism() throws SignatureException {
+    if (mechanism == null) {
+      throw new SignatureException("PSS parameters not set");
+    }
+    return mechanism;
+  }
+
+  /**
+   * Returns the key for the init function, an imported key is leased until
+   * the operation is finished.
+   */
+  private Key acquireKey() throws SignatureException {
+    try {
+      return key.acquire();
+    } catch (InvalidKeyException ex) {
+      throw new SignatureException(ex.getMessage(), ex);
+    }
+  }
+
+  private void checkInitialized() throws SignatureException {
+    if (key == null) {
+      throw new SignatureException("signature not initialized");
+    }
+  }
+
+  private static Session borrow(SessionPool pool) throws SignatureException {
+    try {
+      return pool.borrow();
+    } catch (TokenException ex) {
+      throw new SignatureException(ex.getMessage(), ex);
+    }
+  }
+
+}
@@ -0,0 +1,1565 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.simulator;
+
+import iaik.pkcs.pkcs11.Backend;
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.simulator.SimulatedCrypto.CipherOperation;
+import iaik.pkcs.pkcs11.simulator.SimulatedCrypto.SignatureOperation;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_INFO;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.CK_NOTIFY;
+import sun.security.pkcs11.wrapper.CK_SESSION_INFO;
+import sun.security.pkcs11.wrapper.CK_SLOT_INFO;
+import sun.security.pkcs11.wrapper.CK_TOKEN_INFO;
+import sun.security.pkcs11.wrapper.CK_VERSION;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A {@link Backend} with one slot holding an in-memory token, for tests and
+ * benchmarks without a hardware security module:
+ * <pre>
+ * SimulatedBackend backend = new SimulatedBackend();
+ * backend.setLatency(200000, 50000); // 200 us + up to 50 us per call
+ * backend.setMaxConcurrentCalls(4);  // four cores on the "HSM"
+ * Module module = new Module(backend);
+ * module.initialize(null);
+ * </pre>
+ * The token supports the mechanisms of {@link SimulatedCrypto}: RSA and EC
+ * key pair generation, RSA PKCS#1 v1.5 signatures and encryption, ECDSA,
+ * ECDH key derivation, AES ECB, CBC and key wrap, HMAC and SHA digests. It
+ * has a single PIN, which is used for the user and the security officer.
+ * <p>
+ * The behaviour of the token can be configured at any time:
+ * <ul>
+ *   <li>the latency and jitter of every call, or of single functions,</li>
+ *   <li>the number of calls processed in parallel; further calls wait,</li>
+ *   <li>the rate of calls failing with a given error code,</li>
+ *   <li>the rate of calls whose session is lost, and</li>
+ *   <li>the removal and the re-insertion of the token.</li>
+ * </ul>
+ * The random decisions use a {@link Random} which can be seeded to make
+ * runs reproducible.
+ * <p>
+ * Unlike a real token, CKR_BUFFER_TOO_SMALL terminates the active
+ * operation, and C_GetOperationState, C_SetOperationState, C_DigestKey and
+ * the functions with message recovery return CKR_FUNCTION_NOT_SUPPORTED.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+public class SimulatedBackend implements Backend {
+
+  /**
+   * Latency of a function.
+   */
+  private static final class Latency {
+
+    private final long latencyNanos;
+
+    private final long jitterNanos;
+
+    private Latency(long latencyNanos, long jitterNanos) {
+      if (latencyNanos < 0 || jitterNanos < 0) {
+        throw new IllegalArgumentException(
+            "latencyNanos and jitterNanos must not be negative");
+      }
+      this.latencyNanos = latencyNanos;
+      this.jitterNanos = jitterNanos;
+    }
+
+  }
+
+  /**
+   * Injected failures of a function.
+   */
+  private static final class Fault {
+
+    private final double rate;
+
+    private final long errorCode;
+
+    private Fault(double rate, long errorCode) {
+      checkRate("rate", rate);
+      this.rate = rate;
+      this.errorCode = errorCode;
+    }
+
+  }
+
+  /**
+   * The identifier of the only slot.
+   */
+  public static final long SLOT_ID = 0;
+
+  private static final long NOT_LOGGED_IN = -1;
+
+  private static final long NO_SESSION = 0;
+
+  private static final Latency NO_LATENCY = new Latency(0, 0);
+
+  private static final Fault NO_FAULT = new Fault(0, 0);
+
+  private final String tokenLabel;
+
+  private final char[] pin;
+
+  private final AtomicLong nextSessionHandle = new AtomicLong(1);
+
+  private final AtomicLong nextObjectHandle = new AtomicLong(1);
+
+  private final ConcurrentMap<Long, SimulatedSession> sessions =
+      new ConcurrentHashMap<>();
+
+  private final ConcurrentMap<Long, SimulatedObject> objects =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Guards the login state and the opening and closing of sessions.
+   */
+  private final Object sessionLock = new Object();
+
+  private long loggedInUser = NOT_LOGGED_IN;
+
+  private volatile boolean tokenPresent = true;
+
+  private final BlockingQueue<Long> slotEvents = new LinkedBlockingQueue<>();
+
+  private final ConcurrentMap<String, AtomicLong> callCounts =
+      new ConcurrentHashMap<>();
+
+  private final Random random = new Random();
+
+  private volatile Latency latency = NO_LATENCY;
+
+  private final ConcurrentMap<String, Latency> functionLatencies =
+      new ConcurrentHashMap<>();
+
+  private volatile Semaphore concurrencyLimit;
+
+  private volatile Fault fault = NO_FAULT;
+
+  private final ConcurrentMap<String, Fault> functionFaults =
+      new ConcurrentHashMap<>();
+
+  private volatile double sessionLossRate;
+
+  /**
+   * Creates a token labeled "simulated" with the PIN "1234".
+   */
+  public SimulatedBackend() {
+    this("simulated", "1234".toCharArray());
+  }
+
+  /**
+   * Creates a token.
+   *
+   * @param tokenLabel
+   *          The label of the token.
+   * @param pin
+   *          The PIN of the user and of the security officer.
+   */
+  public SimulatedBackend(String tokenLabel, char[] pin) {
+    this.tokenLabel = Util.requireNonNull("tokenLabel", tokenLabel);
+    this.pin = Util.requireNonNull("pin", pin).clone();
+  }
+
+  // configuration
+
+  /**
+   * Sets the latency of all functions without a latency of their own. Each
+   * call takes latencyNanos plus a uniformly distributed delay between 0
+   * and jitterNanos.
+   *
+   * @param latencyNanos
+   *          The minimal latency in nanoseconds.
+   * @param jitterNanos
+   *          The maximal additional latency in nanoseconds.
+   */
+  public void setLatency(long latencyNanos, long jitterNanos) {
+    this.latency = new Latency(latencyNanos, jitterNanos);
+  }
+
+  /**
+   * Sets the latency of a single function, e.g. C_Sign.
+   *
+   * @param function
+   *          The PKCS#11 function.
+   * @param latencyNanos
+   *          The minimal latency in nanoseconds.
+   * @param jitterNanos
+   *          The maximal additional latency in nanoseconds.
+   */
+  public void setLatency(String function, long latencyNanos,
+      long jitterNanos) {
+    functionLatencies.put(Util.requireNonNull("function", function),
+        new Latency(latencyNanos, jitterNanos));
+  }
+
+  /**
+   * Limits the number of calls processed in parallel, including their
+   * latency. Further calls wait until a call returns.
+   *
+   * @param maxConcurrentCalls
+   *          The maximal number of parallel calls, 0 for no limit.
+   */
+  public void setMaxConcurrentCalls(int maxConcurrentCalls) {
+    if (maxConcurrentCalls < 0) {
+      throw new IllegalArgumentException(
+          "maxConcurrentCalls must not be negative");
+    }
+    this.concurrencyLimit = (maxConcurrentCalls == 0) ? null
+        : new Semaphore(maxConcurrentCalls, true);
+  }
+
+  /**
+   * Lets the given share of the calls of all functions without failures of
+   * their own fail with the given error code.
+   *
+   * @param rate
+   *          The share of failing calls, between 0 and 1.
+   * @param errorCode
+   *          The error code of the failing calls, e.g. CKR_DEVICE_ERROR.
+   */
+  public void setFailureRate(double rate, long errorCode) {
+    this.fault = new Fault(rate, errorCode);
+  }
+
+  /**
+   * Lets the given share of the calls of a single function fail with the
+   * given error code.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @param rate
+   *          The share of failing calls, between 0 and 1.
+   * @param errorCode
+   *          The error code of the failing calls.
+   */
+  public void setFailureRate(String function, double rate, long errorCode) {
+    functionFaults.put(Util.requireNonNull("function", function),
+        new Fault(rate, errorCode));
+  }
+
+  /**
+   * Lets the given share of the calls on a session lose the session: the
+   * session is closed and the call fails with CKR_SESSION_HANDLE_INVALID,
+   * as after a reset of the device.
+   *
+   * @param rate
+   *          The share of the calls which lose their session, between 0
+   *          and 1.
+   */
+  public void setSessionLossRate(double rate) {
+    checkRate("rate", rate);
+    this.sessionLossRate = rate;
+  }
+
+  /**
+   * Seeds the random decisions about jitter, failures and lost sessions.
+   *
+   * @param seed
+   *          The seed.
+   */
+  public void setSeed(long seed) {
+    random.setSeed(seed);
+  }
+
+  /**
+   * Removes or inserts the token. Removing the token closes all sessions.
+   * Both raise a slot event.
+   *
+   * @param tokenPresent
+   *          Whether the token is present.
+   */
+  public void setTokenPresent(boolean tokenPresent) {
+    if (!tokenPresent) {
+      closeAllSessions();
+    }
+    this.tokenPresent = tokenPresent;
+    slotEvents.offer(SLOT_ID);
+  }
+
+  /**
+   * Closes all sessions and logs out, as after a reset of the device.
+   */
+  public void closeAllSessions() {
+    synchronized (sessionLock) {
+      for (Long handle : new ArrayList<>(sessions.keySet())) {
+        removeSession(handle);
+      }
+      loggedInUser = NOT_LOGGED_IN;
+    }
+  }
+
+  /**
+   * Returns the number of calls of a PKCS#11 function, including the
+   * failed ones.
+   *
+   * @param function
+   *          The PKCS#11 function, e.g. C_Sign.
+   * @return the number of calls.
+   */
+  public long getCallCount(String function) {
+    AtomicLong count = callCounts.get(function);
+    return (count == null) ? 0 : count.get();
+  }
+
+  /**
+   * Returns the number of open sessions.
+   *
+   * @return the number of open sessions.
+   */
+  public int getSessionCount() {
+    return sessions.size();
+  }
+
+  // general-purpose functions
+
+  @Override
+  public void C_Finalize(Object args) throws PKCS11Exception {
+    Semaphore permit = enter("C_Finalize", NO_SESSION);
+    try {
+      closeAllSessions();
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public CK_INFO C_GetInfo() throws PKCS11Exception {
+    Semaphore permit = enter("C_GetInfo", NO_SESSION);
+    try {
+      return new CK_INFO(new CK_VERSION(2, 40), pad("xipki", 32), 0L,
+          pad("Simulated PKCS#11 module", 32), new CK_VERSION(1, 0));
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // slot and token management functions
+
+  @Override
+  public long[] C_GetSlotList(boolean tokenPresent) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetSlotList", NO_SESSION);
+    try {
+      return (tokenPresent && !this.tokenPresent) ? new long[0]
+          : new long[]{SLOT_ID};
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public CK_SLOT_INFO C_GetSlotInfo(long slotID) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetSlotInfo", NO_SESSION);
+    try {
+      if (slotID != SLOT_ID) {
+        throw error(PKCS11Constants.CKR_SLOT_ID_INVALID);
+      }
+
+      long flags = PKCS11Constants.CKF_REMOVABLE_DEVICE;
+      if (tokenPresent) {
+        flags |= PKCS11Constants.CKF_TOKEN_PRESENT;
+      }
+      return new CK_SLOT_INFO(pad("Simulated slot", 64), pad("xipki", 32),
+          flags, new CK_VERSION(1, 0), new CK_VERSION(1, 0));
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public CK_TOKEN_INFO C_GetTokenInfo(long slotID) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetTokenInfo", NO_SESSION);
+    try {
+      checkSlot(slotID);
+      long rwSessionCount = 0;
+      for (SimulatedSession session : sessions.values()) {
+        if (session.isRwSession()) {
+          rwSessionCount++;
+        }
+      }
+
+      long flags = PKCS11Constants.CKF_RNG
+          | PKCS11Constants.CKF_LOGIN_REQUIRED
+          | PKCS11Constants.CKF_USER_PIN_INITIALIZED
+          | PKCS11Constants.CKF_TOKEN_INITIALIZED;
+      long infinite = PKCS11Constants.CK_EFFECTIVELY_INFINITE;
+      long unavailable = PKCS11Constants.CK_UNAVAILABLE_INFORMATION;
+      return new CK_TOKEN_INFO(pad(tokenLabel, 32), pad("xipki", 32),
+          pad("Simulated", 16), pad("1", 16), flags,
+          infinite, sessions.size(), infinite, rwSessionCount,
+          255, 4, unavailable, unavailable, unavailable, unavailable,
+          new CK_VERSION(1, 0), new CK_VERSION(1, 0), pad("", 16));
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long[] C_GetMechanismList(long slotID) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetMechanismList", NO_SESSION);
+    try {
+      checkSlot(slotID);
+      return SimulatedCrypto.getMechanismList();
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public CK_MECHANISM_INFO C_GetMechanismInfo(long slotID, long type)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_GetMechanismInfo", NO_SESSION);
+    try {
+      checkSlot(slotID);
+      return SimulatedCrypto.getMechanismInfo(type);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  /**
+   * Returns the next slot event raised by {@link #setTokenPresent(boolean)}.
+   * A blocking call neither waits for a permit of
+   * {@link #setMaxConcurrentCalls(int)} nor has a latency.
+   */
+  @Override
+  public long C_WaitForSlotEvent(long flags, Object reserved)
+      throws PKCS11Exception {
+    count("C_WaitForSlotEvent");
+    Long slotID;
+    if ((flags & PKCS11Constants.CKF_DONT_BLOCK) != 0) {
+      slotID = slotEvents.poll();
+    } else {
+      try {
+        slotID = slotEvents.take();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw error(PKCS11Constants.CKR_FUNCTION_CANCELED);
+      }
+    }
+
+    if (slotID == null) {
+      throw error(PKCS11Constants.CKR_NO_EVENT);
+    }
+    return slotID;
+  }
+
+  // session management functions
+
+  @Override
+  public long C_OpenSession(long slotID, long flags, Object application,
+      CK_NOTIFY notify) throws PKCS11Exception {
+    Semaphore permit = enter("C_OpenSession", NO_SESSION);
+    try {
+      checkSlot(slotID);
+      if ((flags & PKCS11Constants.CKF_SERIAL_SESSION) == 0) {
+        throw error(PKCS11Constants.CKR_SESSION_PARALLEL_NOT_SUPPORTED);
+      }
+
+      long handle = nextSessionHandle.getAndIncrement();
+      synchronized (sessionLock) {
+        sessions.put(handle, new SimulatedSession(handle, slotID,
+            (flags & PKCS11Constants.CKF_RW_SESSION) != 0));
+      }
+      return handle;
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_CloseSession(long hSession) throws PKCS11Exception {
+    Semaphore permit = enter("C_CloseSession", hSession);
+    try {
+      synchronized (sessionLock) {
+        if (removeSession(hSession) == null) {
+          throw error(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public CK_SESSION_INFO C_GetSessionInfo(long hSession)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_GetSessionInfo", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      long state;
+      synchronized (sessionLock) {
+        if (loggedInUser == PKCS11Constants.CKU_SO) {
+          state = PKCS11Constants.CKS_RW_SO_FUNCTIONS;
+        } else if (loggedInUser == PKCS11Constants.CKU_USER) {
+          state = session.isRwSession() ? PKCS11Constants.CKS_RW_USER_FUNCTIONS
+              : PKCS11Constants.CKS_RO_USER_FUNCTIONS;
+        } else {
+          state = session.isRwSession() ? PKCS11Constants.CKS_RW_PUBLIC_SESSION
+              : PKCS11Constants.CKS_RO_PUBLIC_SESSION;
+        }
+      }
+
+      long flags = PKCS11Constants.CKF_SERIAL_SESSION;
+      if (session.isRwSession()) {
+        flags |= PKCS11Constants.CKF_RW_SESSION;
+      }
+      return new CK_SESSION_INFO(session.getSlotID(), state, flags, 0);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public byte[] C_GetOperationState(long hSession) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetOperationState", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_SetOperationState(long hSession, byte[] operationState,
+      long hEncryptionKey, long hAuthenticationKey) throws PKCS11Exception {
+    Semaphore permit = enter("C_SetOperationState", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_Login(long hSession, long userType, char[] pin)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_Login", hSession);
+    try {
+      getSession(hSession);
+      if (userType != PKCS11Constants.CKU_SO
+          && userType != PKCS11Constants.CKU_USER
+          && userType != PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+        throw error(PKCS11Constants.CKR_USER_TYPE_INVALID);
+      }
+
+      synchronized (sessionLock) {
+        if (userType == PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+          if (loggedInUser == NOT_LOGGED_IN) {
+            throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+          }
+        } else if (loggedInUser == userType) {
+          throw error(PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN);
+        } else if (loggedInUser != NOT_LOGGED_IN) {
+          throw error(PKCS11Constants.CKR_USER_ANOTHER_ALREADY_LOGGED_IN);
+        }
+
+        if (pin == null || !Arrays.equals(this.pin, pin)) {
+          throw error(PKCS11Constants.CKR_PIN_INCORRECT);
+        }
+
+        if (userType != PKCS11Constants.CKU_CONTEXT_SPECIFIC) {
+          loggedInUser = userType;
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_Logout(long hSession) throws PKCS11Exception {
+    Semaphore permit = enter("C_Logout", hSession);
+    try {
+      getSession(hSession);
+      synchronized (sessionLock) {
+        if (loggedInUser == NOT_LOGGED_IN) {
+          throw error(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+        }
+        loggedInUser = NOT_LOGGED_IN;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // object management functions
+
+  @Override
+  public long C_CreateObject(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_CreateObject", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      Map<Long, Object> attrs = SimulatedCrypto.createObject(toMap(template));
+      checkCreate(session, attrs);
+      return addObject(session, attrs);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long C_CopyObject(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    Semaphore permit = enter("C_CopyObject", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      Map<Long, Object> attrs = getObject(hObject).copyAttributes();
+      attrs.putAll(toMap(template));
+      checkCreate(session, attrs);
+      return addObject(session, attrs);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_DestroyObject(long hSession, long hObject)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_DestroyObject", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      checkModify(session, getObject(hObject));
+      objects.remove(hObject);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_GetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    Semaphore permit = enter("C_GetAttributeValue", hSession);
+    try {
+      getSession(hSession);
+      check(getObject(hObject).getAttributes(template));
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_SetAttributeValue(long hSession, long hObject,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    Semaphore permit = enter("C_SetAttributeValue", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      SimulatedObject object = getObject(hObject);
+      checkModify(session, object);
+      if (!object.getBoolean(PKCS11Constants.CKA_MODIFIABLE)) {
+        throw error(PKCS11Constants.CKR_ACTION_PROHIBITED);
+      }
+      check(object.setAttributes(template));
+      object.setJavaKey(null);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsInit(long hSession, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_FindObjectsInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      boolean loggedIn = isLoggedIn();
+      List<Long> handles = new ArrayList<>();
+      for (SimulatedObject object : objects.values()) {
+        if ((loggedIn || !object.isPrivate()) && object.matches(template)) {
+          handles.add(object.getHandle());
+        }
+      }
+
+      long[] results = new long[handles.size()];
+      for (int i = 0; i < results.length; i++) {
+        results[i] = handles.get(i);
+      }
+      Arrays.sort(results);
+
+      synchronized (session) {
+        if (session.findResults != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.findResults = results;
+        session.findPosition = 0;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long[] C_FindObjects(long hSession, long maxObjectCount)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_FindObjects", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        long[] results = session.findResults;
+        if (results == null) {
+          throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+        }
+
+        int from = session.findPosition;
+        int to = (int) Math.min(results.length, from + maxObjectCount);
+        session.findPosition = to;
+        return Arrays.copyOfRange(results, from, to);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_FindObjectsFinal(long hSession) throws PKCS11Exception {
+    Semaphore permit = enter("C_FindObjectsFinal", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        if (session.findResults == null) {
+          throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+        }
+        session.findResults = null;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // encryption and decryption functions
+
+  @Override
+  public void C_EncryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_EncryptInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      CipherOperation op =
+          SimulatedCrypto.newCipher(mechanism, getKey(hKey), true);
+      synchronized (session) {
+        if (session.encrypt != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.encrypt = op;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_Encrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_Encrypt", hSession);
+    try {
+      checkHeapBuffers(directIn, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.encrypt;
+        checkActive(op);
+        session.encrypt = null;
+        return copyOut(op.doFinal(in, inOfs, inLen), out, outOfs, outLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_EncryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_EncryptUpdate", hSession);
+    try {
+      checkHeapBuffers(directIn, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.encrypt;
+        checkActive(op);
+        try {
+          return copyOut(op.update(in, inOfs, inLen), out, outOfs, outLen);
+        } catch (PKCS11Exception ex) {
+          session.encrypt = null;
+          throw ex;
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_EncryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_EncryptFinal", hSession);
+    try {
+      checkHeapBuffers(0, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.encrypt;
+        checkActive(op);
+        session.encrypt = null;
+        return copyOut(op.doFinal(null, 0, 0), out, outOfs, outLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_DecryptInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_DecryptInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      CipherOperation op =
+          SimulatedCrypto.newCipher(mechanism, getKey(hKey), false);
+      synchronized (session) {
+        if (session.decrypt != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.decrypt = op;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_Decrypt(long hSession, long directIn, byte[] in, int inOfs,
+      int inLen, long directOut, byte[] out, int outOfs, int outLen)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_Decrypt", hSession);
+    try {
+      checkHeapBuffers(directIn, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.decrypt;
+        checkActive(op);
+        session.decrypt = null;
+        return copyOut(op.doFinal(in, inOfs, inLen), out, outOfs, outLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_DecryptUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen, long directOut, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_DecryptUpdate", hSession);
+    try {
+      checkHeapBuffers(directIn, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.decrypt;
+        checkActive(op);
+        try {
+          return copyOut(op.update(in, inOfs, inLen), out, outOfs, outLen);
+        } catch (PKCS11Exception ex) {
+          session.decrypt = null;
+          throw ex;
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_DecryptFinal(long hSession, long directOut, byte[] out,
+      int outOfs, int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_DecryptFinal", hSession);
+    try {
+      checkHeapBuffers(0, directOut);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        CipherOperation op = session.decrypt;
+        checkActive(op);
+        session.decrypt = null;
+        return copyOut(op.doFinal(null, 0, 0), out, outOfs, outLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // message digesting functions
+
+  @Override
+  public void C_DigestInit(long hSession, CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_DigestInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      MessageDigest digest = SimulatedCrypto.newDigest(mechanism);
+      synchronized (session) {
+        if (session.digest != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.digest = digest;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_DigestSingle(long hSession, CK_MECHANISM mechanism, byte[] in,
+      int inOfs, int inLen, byte[] digest, int digestOfs, int digestLen)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_DigestSingle", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      MessageDigest md = SimulatedCrypto.newDigest(mechanism);
+      synchronized (session) {
+        if (session.digest != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+      }
+      md.update(in, inOfs, inLen);
+      return copyOut(md.digest(), digest, digestOfs, digestLen);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_DigestUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_DigestUpdate", hSession);
+    try {
+      checkHeapBuffers(directIn, 0);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        checkActive(session.digest);
+        session.digest.update(in, inOfs, inLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_DigestKey(long hSession, long hKey) throws PKCS11Exception {
+    Semaphore permit = enter("C_DigestKey", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_DigestFinal(long hSession, byte[] digest, int digestOfs,
+      int digestLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_DigestFinal", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        MessageDigest md = session.digest;
+        checkActive(md);
+        session.digest = null;
+        return copyOut(md.digest(), digest, digestOfs, digestLen);
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // signing and MACing functions
+
+  @Override
+  public void C_SignInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_SignInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      SignatureOperation op =
+          SimulatedCrypto.newSignature(mechanism, getKey(hKey), true);
+      synchronized (session) {
+        if (session.sign != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.sign = op;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public byte[] C_Sign(long hSession, byte[] data) throws PKCS11Exception {
+    Semaphore permit = enter("C_Sign", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.sign;
+        checkActive(op);
+        session.sign = null;
+        op.update(data, 0, data.length);
+        return op.sign();
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_SignUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_SignUpdate", hSession);
+    try {
+      checkHeapBuffers(directIn, 0);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.sign;
+        checkActive(op);
+        try {
+          op.update(in, inOfs, inLen);
+        } catch (PKCS11Exception ex) {
+          session.sign = null;
+          throw ex;
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public byte[] C_SignFinal(long hSession, int expectedLen)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_SignFinal", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.sign;
+        checkActive(op);
+        session.sign = null;
+        return op.sign();
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_SignRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    Semaphore permit = enter("C_SignRecoverInit", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_SignRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_SignRecover", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // functions for verifying signatures and MACs
+
+  @Override
+  public void C_VerifyInit(long hSession, CK_MECHANISM mechanism, long hKey)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_VerifyInit", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      SignatureOperation op =
+          SimulatedCrypto.newSignature(mechanism, getKey(hKey), false);
+      synchronized (session) {
+        if (session.verify != null) {
+          throw error(PKCS11Constants.CKR_OPERATION_ACTIVE);
+        }
+        session.verify = op;
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_Verify(long hSession, byte[] data, byte[] signature)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_Verify", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.verify;
+        checkActive(op);
+        session.verify = null;
+        op.update(data, 0, data.length);
+        if (!op.verify(signature)) {
+          throw error(PKCS11Constants.CKR_SIGNATURE_INVALID);
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_VerifyUpdate(long hSession, long directIn, byte[] in,
+      int inOfs, int inLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_VerifyUpdate", hSession);
+    try {
+      checkHeapBuffers(directIn, 0);
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.verify;
+        checkActive(op);
+        try {
+          op.update(in, inOfs, inLen);
+        } catch (PKCS11Exception ex) {
+          session.verify = null;
+          throw ex;
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_VerifyFinal(long hSession, byte[] signature)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_VerifyFinal", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      synchronized (session) {
+        SignatureOperation op = session.verify;
+        checkActive(op);
+        session.verify = null;
+        if (!op.verify(signature)) {
+          throw error(PKCS11Constants.CKR_SIGNATURE_INVALID);
+        }
+      }
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_VerifyRecoverInit(long hSession, CK_MECHANISM mechanism,
+      long hKey) throws PKCS11Exception {
+    Semaphore permit = enter("C_VerifyRecoverInit", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public int C_VerifyRecover(long hSession, byte[] in, int inOfs, int inLen,
+      byte[] out, int outOfs, int outLen) throws PKCS11Exception {
+    Semaphore permit = enter("C_VerifyRecover", hSession);
+    try {
+      getSession(hSession);
+      throw error(PKCS11Constants.CKR_FUNCTION_NOT_SUPPORTED);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // key management functions
+
+  @Override
+  public long C_GenerateKey(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    Semaphore permit = enter("C_GenerateKey", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      Map<Long, Object> attrs =
+          SimulatedCrypto.generateSecretKey(mechanism, toMap(template));
+      checkCreate(session, attrs);
+      return addObject(session, attrs);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long[] C_GenerateKeyPair(long hSession, CK_MECHANISM mechanism,
+      CK_ATTRIBUTE[] publicKeyTemplate, CK_ATTRIBUTE[] privateKeyTemplate)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_GenerateKeyPair", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      List<Map<Long, Object>> keyPair = SimulatedCrypto.generateKeyPair(
+          mechanism, toMap(publicKeyTemplate), toMap(privateKeyTemplate));
+      checkCreate(session, keyPair.get(0));
+      checkCreate(session, keyPair.get(1));
+      return new long[]{addObject(session, keyPair.get(0)),
+        addObject(session, keyPair.get(1))};
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public byte[] C_WrapKey(long hSession, CK_MECHANISM mechanism,
+      long hWrappingKey, long hKey) throws PKCS11Exception {
+    Semaphore permit = enter("C_WrapKey", hSession);
+    try {
+      getSession(hSession);
+      return SimulatedCrypto.wrapKey(mechanism, getKey(hWrappingKey),
+          getKey(hKey));
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long C_UnwrapKey(long hSession, CK_MECHANISM mechanism,
+      long hUnwrappingKey, byte[] wrappedKey, CK_ATTRIBUTE[] template)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_UnwrapKey", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      Map<Long, Object> attrs = SimulatedCrypto.unwrapKey(mechanism,
+          getKey(hUnwrappingKey), wrappedKey, toMap(template));
+      checkCreate(session, attrs);
+      return addObject(session, attrs);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public long C_DeriveKey(long hSession, CK_MECHANISM mechanism,
+      long hBaseKey, CK_ATTRIBUTE[] template) throws PKCS11Exception {
+    Semaphore permit = enter("C_DeriveKey", hSession);
+    try {
+      SimulatedSession session = getSession(hSession);
+      Map<Long, Object> attrs = SimulatedCrypto.deriveKey(mechanism,
+          getKey(hBaseKey), toMap(template));
+      checkCreate(session, attrs);
+      return addObject(session, attrs);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  // random number generation functions
+
+  /**
+   * Accepts and ignores the seed: the random numbers are generated by a
+   * {@link java.security.SecureRandom}.
+   */
+  @Override
+  public void C_SeedRandom(long hSession, byte[] seed)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_SeedRandom", hSession);
+    try {
+      getSession(hSession);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public void C_GenerateRandom(long hSession, byte[] randomData)
+      throws PKCS11Exception {
+    Semaphore permit = enter("C_GenerateRandom", hSession);
+    try {
+      getSession(hSession);
+      SimulatedCrypto.nextBytes(randomData);
+    } finally {
+      leave(permit);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SimulatedBackend[" + tokenLabel + "]";
+  }
+
+  // call processing
+
+  /**
+   * Starts a call: counts it, waits for a permit if the number of parallel
+   * calls is limited, waits the latency and injects the faults.
+   *
+   * @param function
+   *          The PKCS#11 function.
+   * @param hSession
+   *          The session handle, or NO_SESSION.
+   * @return the permit to be released by {@link #leave(Semaphore)}, or null.
+   * @throws PKCS11Exception
+   *           If a fault is injected.
+   */
+  private Semaphore enter(String function, long hSession)
+      throws PKCS11Exception {
+    count(function);
+    Semaphore permit = concurrencyLimit;
+    if (permit != null) {
+      permit.acquireUninterruptibly();
+    }
+
+    try {
+      Latency lat = functionLatencies.get(function);
+      if (lat == null) {
+        lat = latency;
+      }
+      long delay = lat.latencyNanos;
+      if (lat.jitterNanos > 0) {
+        delay += (long) (random.nextDouble() * lat.jitterNanos);
+      }
+      if (delay > 0) {
+        long deadline = System.nanoTime() + delay;
+        for (long remaining = delay; remaining > 0;
+            remaining = deadline - System.nanoTime()) {
+          LockSupport.parkNanos(remaining);
+        }
+      }
+
+      if (hSession != NO_SESSION && sessionLossRate > 0
+          && random.nextDouble() < sessionLossRate) {
+        synchronized (sessionLock) {
+          if (removeSession(hSession) != null && sessions.isEmpty()) {
+            loggedInUser = NOT_LOGGED_IN;
+          }
+        }
+        throw error(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+      }
+
+      Fault ft = functionFaults.get(function);
+      if (ft == null) {
+        ft = fault;
+      }
+      if (ft.rate > 0 && random.nextDouble() < ft.rate) {
+        throw error(ft.errorCode);
+      }
+    } catch (PKCS11Exception | RuntimeException ex) {
+      leave(permit);
+      throw ex;
+    }
+    return permit;
+  }
+
+  private static void leave(Semaphore permit) {
+    if (permit != null) {
+      permit.release();
+    }
+  }
+
+  private void count(String function) {
+    AtomicLong count = callCounts.get(function);
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = callCounts.putIfAbsent(function, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  // sessions and objects
+
+  private void checkSlot(long slotID) throws PKCS11Exception {
+    if (slotID != SLOT_ID) {
+      throw error(PKCS11Constants.CKR_SLOT_ID_INVALID);
+    }
+    if (!tokenPresent) {
+      throw error(PKCS11Constants.CKR_TOKEN_NOT_PRESENT);
+    }
+  }
+
+  private SimulatedSession getSession(long hSession) throws PKCS11Exception {
+    SimulatedSession session = sessions.get(hSession);
+    if (session == null) {
+      throw error(PKCS11Constants.CKR_SESSION_HANDLE_INVALID);
+    }
+    return session;
+  }
+
+  /**
+   * Removes a session and destroys its session objects. The last closed
+   * session logs out. Must be called with sessionLock held.
+   */
+  private SimulatedSession removeSession(long hSession) {
+    SimulatedSession session = sessions.remove(hSession);
+    if (session != null) {
+      Iterator<SimulatedObject> it = objects.values().iterator();
+      while (it.hasNext()) {
+        if (it.next().getOwnerSession() == hSession) {
+          it.remove();
+        }
+      }
+
+      if (sessions.isEmpty()) {
+        loggedInUser = NOT_LOGGED_IN;
+      }
+    }
+    return session;
+  }
+
+  private boolean isLoggedIn() {
+    synchronized (sessionLock) {
+      return loggedInUser != NOT_LOGGED_IN;
+    }
+  }
+
+  private SimulatedObject getObject(long hObject) throws PKCS11Exception {
+    SimulatedObject object = objects.get(hObject);
+    if (object == null || (object.isPrivate() && !isLoggedIn())) {
+      throw error(PKCS11Constants.CKR_OBJECT_HANDLE_INVALID);
+    }
+    return object;
+  }
+
+  private SimulatedObject getKey(long hKey) throws PKCS11Exception {
+    SimulatedObject key = objects.get(hKey);
+    if (key == null || (key.isPrivate() && !isLoggedIn())) {
+      throw error(PKCS11Constants.CKR_KEY_HANDLE_INVALID);
+    }
+    return key;
+  }
+
+  private void checkCreate(SimulatedSession session, Map<Long, Object> attrs)
+      throws PKCS11Exception {
+    if (Boolean.TRUE.equals(attrs.get(PKCS11Constants.CKA_TOKEN))
+        && !session.isRwSession()) {
+      throw error(PKCS11Constants.CKR_SESSION_READ_ONLY);
+    }
+    if (Boolean.TRUE.equals(attrs.get(PKCS11Constants.CKA_PRIVATE))
+        && !isLoggedIn()) {
+      throw error(PKCS11Constants.CKR_USER_NOT_LOGGED_IN);
+    }
+  }
+
+  private void checkModify(SimulatedSession session, SimulatedObject object)
+      throws PKCS11Exception {
+    if (object.getBoolean(PKCS11Constants.CKA_TOKEN)
+        && !session.isRwSession()) {
+      throw error(PKCS11Constants.CKR_SESSION_READ_ONLY);
+    }
+  }
+
+  private long addObject(SimulatedSession session, Map<Long, Object> attrs) {
+    long handle = nextObjectHandle.getAndIncrement();
+    boolean token = Boolean.TRUE.equals(attrs.get(PKCS11Constants.CKA_TOKEN));
+    objects.put(handle, new SimulatedObject(handle,
+        token ? NO_SESSION : session.getHandle(), attrs));
+    return handle;
+  }
+
+  // helpers
+
+  private static Map<Long, Object> toMap(CK_ATTRIBUTE[] template) {
+    Map<Long, Object> map = new HashMap<>();
+    if (template != null) {
+      for (CK_ATTRIBUTE attr : template) {
+        map.put(attr.type, attr.pValue);
+      }
+    }
+    return map;
+  }
+
+  private static void checkActive(Object operation) throws PKCS11Exception {
+    if (operation == null) {
+      throw error(PKCS11Constants.CKR_OPERATION_NOT_INITIALIZED);
+    }
+  }
+
+  private static void checkHeapBuffers(long directIn, long directOut)
+      throws PKCS11Exception {
+    if (directIn != 0 || directOut != 0) {
+      throw error(PKCS11Constants.CKR_ARGUMENTS_BAD);
+    }
+  }
+
+  private static int copyOut(byte[] result, byte[] out, int outOfs,
+      int outLen) throws PKCS11Exception {
+    if (result.length > outLen) {
+      throw error(PKCS11Constants.CKR_BUFFER_TOO_SMALL);
+    }
+    System.arraycopy(result, 0, out, outOfs, result.length);
+    return result.length;
+  }
+
+  private static void check(long errorCode) throws PKCS11Exception {
+    if (errorCode != PKCS11Constants.CKR_OK) {
+      throw error(errorCode);
+    }
+  }
+
+  private static PKCS11Exception error(long errorCode) {
+    return SimulatedCrypto.error(errorCode);
+  }
+
+  private static void checkRate(String name, double rate) {
+    if (rate < 0 || rate > 1) {
+      throw new IllegalArgumentException(name + " must be between 0 and 1");
+    }
+  }
+
+  /**
+   * Returns the text, padded with blanks as in the info structures of
+   * PKCS#11.
+   */
+  private static char[] pad(String text, int len) {
+    char[] chars = new char[len];
+    Arrays.fill(chars, ' ');
+    text.getChars(0, Math.min(len, text.length()), chars, 0);
+    return chars;
+  }
+
+}
@@ -0,0 +1,1020 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.simulator;
+
+import iaik.pkcs.pkcs11.Util;
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ECDH1_DERIVE_PARAMS;
+import sun.security.pkcs11.wrapper.CK_MECHANISM;
+import sun.security.pkcs11.wrapper.CK_MECHANISM_INFO;
+import sun.security.pkcs11.wrapper.PKCS11Exception;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The mechanisms of the simulated token, implemented with the JCA
+ * providers of the JDK.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class SimulatedCrypto {
+
+  /**
+   * A single-part or multi-part encryption or decryption.
+   */
+  static final class CipherOperation {
+
+    private final Cipher cipher;
+
+    private final boolean encrypt;
+
+    private CipherOperation(Cipher cipher, boolean encrypt) {
+      this.cipher = cipher;
+      this.encrypt = encrypt;
+    }
+
+    byte[] update(byte[] in, int inOfs, int inLen) {
+      byte[] out = cipher.update(in, inOfs, inLen);
+      return (out == null) ? new byte[0] : out;
+    }
+
+    byte[] doFinal(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+      try {
+        return (in == null) ? cipher.doFinal()
+            : cipher.doFinal(in, inOfs, inLen);
+      } catch (IllegalBlockSizeException ex) {
+        throw error(encrypt ? PKCS11Constants.CKR_DATA_LEN_RANGE
+            : PKCS11Constants.CKR_ENCRYPTED_DATA_LEN_RANGE);
+      } catch (BadPaddingException ex) {
+        throw error(PKCS11Constants.CKR_ENCRYPTED_DATA_INVALID);
+      }
+    }
+
+  }
+
+  /**
+   * A signature or MAC creation or verification. ECDSA signatures are
+   * converted between the DER encoding of the JCA and the concatenation
+   * r || s of PKCS#11.
+   */
+  static final class SignatureOperation {
+
+    private final Signature signature;
+
+    private final Mac mac;
+
+    private final int ecFieldSize;
+
+    private SignatureOperation(Signature signature, Mac mac,
+        int ecFieldSize) {
+      this.signature = signature;
+      this.mac = mac;
+      this.ecFieldSize = ecFieldSize;
+    }
+
+    void update(byte[] in, int inOfs, int inLen) throws PKCS11Exception {
+      if (mac != null) {
+        mac.update(in, inOfs, inLen);
+      } else {
+        try {
+          signature.update(in, inOfs, inLen);
+        } catch (SignatureException ex) {
+          throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+        }
+      }
+    }
+
+    byte[] sign() throws PKCS11Exception {
+      if (mac != null) {
+        return mac.doFinal();
+      }
+
+      try {
+        byte[] sig = signature.sign();
+        return (ecFieldSize > 0) ? derToRawSignature(sig, ecFieldSize) : sig;
+      } catch (SignatureException ex) {
+        throw error(PKCS11Constants.CKR_DATA_LEN_RANGE);
+      }
+    }
+
+    boolean verify(byte[] sig) throws PKCS11Exception {
+      if (mac != null) {
+        return MessageDigest.isEqual(mac.doFinal(), sig);
+      }
+
+      if (ecFieldSize > 0) {
+        if (sig.length != 2 * ecFieldSize) {
+          throw error(PKCS11Constants.CKR_SIGNATURE_LEN_RANGE);
+        }
+        sig = rawToDerSignature(sig);
+      }
+
+      try {
+        return signature.verify(sig);
+      } catch (SignatureException ex) {
+        return false;
+      }
+    }
+
+  }
+
+  private static final Map<Long, CK_MECHANISM_INFO> MECHANISMS =
+      new LinkedHashMap<>();
+
+  private static final Map<Long, String> DIGESTS = new HashMap<>();
+
+  private static final Map<Long, String> HMACS = new HashMap<>();
+
+  private static final Map<Long, String> ECDSA_SIGNATURES = new HashMap<>();
+
+  private static final Map<Long, String> RSA_SIGNATURES = new HashMap<>();
+
+  private static final Map<Long, String> AES_CIPHERS = new HashMap<>();
+
+  /**
+   * The supported curves: the hex encoded DER encoded OIDs to the names.
+   */
+  private static final Map<String, String> CURVES = new HashMap<>();
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  static {
+    final long hw = PKCS11Constants.CKF_HW;
+    final long ec = PKCS11Constants.CKF_EC_F_P
+        | PKCS11Constants.CKF_EC_OID
+        | PKCS11Constants.CKF_EC_UNCOMPRESS;
+    final long signVerify = hw | PKCS11Constants.CKF_SIGN
+        | PKCS11Constants.CKF_VERIFY;
+    final long encryptDecrypt = hw | PKCS11Constants.CKF_ENCRYPT
+        | PKCS11Constants.CKF_DECRYPT;
+
+    mechanism(PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN, 1024, 4096,
+        hw | PKCS11Constants.CKF_GENERATE_KEY_PAIR);
+    mechanism(PKCS11Constants.CKM_RSA_PKCS, 1024, 4096,
+        signVerify | encryptDecrypt);
+    RSA_SIGNATURES.put(PKCS11Constants.CKM_RSA_PKCS, "NONEwithRSA");
+    rsaSignature(PKCS11Constants.CKM_SHA1_RSA_PKCS, "SHA1withRSA");
+    rsaSignature(PKCS11Constants.CKM_SHA256_RSA_PKCS, "SHA256withRSA");
+    rsaSignature(PKCS11Constants.CKM_SHA384_RSA_PKCS, "SHA384withRSA");
+    rsaSignature(PKCS11Constants.CKM_SHA512_RSA_PKCS, "SHA512withRSA");
+
+    mechanism(PKCS11Constants.CKM_EC_KEY_PAIR_GEN, 256, 521,
+        hw | PKCS11Constants.CKF_GENERATE_KEY_PAIR | ec);
+    ecdsa(PKCS11Constants.CKM_ECDSA, "NONEwithECDSA", signVerify | ec);
+    ecdsa(PKCS11Constants.CKM_ECDSA_SHA1, "SHA1withECDSA", signVerify | ec);
+    ecdsa(PKCS11Constants.CKM_ECDSA_SHA256, "SHA256withECDSA",
+        signVerify | ec);
+    ecdsa(PKCS11Constants.CKM_ECDSA_SHA384, "SHA384withECDSA",
+        signVerify | ec);
+    ecdsa(PKCS11Constants.CKM_ECDSA_SHA512, "SHA512withECDSA",
+        signVerify | ec);
+    mechanism(PKCS11Constants.CKM_ECDH1_DERIVE, 256, 521,
+        hw | PKCS11Constants.CKF_DERIVE | ec);
+
+    mechanism(PKCS11Constants.CKM_AES_KEY_GEN, 16, 32,
+        hw | PKCS11Constants.CKF_GENERATE);
+    aes(PKCS11Constants.CKM_AES_ECB, "AES/ECB/NoPadding", encryptDecrypt);
+    aes(PKCS11Constants.CKM_AES_CBC, "AES/CBC/NoPadding", encryptDecrypt);
+    aes(PKCS11Constants.CKM_AES_CBC_PAD, "AES/CBC/PKCS5Padding",
+        encryptDecrypt);
+    mechanism(PKCS11Constants.CKM_AES_KEY_WRAP, 16, 32,
+        hw | PKCS11Constants.CKF_WRAP | PKCS11Constants.CKF_UNWRAP);
+
+    mechanism(PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN, 1, 512,
+        hw | PKCS11Constants.CKF_GENERATE);
+    hmac(PKCS11Constants.CKM_SHA_1_HMAC, "HmacSHA1", signVerify);
+    hmac(PKCS11Constants.CKM_SHA256_HMAC, "HmacSHA256", signVerify);
+    hmac(PKCS11Constants.CKM_SHA384_HMAC, "HmacSHA384", signVerify);
+    hmac(PKCS11Constants.CKM_SHA512_HMAC, "HmacSHA512", signVerify);
+
+    digest(PKCS11Constants.CKM_SHA_1, "SHA-1");
+    digest(PKCS11Constants.CKM_SHA256, "SHA-256");
+    digest(PKCS11Constants.CKM_SHA384, "SHA-384");
+    digest(PKCS11Constants.CKM_SHA512, "SHA-512");
+
+    CURVES.put("06082a8648ce3d030107", "secp256r1");
+    CURVES.put("06052b81040022", "secp384r1");
+    CURVES.put("06052b81040023", "secp521r1");
+  }
+
+  private SimulatedCrypto() {
+  }
+
+  private static void mechanism(long code, long minKeySize, long maxKeySize,
+      long flags) {
+    MECHANISMS.put(code,
+        new CK_MECHANISM_INFO(minKeySize, maxKeySize, flags));
+  }
+
+  private static void rsaSignature(long code, String algorithm) {
+    mechanism(code, 1024, 4096,
+        PKCS11Constants.CKF_HW | PKCS11Constants.CKF_SIGN
+        | PKCS11Constants.CKF_VERIFY);
+    RSA_SIGNATURES.put(code, algorithm);
+  }
+
+  private static void ecdsa(long code, String algorithm, long flags) {
+    mechanism(code, 256, 521, flags);
+    ECDSA_SIGNATURES.put(code, algorithm);
+  }
+
+  private static void aes(long code, String transformation, long flags) {
+    mechanism(code, 16, 32, flags);
+    AES_CIPHERS.put(code, transformation);
+  }
+
+  private static void hmac(long code, String algorithm, long flags) {
+    mechanism(code, 1, 512, flags);
+    HMACS.put(code, algorithm);
+  }
+
+  private static void digest(long code, String algorithm) {
+    mechanism(code, 0, 0,
+        PKCS11Constants.CKF_HW | PKCS11Constants.CKF_DIGEST);
+    DIGESTS.put(code, algorithm);
+  }
+
+  static long[] getMechanismList() {
+    long[] codes = new long[MECHANISMS.size()];
+    int i = 0;
+    for (Long code : MECHANISMS.keySet()) {
+      codes[i++] = code;
+    }
+    return codes;
+  }
+
+  static CK_MECHANISM_INFO getMechanismInfo(long code)
+      throws PKCS11Exception {
+    CK_MECHANISM_INFO info = MECHANISMS.get(code);
+    if (info == null) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+    return new CK_MECHANISM_INFO(info.ulMinKeySize, info.ulMaxKeySize,
+        info.flags);
+  }
+
+  static PKCS11Exception error(long errorCode) {
+    return Util.newPKCS11Exception(errorCode);
+  }
+
+  static void nextBytes(byte[] bytes) {
+    RANDOM.nextBytes(bytes);
+  }
+
+  // operations
+
+  static MessageDigest newDigest(CK_MECHANISM mechanism)
+      throws PKCS11Exception {
+    String algorithm = DIGESTS.get(mechanism.mechanism);
+    if (algorithm == null) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    try {
+      return MessageDigest.getInstance(algorithm);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+  }
+
+  static CipherOperation newCipher(CK_MECHANISM mechanism,
+      SimulatedObject key, boolean encrypt) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    checkKeyUsage(key, encrypt ? PKCS11Constants.CKA_ENCRYPT
+        : PKCS11Constants.CKA_DECRYPT);
+    int mode = encrypt ? Cipher.ENCRYPT_MODE : Cipher.DECRYPT_MODE;
+
+    try {
+      if (AES_CIPHERS.containsKey(code)) {
+        checkKeyType(key, PKCS11Constants.CKK_AES);
+        Cipher cipher = Cipher.getInstance(AES_CIPHERS.get(code));
+        Key aesKey = getSecretKey(key, "AES");
+        if (code == PKCS11Constants.CKM_AES_ECB) {
+          cipher.init(mode, aesKey);
+        } else {
+          if (!(mechanism.pParameter instanceof byte[])
+              || ((byte[]) mechanism.pParameter).length != 16) {
+            throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+          }
+          cipher.init(mode, aesKey,
+              new IvParameterSpec((byte[]) mechanism.pParameter));
+        }
+        return new CipherOperation(cipher, encrypt);
+      } else if (code == PKCS11Constants.CKM_RSA_PKCS) {
+        checkKeyType(key, PKCS11Constants.CKK_RSA);
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(mode, getAsymmetricKey(key));
+        return new CipherOperation(cipher, encrypt);
+      } else {
+        throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+      }
+    } catch (InvalidKeyException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+    }
+  }
+
+  static SignatureOperation newSignature(CK_MECHANISM mechanism,
+      SimulatedObject key, boolean sign) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    checkKeyUsage(key, sign ? PKCS11Constants.CKA_SIGN
+        : PKCS11Constants.CKA_VERIFY);
+
+    try {
+      if (HMACS.containsKey(code)) {
+        if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY) {
+          throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+        }
+        String algorithm = HMACS.get(code);
+        Mac mac = Mac.getInstance(algorithm);
+        mac.init(getSecretKey(key, algorithm));
+        return new SignatureOperation(null, mac, 0);
+      }
+
+      int ecFieldSize = 0;
+      String algorithm;
+      if (ECDSA_SIGNATURES.containsKey(code)) {
+        checkKeyType(key, PKCS11Constants.CKK_EC);
+        algorithm = ECDSA_SIGNATURES.get(code);
+        ecFieldSize = getFieldSize(getCurveParams(
+            key.getBytes(PKCS11Constants.CKA_EC_PARAMS)));
+      } else if (RSA_SIGNATURES.containsKey(code)) {
+        checkKeyType(key, PKCS11Constants.CKK_RSA);
+        algorithm = RSA_SIGNATURES.get(code);
+      } else {
+        throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+      }
+
+      Signature signature = Signature.getInstance(algorithm);
+      Key javaKey = getAsymmetricKey(key);
+      if (sign) {
+        if (!(javaKey instanceof PrivateKey)) {
+          throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+        }
+        signature.initSign((PrivateKey) javaKey);
+      } else {
+        if (!(javaKey instanceof PublicKey)) {
+          throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+        }
+        signature.initVerify((PublicKey) javaKey);
+      }
+      return new SignatureOperation(signature, null, ecFieldSize);
+    } catch (InvalidKeyException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+  }
+
+  // key management
+
+  /**
+   * Generates a secret key.
+   *
+   * @param mechanism
+   *          CKM_AES_KEY_GEN or CKM_GENERIC_SECRET_KEY_GEN.
+   * @param template
+   *          The template of the key.
+   * @return the attributes of the key.
+   * @throws PKCS11Exception
+   *           If the mechanism or the template is invalid.
+   */
+  static Map<Long, Object> generateSecretKey(CK_MECHANISM mechanism,
+      Map<Long, Object> template) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    long keyType;
+    if (code == PKCS11Constants.CKM_AES_KEY_GEN) {
+      keyType = PKCS11Constants.CKK_AES;
+    } else if (code == PKCS11Constants.CKM_GENERIC_SECRET_KEY_GEN) {
+      keyType = PKCS11Constants.CKK_GENERIC_SECRET;
+    } else {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    Object valueLen = template.get(PKCS11Constants.CKA_VALUE_LEN);
+    if (!(valueLen instanceof Long)) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+
+    int len = (int) (long) (Long) valueLen;
+    CK_MECHANISM_INFO info = MECHANISMS.get(code);
+    if (len < info.ulMinKeySize || len > info.ulMaxKeySize
+        || (keyType == PKCS11Constants.CKK_AES && len % 8 != 0)) {
+      throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+    }
+
+    byte[] value = new byte[len];
+    RANDOM.nextBytes(value);
+    return newSecretKey(keyType, value, code, template);
+  }
+
+  /**
+   * Generates a key pair.
+   *
+   * @param mechanism
+   *          CKM_EC_KEY_PAIR_GEN or CKM_RSA_PKCS_KEY_PAIR_GEN.
+   * @param publicKeyTemplate
+   *          The template of the public key.
+   * @param privateKeyTemplate
+   *          The template of the private key.
+   * @return the attributes of the public key and of the private key.
+   * @throws PKCS11Exception
+   *           If the mechanism or a template is invalid.
+   */
+  static List<Map<Long, Object>> generateKeyPair(CK_MECHANISM mechanism,
+      Map<Long, Object> publicKeyTemplate,
+      Map<Long, Object> privateKeyTemplate) throws PKCS11Exception {
+    long code = mechanism.mechanism;
+    Map<Long, Object> publicKey;
+    Map<Long, Object> privateKey;
+    try {
+      if (code == PKCS11Constants.CKM_EC_KEY_PAIR_GEN) {
+        Object ecParams = publicKeyTemplate.get(
+            PKCS11Constants.CKA_EC_PARAMS);
+        if (!(ecParams instanceof byte[])) {
+          throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+        }
+
+        String curveName = CURVES.get(Util.toHex((byte[]) ecParams));
+        if (curveName == null) {
+          throw error(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+        }
+
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance("EC");
+        kpGen.initialize(new ECGenParameterSpec(curveName), RANDOM);
+        KeyPair keypair = kpGen.generateKeyPair();
+        ECPublicKey ecPublicKey = (ECPublicKey) keypair.getPublic();
+        ECPrivateKey ecPrivateKey = (ECPrivateKey) keypair.getPrivate();
+        int fieldSize = getFieldSize(ecPublicKey.getParams());
+
+        publicKey = newKey(PKCS11Constants.CKO_PUBLIC_KEY,
+            PKCS11Constants.CKK_EC, code, publicKeyTemplate);
+        publicKey.put(PKCS11Constants.CKA_EC_POINT,
+            encodePoint(ecPublicKey.getW(), fieldSize));
+
+        privateKey = newKey(PKCS11Constants.CKO_PRIVATE_KEY,
+            PKCS11Constants.CKK_EC, code, privateKeyTemplate);
+        privateKey.put(PKCS11Constants.CKA_EC_PARAMS,
+            ((byte[]) ecParams).clone());
+        privateKey.put(PKCS11Constants.CKA_VALUE,
+            toFixedLength(ecPrivateKey.getS(), fieldSize));
+      } else if (code == PKCS11Constants.CKM_RSA_PKCS_KEY_PAIR_GEN) {
+        Object modulusBits = publicKeyTemplate.get(
+            PKCS11Constants.CKA_MODULUS_BITS);
+        if (!(modulusBits instanceof Long)) {
+          throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+        }
+
+        long bits = (Long) modulusBits;
+        if (bits < 1024 || bits > 4096) {
+          throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+        }
+
+        Object exponent = publicKeyTemplate.get(
+            PKCS11Constants.CKA_PUBLIC_EXPONENT);
+        BigInteger publicExponent = (exponent instanceof byte[])
+            ? new BigInteger(1, (byte[]) exponent) : RSAKeyGenParameterSpec.F4;
+
+        KeyPairGenerator kpGen = KeyPairGenerator.getInstance("RSA");
+        kpGen.initialize(
+            new RSAKeyGenParameterSpec((int) bits, publicExponent), RANDOM);
+        KeyPair keypair = kpGen.generateKeyPair();
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) keypair.getPublic();
+        RSAPrivateCrtKey rsaPrivateKey =
+            (RSAPrivateCrtKey) keypair.getPrivate();
+
+        publicKey = newKey(PKCS11Constants.CKO_PUBLIC_KEY,
+            PKCS11Constants.CKK_RSA, code, publicKeyTemplate);
+        publicKey.put(PKCS11Constants.CKA_MODULUS,
+            unsigned(rsaPublicKey.getModulus()));
+        publicKey.put(PKCS11Constants.CKA_PUBLIC_EXPONENT,
+            unsigned(rsaPublicKey.getPublicExponent()));
+
+        privateKey = newKey(PKCS11Constants.CKO_PRIVATE_KEY,
+            PKCS11Constants.CKK_RSA, code, privateKeyTemplate);
+        privateKey.put(PKCS11Constants.CKA_MODULUS,
+            unsigned(rsaPrivateKey.getModulus()));
+        privateKey.put(PKCS11Constants.CKA_PUBLIC_EXPONENT,
+            unsigned(rsaPrivateKey.getPublicExponent()));
+        privateKey.put(PKCS11Constants.CKA_PRIVATE_EXPONENT,
+            unsigned(rsaPrivateKey.getPrivateExponent()));
+        privateKey.put(PKCS11Constants.CKA_PRIME_1,
+            unsigned(rsaPrivateKey.getPrimeP()));
+        privateKey.put(PKCS11Constants.CKA_PRIME_2,
+            unsigned(rsaPrivateKey.getPrimeQ()));
+        privateKey.put(PKCS11Constants.CKA_EXPONENT_1,
+            unsigned(rsaPrivateKey.getPrimeExponentP()));
+        privateKey.put(PKCS11Constants.CKA_EXPONENT_2,
+            unsigned(rsaPrivateKey.getPrimeExponentQ()));
+        privateKey.put(PKCS11Constants.CKA_COEFFICIENT,
+            unsigned(rsaPrivateKey.getCrtCoefficient()));
+      } else {
+        throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+      }
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+    }
+
+    return Arrays.asList(publicKey, privateKey);
+  }
+
+  /**
+   * Derives a secret key with CKM_ECDH1_DERIVE and CKD_NULL. The shared
+   * secret is truncated to CKA_VALUE_LEN.
+   *
+   * @param mechanism
+   *          The mechanism.
+   * @param baseKey
+   *          The EC private key.
+   * @param template
+   *          The template of the derived key.
+   * @return the attributes of the derived key.
+   * @throws PKCS11Exception
+   *           If the mechanism, the key or the template is invalid.
+   */
+  static Map<Long, Object> deriveKey(CK_MECHANISM mechanism,
+      SimulatedObject baseKey, Map<Long, Object> template)
+      throws PKCS11Exception {
+    if (mechanism.mechanism != PKCS11Constants.CKM_ECDH1_DERIVE) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    if (!(mechanism.pParameter instanceof CK_ECDH1_DERIVE_PARAMS)) {
+      throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+    }
+
+    CK_ECDH1_DERIVE_PARAMS params =
+        (CK_ECDH1_DERIVE_PARAMS) mechanism.pParameter;
+    if (params.kdf != PKCS11Constants.CKD_NULL
+        || params.pPublicData == null) {
+      throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+    }
+
+    checkKeyType(baseKey, PKCS11Constants.CKK_EC);
+    checkKeyUsage(baseKey, PKCS11Constants.CKA_DERIVE);
+
+    byte[] secret;
+    try {
+      ECParameterSpec ecParams = getCurveParams(
+          baseKey.getBytes(PKCS11Constants.CKA_EC_PARAMS));
+      PublicKey peerKey = KeyFactory.getInstance("EC").generatePublic(
+          new ECPublicKeySpec(decodePoint(params.pPublicData,
+              getFieldSize(ecParams)), ecParams));
+      KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+      agreement.init(getAsymmetricKey(baseKey));
+      agreement.doPhase(peerKey, true);
+      secret = agreement.generateSecret();
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_MECHANISM_PARAM_INVALID);
+    }
+
+    long keyType = getLong(template, PKCS11Constants.CKA_KEY_TYPE,
+        PKCS11Constants.CKK_GENERIC_SECRET);
+    int len = (int) getLong(template, PKCS11Constants.CKA_VALUE_LEN,
+        keyType == PKCS11Constants.CKK_AES ? -1 : secret.length);
+    if (len < 1 || len > secret.length) {
+      throw error(len < 0 ? PKCS11Constants.CKR_TEMPLATE_INCOMPLETE
+          : PKCS11Constants.CKR_KEY_SIZE_RANGE);
+    }
+
+    return newSecretKey(keyType, Arrays.copyOf(secret, len),
+        PKCS11Constants.CKM_ECDH1_DERIVE, template);
+  }
+
+  static byte[] wrapKey(CK_MECHANISM mechanism, SimulatedObject wrappingKey,
+      SimulatedObject key) throws PKCS11Exception {
+    if (mechanism.mechanism != PKCS11Constants.CKM_AES_KEY_WRAP) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    checkKeyType(wrappingKey, PKCS11Constants.CKK_AES);
+    checkKeyUsage(wrappingKey, PKCS11Constants.CKA_WRAP);
+    if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY) {
+      throw error(PKCS11Constants.CKR_KEY_NOT_WRAPPABLE);
+    }
+    if (!key.getBoolean(PKCS11Constants.CKA_EXTRACTABLE)) {
+      throw error(PKCS11Constants.CKR_KEY_UNEXTRACTABLE);
+    }
+
+    try {
+      Cipher cipher = Cipher.getInstance("AESWrap");
+      cipher.init(Cipher.WRAP_MODE, getSecretKey(wrappingKey, "AES"));
+      return cipher.wrap(getSecretKey(key, "AES"));
+    } catch (InvalidKeyException | IllegalBlockSizeException ex) {
+      throw error(PKCS11Constants.CKR_KEY_SIZE_RANGE);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+    }
+  }
+
+  static Map<Long, Object> unwrapKey(CK_MECHANISM mechanism,
+      SimulatedObject unwrappingKey, byte[] wrappedKey,
+      Map<Long, Object> template) throws PKCS11Exception {
+    if (mechanism.mechanism != PKCS11Constants.CKM_AES_KEY_WRAP) {
+      throw error(PKCS11Constants.CKR_MECHANISM_INVALID);
+    }
+
+    checkKeyType(unwrappingKey, PKCS11Constants.CKK_AES);
+    checkKeyUsage(unwrappingKey, PKCS11Constants.CKA_UNWRAP);
+
+    byte[] value;
+    try {
+      Cipher cipher = Cipher.getInstance("AESWrap");
+      cipher.init(Cipher.UNWRAP_MODE, getSecretKey(unwrappingKey, "AES"));
+      value = cipher.unwrap(wrappedKey, "AES", Cipher.SECRET_KEY)
+          .getEncoded();
+    } catch (InvalidKeyException ex) {
+      throw error(PKCS11Constants.CKR_WRAPPED_KEY_INVALID);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+    }
+
+    long keyType = getLong(template, PKCS11Constants.CKA_KEY_TYPE,
+        PKCS11Constants.CKK_GENERIC_SECRET);
+    return newSecretKey(keyType, value,
+        PKCS11Constants.CK_UNAVAILABLE_INFORMATION, template);
+  }
+
+  /**
+   * Completes the attributes of an object to be created with
+   * C_CreateObject.
+   *
+   * @param template
+   *          The template.
+   * @return the attributes of the object.
+   * @throws PKCS11Exception
+   *           If CKA_CLASS is missing.
+   */
+  static Map<Long, Object> createObject(Map<Long, Object> template)
+      throws PKCS11Exception {
+    Object objectClass = template.get(PKCS11Constants.CKA_CLASS);
+    if (!(objectClass instanceof Long)) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+
+    long clazz = (Long) objectClass;
+    if (clazz != PKCS11Constants.CKO_PRIVATE_KEY
+        && clazz != PKCS11Constants.CKO_PUBLIC_KEY
+        && clazz != PKCS11Constants.CKO_SECRET_KEY) {
+      Map<Long, Object> attrs = new HashMap<>();
+      attrs.put(PKCS11Constants.CKA_TOKEN, Boolean.FALSE);
+      attrs.put(PKCS11Constants.CKA_PRIVATE, Boolean.FALSE);
+      attrs.put(PKCS11Constants.CKA_MODIFIABLE, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_LABEL, new char[0]);
+      attrs.putAll(template);
+      return attrs;
+    }
+
+    Object keyType = template.get(PKCS11Constants.CKA_KEY_TYPE);
+    if (!(keyType instanceof Long)) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+
+    Map<Long, Object> attrs = newKey(clazz, (Long) keyType,
+        PKCS11Constants.CK_UNAVAILABLE_INFORMATION, template);
+    attrs.put(PKCS11Constants.CKA_LOCAL, Boolean.FALSE);
+    Object value = template.get(PKCS11Constants.CKA_VALUE);
+    if (clazz == PKCS11Constants.CKO_SECRET_KEY && value instanceof byte[]) {
+      attrs.put(PKCS11Constants.CKA_VALUE_LEN,
+          (long) ((byte[]) value).length);
+    }
+    return attrs;
+  }
+
+  private static Map<Long, Object> newSecretKey(long keyType, byte[] value,
+      long keyGenMechanism, Map<Long, Object> template) {
+    Map<Long, Object> attrs = newKey(PKCS11Constants.CKO_SECRET_KEY,
+        keyType, keyGenMechanism, template);
+    attrs.put(PKCS11Constants.CKA_VALUE, value);
+    attrs.put(PKCS11Constants.CKA_VALUE_LEN, (long) value.length);
+    return attrs;
+  }
+
+  /**
+   * Returns the attributes of a new key: the defaults, overwritten by the
+   * template.
+   */
+  private static Map<Long, Object> newKey(long objectClass, long keyType,
+      long keyGenMechanism, Map<Long, Object> template) {
+    boolean privateOrSecret = objectClass != PKCS11Constants.CKO_PUBLIC_KEY;
+    boolean privateKey = objectClass == PKCS11Constants.CKO_PRIVATE_KEY;
+
+    Map<Long, Object> attrs = new HashMap<>();
+    attrs.put(PKCS11Constants.CKA_TOKEN, Boolean.FALSE);
+    attrs.put(PKCS11Constants.CKA_PRIVATE, privateOrSecret);
+    attrs.put(PKCS11Constants.CKA_MODIFIABLE, Boolean.TRUE);
+    attrs.put(PKCS11Constants.CKA_LABEL, new char[0]);
+    attrs.put(PKCS11Constants.CKA_ID, new byte[0]);
+    attrs.put(PKCS11Constants.CKA_DERIVE, Boolean.TRUE);
+    attrs.put(PKCS11Constants.CKA_LOCAL, Boolean.TRUE);
+    attrs.put(PKCS11Constants.CKA_KEY_GEN_MECHANISM, keyGenMechanism);
+    if (objectClass != PKCS11Constants.CKO_PRIVATE_KEY) {
+      attrs.put(PKCS11Constants.CKA_ENCRYPT, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_VERIFY, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_WRAP, Boolean.TRUE);
+    }
+    if (privateOrSecret) {
+      attrs.put(PKCS11Constants.CKA_DECRYPT, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_SIGN, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_UNWRAP, Boolean.TRUE);
+      attrs.put(PKCS11Constants.CKA_SENSITIVE, privateKey);
+      attrs.put(PKCS11Constants.CKA_EXTRACTABLE, !privateKey);
+    }
+
+    attrs.putAll(template);
+    attrs.put(PKCS11Constants.CKA_CLASS, objectClass);
+    attrs.put(PKCS11Constants.CKA_KEY_TYPE, keyType);
+    if (privateOrSecret) {
+      attrs.put(PKCS11Constants.CKA_ALWAYS_SENSITIVE,
+          attrs.get(PKCS11Constants.CKA_SENSITIVE));
+      attrs.put(PKCS11Constants.CKA_NEVER_EXTRACTABLE,
+          !Boolean.TRUE.equals(attrs.get(PKCS11Constants.CKA_EXTRACTABLE)));
+    }
+    return attrs;
+  }
+
+  private static long getLong(Map<Long, Object> template, long type,
+      long defaultValue) {
+    Object value = template.get(type);
+    return (value instanceof Long) ? (Long) value : defaultValue;
+  }
+
+  private static void checkKeyType(SimulatedObject key, long keyType)
+      throws PKCS11Exception {
+    if (key.getKeyType() != keyType) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+  }
+
+  private static void checkKeyUsage(SimulatedObject key, long usage)
+      throws PKCS11Exception {
+    if (!key.getBoolean(usage)) {
+      throw error(PKCS11Constants.CKR_KEY_FUNCTION_NOT_PERMITTED);
+    }
+  }
+
+  private static Key getSecretKey(SimulatedObject key, String algorithm)
+      throws PKCS11Exception {
+    byte[] value = key.getBytes(PKCS11Constants.CKA_VALUE);
+    if (key.getObjectClass() != PKCS11Constants.CKO_SECRET_KEY
+        || value == null) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+    return new SecretKeySpec(value, algorithm);
+  }
+
+  /**
+   * Returns the JCA key of an EC or RSA key object, creates it on first
+   * use.
+   */
+  private static Key getAsymmetricKey(SimulatedObject key)
+      throws PKCS11Exception {
+    Key javaKey = key.getJavaKey();
+    if (javaKey != null) {
+      return javaKey;
+    }
+
+    long objectClass = key.getObjectClass();
+    long keyType = key.getKeyType();
+    try {
+      if (keyType == PKCS11Constants.CKK_EC) {
+        ECParameterSpec params = getCurveParams(
+            key.getBytes(PKCS11Constants.CKA_EC_PARAMS));
+        KeyFactory kf = KeyFactory.getInstance("EC");
+        if (objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+          javaKey = kf.generatePrivate(new ECPrivateKeySpec(
+              positive(key, PKCS11Constants.CKA_VALUE), params));
+        } else {
+          javaKey = kf.generatePublic(new ECPublicKeySpec(decodePoint(
+              key.getBytes(PKCS11Constants.CKA_EC_POINT),
+              getFieldSize(params)), params));
+        }
+      } else if (keyType == PKCS11Constants.CKK_RSA) {
+        KeyFactory kf = KeyFactory.getInstance("RSA");
+        BigInteger modulus = positive(key, PKCS11Constants.CKA_MODULUS);
+        if (objectClass == PKCS11Constants.CKO_PRIVATE_KEY) {
+          javaKey = kf.generatePrivate(new RSAPrivateKeySpec(modulus,
+              positive(key, PKCS11Constants.CKA_PRIVATE_EXPONENT)));
+        } else {
+          javaKey = kf.generatePublic(new RSAPublicKeySpec(modulus,
+              positive(key, PKCS11Constants.CKA_PUBLIC_EXPONENT)));
+        }
+      } else {
+        throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+      }
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_KEY_TYPE_INCONSISTENT);
+    }
+
+    key.setJavaKey(javaKey);
+    return javaKey;
+  }
+
+  private static BigInteger positive(SimulatedObject key, long type)
+      throws PKCS11Exception {
+    byte[] value = key.getBytes(type);
+    if (value == null) {
+      throw error(PKCS11Constants.CKR_TEMPLATE_INCOMPLETE);
+    }
+    return new BigInteger(1, value);
+  }
+
+  private static ECParameterSpec getCurveParams(byte[] ecParams)
+      throws PKCS11Exception {
+    String curveName = (ecParams == null) ? null
+        : CURVES.get(Util.toHex(ecParams));
+    if (curveName == null) {
+      throw error(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+    }
+
+    try {
+      AlgorithmParameters params = AlgorithmParameters.getInstance("EC");
+      params.init(new ECGenParameterSpec(curveName));
+      return params.getParameterSpec(ECParameterSpec.class);
+    } catch (GeneralSecurityException ex) {
+      throw error(PKCS11Constants.CKR_DOMAIN_PARAMS_INVALID);
+    }
+  }
+
+  private static int getFieldSize(ECParameterSpec params) {
+    return (params.getCurve().getField().getFieldSize() + 7) / 8;
+  }
+
+  /**
+   * Encodes the point uncompressed, wrapped in a DER octet string as
+   * CKA_EC_POINT.
+   */
+  private static byte[] encodePoint(ECPoint point, int fieldSize) {
+    byte[] encoded = new byte[1 + 2 * fieldSize];
+    encoded[0] = 4;
+    System.arraycopy(toFixedLength(point.getAffineX(), fieldSize), 0,
+        encoded, 1, fieldSize);
+    System.arraycopy(toFixedLength(point.getAffineY(), fieldSize), 0,
+        encoded, 1 + fieldSize, fieldSize);
+    return derEncode(0x04, encoded);
+  }
+
+  /**
+   * Decodes the uncompressed point, either plain or wrapped in a DER octet
+   * string.
+   */
+  private static ECPoint decodePoint(byte[] encoded, int fieldSize)
+      throws PKCS11Exception {
+    int len = 1 + 2 * fieldSize;
+    if (encoded == null || encoded.length < len) {
+      throw error(PKCS11Constants.CKR_ATTRIBUTE_VALUE_INVALID);
+    }
+
+    int offset = encoded.length - len;
+    if (encoded[offset] != 4) {
+      throw error(PKCS11Constants.CKR_ATTRIBUTE_VALUE_INVALID);
+    }
+    return new ECPoint(
+        new BigInteger(1, Arrays.copyOfRange(encoded, offset + 1,
+            offset + 1 + fieldSize)),
+        new BigInteger(1, Arrays.copyOfRange(encoded, offset + 1 + fieldSize,
+            encoded.length)));
+  }
+
+  private static byte[] derToRawSignature(byte[] der, int fieldSize)
+      throws PKCS11Exception {
+    // SEQUENCE { INTEGER r, INTEGER s }
+    int[] offset = {0};
+    readDerHeader(der, offset, 0x30);
+    byte[] raw = new byte[2 * fieldSize];
+    for (int i = 0; i < 2; i++) {
+      int len = readDerHeader(der, offset, 0x02);
+      BigInteger value = new BigInteger(1,
+          Arrays.copyOfRange(der, offset[0], offset[0] + len));
+      offset[0] += len;
+      System.arraycopy(toFixedLength(value, fieldSize), 0,
+          raw, i * fieldSize, fieldSize);
+    }
+    return raw;
+  }
+
+  private static byte[] rawToDerSignature(byte[] raw) {
+    int fieldSize = raw.length / 2;
+    byte[] r = new BigInteger(1, Arrays.copyOf(raw, fieldSize))
+        .toByteArray();
+    byte[] s = new BigInteger(1, Arrays.copyOfRange(raw, fieldSize,
+        raw.length)).toByteArray();
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    byte[] encodedR = derEncode(0x02, r);
+    byte[] encodedS = derEncode(0x02, s);
+    content.write(encodedR, 0, encodedR.length);
+    content.write(encodedS, 0, encodedS.length);
+    return derEncode(0x30, content.toByteArray());
+  }
+
+  private static byte[] derEncode(int tag, byte[] content) {
+    int len = content.length;
+    int lenBytes = (len < 0x80) ? 0 : (len < 0x100) ? 1 : 2;
+    byte[] encoded = new byte[2 + lenBytes + len];
+    encoded[0] = (byte) tag;
+    if (lenBytes == 0) {
+      encoded[1] = (byte) len;
+    } else if (lenBytes == 1) {
+      encoded[1] = (byte) 0x81;
+      encoded[2] = (byte) len;
+    } else {
+      encoded[1] = (byte) 0x82;
+      encoded[2] = (byte) (len >> 8);
+      encoded[3] = (byte) len;
+    }
+    System.arraycopy(content, 0, encoded, 2 + lenBytes, len);
+    return encoded;
+  }
+
+  private static int readDerHeader(byte[] der, int[] offset, int tag)
+      throws PKCS11Exception {
+    int off = offset[0];
+    if (der.length < off + 2 || (der[off] & 0xFF) != tag) {
+      throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+    }
+
+    int len = der[off + 1] & 0xFF;
+    off += 2;
+    if (len == 0x81) {
+      len = der[off++] & 0xFF;
+    } else if (len > 0x81) {
+      throw error(PKCS11Constants.CKR_GENERAL_ERROR);
+    }
+    offset[0] = off;
+    return len;
+  }
+
+  private static byte[] toFixedLength(BigInteger value, int len) {
+    byte[] bytes = unsigned(value);
+    if (bytes.length == len) {
+      return bytes;
+    }
+    byte[] fixed = new byte[len];
+    System.arraycopy(bytes, 0, fixed, len - bytes.length, bytes.length);
+    return fixed;
+  }
+
+  private static byte[] unsigned(BigInteger value) {
+    byte[] bytes = value.toByteArray();
+    if (bytes.length > 1 && bytes[0] == 0) {
+      return Arrays.copyOfRange(bytes, 1, bytes.length);
+    }
+    return bytes;
+  }
+
+}
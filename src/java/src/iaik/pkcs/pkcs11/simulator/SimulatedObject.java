@@ -0,0 +1,236 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.simulator;
+
+import iaik.pkcs.pkcs11.wrapper.PKCS11Constants;
+import sun.security.pkcs11.wrapper.CK_ATTRIBUTE;
+import sun.security.pkcs11.wrapper.CK_DATE;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An object of the simulated token: a map of attribute values, keyed by the
+ * attribute type. The values have the types the PKCS11 wrapper of the JDK
+ * uses: Boolean, Long, byte[], char[] and CK_DATE.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class SimulatedObject {
+
+  /**
+   * Attribute types whose values of private and secret keys can only be
+   * read if the key is not sensitive and extractable.
+   */
+  private static final long[] SENSITIVE_ATTRIBUTES = {
+    PKCS11Constants.CKA_VALUE, PKCS11Constants.CKA_PRIVATE_EXPONENT,
+    PKCS11Constants.CKA_PRIME_1, PKCS11Constants.CKA_PRIME_2,
+    PKCS11Constants.CKA_EXPONENT_1, PKCS11Constants.CKA_EXPONENT_2,
+    PKCS11Constants.CKA_COEFFICIENT};
+
+  private final long handle;
+
+  /**
+   * Handle of the session which created this session object, or 0 for
+   * token objects.
+   */
+  private final long ownerSession;
+
+  private final Map<Long, Object> attributes;
+
+  /**
+   * The JCA key of this key object, created on first use.
+   */
+  private volatile java.security.Key javaKey;
+
+  SimulatedObject(long handle, long ownerSession,
+      Map<Long, Object> attributes) {
+    this.handle = handle;
+    this.ownerSession = ownerSession;
+    this.attributes = new HashMap<>(attributes);
+  }
+
+  long getHandle() {
+    return handle;
+  }
+
+  long getOwnerSession() {
+    return ownerSession;
+  }
+
+  synchronized Object get(long type) {
+    return attributes.get(type);
+  }
+
+  synchronized boolean getBoolean(long type) {
+    Object value = attributes.get(type);
+    return (value instanceof Boolean) && (Boolean) value;
+  }
+
+  synchronized long getLong(long type, long defaultValue) {
+    Object value = attributes.get(type);
+    return (value instanceof Long) ? (Long) value : defaultValue;
+  }
+
+  synchronized byte[] getBytes(long type) {
+    Object value = attributes.get(type);
+    return (value instanceof byte[]) ? (byte[]) value : null;
+  }
+
+  long getObjectClass() {
+    return getLong(PKCS11Constants.CKA_CLASS, -1);
+  }
+
+  long getKeyType() {
+    return getLong(PKCS11Constants.CKA_KEY_TYPE, -1);
+  }
+
+  boolean isPrivate() {
+    return getBoolean(PKCS11Constants.CKA_PRIVATE);
+  }
+
+  synchronized Map<Long, Object> copyAttributes() {
+    return new HashMap<>(attributes);
+  }
+
+  /**
+   * Sets the given attribute values.
+   *
+   * @param template
+   *          The attributes.
+   * @return the error code, CKR_OK if all values have been set.
+   */
+  synchronized long setAttributes(CK_ATTRIBUTE[] template) {
+    for (CK_ATTRIBUTE attr : template) {
+      if (attr.type == PKCS11Constants.CKA_CLASS
+          || attr.type == PKCS11Constants.CKA_KEY_TYPE
+          || attr.type == PKCS11Constants.CKA_TOKEN) {
+        if (!valueEquals(attributes.get(attr.type), attr.pValue)) {
+          return PKCS11Constants.CKR_ATTRIBUTE_READ_ONLY;
+        }
+      }
+    }
+
+    for (CK_ATTRIBUTE attr : template) {
+      attributes.put(attr.type, attr.pValue);
+    }
+    return PKCS11Constants.CKR_OK;
+  }
+
+  /**
+   * Reads the given attribute values. As the PKCS11 wrapper of the JDK, no
+   * value is set if one attribute cannot be read.
+   *
+   * @param template
+   *          The attributes, the values are set on return.
+   * @return the error code, CKR_OK if all values have been read.
+   */
+  synchronized long getAttributes(CK_ATTRIBUTE[] template) {
+    long objectClass = getObjectClass();
+    boolean protectedKey = (objectClass == PKCS11Constants.CKO_PRIVATE_KEY
+        || objectClass == PKCS11Constants.CKO_SECRET_KEY)
+        && (getBoolean(PKCS11Constants.CKA_SENSITIVE)
+            || !getBoolean(PKCS11Constants.CKA_EXTRACTABLE));
+
+    for (CK_ATTRIBUTE attr : template) {
+      if (!attributes.containsKey(attr.type)) {
+        return PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID;
+      }
+
+      if (protectedKey && isSensitive(attr.type)) {
+        return PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE;
+      }
+    }
+
+    for (CK_ATTRIBUTE attr : template) {
+      attr.pValue = copy(attributes.get(attr.type));
+    }
+    return PKCS11Constants.CKR_OK;
+  }
+
+  /**
+   * Checks whether this object has all attribute values of the template.
+   *
+   * @param template
+   *          The search template.
+   * @return whether this object matches.
+   */
+  synchronized boolean matches(CK_ATTRIBUTE[] template) {
+    if (template == null) {
+      return true;
+    }
+
+    for (CK_ATTRIBUTE attr : template) {
+      if (!attributes.containsKey(attr.type)
+          || !valueEquals(attributes.get(attr.type), attr.pValue)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  java.security.Key getJavaKey() {
+    return javaKey;
+  }
+
+  void setJavaKey(java.security.Key javaKey) {
+    this.javaKey = javaKey;
+  }
+
+  private static boolean isSensitive(long type) {
+    for (long t : SENSITIVE_ATTRIBUTES) {
+      if (t == type) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  static boolean valueEquals(Object a, Object b) {
+    if (a == b) {
+      return true;
+    } else if (a == null || b == null) {
+      return false;
+    } else if (a instanceof byte[] && b instanceof byte[]) {
+      return Arrays.equals((byte[]) a, (byte[]) b);
+    } else if (a instanceof char[] && b instanceof char[]) {
+      return Arrays.equals((char[]) a, (char[]) b);
+    } else if (a instanceof CK_DATE && b instanceof CK_DATE) {
+      CK_DATE da = (CK_DATE) a;
+      CK_DATE db = (CK_DATE) b;
+      return Arrays.equals(da.year, db.year)
+          && Arrays.equals(da.month, db.month)
+          && Arrays.equals(da.day, db.day);
+    } else {
+      return a.equals(b);
+    }
+  }
+
+  private static Object copy(Object value) {
+    if (value instanceof byte[]) {
+      return ((byte[]) value).clone();
+    } else if (value instanceof char[]) {
+      return ((char[]) value).clone();
+    } else {
+      return value;
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.simulator;
+
+import iaik.pkcs.pkcs11.simulator.SimulatedCrypto.CipherOperation;
+import iaik.pkcs.pkcs11.simulator.SimulatedCrypto.SignatureOperation;
+
+import java.security.MessageDigest;
+
+/**
+ * A session of the simulated token with the state of its active
+ * operations. A session is used by one thread at a time; the state is
+ * guarded by the session itself.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class SimulatedSession {
+
+  private final long handle;
+
+  private final long slotID;
+
+  private final boolean rwSession;
+
+  CipherOperation encrypt;
+
+  CipherOperation decrypt;
+
+  MessageDigest digest;
+
+  SignatureOperation sign;
+
+  SignatureOperation verify;
+
+  /**
+   * Handles of the objects found by C_FindObjectsInit, or null if no
+   * find operation is active.
+   */
+  long[] findResults;
+
+  /**
+   * Index of the next object to be returned by C_FindObjects.
+   */
+  int findPosition;
+
+  SimulatedSession(long handle, long slotID, boolean rwSession) {
+    this.handle = handle;
+    this.slotID = slotID;
+    this.rwSession = rwSession;
+  }
+
+  long getHandle() {
+    return handle;
+  }
+
+  long getSlotID() {
+    return slotID;
+  }
+
+  boolean isRwSession() {
+    return rwSession;
+  }
+
+}
@@ -0,0 +1,2032 @@
+/*
+ *
+ * Copyright (c) 2019 Lijun Liao
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package iaik.pkcs.pkcs11.wrapper;
+
+import java.util.Arrays;
+
+/**
+ * Names of the CKM, CKR and CKA codes. Generated by dev.CodeGenerator from
+ * pkcs11t.h, do not edit.
+ * <p>
+ * The code to name lookups are switch statements, the name to code lookups
+ * are binary searches in sorted arrays, which are initialized on first use
+ * by the class loader. Nothing needs to be parsed or locked.
+ *
+ * @author Lijun Liao
+ * @since 1.4.11
+ */
+final class CodeNames {
+
+  private CodeNames() {
+  }
+
+  static String ckmCodeToName(long code) {
+    if ((code >>> 32) != 0) {
+      return null;
+    }
+
+    switch ((int) code) {
+      case 0x00000000: return "CKM_RSA_PKCS_KEY_PAIR_GEN";
+      case 0x00000001: return "CKM_RSA_PKCS";
+      case 0x00000002: return "CKM_RSA_9796";
+      case 0x00000003: return "CKM_RSA_X_509";
+      case 0x00000004: return "CKM_MD2_RSA_PKCS";
+      case 0x00000005: return "CKM_MD5_RSA_PKCS";
+      case 0x00000006: return "CKM_SHA1_RSA_PKCS";
+      case 0x00000007: return "CKM_RIPEMD128_RSA_PKCS";
+      case 0x00000008: return "CKM_RIPEMD160_RSA_PKCS";
+      case 0x00000009: return "CKM_RSA_PKCS_OAEP";
+      case 0x0000000A: return "CKM_RSA_X9_31_KEY_PAIR_GEN";
+      case 0x0000000B: return "CKM_RSA_X9_31";
+      case 0x0000000C: return "CKM_SHA1_RSA_X9_31";
+      case 0x0000000D: return "CKM_RSA_PKCS_PSS";
+      case 0x0000000E: return "CKM_SHA1_RSA_PKCS_PSS";
+      case 0x00000010: return "CKM_DSA_KEY_PAIR_GEN";
+      case 0x00000011: return "CKM_DSA";
+      case 0x00000012: return "CKM_DSA_SHA1";
+      case 0x00000013: return "CKM_DSA_SHA224";
+      case 0x00000014: return "CKM_DSA_SHA256";
+      case 0x00000015: return "CKM_DSA_SHA384";
+      case 0x00000016: return "CKM_DSA_SHA512";
+      case 0x00000018: return "CKM_DSA_SHA3_224";
+      case 0x00000019: return "CKM_DSA_SHA3_256";
+      case 0x0000001A: return "CKM_DSA_SHA3_384";
+      case 0x0000001B: return "CKM_DSA_SHA3_512";
+      case 0x00000020: return "CKM_DH_PKCS_KEY_PAIR_GEN";
+      case 0x00000021: return "CKM_DH_PKCS_DERIVE";
+      case 0x00000030: return "CKM_X9_42_DH_KEY_PAIR_GEN";
+      case 0x00000031: return "CKM_X9_42_DH_DERIVE";
+      case 0x00000032: return "CKM_X9_42_DH_HYBRID_DERIVE";
+      case 0x00000033: return "CKM_X9_42_MQV_DERIVE";
+      case 0x00000040: return "CKM_SHA256_RSA_PKCS";
+      case 0x00000041: return "CKM_SHA384_RSA_PKCS";
+      case 0x00000042: return "CKM_SHA512_RSA_PKCS";
+      case 0x00000043: return "CKM_SHA256_RSA_PKCS_PSS";
+      case 0x00000044: return "CKM_SHA384_RSA_PKCS_PSS";
+      case 0x00000045: return "CKM_SHA512_RSA_PKCS_PSS";
+      case 0x00000046: return "CKM_SHA224_RSA_PKCS";
+      case 0x00000047: return "CKM_SHA224_RSA_PKCS_PSS";
+      case 0x00000048: return "CKM_SHA512_224";
+      case 0x00000049: return "CKM_SHA512_224_HMAC";
+      case 0x0000004A: return "CKM_SHA512_224_HMAC_GENERAL";
+      case 0x0000004B: return "CKM_SHA512_224_KEY_DERIVATION";
+      case 0x0000004C: return "CKM_SHA512_256";
+      case 0x0000004D: return "CKM_SHA512_256_HMAC";
+      case 0x0000004E: return "CKM_SHA512_256_HMAC_GENERAL";
+      case 0x0000004F: return "CKM_SHA512_256_KEY_DERIVATION";
+      case 0x00000050: return "CKM_SHA512_T";
+      case 0x00000051: return "CKM_SHA512_T_HMAC";
+      case 0x00000052: return "CKM_SHA512_T_HMAC_GENERAL";
+      case 0x00000053: return "CKM_SHA512_T_KEY_DERIVATION";
+      case 0x00000060: return "CKM_SHA3_256_RSA_PKCS";
+      case 0x00000061: return "CKM_SHA3_384_RSA_PKCS";
+      case 0x00000062: return "CKM_SHA3_512_RSA_PKCS";
+      case 0x00000063: return "CKM_SHA3_256_RSA_PKCS_PSS";
+      case 0x00000064: return "CKM_SHA3_384_RSA_PKCS_PSS";
+      case 0x00000065: return "CKM_SHA3_512_RSA_PKCS_PSS";
+      case 0x00000066: return "CKM_SHA3_224_RSA_PKCS";
+      case 0x00000067: return "CKM_SHA3_224_RSA_PKCS_PSS";
+      case 0x00000100: return "CKM_RC2_KEY_GEN";
+      case 0x00000101: return "CKM_RC2_ECB";
+      case 0x00000102: return "CKM_RC2_CBC";
+      case 0x00000103: return "CKM_RC2_MAC";
+      case 0x00000104: return "CKM_RC2_MAC_GENERAL";
+      case 0x00000105: return "CKM_RC2_CBC_PAD";
+      case 0x00000110: return "CKM_RC4_KEY_GEN";
+      case 0x00000111: return "CKM_RC4";
+      case 0x00000120: return "CKM_DES_KEY_GEN";
+      case 0x00000121: return "CKM_DES_ECB";
+      case 0x00000122: return "CKM_DES_CBC";
+      case 0x00000123: return "CKM_DES_MAC";
+      case 0x00000124: return "CKM_DES_MAC_GENERAL";
+      case 0x00000125: return "CKM_DES_CBC_PAD";
+      case 0x00000130: return "CKM_DES2_KEY_GEN";
+      case 0x00000131: return "CKM_DES3_KEY_GEN";
+      case 0x00000132: return "CKM_DES3_ECB";
+      case 0x00000133: return "CKM_DES3_CBC";
+      case 0x00000134: return "CKM_DES3_MAC";
+      case 0x00000135: return "CKM_DES3_MAC_GENERAL";
+      case 0x00000136: return "CKM_DES3_CBC_PAD";
+      case 0x00000137: return "CKM_DES3_CMAC_GENERAL";
+      case 0x00000138: return "CKM_DES3_CMAC";
+      case 0x00000140: return "CKM_CDMF_KEY_GEN";
+      case 0x00000141: return "CKM_CDMF_ECB";
+      case 0x00000142: return "CKM_CDMF_CBC";
+      case 0x00000143: return "CKM_CDMF_MAC";
+      case 0x00000144: return "CKM_CDMF_MAC_GENERAL";
+      case 0x00000145: return "CKM_CDMF_CBC_PAD";
+      case 0x00000150: return "CKM_DES_OFB64";
+      case 0x00000151: return "CKM_DES_OFB8";
+      case 0x00000152: return "CKM_DES_CFB64";
+      case 0x00000153: return "CKM_DES_CFB8";
+      case 0x00000200: return "CKM_MD2";
+      case 0x00000201: return "CKM_MD2_HMAC";
+      case 0x00000202: return "CKM_MD2_HMAC_GENERAL";
+      case 0x00000210: return "CKM_MD5";
+      case 0x00000211: return "CKM_MD5_HMAC";
+      case 0x00000212: return "CKM_MD5_HMAC_GENERAL";
+      case 0x00000220: return "CKM_SHA_1";
+      case 0x00000221: return "CKM_SHA_1_HMAC";
+      case 0x00000222: return "CKM_SHA_1_HMAC_GENERAL";
+      case 0x00000230: return "CKM_RIPEMD128";
+      case 0x00000231: return "CKM_RIPEMD128_HMAC";
+      case 0x00000232: return "CKM_RIPEMD128_HMAC_GENERAL";
+      case 0x00000240: return "CKM_RIPEMD160";
+      case 0x00000241: return "CKM_RIPEMD160_HMAC";
+      case 0x00000242: return "CKM_RIPEMD160_HMAC_GENERAL";
+      case 0x00000250: return "CKM_SHA256";
+      case 0x00000251: return "CKM_SHA256_HMAC";
+      case 0x00000252: return "CKM_SHA256_HMAC_GENERAL";
+      case 0x00000255: return "CKM_SHA224";
+      case 0x00000256: return "CKM_SHA224_HMAC";
+      case 0x00000257: return "CKM_SHA224_HMAC_GENERAL";
+      case 0x00000260: return "CKM_SHA384";
+      case 0x00000261: return "CKM_SHA384_HMAC";
+      case 0x00000262: return "CKM_SHA384_HMAC_GENERAL";
+      case 0x00000270: return "CKM_SHA512";
+      case 0x00000271: return "CKM_SHA512_HMAC";
+      case 0x00000272: return "CKM_SHA512_HMAC_GENERAL";
+      case 0x00000280: return "CKM_SECURID_KEY_GEN";
+      case 0x00000282: return "CKM_SECURID";
+      case 0x00000290: return "CKM_HOTP_KEY_GEN";
+      case 0x00000291: return "CKM_HOTP";
+      case 0x000002A0: return "CKM_ACTI";
+      case 0x000002A1: return "CKM_ACTI_KEY_GEN";
+      case 0x000002B0: return "CKM_SHA3_256";
+      case 0x000002B1: return "CKM_SHA3_256_HMAC";
+      case 0x000002B2: return "CKM_SHA3_256_HMAC_GENERAL";
+      case 0x000002B3: return "CKM_SHA3_256_KEY_GEN";
+      case 0x000002B5: return "CKM_SHA3_224";
+      case 0x000002B6: return "CKM_SHA3_224_HMAC";
+      case 0x000002B7: return "CKM_SHA3_224_HMAC_GENERAL";
+      case 0x000002B8: return "CKM_SHA3_224_KEY_GEN";
+      case 0x000002C0: return "CKM_SHA3_384";
+      case 0x000002C1: return "CKM_SHA3_384_HMAC";
+      case 0x000002C2: return "CKM_SHA3_384_HMAC_GENERAL";
+      case 0x000002C3: return "CKM_SHA3_384_KEY_GEN";
+      case 0x000002D0: return "CKM_SHA3_512";
+      case 0x000002D1: return "CKM_SHA3_512_HMAC";
+      case 0x000002D2: return "CKM_SHA3_512_HMAC_GENERAL";
+      case 0x000002D3: return "CKM_SHA3_512_KEY_GEN";
+      case 0x00000300: return "CKM_CAST_KEY_GEN";
+      case 0x00000301: return "CKM_CAST_ECB";
+      case 0x00000302: return "CKM_CAST_CBC";
+      case 0x00000303: return "CKM_CAST_MAC";
+      case 0x00000304: return "CKM_CAST_MAC_GENERAL";
+      case 0x00000305: return "CKM_CAST_CBC_PAD";
+      case 0x00000310: return "CKM_CAST3_KEY_GEN";
+      case 0x00000311: return "CKM_CAST3_ECB";
+      case 0x00000312: return "CKM_CAST3_CBC";
+      case 0x00000313: return "CKM_CAST3_MAC";
+      case 0x00000314: return "CKM_CAST3_MAC_GENERAL";
+      case 0x00000315: return "CKM_CAST3_CBC_PAD";
+      case 0x00000320: return "CKM_CAST128_KEY_GEN";
+      case 0x00000321: return "CKM_CAST128_ECB";
+      case 0x00000322: return "CKM_CAST128_CBC";
+      case 0x00000323: return "CKM_CAST128_MAC";
+      case 0x00000324: return "CKM_CAST128_MAC_GENERAL";
+      case 0x00000325: return "CKM_CAST128_CBC_PAD";
+      case 0x00000330: return "CKM_RC5_KEY_GEN";
+      case 0x00000331: return "CKM_RC5_ECB";
+      case 0x00000332: return "CKM_RC5_CBC";
+      case 0x00000333: return "CKM_RC5_MAC";
+      case 0x00000334: return "CKM_RC5_MAC_GENERAL";
+      case 0x00000335: return "CKM_RC5_CBC_PAD";
+      case 0x00000340: return "CKM_IDEA_KEY_GEN";
+      case 0x00000341: return "CKM_IDEA_ECB";
+      case 0x00000342: return "CKM_IDEA_CBC";
+      case 0x00000343: return "CKM_IDEA_MAC";
+      case 0x00000344: return "CKM_IDEA_MAC_GENERAL";
+      case 0x00000345: return "CKM_IDEA_CBC_PAD";
+      case 0x00000350: return "CKM_GENERIC_SECRET_KEY_GEN";
+      case 0x00000360: return "CKM_CONCATENATE_BASE_AND_KEY";
+      case 0x00000362: return "CKM_CONCATENATE_BASE_AND_DATA";
+      case 0x00000363: return "CKM_CONCATENATE_DATA_AND_BASE";
+      case 0x00000364: return "CKM_XOR_BASE_AND_DATA";
+      case 0x00000365: return "CKM_EXTRACT_KEY_FROM_KEY";
+      case 0x00000370: return "CKM_SSL3_PRE_MASTER_KEY_GEN";
+      case 0x00000371: return "CKM_SSL3_MASTER_KEY_DERIVE";
+      case 0x00000372: return "CKM_SSL3_KEY_AND_MAC_DERIVE";
+      case 0x00000373: return "CKM_SSL3_MASTER_KEY_DERIVE_DH";
+      case 0x00000374: return "CKM_TLS_PRE_MASTER_KEY_GEN";
+      case 0x00000375: return "CKM_TLS_MASTER_KEY_DERIVE";
+      case 0x00000376: return "CKM_TLS_KEY_AND_MAC_DERIVE";
+      case 0x00000377: return "CKM_TLS_MASTER_KEY_DERIVE_DH";
+      case 0x00000378: return "CKM_TLS_PRF";
+      case 0x00000380: return "CKM_SSL3_MD5_MAC";
+      case 0x00000381: return "CKM_SSL3_SHA1_MAC";
+      case 0x00000390: return "CKM_MD5_KEY_DERIVATION";
+      case 0x00000391: return "CKM_MD2_KEY_DERIVATION";
+      case 0x00000392: return "CKM_SHA1_KEY_DERIVATION";
+      case 0x00000393: return "CKM_SHA256_KEY_DERIVATION";
+      case 0x00000394: return "CKM_SHA384_KEY_DERIVATION";
+      case 0x00000395: return "CKM_SHA512_KEY_DERIVATION";
+      case 0x00000396: return "CKM_SHA224_KEY_DERIVATION";
+      case 0x00000397: return "CKM_SHA3_256_KEY_DERIVE";
+      case 0x00000398: return "CKM_SHA3_224_KEY_DERIVE";
+      case 0x00000399: return "CKM_SHA3_384_KEY_DERIVE";
+      case 0x0000039A: return "CKM_SHA3_512_KEY_DERIVE";
+      case 0x0000039B: return "CKM_SHAKE_128_KEY_DERIVE";
+      case 0x0000039C: return "CKM_SHAKE_256_KEY_DERIVE";
+      case 0x000003A0: return "CKM_PBE_MD2_DES_CBC";
+      case 0x000003A1: return "CKM_PBE_MD5_DES_CBC";
+      case 0x000003A2: return "CKM_PBE_MD5_CAST_CBC";
+      case 0x000003A3: return "CKM_PBE_MD5_CAST3_CBC";
+      case 0x000003A4: return "CKM_PBE_MD5_CAST128_CBC";
+      case 0x000003A5: return "CKM_PBE_SHA1_CAST128_CBC";
+      case 0x000003A6: return "CKM_PBE_SHA1_RC4_128";
+      case 0x000003A7: return "CKM_PBE_SHA1_RC4_40";
+      case 0x000003A8: return "CKM_PBE_SHA1_DES3_EDE_CBC";
+      case 0x000003A9: return "CKM_PBE_SHA1_DES2_EDE_CBC";
+      case 0x000003AA: return "CKM_PBE_SHA1_RC2_128_CBC";
+      case 0x000003AB: return "CKM_PBE_SHA1_RC2_40_CBC";
+      case 0x000003AC: return "CKM_SP800_108_COUNTER_KDF";
+      case 0x000003AD: return "CKM_SP800_108_FEEDBACK_KDF";
+      case 0x000003AE: return "CKM_SP800_108_DOUBLE_PIPELINE_KDF";
+      case 0x000003B0: return "CKM_PKCS5_PBKD2";
+      case 0x000003C0: return "CKM_PBA_SHA1_WITH_SHA1_HMAC";
+      case 0x000003D0: return "CKM_WTLS_PRE_MASTER_KEY_GEN";
+      case 0x000003D1: return "CKM_WTLS_MASTER_KEY_DERIVE";
+      case 0x000003D2: return "CKM_WTLS_MASTER_KEY_DERIVE_DH_ECC";
+      case 0x000003D3: return "CKM_WTLS_PRF";
+      case 0x000003D4: return "CKM_WTLS_SERVER_KEY_AND_MAC_DERIVE";
+      case 0x000003D5: return "CKM_WTLS_CLIENT_KEY_AND_MAC_DERIVE";
+      case 0x000003D6: return "CKM_TLS10_MAC_SERVER";
+      case 0x000003D7: return "CKM_TLS10_MAC_CLIENT";
+      case 0x000003D8: return "CKM_TLS12_MAC";
+      case 0x000003D9: return "CKM_TLS12_KDF";
+      case 0x000003E0: return "CKM_TLS12_MASTER_KEY_DERIVE";
+      case 0x000003E1: return "CKM_TLS12_KEY_AND_MAC_DERIVE";
+      case 0x000003E2: return "CKM_TLS12_MASTER_KEY_DERIVE_DH";
+      case 0x000003E3: return "CKM_TLS12_KEY_SAFE_DERIVE";
+      case 0x000003E4: return "CKM_TLS_MAC";
+      case 0x000003E5: return "CKM_TLS_KDF";
+      case 0x00000400: return "CKM_KEY_WRAP_LYNKS";
+      case 0x00000401: return "CKM_KEY_WRAP_SET_OAEP";
+      case 0x00000500: return "CKM_CMS_SIG";
+      case 0x00000510: return "CKM_KIP_DERIVE";
+      case 0x00000511: return "CKM_KIP_WRAP";
+      case 0x00000512: return "CKM_KIP_MAC";
+      case 0x00000550: return "CKM_CAMELLIA_KEY_GEN";
+      case 0x00000551: return "CKM_CAMELLIA_ECB";
+      case 0x00000552: return "CKM_CAMELLIA_CBC";
+      case 0x00000553: return "CKM_CAMELLIA_MAC";
+      case 0x00000554: return "CKM_CAMELLIA_MAC_GENERAL";
+      case 0x00000555: return "CKM_CAMELLIA_CBC_PAD";
+      case 0x00000556: return "CKM_CAMELLIA_ECB_ENCRYPT_DATA";
+      case 0x00000557: return "CKM_CAMELLIA_CBC_ENCRYPT_DATA";
+      case 0x00000558: return "CKM_CAMELLIA_CTR";
+      case 0x00000560: return "CKM_ARIA_KEY_GEN";
+      case 0x00000561: return "CKM_ARIA_ECB";
+      case 0x00000562: return "CKM_ARIA_CBC";
+      case 0x00000563: return "CKM_ARIA_MAC";
+      case 0x00000564: return "CKM_ARIA_MAC_GENERAL";
+      case 0x00000565: return "CKM_ARIA_CBC_PAD";
+      case 0x00000566: return "CKM_ARIA_ECB_ENCRYPT_DATA";
+      case 0x00000567: return "CKM_ARIA_CBC_ENCRYPT_DATA";
+      case 0x00000650: return "CKM_SEED_KEY_GEN";
+      case 0x00000651: return "CKM_SEED_ECB";
+      case 0x00000652: return "CKM_SEED_CBC";
+      case 0x00000653: return "CKM_SEED_MAC";
+      case 0x00000654: return "CKM_SEED_MAC_GENERAL";
+      case 0x00000655: return "CKM_SEED_CBC_PAD";
+      case 0x00000656: return "CKM_SEED_ECB_ENCRYPT_DATA";
+      case 0x00000657: return "CKM_SEED_CBC_ENCRYPT_DATA";
+      case 0x00001000: return "CKM_SKIPJACK_KEY_GEN";
+      case 0x00001001: return "CKM_SKIPJACK_ECB64";
+      case 0x00001002: return "CKM_SKIPJACK_CBC64";
+      case 0x00001003: return "CKM_SKIPJACK_OFB64";
+      case 0x00001004: return "CKM_SKIPJACK_CFB64";
+      case 0x00001005: return "CKM_SKIPJACK_CFB32";
+      case 0x00001006: return "CKM_SKIPJACK_CFB16";
+      case 0x00001007: return "CKM_SKIPJACK_CFB8";
+      case 0x00001008: return "CKM_SKIPJACK_WRAP";
+      case 0x00001009: return "CKM_SKIPJACK_PRIVATE_WRAP";
+      case 0x0000100A: return "CKM_SKIPJACK_RELAYX";
+      case 0x00001010: return "CKM_KEA_KEY_PAIR_GEN";
+      case 0x00001011: return "CKM_KEA_KEY_DERIVE";
+      case 0x00001012: return "CKM_KEA_DERIVE";
+      case 0x00001020: return "CKM_FORTEZZA_TIMESTAMP";
+      case 0x00001030: return "CKM_BATON_KEY_GEN";
+      case 0x00001031: return "CKM_BATON_ECB128";
+      case 0x00001032: return "CKM_BATON_ECB96";
+      case 0x00001033: return "CKM_BATON_CBC128";
+      case 0x00001034: return "CKM_BATON_COUNTER";
+      case 0x00001035: return "CKM_BATON_SHUFFLE";
+      case 0x00001036: return "CKM_BATON_WRAP";
+      case 0x00001040: return "CKM_EC_KEY_PAIR_GEN";
+      case 0x00001041: return "CKM_ECDSA";
+      case 0x00001042: return "CKM_ECDSA_SHA1";
+      case 0x00001043: return "CKM_ECDSA_SHA224";
+      case 0x00001044: return "CKM_ECDSA_SHA256";
+      case 0x00001045: return "CKM_ECDSA_SHA384";
+      case 0x00001046: return "CKM_ECDSA_SHA512";
+      case 0x00001047: return "CKM_ECDSA_SHA3_224";
+      case 0x00001048: return "CKM_ECDSA_SHA3_256";
+      case 0x00001049: return "CKM_ECDSA_SHA3_384";
+      case 0x0000104A: return "CKM_ECDSA_SHA3_512";
+      case 0x00001050: return "CKM_ECDH1_DERIVE";
+      case 0x00001051: return "CKM_ECDH1_COFACTOR_DERIVE";
+      case 0x00001052: return "CKM_ECMQV_DERIVE";
+      case 0x00001053: return "CKM_ECDH_AES_KEY_WRAP";
+      case 0x00001054: return "CKM_RSA_AES_KEY_WRAP";
+      case 0x00001055: return "CKM_EC_EDWARDS_KEY_PAIR_GEN";
+      case 0x00001056: return "CKM_EC_MONTGOMERY_KEY_PAIR_GEN";
+      case 0x00001057: return "CKM_EDDSA";
+      case 0x00001060: return "CKM_JUNIPER_KEY_GEN";
+      case 0x00001061: return "CKM_JUNIPER_ECB128";
+      case 0x00001062: return "CKM_JUNIPER_CBC128";
+      case 0x00001063: return "CKM_JUNIPER_COUNTER";
+      case 0x00001064: return "CKM_JUNIPER_SHUFFLE";
+      case 0x00001065: return "CKM_JUNIPER_WRAP";
+      case 0x00001070: return "CKM_FASTHASH";
+      case 0x00001071: return "CKM_AES_XTS";
+      case 0x00001072: return "CKM_AES_XTS_KEY_GEN";
+      case 0x00001080: return "CKM_AES_KEY_GEN";
+      case 0x00001081: return "CKM_AES_ECB";
+      case 0x00001082: return "CKM_AES_CBC";
+      case 0x00001083: return "CKM_AES_MAC";
+      case 0x00001084: return "CKM_AES_MAC_GENERAL";
+      case 0x00001085: return "CKM_AES_CBC_PAD";
+      case 0x00001086: return "CKM_AES_CTR";
+      case 0x00001087: return "CKM_AES_GCM";
+      case 0x00001088: return "CKM_AES_CCM";
+      case 0x00001089: return "CKM_AES_CTS";
+      case 0x0000108A: return "CKM_AES_CMAC";
+      case 0x0000108B: return "CKM_AES_CMAC_GENERAL";
+      case 0x0000108C: return "CKM_AES_XCBC_MAC";
+      case 0x0000108D: return "CKM_AES_XCBC_MAC_96";
+      case 0x0000108E: return "CKM_AES_GMAC";
+      case 0x00001090: return "CKM_BLOWFISH_KEY_GEN";
+      case 0x00001091: return "CKM_BLOWFISH_CBC";
+      case 0x00001092: return "CKM_TWOFISH_KEY_GEN";
+      case 0x00001093: return "CKM_TWOFISH_CBC";
+      case 0x00001094: return "CKM_BLOWFISH_CBC_PAD";
+      case 0x00001095: return "CKM_TWOFISH_CBC_PAD";
+      case 0x00001100: return "CKM_DES_ECB_ENCRYPT_DATA";
+      case 0x00001101: return "CKM_DES_CBC_ENCRYPT_DATA";
+      case 0x00001102: return "CKM_DES3_ECB_ENCRYPT_DATA";
+      case 0x00001103: return "CKM_DES3_CBC_ENCRYPT_DATA";
+      case 0x00001104: return "CKM_AES_ECB_ENCRYPT_DATA";
+      case 0x00001105: return "CKM_AES_CBC_ENCRYPT_DATA";
+      case 0x00001200: return "CKM_GOSTR3410_KEY_PAIR_GEN";
+      case 0x00001201: return "CKM_GOSTR3410";
+      case 0x00001202: return "CKM_GOSTR3410_WITH_GOSTR3411";
+      case 0x00001203: return "CKM_GOSTR3410_KEY_WRAP";
+      case 0x00001204: return "CKM_GOSTR3410_DERIVE";
+      case 0x00001210: return "CKM_GOSTR3411";
+      case 0x00001211: return "CKM_GOSTR3411_HMAC";
+      case 0x00001220: return "CKM_GOST28147_KEY_GEN";
+      case 0x00001221: return "CKM_GOST28147_ECB";
+      case 0x00001222: return "CKM_GOST28147";
+      case 0x00001223: return "CKM_GOST28147_MAC";
+      case 0x00001224: return "CKM_GOST28147_KEY_WRAP";
+      case 0x00001225: return "CKM_CHACHA20_KEY_GEN";
+      case 0x00001226: return "CKM_CHACHA20";
+      case 0x00001227: return "CKM_POLY1305_KEY_GEN";
+      case 0x00001228: return "CKM_POLY1305";
+      case 0x00002000: return "CKM_DSA_PARAMETER_GEN";
+      case 0x00002001: return "CKM_DH_PKCS_PARAMETER_GEN";
+      case 0x00002002: return "CKM_X9_42_DH_PARAMETER_GEN";
+      case 0x00002003: return "CKM_DSA_PROBABLISTIC_PARAMETER_GEN";
+      case 0x00002004: return "CKM_DSA_SHAWE_TAYLOR_PARAMETER_GEN";
+      case 0x00002104: return "CKM_AES_OFB";
+      case 0x00002105: return "CKM_AES_CFB64";
+      case 0x00002106: return "CKM_AES_CFB8";
+      case 0x00002107: return "CKM_AES_CFB128";
+      case 0x00002108: return "CKM_AES_CFB1";
+      case 0x00002109: return "CKM_AES_KEY_WRAP";
+      case 0x0000210A: return "CKM_AES_KEY_WRAP_PAD";
+      case 0x0000210B: return "CKM_AES_KEY_WRAP_KWP";
+      case 0x00004001: return "CKM_RSA_PKCS_TPM_1_1";
+      case 0x00004002: return "CKM_RSA_PKCS_OAEP_TPM_1_1";
+      case 0x00004003: return "CKM_SHA_1_KEY_GEN";
+      case 0x00004004: return "CKM_SHA224_KEY_GEN";
+      case 0x00004005: return "CKM_SHA256_KEY_GEN";
+      case 0x00004006: return "CKM_SHA384_KEY_GEN";
+      case 0x00004007: return "CKM_SHA512_KEY_GEN";
+      case 0x00004008: return "CKM_SHA512_224_KEY_GEN";
+      case 0x00004009: return "CKM_SHA512_256_KEY_GEN";
+      case 0x0000400A: return "CKM_SHA512_T_KEY_GEN";
+      case 0x0000400B: return "CKM_NULL";
+      case 0x0000400C: return "CKM_BLAKE2B_160";
+      case 0x0000400D: return "CKM_BLAKE2B_160_HMAC";
+      case 0x0000400E: return "CKM_BLAKE2B_160_HMAC_GENERAL";
+      case 0x0000400F: return "CKM_BLAKE2B_160_KEY_DERIVE";
+      case 0x00004010: return "CKM_BLAKE2B_160_KEY_GEN";
+      case 0x00004011: return "CKM_BLAKE2B_256";
+      case 0x00004012: return "CKM_BLAKE2B_256_HMAC";
+      case 0x00004013: return "CKM_BLAKE2B_256_HMAC_GENERAL";
+      case 0x00004014: return "CKM_BLAKE2B_256_KEY_DERIVE";
+      case 0x00004015: return "CKM_BLAKE2B_256_KEY_GEN";
+      case 0x00004016: return "CKM_BLAKE2B_384";
+      case 0x00004017: return "CKM_BLAKE2B_384_HMAC";
+      case 0x00004018: return "CKM_BLAKE2B_384_HMAC_GENERAL";
+      case 0x00004019: return "CKM_BLAKE2B_384_KEY_DERIVE";
+      case 0x0000401A: return "CKM_BLAKE2B_384_KEY_GEN";
+      case 0x0000401B: return "CKM_BLAKE2B_512";
+      case 0x0000401C: return "CKM_BLAKE2B_512_HMAC";
+      case 0x0000401D: return "CKM_BLAKE2B_512_HMAC_GENERAL";
+      case 0x0000401E: return "CKM_BLAKE2B_512_KEY_DERIVE";
+      case 0x0000401F: return "CKM_BLAKE2B_512_KEY_GEN";
+      case 0x00004020: return "CKM_SALSA20";
+      case 0x00004021: return "CKM_CHACHA20_POLY1305";
+      case 0x00004022: return "CKM_SALSA20_POLY1305";
+      case 0x00004023: return "CKM_X3DH_INITIALIZE";
+      case 0x00004024: return "CKM_X3DH_RESPOND";
+      case 0x00004025: return "CKM_X2RATCHET_INITIALIZE";
+      case 0x00004026: return "CKM_X2RATCHET_RESPOND";
+      case 0x00004027: return "CKM_X2RATCHET_ENCRYPT";
+      case 0x00004028: return "CKM_X2RATCHET_DECRYPT";
+      case 0x00004029: return "CKM_XEDDSA";
+      case 0x0000402A: return "CKM_HKDF_DERIVE";
+      case 0x0000402B: return "CKM_HKDF_DATA";
+      case 0x0000402C: return "CKM_HKDF_KEY_GEN";
+      case 0x80000000: return "CKM_VENDOR_DEFINED";
+      case 0xFFFFF001: return "CKM_VENDOR_SM2_KEY_PAIR_GEN";
+      case 0xFFFFF002: return "CKM_VENDOR_SM2";
+      case 0xFFFFF003: return "CKM_VENDOR_SM2_SM3";
+      case 0xFFFFF004: return "CKM_VENDOR_SM2_ENCRYPT";
+      case 0xFFFFF005: return "CKM_VENDOR_SM3";
+      case 0xFFFFF006: return "CKM_VENDOR_SM4_KEY_GEN";
+      case 0xFFFFF007: return "CKM_VENDOR_SM4_ECB";
+      case 0xFFFFF008: return "CKM_VENDOR_SM4_CBC";
+      case 0xFFFFF009: return "CKM_VENDOR_SM4_MAC_GENERAL";
+      case 0xFFFFF00A: return "CKM_VENDOR_SM4_MAC";
+      case 0xFFFFF00B: return "CKM_VENDOR_ISO2_SM4_MAC_GENERAL";
+      case 0xFFFFF00C: return "CKM_VENDOR_ISO2_SM4_MAC";
+      case 0xFFFFF00D: return "CKM_VENDOR_SM4_ECB_ENCRYPT_DATA";
+      default: return null;
+    }
+  }
+
+  static String ckrCodeToName(long code) {
+    if ((code >>> 32) != 0) {
+      return null;
+    }
+
+    switch ((int) code) {
+      case 0x00000000: return "CKR_OK";
+      case 0x00000001: return "CKR_CANCEL";
+      case 0x00000002: return "CKR_HOST_MEMORY";
+      case 0x00000003: return "CKR_SLOT_ID_INVALID";
+      case 0x00000005: return "CKR_GENERAL_ERROR";
+      case 0x00000006: return "CKR_FUNCTION_FAILED";
+      case 0x00000007: return "CKR_ARGUMENTS_BAD";
+      case 0x00000008: return "CKR_NO_EVENT";
+      case 0x00000009: return "CKR_NEED_TO_CREATE_THREADS";
+      case 0x0000000A: return "CKR_CANT_LOCK";
+      case 0x00000010: return "CKR_ATTRIBUTE_READ_ONLY";
+      case 0x00000011: return "CKR_ATTRIBUTE_SENSITIVE";
+      case 0x00000012: return "CKR_ATTRIBUTE_TYPE_INVALID";
+      case 0x00000013: return "CKR_ATTRIBUTE_VALUE_INVALID";
+      case 0x0000001B: return "CKR_ACTION_PROHIBITED";
+      case 0x00000020: return "CKR_DATA_INVALID";
+      case 0x00000021: return "CKR_DATA_LEN_RANGE";
+      case 0x00000030: return "CKR_DEVICE_ERROR";
+      case 0x00000031: return "CKR_DEVICE_MEMORY";
+      case 0x00000032: return "CKR_DEVICE_REMOVED";
+      case 0x00000040: return "CKR_ENCRYPTED_DATA_INVALID";
+      case 0x00000041: return "CKR_ENCRYPTED_DATA_LEN_RANGE";
+      case 0x00000042: return "CKR_AEAD_DECRYPT_FAILED";
+      case 0x00000050: return "CKR_FUNCTION_CANCELED";
+      case 0x00000051: return "CKR_FUNCTION_NOT_PARALLEL";
+      case 0x00000054: return "CKR_FUNCTION_NOT_SUPPORTED";
+      case 0x00000060: return "CKR_KEY_HANDLE_INVALID";
+      case 0x00000062: return "CKR_KEY_SIZE_RANGE";
+      case 0x00000063: return "CKR_KEY_TYPE_INCONSISTENT";
+      case 0x00000064: return "CKR_KEY_NOT_NEEDED";
+      case 0x00000065: return "CKR_KEY_CHANGED";
+      case 0x00000066: return "CKR_KEY_NEEDED";
+      case 0x00000067: return "CKR_KEY_INDIGESTIBLE";
+      case 0x00000068: return "CKR_KEY_FUNCTION_NOT_PERMITTED";
+      case 0x00000069: return "CKR_KEY_NOT_WRAPPABLE";
+      case 0x0000006A: return "CKR_KEY_UNEXTRACTABLE";
+      case 0x00000070: return "CKR_MECHANISM_INVALID";
+      case 0x00000071: return "CKR_MECHANISM_PARAM_INVALID";
+      case 0x00000082: return "CKR_OBJECT_HANDLE_INVALID";
+      case 0x00000090: return "CKR_OPERATION_ACTIVE";
+      case 0x00000091: return "CKR_OPERATION_NOT_INITIALIZED";
+      case 0x000000A0: return "CKR_PIN_INCORRECT";
+      case 0x000000A1: return "CKR_PIN_INVALID";
+      case 0x000000A2: return "CKR_PIN_LEN_RANGE";
+      case 0x000000A3: return "CKR_PIN_EXPIRED";
+      case 0x000000A4: return "CKR_PIN_LOCKED";
+      case 0x000000B0: return "CKR_SESSION_CLOSED";
+      case 0x000000B1: return "CKR_SESSION_COUNT";
+      case 0x000000B3: return "CKR_SESSION_HANDLE_INVALID";
+      case 0x000000B4: return "CKR_SESSION_PARALLEL_NOT_SUPPORTED";
+      case 0x000000B5: return "CKR_SESSION_READ_ONLY";
+      case 0x000000B6: return "CKR_SESSION_EXISTS";
+      case 0x000000B7: return "CKR_SESSION_READ_ONLY_EXISTS";
+      case 0x000000B8: return "CKR_SESSION_READ_WRITE_SO_EXISTS";
+      case 0x000000C0: return "CKR_SIGNATURE_INVALID";
+      case 0x000000C1: return "CKR_SIGNATURE_LEN_RANGE";
+      case 0x000000D0: return "CKR_TEMPLATE_INCOMPLETE";
+      case 0x000000D1: return "CKR_TEMPLATE_INCONSISTENT";
+      case 0x000000E0: return "CKR_TOKEN_NOT_PRESENT";
+      case 0x000000E1: return "CKR_TOKEN_NOT_RECOGNIZED";
+      case 0x000000E2: return "CKR_TOKEN_WRITE_PROTECTED";
+      case 0x000000F0: return "CKR_UNWRAPPING_KEY_HANDLE_INVALID";
+      case 0x000000F1: return "CKR_UNWRAPPING_KEY_SIZE_RANGE";
+      case 0x000000F2: return "CKR_UNWRAPPING_KEY_TYPE_INCONSISTENT";
+      case 0x00000100: return "CKR_USER_ALREADY_LOGGED_IN";
+      case 0x00000101: return "CKR_USER_NOT_LOGGED_IN";
+      case 0x00000102: return "CKR_USER_PIN_NOT_INITIALIZED";
+      case 0x00000103: return "CKR_USER_TYPE_INVALID";
+      case 0x00000104: return "CKR_USER_ANOTHER_ALREADY_LOGGED_IN";
+      case 0x00000105: return "CKR_USER_TOO_MANY_TYPES";
+      case 0x00000110: return "CKR_WRAPPED_KEY_INVALID";
+      case 0x00000112: return "CKR_WRAPPED_KEY_LEN_RANGE";
+      case 0x00000113: return "CKR_WRAPPING_KEY_HANDLE_INVALID";
+      case 0x00000114: return "CKR_WRAPPING_KEY_SIZE_RANGE";
+      case 0x00000115: return "CKR_WRAPPING_KEY_TYPE_INCONSISTENT";
+      case 0x00000120: return "CKR_RANDOM_SEED_NOT_SUPPORTED";
+      case 0x00000121: return "CKR_RANDOM_NO_RNG";
+      case 0x00000130: return "CKR_DOMAIN_PARAMS_INVALID";
+      case 0x00000140: return "CKR_CURVE_NOT_SUPPORTED";
+      case 0x00000150: return "CKR_BUFFER_TOO_SMALL";
+      case 0x00000160: return "CKR_SAVED_STATE_INVALID";
+      case 0x00000170: return "CKR_INFORMATION_SENSITIVE";
+      case 0x00000180: return "CKR_STATE_UNSAVEABLE";
+      case 0x00000190: return "CKR_CRYPTOKI_NOT_INITIALIZED";
+      case 0x00000191: return "CKR_CRYPTOKI_ALREADY_INITIALIZED";
+      case 0x000001A0: return "CKR_MUTEX_BAD";
+      case 0x000001A1: return "CKR_MUTEX_NOT_LOCKED";
+      case 0x000001B0: return "CKR_NEW_PIN_MODE";
+      case 0x000001B1: return "CKR_NEXT_OTP";
+      case 0x000001B5: return "CKR_EXCEEDED_MAX_ITERATIONS";
+      case 0x000001B6: return "CKR_FIPS_SELF_TEST_FAILED";
+      case 0x000001B7: return "CKR_LIBRARY_LOAD_FAILED";
+      case 0x000001B8: return "CKR_PIN_TOO_WEAK";
+      case 0x000001B9: return "CKR_PUBLIC_KEY_INVALID";
+      case 0x00000200: return "CKR_FUNCTION_REJECTED";
+      case 0x00000201: return "CKR_TOKEN_RESOURCE_EXCEEDED";
+      case 0x80000000: return "CKR_VENDOR_DEFINED";
+      default: return null;
+    }
+  }
+
+  static String ckaCodeToName(long code) {
+    if ((code >>> 32) != 0) {
+      return null;
+    }
+
+    switch ((int) code) {
+      case 0x00000000: return "CKA_CLASS";
+      case 0x00000001: return "CKA_TOKEN";
+      case 0x00000002: return "CKA_PRIVATE";
+      case 0x00000003: return "CKA_LABEL";
+      case 0x00000004: return "CKA_UNIQUE_ID";
+      case 0x00000010: return "CKA_APPLICATION";
+      case 0x00000011: return "CKA_VALUE";
+      case 0x00000012: return "CKA_OBJECT_ID";
+      case 0x00000080: return "CKA_CERTIFICATE_TYPE";
+      case 0x00000081: return "CKA_ISSUER";
+      case 0x00000082: return "CKA_SERIAL_NUMBER";
+      case 0x00000083: return "CKA_AC_ISSUER";
+      case 0x00000084: return "CKA_OWNER";
+      case 0x00000085: return "CKA_ATTR_TYPES";
+      case 0x00000086: return "CKA_TRUSTED";
+      case 0x00000087: return "CKA_CERTIFICATE_CATEGORY";
+      case 0x00000088: return "CKA_JAVA_MIDP_SECURITY_DOMAIN";
+      case 0x00000089: return "CKA_URL";
+      case 0x0000008A: return "CKA_HASH_OF_SUBJECT_PUBLIC_KEY";
+      case 0x0000008B: return "CKA_HASH_OF_ISSUER_PUBLIC_KEY";
+      case 0x0000008C: return "CKA_NAME_HASH_ALGORITHM";
+      case 0x00000090: return "CKA_CHECK_VALUE";
+      case 0x00000100: return "CKA_KEY_TYPE";
+      case 0x00000101: return "CKA_SUBJECT";
+      case 0x00000102: return "CKA_ID";
+      case 0x00000103: return "CKA_SENSITIVE";
+      case 0x00000104: return "CKA_ENCRYPT";
+      case 0x00000105: return "CKA_DECRYPT";
+      case 0x00000106: return "CKA_WRAP";
+      case 0x00000107: return "CKA_UNWRAP";
+      case 0x00000108: return "CKA_SIGN";
+      case 0x00000109: return "CKA_SIGN_RECOVER";
+      case 0x0000010A: return "CKA_VERIFY";
+      case 0x0000010B: return "CKA_VERIFY_RECOVER";
+      case 0x0000010C: return "CKA_DERIVE";
+      case 0x00000110: return "CKA_START_DATE";
+      case 0x00000111: return "CKA_END_DATE";
+      case 0x00000120: return "CKA_MODULUS";
+      case 0x00000121: return "CKA_MODULUS_BITS";
+      case 0x00000122: return "CKA_PUBLIC_EXPONENT";
+      case 0x00000123: return "CKA_PRIVATE_EXPONENT";
+      case 0x00000124: return "CKA_PRIME_1";
+      case 0x00000125: return "CKA_PRIME_2";
+      case 0x00000126: return "CKA_EXPONENT_1";
+      case 0x00000127: return "CKA_EXPONENT_2";
+      case 0x00000128: return "CKA_COEFFICIENT";
+      case 0x00000129: return "CKA_PUBLIC_KEY_INFO";
+      case 0x00000130: return "CKA_PRIME";
+      case 0x00000131: return "CKA_SUBPRIME";
+      case 0x00000132: return "CKA_BASE";
+      case 0x00000133: return "CKA_PRIME_BITS";
+      case 0x00000134: return "CKA_SUBPRIME_BITS";
+      case 0x00000160: return "CKA_VALUE_BITS";
+      case 0x00000161: return "CKA_VALUE_LEN";
+      case 0x00000162: return "CKA_EXTRACTABLE";
+      case 0x00000163: return "CKA_LOCAL";
+      case 0x00000164: return "CKA_NEVER_EXTRACTABLE";
+      case 0x00000165: return "CKA_ALWAYS_SENSITIVE";
+      case 0x00000166: return "CKA_KEY_GEN_MECHANISM";
+      case 0x00000170: return "CKA_MODIFIABLE";
+      case 0x00000171: return "CKA_COPYABLE";
+      case 0x00000172: return "CKA_DESTROYABLE";
+      case 0x00000180: return "CKA_EC_PARAMS";
+      case 0x00000181: return "CKA_EC_POINT";
+      case 0x00000200: return "CKA_SECONDARY_AUTH";
+      case 0x00000201: return "CKA_AUTH_PIN_FLAGS";
+      case 0x00000202: return "CKA_ALWAYS_AUTHENTICATE";
+      case 0x00000210: return "CKA_WRAP_WITH_TRUSTED";
+      case 0x00000220: return "CKA_OTP_FORMAT";
+      case 0x00000221: return "CKA_OTP_LENGTH";
+      case 0x00000222: return "CKA_OTP_TIME_INTERVAL";
+      case 0x00000223: return "CKA_OTP_USER_FRIENDLY_MODE";
+      case 0x00000224: return "CKA_OTP_CHALLENGE_REQUIREMENT";
+      case 0x00000225: return "CKA_OTP_TIME_REQUIREMENT";
+      case 0x00000226: return "CKA_OTP_COUNTER_REQUIREMENT";
+      case 0x00000227: return "CKA_OTP_PIN_REQUIREMENT";
+      case 0x0000022A: return "CKA_OTP_USER_IDENTIFIER";
+      case 0x0000022B: return "CKA_OTP_SERVICE_IDENTIFIER";
+      case 0x0000022C: return "CKA_OTP_SERVICE_LOGO";
+      case 0x0000022D: return "CKA_OTP_SERVICE_LOGO_TYPE";
+      case 0x0000022E: return "CKA_OTP_COUNTER";
+      case 0x0000022F: return "CKA_OTP_TIME";
+      case 0x00000250: return "CKA_GOSTR3410_PARAMS";
+      case 0x00000251: return "CKA_GOSTR3411_PARAMS";
+      case 0x00000252: return "CKA_GOST28147_PARAMS";
+      case 0x00000300: return "CKA_HW_FEATURE_TYPE";
+      case 0x00000301: return "CKA_RESET_ON_INIT";
+      case 0x00000302: return "CKA_HAS_RESET";
+      case 0x00000400: return "CKA_PIXEL_X";
+      case 0x00000401: return "CKA_PIXEL_Y";
+      case 0x00000402: return "CKA_RESOLUTION";
+      case 0x00000403: return "CKA_CHAR_ROWS";
+      case 0x00000404: return "CKA_CHAR_COLUMNS";
+      case 0x00000405: return "CKA_COLOR";
+      case 0x00000406: return "CKA_BITS_PER_PIXEL";
+      case 0x00000480: return "CKA_CHAR_SETS";
+      case 0x00000481: return "CKA_ENCODING_METHODS";
+      case 0x00000482: return "CKA_MIME_TYPES";
+      case 0x00000500: return "CKA_MECHANISM_TYPE";
+      case 0x00000501: return "CKA_REQUIRED_CMS_ATTRIBUTES";
+      case 0x00000502: return "CKA_DEFAULT_CMS_ATTRIBUTES";
+      case 0x00000503: return "CKA_SUPPORTED_CMS_ATTRIBUTES";
+      case 0x00000601: return "CKA_PROFILE_ID";
+      case 0x40000211: return "CKA_WRAP_TEMPLATE";
+      case 0x40000212: return "CKA_UNWRAP_TEMPLATE";
+      case 0x40000213: return "CKA_DERIVE_TEMPLATE";
+      case 0x40000600: return "CKA_ALLOWED_MECHANISMS";
+      case 0x80000000: return "CKA_VENDOR_DEFINED";
+      default: return null;
+    }
+  }
+
+  private static final class CkmNames {
+
+    private static final String[] NAMES = {
+      "CKM_ACTI",
+      "CKM_ACTI_KEY_GEN",
+      "CKM_AES_CBC",
+      "CKM_AES_CBC_ENCRYPT_DATA",
+      "CKM_AES_CBC_PAD",
+      "CKM_AES_CCM",
+      "CKM_AES_CFB1",
+      "CKM_AES_CFB128",
+      "CKM_AES_CFB64",
+      "CKM_AES_CFB8",
+      "CKM_AES_CMAC",
+      "CKM_AES_CMAC_GENERAL",
+      "CKM_AES_CTR",
+      "CKM_AES_CTS",
+      "CKM_AES_ECB",
+      "CKM_AES_ECB_ENCRYPT_DATA",
+      "CKM_AES_GCM",
+      "CKM_AES_GMAC",
+      "CKM_AES_KEY_GEN",
+      "CKM_AES_KEY_WRAP",
+      "CKM_AES_KEY_WRAP_KWP",
+      "CKM_AES_KEY_WRAP_PAD",
+      "CKM_AES_MAC",
+      "CKM_AES_MAC_GENERAL",
+      "CKM_AES_OFB",
+      "CKM_AES_XCBC_MAC",
+      "CKM_AES_XCBC_MAC_96",
+      "CKM_AES_XTS",
+      "CKM_AES_XTS_KEY_GEN",
+      "CKM_ARIA_CBC",
+      "CKM_ARIA_CBC_ENCRYPT_DATA",
+      "CKM_ARIA_CBC_PAD",
+      "CKM_ARIA_ECB",
+      "CKM_ARIA_ECB_ENCRYPT_DATA",
+      "CKM_ARIA_KEY_GEN",
+      "CKM_ARIA_MAC",
+      "CKM_ARIA_MAC_GENERAL",
+      "CKM_BATON_CBC128",
+      "CKM_BATON_COUNTER",
+      "CKM_BATON_ECB128",
+      "CKM_BATON_ECB96",
+      "CKM_BATON_KEY_GEN",
+      "CKM_BATON_SHUFFLE",
+      "CKM_BATON_WRAP",
+      "CKM_BLAKE2B_160",
+      "CKM_BLAKE2B_160_HMAC",
+      "CKM_BLAKE2B_160_HMAC_GENERAL",
+      "CKM_BLAKE2B_160_KEY_DERIVE",
+      "CKM_BLAKE2B_160_KEY_GEN",
+      "CKM_BLAKE2B_256",
+      "CKM_BLAKE2B_256_HMAC",
+      "CKM_BLAKE2B_256_HMAC_GENERAL",
+      "CKM_BLAKE2B_256_KEY_DERIVE",
+      "CKM_BLAKE2B_256_KEY_GEN",
+      "CKM_BLAKE2B_384",
+      "CKM_BLAKE2B_384_HMAC",
+      "CKM_BLAKE2B_384_HMAC_GENERAL",
+      "CKM_BLAKE2B_384_KEY_DERIVE",
+      "CKM_BLAKE2B_384_KEY_GEN",
+      "CKM_BLAKE2B_512",
+      "CKM_BLAKE2B_512_HMAC",
+      "CKM_BLAKE2B_512_HMAC_GENERAL",
+      "CKM_BLAKE2B_512_KEY_DERIVE",
+      "CKM_BLAKE2B_512_KEY_GEN",
+      "CKM_BLOWFISH_CBC",
+      "CKM_BLOWFISH_CBC_PAD",
+      "CKM_BLOWFISH_KEY_GEN",
+      "CKM_CAMELLIA_CBC",
+      "CKM_CAMELLIA_CBC_ENCRYPT_DATA",
+      "CKM_CAMELLIA_CBC_PAD",
+      "CKM_CAMELLIA_CTR",
+      "CKM_CAMELLIA_ECB",
+      "CKM_CAMELLIA_ECB_ENCRYPT_DATA",
+      "CKM_CAMELLIA_KEY_GEN",
+      "CKM_CAMELLIA_MAC",
+      "CKM_CAMELLIA_MAC_GENERAL",
+      "CKM_CAST128_CBC",
+      "CKM_CAST128_CBC_PAD",
+      "CKM_CAST128_ECB",
+      "CKM_CAST128_KEY_GEN",
+      "CKM_CAST128_MAC",
+      "CKM_CAST128_MAC_GENERAL",
+      "CKM_CAST3_CBC",
+      "CKM_CAST3_CBC_PAD",
+      "CKM_CAST3_ECB",
+      "CKM_CAST3_KEY_GEN",
+      "CKM_CAST3_MAC",
+      "CKM_CAST3_MAC_GENERAL",
+      "CKM_CAST5_CBC",
+      "CKM_CAST5_CBC_PAD",
+      "CKM_CAST5_MAC",
+      "CKM_CAST5_MAC_GENERAL",
+      "CKM_CAST_CBC",
+      "CKM_CAST_CBC_PAD",
+      "CKM_CAST_ECB",
+      "CKM_CAST_KEY_GEN",
+      "CKM_CAST_MAC",
+      "CKM_CAST_MAC_GENERAL",
+      "CKM_CDMF_CBC",
+      "CKM_CDMF_CBC_PAD",
+      "CKM_CDMF_ECB",
+      "CKM_CDMF_KEY_GEN",
+      "CKM_CDMF_MAC",
+      "CKM_CDMF_MAC_GENERAL",
+      "CKM_CHACHA20",
+      "CKM_CHACHA20_KEY_GEN",
+      "CKM_CHACHA20_POLY1305",
+      "CKM_CMS_SIG",
+      "CKM_CONCATENATE_BASE_AND_DATA",
+      "CKM_CONCATENATE_BASE_AND_KEY",
+      "CKM_CONCATENATE_DATA_AND_BASE",
+      "CKM_DES2_KEY_GEN",
+      "CKM_DES3_CBC",
+      "CKM_DES3_CBC_ENCRYPT_DATA",
+      "CKM_DES3_CBC_PAD",
+      "CKM_DES3_CMAC",
+      "CKM_DES3_CMAC_GENERAL",
+      "CKM_DES3_ECB",
+      "CKM_DES3_ECB_ENCRYPT_DATA",
+      "CKM_DES3_KEY_GEN",
+      "CKM_DES3_MAC",
+      "CKM_DES3_MAC_GENERAL",
+      "CKM_DES_CBC",
+      "CKM_DES_CBC_ENCRYPT_DATA",
+      "CKM_DES_CBC_PAD",
+      "CKM_DES_CFB64",
+      "CKM_DES_CFB8",
+      "CKM_DES_ECB",
+      "CKM_DES_ECB_ENCRYPT_DATA",
+      "CKM_DES_KEY_GEN",
+      "CKM_DES_MAC",
+      "CKM_DES_MAC_GENERAL",
+      "CKM_DES_OFB64",
+      "CKM_DES_OFB8",
+      "CKM_DH_PKCS_DERIVE",
+      "CKM_DH_PKCS_KEY_PAIR_GEN",
+      "CKM_DH_PKCS_PARAMETER_GEN",
+      "CKM_DSA",
+      "CKM_DSA_KEY_PAIR_GEN",
+      "CKM_DSA_PARAMETER_GEN",
+      "CKM_DSA_PROBABLISTIC_PARAMETER_GEN",
+      "CKM_DSA_SHA1",
+      "CKM_DSA_SHA224",
+      "CKM_DSA_SHA256",
+      "CKM_DSA_SHA384",
+      "CKM_DSA_SHA3_224",
+      "CKM_DSA_SHA3_256",
+      "CKM_DSA_SHA3_384",
+      "CKM_DSA_SHA3_512",
+      "CKM_DSA_SHA512",
+      "CKM_DSA_SHAWE_TAYLOR_PARAMETER_GEN",
+      "CKM_ECDH1_COFACTOR_DERIVE",
+      "CKM_ECDH1_DERIVE",
+      "CKM_ECDH_AES_KEY_WRAP",
+      "CKM_ECDSA",
+      "CKM_ECDSA_KEY_PAIR_GEN",
+      "CKM_ECDSA_SHA1",
+      "CKM_ECDSA_SHA224",
+      "CKM_ECDSA_SHA256",
+      "CKM_ECDSA_SHA384",
+      "CKM_ECDSA_SHA3_224",
+      "CKM_ECDSA_SHA3_256",
+      "CKM_ECDSA_SHA3_384",
+      "CKM_ECDSA_SHA3_512",
+      "CKM_ECDSA_SHA512",
+      "CKM_ECMQV_DERIVE",
+      "CKM_EC_EDWARDS_KEY_PAIR_GEN",
+      "CKM_EC_KEY_PAIR_GEN",
+      "CKM_EC_MONTGOMERY_KEY_PAIR_GEN",
+      "CKM_EDDSA",
+      "CKM_EXTRACT_KEY_FROM_KEY",
+      "CKM_FASTHASH",
+      "CKM_FORTEZZA_TIMESTAMP",
+      "CKM_GENERIC_SECRET_KEY_GEN",
+      "CKM_GOST28147",
+      "CKM_GOST28147_ECB",
+      "CKM_GOST28147_KEY_GEN",
+      "CKM_GOST28147_KEY_WRAP",
+      "CKM_GOST28147_MAC",
+      "CKM_GOSTR3410",
+      "CKM_GOSTR3410_DERIVE",
+      "CKM_GOSTR3410_KEY_PAIR_GEN",
+      "CKM_GOSTR3410_KEY_WRAP",
+      "CKM_GOSTR3410_WITH_GOSTR3411",
+      "CKM_GOSTR3411",
+      "CKM_GOSTR3411_HMAC",
+      "CKM_HKDF_DATA",
+      "CKM_HKDF_DERIVE",
+      "CKM_HKDF_KEY_GEN",
+      "CKM_HOTP",
+      "CKM_HOTP_KEY_GEN",
+      "CKM_IDEA_CBC",
+      "CKM_IDEA_CBC_PAD",
+      "CKM_IDEA_ECB",
+      "CKM_IDEA_KEY_GEN",
+      "CKM_IDEA_MAC",
+      "CKM_IDEA_MAC_GENERAL",
+      "CKM_JUNIPER_CBC128",
+      "CKM_JUNIPER_COUNTER",
+      "CKM_JUNIPER_ECB128",
+      "CKM_JUNIPER_KEY_GEN",
+      "CKM_JUNIPER_SHUFFLE",
+      "CKM_JUNIPER_WRAP",
+      "CKM_KEA_DERIVE",
+      "CKM_KEA_KEY_DERIVE",
+      "CKM_KEA_KEY_PAIR_GEN",
+      "CKM_KEY_WRAP_LYNKS",
+      "CKM_KEY_WRAP_SET_OAEP",
+      "CKM_KIP_DERIVE",
+      "CKM_KIP_MAC",
+      "CKM_KIP_WRAP",
+      "CKM_MD2",
+      "CKM_MD2_HMAC",
+      "CKM_MD2_HMAC_GENERAL",
+      "CKM_MD2_KEY_DERIVATION",
+      "CKM_MD2_RSA_PKCS",
+      "CKM_MD5",
+      "CKM_MD5_HMAC",
+      "CKM_MD5_HMAC_GENERAL",
+      "CKM_MD5_KEY_DERIVATION",
+      "CKM_MD5_RSA_PKCS",
+      "CKM_NULL",
+      "CKM_PBA_SHA1_WITH_SHA1_HMAC",
+      "CKM_PBE_MD2_DES_CBC",
+      "CKM_PBE_MD5_CAST128_CBC",
+      "CKM_PBE_MD5_CAST3_CBC",
+      "CKM_PBE_MD5_CAST5_CBC",
+      "CKM_PBE_MD5_CAST_CBC",
+      "CKM_PBE_MD5_DES_CBC",
+      "CKM_PBE_SHA1_CAST128_CBC",
+      "CKM_PBE_SHA1_CAST5_CBC",
+      "CKM_PBE_SHA1_DES2_EDE_CBC",
+      "CKM_PBE_SHA1_DES3_EDE_CBC",
+      "CKM_PBE_SHA1_RC2_128_CBC",
+      "CKM_PBE_SHA1_RC2_40_CBC",
+      "CKM_PBE_SHA1_RC4_128",
+      "CKM_PBE_SHA1_RC4_40",
+      "CKM_PKCS5_PBKD2",
+      "CKM_POLY1305",
+      "CKM_POLY1305_KEY_GEN",
+      "CKM_RC2_CBC",
+      "CKM_RC2_CBC_PAD",
+      "CKM_RC2_ECB",
+      "CKM_RC2_KEY_GEN",
+      "CKM_RC2_MAC",
+      "CKM_RC2_MAC_GENERAL",
+      "CKM_RC4",
+      "CKM_RC4_KEY_GEN",
+      "CKM_RC5_CBC",
+      "CKM_RC5_CBC_PAD",
+      "CKM_RC5_ECB",
+      "CKM_RC5_KEY_GEN",
+      "CKM_RC5_MAC",
+      "CKM_RC5_MAC_GENERAL",
+      "CKM_RIPEMD128",
+      "CKM_RIPEMD128_HMAC",
+      "CKM_RIPEMD128_HMAC_GENERAL",
+      "CKM_RIPEMD128_RSA_PKCS",
+      "CKM_RIPEMD160",
+      "CKM_RIPEMD160_HMAC",
+      "CKM_RIPEMD160_HMAC_GENERAL",
+      "CKM_RIPEMD160_RSA_PKCS",
+      "CKM_RSA_9796",
+      "CKM_RSA_AES_KEY_WRAP",
+      "CKM_RSA_PKCS",
+      "CKM_RSA_PKCS_KEY_PAIR_GEN",
+      "CKM_RSA_PKCS_OAEP",
+      "CKM_RSA_PKCS_OAEP_TPM_1_1",
+      "CKM_RSA_PKCS_PSS",
+      "CKM_RSA_PKCS_TPM_1_1",
+      "CKM_RSA_X9_31",
+      "CKM_RSA_X9_31_KEY_PAIR_GEN",
+      "CKM_RSA_X_509",
+      "CKM_SALSA20",
+      "CKM_SALSA20_POLY1305",
+      "CKM_SECURID",
+      "CKM_SECURID_KEY_GEN",
+      "CKM_SEED_CBC",
+      "CKM_SEED_CBC_ENCRYPT_DATA",
+      "CKM_SEED_CBC_PAD",
+      "CKM_SEED_ECB",
+      "CKM_SEED_ECB_ENCRYPT_DATA",
+      "CKM_SEED_KEY_GEN",
+      "CKM_SEED_MAC",
+      "CKM_SEED_MAC_GENERAL",
+      "CKM_SHA1_KEY_DERIVATION",
+      "CKM_SHA1_RSA_PKCS",
+      "CKM_SHA1_RSA_PKCS_PSS",
+      "CKM_SHA1_RSA_X9_31",
+      "CKM_SHA224",
+      "CKM_SHA224_HMAC",
+      "CKM_SHA224_HMAC_GENERAL",
+      "CKM_SHA224_KEY_DERIVATION",
+      "CKM_SHA224_KEY_GEN",
+      "CKM_SHA224_RSA_PKCS",
+      "CKM_SHA224_RSA_PKCS_PSS",
+      "CKM_SHA256",
+      "CKM_SHA256_HMAC",
+      "CKM_SHA256_HMAC_GENERAL",
+      "CKM_SHA256_KEY_DERIVATION",
+      "CKM_SHA256_KEY_GEN",
+      "CKM_SHA256_RSA_PKCS",
+      "CKM_SHA256_RSA_PKCS_PSS",
+      "CKM_SHA384",
+      "CKM_SHA384_HMAC",
+      "CKM_SHA384_HMAC_GENERAL",
+      "CKM_SHA384_KEY_DERIVATION",
+      "CKM_SHA384_KEY_GEN",
+      "CKM_SHA384_RSA_PKCS",
+      "CKM_SHA384_RSA_PKCS_PSS",
+      "CKM_SHA3_224",
+      "CKM_SHA3_224_HMAC",
+      "CKM_SHA3_224_HMAC_GENERAL",
+      "CKM_SHA3_224_KEY_DERIVE",
+      "CKM_SHA3_224_KEY_GEN",
+      "CKM_SHA3_224_RSA_PKCS",
+      "CKM_SHA3_224_RSA_PKCS_PSS",
+      "CKM_SHA3_256",
+      "CKM_SHA3_256_HMAC",
+      "CKM_SHA3_256_HMAC_GENERAL",
+      "CKM_SHA3_256_KEY_DERIVE",
+      "CKM_SHA3_256_KEY_GEN",
+      "CKM_SHA3_256_RSA_PKCS",
+      "CKM_SHA3_256_RSA_PKCS_PSS",
+      "CKM_SHA3_384",
+      "CKM_SHA3_384_HMAC",
+      "CKM_SHA3_384_HMAC_GENERAL",
+      "CKM_SHA3_384_KEY_DERIVE",
+      "CKM_SHA3_384_KEY_GEN",
+      "CKM_SHA3_384_RSA_PKCS",
+      "CKM_SHA3_384_RSA_PKCS_PSS",
+      "CKM_SHA3_512",
+      "CKM_SHA3_512_HMAC",
+      "CKM_SHA3_512_HMAC_GENERAL",
+      "CKM_SHA3_512_KEY_DERIVE",
+      "CKM_SHA3_512_KEY_GEN",
+      "CKM_SHA3_512_RSA_PKCS",
+      "CKM_SHA3_512_RSA_PKCS_PSS",
+      "CKM_SHA512",
+      "CKM_SHA512_224",
+      "CKM_SHA512_224_HMAC",
+      "CKM_SHA512_224_HMAC_GENERAL",
+      "CKM_SHA512_224_KEY_DERIVATION",
+      "CKM_SHA512_224_KEY_GEN",
+      "CKM_SHA512_256",
+      "CKM_SHA512_256_HMAC",
+      "CKM_SHA512_256_HMAC_GENERAL",
+      "CKM_SHA512_256_KEY_DERIVATION",
+      "CKM_SHA512_256_KEY_GEN",
+      "CKM_SHA512_HMAC",
+      "CKM_SHA512_HMAC_GENERAL",
+      "CKM_SHA512_KEY_DERIVATION",
+      "CKM_SHA512_KEY_GEN",
+      "CKM_SHA512_RSA_PKCS",
+      "CKM_SHA512_RSA_PKCS_PSS",
+      "CKM_SHA512_T",
+      "CKM_SHA512_T_HMAC",
+      "CKM_SHA512_T_HMAC_GENERAL",
+      "CKM_SHA512_T_KEY_DERIVATION",
+      "CKM_SHA512_T_KEY_GEN",
+      "CKM_SHAKE_128_KEY_DERIVE",
+      "CKM_SHAKE_256_KEY_DERIVE",
+      "CKM_SHA_1",
+      "CKM_SHA_1_HMAC",
+      "CKM_SHA_1_HMAC_GENERAL",
+      "CKM_SHA_1_KEY_GEN",
+      "CKM_SKIPJACK_CBC64",
+      "CKM_SKIPJACK_CFB16",
+      "CKM_SKIPJACK_CFB32",
+      "CKM_SKIPJACK_CFB64",
+      "CKM_SKIPJACK_CFB8",
+      "CKM_SKIPJACK_ECB64",
+      "CKM_SKIPJACK_KEY_GEN",
+      "CKM_SKIPJACK_OFB64",
+      "CKM_SKIPJACK_PRIVATE_WRAP",
+      "CKM_SKIPJACK_RELAYX",
+      "CKM_SKIPJACK_WRAP",
+      "CKM_SP800_108_COUNTER_KDF",
+      "CKM_SP800_108_DOUBLE_PIPELINE_KDF",
+      "CKM_SP800_108_FEEDBACK_KDF",
+      "CKM_SSL3_KEY_AND_MAC_DERIVE",
+      "CKM_SSL3_MASTER_KEY_DERIVE",
+      "CKM_SSL3_MASTER_KEY_DERIVE_DH",
+      "CKM_SSL3_MD5_MAC",
+      "CKM_SSL3_PRE_MASTER_KEY_GEN",
+      "CKM_SSL3_SHA1_MAC",
+      "CKM_TLS10_MAC_CLIENT",
+      "CKM_TLS10_MAC_SERVER",
+      "CKM_TLS12_KDF",
+      "CKM_TLS12_KEY_AND_MAC_DERIVE",
+      "CKM_TLS12_KEY_SAFE_DERIVE",
+      "CKM_TLS12_MAC",
+      "CKM_TLS12_MASTER_KEY_DERIVE",
+      "CKM_TLS12_MASTER_KEY_DERIVE_DH",
+      "CKM_TLS_KDF",
+      "CKM_TLS_KEY_AND_MAC_DERIVE",
+      "CKM_TLS_MAC",
+      "CKM_TLS_MASTER_KEY_DERIVE",
+      "CKM_TLS_MASTER_KEY_DERIVE_DH",
+      "CKM_TLS_PRE_MASTER_KEY_GEN",
+      "CKM_TLS_PRF",
+      "CKM_TWOFISH_CBC",
+      "CKM_TWOFISH_CBC_PAD",
+      "CKM_TWOFISH_KEY_GEN",
+      "CKM_VENDOR_DEFINED",
+      "CKM_VENDOR_ISO2_SM4_MAC",
+      "CKM_VENDOR_ISO2_SM4_MAC_GENERAL",
+      "CKM_VENDOR_SM2",
+      "CKM_VENDOR_SM2_ENCRYPT",
+      "CKM_VENDOR_SM2_KEY_PAIR_GEN",
+      "CKM_VENDOR_SM2_SM3",
+      "CKM_VENDOR_SM3",
+      "CKM_VENDOR_SM4_CBC",
+      "CKM_VENDOR_SM4_ECB",
+      "CKM_VENDOR_SM4_ECB_ENCRYPT_DATA",
+      "CKM_VENDOR_SM4_KEY_GEN",
+      "CKM_VENDOR_SM4_MAC",
+      "CKM_VENDOR_SM4_MAC_GENERAL",
+      "CKM_WTLS_CLIENT_KEY_AND_MAC_DERIVE",
+      "CKM_WTLS_MASTER_KEY_DERIVE",
+      "CKM_WTLS_MASTER_KEY_DERIVE_DH_ECC",
+      "CKM_WTLS_PRE_MASTER_KEY_GEN",
+      "CKM_WTLS_PRF",
+      "CKM_WTLS_SERVER_KEY_AND_MAC_DERIVE",
+      "CKM_X2RATCHET_DECRYPT",
+      "CKM_X2RATCHET_ENCRYPT",
+      "CKM_X2RATCHET_INITIALIZE",
+      "CKM_X2RATCHET_RESPOND",
+      "CKM_X3DH_INITIALIZE",
+      "CKM_X3DH_RESPOND",
+      "CKM_X9_42_DH_DERIVE",
+      "CKM_X9_42_DH_HYBRID_DERIVE",
+      "CKM_X9_42_DH_KEY_PAIR_GEN",
+      "CKM_X9_42_DH_PARAMETER_GEN",
+      "CKM_X9_42_MQV_DERIVE",
+      "CKM_XEDDSA",
+      "CKM_XOR_BASE_AND_DATA"
+    };
+
+    private static final long[] CODES = {
+      0x000002A0L,
+      0x000002A1L,
+      0x00001082L,
+      0x00001105L,
+      0x00001085L,
+      0x00001088L,
+      0x00002108L,
+      0x00002107L,
+      0x00002105L,
+      0x00002106L,
+      0x0000108AL,
+      0x0000108BL,
+      0x00001086L,
+      0x00001089L,
+      0x00001081L,
+      0x00001104L,
+      0x00001087L,
+      0x0000108EL,
+      0x00001080L,
+      0x00002109L,
+      0x0000210BL,
+      0x0000210AL,
+      0x00001083L,
+      0x00001084L,
+      0x00002104L,
+      0x0000108CL,
+      0x0000108DL,
+      0x00001071L,
+      0x00001072L,
+      0x00000562L,
+      0x00000567L,
+      0x00000565L,
+      0x00000561L,
+      0x00000566L,
+      0x00000560L,
+      0x00000563L,
+      0x00000564L,
+      0x00001033L,
+      0x00001034L,
+      0x00001031L,
+      0x00001032L,
+      0x00001030L,
+      0x00001035L,
+      0x00001036L,
+      0x0000400CL,
+      0x0000400DL,
+      0x0000400EL,
+      0x0000400FL,
+      0x00004010L,
+      0x00004011L,
+      0x00004012L,
+      0x00004013L,
+      0x00004014L,
+      0x00004015L,
+      0x00004016L,
+      0x00004017L,
+      0x00004018L,
+      0x00004019L,
+      0x0000401AL,
+      0x0000401BL,
+      0x0000401CL,
+      0x0000401DL,
+      0x0000401EL,
+      0x0000401FL,
+      0x00001091L,
+      0x00001094L,
+      0x00001090L,
+      0x00000552L,
+      0x00000557L,
+      0x00000555L,
+      0x00000558L,
+      0x00000551L,
+      0x00000556L,
+      0x00000550L,
+      0x00000553L,
+      0x00000554L,
+      0x00000322L,
+      0x00000325L,
+      0x00000321L,
+      0x00000320L,
+      0x00000323L,
+      0x00000324L,
+      0x00000312L,
+      0x00000315L,
+      0x00000311L,
+      0x00000310L,
+      0x00000313L,
+      0x00000314L,
+      0x00000322L,
+      0x00000325L,
+      0x00000323L,
+      0x00000324L,
+      0x00000302L,
+      0x00000305L,
+      0x00000301L,
+      0x00000300L,
+      0x00000303L,
+      0x00000304L,
+      0x00000142L,
+      0x00000145L,
+      0x00000141L,
+      0x00000140L,
+      0x00000143L,
+      0x00000144L,
+      0x00001226L,
+      0x00001225L,
+      0x00004021L,
+      0x00000500L,
+      0x00000362L,
+      0x00000360L,
+      0x00000363L,
+      0x00000130L,
+      0x00000133L,
+      0x00001103L,
+      0x00000136L,
+      0x00000138L,
+      0x00000137L,
+      0x00000132L,
+      0x00001102L,
+      0x00000131L,
+      0x00000134L,
+      0x00000135L,
+      0x00000122L,
+      0x00001101L,
+      0x00000125L,
+      0x00000152L,
+      0x00000153L,
+      0x00000121L,
+      0x00001100L,
+      0x00000120L,
+      0x00000123L,
+      0x00000124L,
+      0x00000150L,
+      0x00000151L,
+      0x00000021L,
+      0x00000020L,
+      0x00002001L,
+      0x00000011L,
+      0x00000010L,
+      0x00002000L,
+      0x00002003L,
+      0x00000012L,
+      0x00000013L,
+      0x00000014L,
+      0x00000015L,
+      0x00000018L,
+      0x00000019L,
+      0x0000001AL,
+      0x0000001BL,
+      0x00000016L,
+      0x00002004L,
+      0x00001051L,
+      0x00001050L,
+      0x00001053L,
+      0x00001041L,
+      0x00001040L,
+      0x00001042L,
+      0x00001043L,
+      0x00001044L,
+      0x00001045L,
+      0x00001047L,
+      0x00001048L,
+      0x00001049L,
+      0x0000104AL,
+      0x00001046L,
+      0x00001052L,
+      0x00001055L,
+      0x00001040L,
+      0x00001056L,
+      0x00001057L,
+      0x00000365L,
+      0x00001070L,
+      0x00001020L,
+      0x00000350L,
+      0x00001222L,
+      0x00001221L,
+      0x00001220L,
+      0x00001224L,
+      0x00001223L,
+      0x00001201L,
+      0x00001204L,
+      0x00001200L,
+      0x00001203L,
+      0x00001202L,
+      0x00001210L,
+      0x00001211L,
+      0x0000402BL,
+      0x0000402AL,
+      0x0000402CL,
+      0x00000291L,
+      0x00000290L,
+      0x00000342L,
+      0x00000345L,
+      0x00000341L,
+      0x00000340L,
+      0x00000343L,
+      0x00000344L,
+      0x00001062L,
+      0x00001063L,
+      0x00001061L,
+      0x00001060L,
+      0x00001064L,
+      0x00001065L,
+      0x00001012L,
+      0x00001011L,
+      0x00001010L,
+      0x00000400L,
+      0x00000401L,
+      0x00000510L,
+      0x00000512L,
+      0x00000511L,
+      0x00000200L,
+      0x00000201L,
+      0x00000202L,
+      0x00000391L,
+      0x00000004L,
+      0x00000210L,
+      0x00000211L,
+      0x00000212L,
+      0x00000390L,
+      0x00000005L,
+      0x0000400BL,
+      0x000003C0L,
+      0x000003A0L,
+      0x000003A4L,
+      0x000003A3L,
+      0x000003A4L,
+      0x000003A2L,
+      0x000003A1L,
+      0x000003A5L,
+      0x000003A5L,
+      0x000003A9L,
+      0x000003A8L,
+      0x000003AAL,
+      0x000003ABL,
+      0x000003A6L,
+      0x000003A7L,
+      0x000003B0L,
+      0x00001228L,
+      0x00001227L,
+      0x00000102L,
+      0x00000105L,
+      0x00000101L,
+      0x00000100L,
+      0x00000103L,
+      0x00000104L,
+      0x00000111L,
+      0x00000110L,
+      0x00000332L,
+      0x00000335L,
+      0x00000331L,
+      0x00000330L,
+      0x00000333L,
+      0x00000334L,
+      0x00000230L,
+      0x00000231L,
+      0x00000232L,
+      0x00000007L,
+      0x00000240L,
+      0x00000241L,
+      0x00000242L,
+      0x00000008L,
+      0x00000002L,
+      0x00001054L,
+      0x00000001L,
+      0x00000000L,
+      0x00000009L,
+      0x00004002L,
+      0x0000000DL,
+      0x00004001L,
+      0x0000000BL,
+      0x0000000AL,
+      0x00000003L,
+      0x00004020L,
+      0x00004022L,
+      0x00000282L,
+      0x00000280L,
+      0x00000652L,
+      0x00000657L,
+      0x00000655L,
+      0x00000651L,
+      0x00000656L,
+      0x00000650L,
+      0x00000653L,
+      0x00000654L,
+      0x00000392L,
+      0x00000006L,
+      0x0000000EL,
+      0x0000000CL,
+      0x00000255L,
+      0x00000256L,
+      0x00000257L,
+      0x00000396L,
+      0x00004004L,
+      0x00000046L,
+      0x00000047L,
+      0x00000250L,
+      0x00000251L,
+      0x00000252L,
+      0x00000393L,
+      0x00004005L,
+      0x00000040L,
+      0x00000043L,
+      0x00000260L,
+      0x00000261L,
+      0x00000262L,
+      0x00000394L,
+      0x00004006L,
+      0x00000041L,
+      0x00000044L,
+      0x000002B5L,
+      0x000002B6L,
+      0x000002B7L,
+      0x00000398L,
+      0x000002B8L,
+      0x00000066L,
+      0x00000067L,
+      0x000002B0L,
+      0x000002B1L,
+      0x000002B2L,
+      0x00000397L,
+      0x000002B3L,
+      0x00000060L,
+      0x00000063L,
+      0x000002C0L,
+      0x000002C1L,
+      0x000002C2L,
+      0x00000399L,
+      0x000002C3L,
+      0x00000061L,
+      0x00000064L,
+      0x000002D0L,
+      0x000002D1L,
+      0x000002D2L,
+      0x0000039AL,
+      0x000002D3L,
+      0x00000062L,
+      0x00000065L,
+      0x00000270L,
+      0x00000048L,
+      0x00000049L,
+      0x0000004AL,
+      0x0000004BL,
+      0x00004008L,
+      0x0000004CL,
+      0x0000004DL,
+      0x0000004EL,
+      0x0000004FL,
+      0x00004009L,
+      0x00000271L,
+      0x00000272L,
+      0x00000395L,
+      0x00004007L,
+      0x00000042L,
+      0x00000045L,
+      0x00000050L,
+      0x00000051L,
+      0x00000052L,
+      0x00000053L,
+      0x0000400AL,
+      0x0000039BL,
+      0x0000039CL,
+      0x00000220L,
+      0x00000221L,
+      0x00000222L,
+      0x00004003L,
+      0x00001002L,
+      0x00001006L,
+      0x00001005L,
+      0x00001004L,
+      0x00001007L,
+      0x00001001L,
+      0x00001000L,
+      0x00001003L,
+      0x00001009L,
+      0x0000100AL,
+      0x00001008L,
+      0x000003ACL,
+      0x000003AEL,
+      0x000003ADL,
+      0x00000372L,
+      0x00000371L,
+      0x00000373L,
+      0x00000380L,
+      0x00000370L,
+      0x00000381L,
+      0x000003D7L,
+      0x000003D6L,
+      0x000003D9L,
+      0x000003E1L,
+      0x000003E3L,
+      0x000003D8L,
+      0x000003E0L,
+      0x000003E2L,
+      0x000003E5L,
+      0x00000376L,
+      0x000003E4L,
+      0x00000375L,
+      0x00000377L,
+      0x00000374L,
+      0x00000378L,
+      0x00001093L,
+      0x00001095L,
+      0x00001092L,
+      0x80000000L,
+      0xFFFFF00CL,
+      0xFFFFF00BL,
+      0xFFFFF002L,
+      0xFFFFF004L,
+      0xFFFFF001L,
+      0xFFFFF003L,
+      0xFFFFF005L,
+      0xFFFFF008L,
+      0xFFFFF007L,
+      0xFFFFF00DL,
+      0xFFFFF006L,
+      0xFFFFF00AL,
+      0xFFFFF009L,
+      0x000003D5L,
+      0x000003D1L,
+      0x000003D2L,
+      0x000003D0L,
+      0x000003D3L,
+      0x000003D4L,
+      0x00004028L,
+      0x00004027L,
+      0x00004025L,
+      0x00004026L,
+      0x00004023L,
+      0x00004024L,
+      0x00000031L,
+      0x00000032L,
+      0x00000030L,
+      0x00002002L,
+      0x00000033L,
+      0x00004029L,
+      0x00000364L
+    };
+
+  }
+
+  static long ckmNameToCode(String name) {
+    int idx = Arrays.binarySearch(CkmNames.NAMES, name);
+    return (idx < 0) ? -1 : CkmNames.CODES[idx];
+  }
+
+  private static final class CkrNames {
+
+    private static final String[] NAMES = {
+      "CKR_ACTION_PROHIBITED",
+      "CKR_AEAD_DECRYPT_FAILED",
+      "CKR_ARGUMENTS_BAD",
+      "CKR_ATTRIBUTE_READ_ONLY",
+      "CKR_ATTRIBUTE_SENSITIVE",
+      "CKR_ATTRIBUTE_TYPE_INVALID",
+      "CKR_ATTRIBUTE_VALUE_INVALID",
+      "CKR_BUFFER_TOO_SMALL",
+      "CKR_CANCEL",
+      "CKR_CANT_LOCK",
+      "CKR_CRYPTOKI_ALREADY_INITIALIZED",
+      "CKR_CRYPTOKI_NOT_INITIALIZED",
+      "CKR_CURVE_NOT_SUPPORTED",
+      "CKR_DATA_INVALID",
+      "CKR_DATA_LEN_RANGE",
+      "CKR_DEVICE_ERROR",
+      "CKR_DEVICE_MEMORY",
+      "CKR_DEVICE_REMOVED",
+      "CKR_DOMAIN_PARAMS_INVALID",
+      "CKR_ENCRYPTED_DATA_INVALID",
+      "CKR_ENCRYPTED_DATA_LEN_RANGE",
+      "CKR_EXCEEDED_MAX_ITERATIONS",
+      "CKR_FIPS_SELF_TEST_FAILED",
+      "CKR_FUNCTION_CANCELED",
+      "CKR_FUNCTION_FAILED",
+      "CKR_FUNCTION_NOT_PARALLEL",
+      "CKR_FUNCTION_NOT_SUPPORTED",
+      "CKR_FUNCTION_REJECTED",
+      "CKR_GENERAL_ERROR",
+      "CKR_HOST_MEMORY",
+      "CKR_INFORMATION_SENSITIVE",
+      "CKR_KEY_CHANGED",
+      "CKR_KEY_FUNCTION_NOT_PERMITTED",
+      "CKR_KEY_HANDLE_INVALID",
+      "CKR_KEY_INDIGESTIBLE",
+      "CKR_KEY_NEEDED",
+      "CKR_KEY_NOT_NEEDED",
+      "CKR_KEY_NOT_WRAPPABLE",
+      "CKR_KEY_SIZE_RANGE",
+      "CKR_KEY_TYPE_INCONSISTENT",
+      "CKR_KEY_UNEXTRACTABLE",
+      "CKR_LIBRARY_LOAD_FAILED",
+      "CKR_MECHANISM_INVALID",
+      "CKR_MECHANISM_PARAM_INVALID",
+      "CKR_MUTEX_BAD",
+      "CKR_MUTEX_NOT_LOCKED",
+      "CKR_NEED_TO_CREATE_THREADS",
+      "CKR_NEW_PIN_MODE",
+      "CKR_NEXT_OTP",
+      "CKR_NO_EVENT",
+      "CKR_OBJECT_HANDLE_INVALID",
+      "CKR_OK",
+      "CKR_OPERATION_ACTIVE",
+      "CKR_OPERATION_NOT_INITIALIZED",
+      "CKR_PIN_EXPIRED",
+      "CKR_PIN_INCORRECT",
+      "CKR_PIN_INVALID",
+      "CKR_PIN_LEN_RANGE",
+      "CKR_PIN_LOCKED",
+      "CKR_PIN_TOO_WEAK",
+      "CKR_PUBLIC_KEY_INVALID",
+      "CKR_RANDOM_NO_RNG",
+      "CKR_RANDOM_SEED_NOT_SUPPORTED",
+      "CKR_SAVED_STATE_INVALID",
+      "CKR_SESSION_CLOSED",
+      "CKR_SESSION_COUNT",
+      "CKR_SESSION_EXISTS",
+      "CKR_SESSION_HANDLE_INVALID",
+      "CKR_SESSION_PARALLEL_NOT_SUPPORTED",
+      "CKR_SESSION_READ_ONLY",
+      "CKR_SESSION_READ_ONLY_EXISTS",
+      "CKR_SESSION_READ_WRITE_SO_EXISTS",
+      "CKR_SIGNATURE_INVALID",
+      "CKR_SIGNATURE_LEN_RANGE",
+      "CKR_SLOT_ID_INVALID",
+      "CKR_STATE_UNSAVEABLE",
+      "CKR_TEMPLATE_INCOMPLETE",
+      "CKR_TEMPLATE_INCONSISTENT",
+      "CKR_TOKEN_NOT_PRESENT",
+      "CKR_TOKEN_NOT_RECOGNIZED",
+      "CKR_TOKEN_RESOURCE_EXCEEDED",
+      "CKR_TOKEN_WRITE_PROTECTED",
+      "CKR_UNWRAPPING_KEY_HANDLE_INVALID",
+      "CKR_UNWRAPPING_KEY_SIZE_RANGE",
+      "CKR_UNWRAPPING_KEY_TYPE_INCONSISTENT",
+      "CKR_USER_ALREADY_LOGGED_IN",
+      "CKR_USER_ANOTHER_ALREADY_LOGGED_IN",
+      "CKR_USER_NOT_LOGGED_IN",
+      "CKR_USER_PIN_NOT_INITIALIZED",
+      "CKR_USER_TOO_MANY_TYPES",
+      "CKR_USER_TYPE_INVALID",
+      "CKR_VENDOR_DEFINED",
+      "CKR_WRAPPED_KEY_INVALID",
+      "CKR_WRAPPED_KEY_LEN_RANGE",
+      "CKR_WRAPPING_KEY_HANDLE_INVALID",
+      "CKR_WRAPPING_KEY_SIZE_RANGE",
+      "CKR_WRAPPING_KEY_TYPE_INCONSISTENT"
+    };
+
+    private static final long[] CODES = {
+      0x0000001BL,
+      0x00000042L,
+      0x00000007L,
+      0x00000010L,
+      0x00000011L,
+      0x00000012L,
+      0x00000013L,
+      0x00000150L,
+      0x00000001L,
+      0x0000000AL,
+      0x00000191L,
+      0x00000190L,
+      0x00000140L,
+      0x00000020L,
+      0x00000021L,
+      0x00000030L,
+      0x00000031L,
+      0x00000032L,
+      0x00000130L,
+      0x00000040L,
+      0x00000041L,
+      0x000001B5L,
+      0x000001B6L,
+      0x00000050L,
+      0x00000006L,
+      0x00000051L,
+      0x00000054L,
+      0x00000200L,
+      0x00000005L,
+      0x00000002L,
+      0x00000170L,
+      0x00000065L,
+      0x00000068L,
+      0x00000060L,
+      0x00000067L,
+      0x00000066L,
+      0x00000064L,
+      0x00000069L,
+      0x00000062L,
+      0x00000063L,
+      0x0000006AL,
+      0x000001B7L,
+      0x00000070L,
+      0x00000071L,
+      0x000001A0L,
+      0x000001A1L,
+      0x00000009L,
+      0x000001B0L,
+      0x000001B1L,
+      0x00000008L,
+      0x00000082L,
+      0x00000000L,
+      0x00000090L,
+      0x00000091L,
+      0x000000A3L,
+      0x000000A0L,
+      0x000000A1L,
+      0x000000A2L,
+      0x000000A4L,
+      0x000001B8L,
+      0x000001B9L,
+      0x00000121L,
+      0x00000120L,
+      0x00000160L,
+      0x000000B0L,
+      0x000000B1L,
+      0x000000B6L,
+      0x000000B3L,
+      0x000000B4L,
+      0x000000B5L,
+      0x000000B7L,
+      0x000000B8L,
+      0x000000C0L,
+      0x000000C1L,
+      0x00000003L,
+      0x00000180L,
+      0x000000D0L,
+      0x000000D1L,
+      0x000000E0L,
+      0x000000E1L,
+      0x00000201L,
+      0x000000E2L,
+      0x000000F0L,
+      0x000000F1L,
+      0x000000F2L,
+      0x00000100L,
+      0x00000104L,
+      0x00000101L,
+      0x00000102L,
+      0x00000105L,
+      0x00000103L,
+      0x80000000L,
+      0x00000110L,
+      0x00000112L,
+      0x00000113L,
+      0x00000114L,
+      0x00000115L
+    };
+
+  }
+
+  static long ckrNameToCode(String name) {
+    int idx = Arrays.binarySearch(CkrNames.NAMES, name);
+    return (idx < 0) ? -1 : CkrNames.CODES[idx];
+  }
+
+  private static final class CkaNames {
+
+    private static final String[] NAMES = {
+      "CKA_AC_ISSUER",
+      "CKA_ALLOWED_MECHANISMS",
+      "CKA_ALWAYS_AUTHENTICATE",
+      "CKA_ALWAYS_SENSITIVE",
+      "CKA_APPLICATION",
+      "CKA_ATTR_TYPES",
+      "CKA_AUTH_PIN_FLAGS",
+      "CKA_BASE",
+      "CKA_BITS_PER_PIXEL",
+      "CKA_CERTIFICATE_CATEGORY",
+      "CKA_CERTIFICATE_TYPE",
+      "CKA_CHAR_COLUMNS",
+      "CKA_CHAR_ROWS",
+      "CKA_CHAR_SETS",
+      "CKA_CHECK_VALUE",
+      "CKA_CLASS",
+      "CKA_COEFFICIENT",
+      "CKA_COLOR",
+      "CKA_COPYABLE",
+      "CKA_DECRYPT",
+      "CKA_DEFAULT_CMS_ATTRIBUTES",
+      "CKA_DERIVE",
+      "CKA_DERIVE_TEMPLATE",
+      "CKA_DESTROYABLE",
+      "CKA_EC_PARAMS",
+      "CKA_EC_POINT",
+      "CKA_ENCODING_METHODS",
+      "CKA_ENCRYPT",
+      "CKA_END_DATE",
+      "CKA_EXPONENT_1",
+      "CKA_EXPONENT_2",
+      "CKA_EXTRACTABLE",
+      "CKA_GOST28147_PARAMS",
+      "CKA_GOSTR3410_PARAMS",
+      "CKA_GOSTR3411_PARAMS",
+      "CKA_HASH_OF_ISSUER_PUBLIC_KEY",
+      "CKA_HASH_OF_SUBJECT_PUBLIC_KEY",
+      "CKA_HAS_RESET",
+      "CKA_HW_FEATURE_TYPE",
+      "CKA_ID",
+      "CKA_ISSUER",
+      "CKA_JAVA_MIDP_SECURITY_DOMAIN",
+      "CKA_KEY_GEN_MECHANISM",
+      "CKA_KEY_TYPE",
+      "CKA_LABEL",
+      "CKA_LOCAL",
+      "CKA_MECHANISM_TYPE",
+      "CKA_MIME_TYPES",
+      "CKA_MODIFIABLE",
+      "CKA_MODULUS",
+      "CKA_MODULUS_BITS",
+      "CKA_NAME_HASH_ALGORITHM",
+      "CKA_NEVER_EXTRACTABLE",
+      "CKA_OBJECT_ID",
+      "CKA_OTP_CHALLENGE_REQUIREMENT",
+      "CKA_OTP_COUNTER",
+      "CKA_OTP_COUNTER_REQUIREMENT",
+      "CKA_OTP_FORMAT",
+      "CKA_OTP_LENGTH",
+      "CKA_OTP_PIN_REQUIREMENT",
+      "CKA_OTP_SERVICE_IDENTIFIER",
+      "CKA_OTP_SERVICE_LOGO",
+      "CKA_OTP_SERVICE_LOGO_TYPE",
+      "CKA_OTP_TIME",
+      "CKA_OTP_TIME_INTERVAL",
+      "CKA_OTP_TIME_REQUIREMENT",
+      "CKA_OTP_USER_FRIENDLY_MODE",
+      "CKA_OTP_USER_IDENTIFIER",
+      "CKA_OWNER",
+      "CKA_PIXEL_X",
+      "CKA_PIXEL_Y",
+      "CKA_PRIME",
+      "CKA_PRIME_1",
+      "CKA_PRIME_2",
+      "CKA_PRIME_BITS",
+      "CKA_PRIVATE",
+      "CKA_PRIVATE_EXPONENT",
+      "CKA_PROFILE_ID",
+      "CKA_PUBLIC_EXPONENT",
+      "CKA_PUBLIC_KEY_INFO",
+      "CKA_REQUIRED_CMS_ATTRIBUTES",
+      "CKA_RESET_ON_INIT",
+      "CKA_RESOLUTION",
+      "CKA_SECONDARY_AUTH",
+      "CKA_SENSITIVE",
+      "CKA_SERIAL_NUMBER",
+      "CKA_SIGN",
+      "CKA_SIGN_RECOVER",
+      "CKA_START_DATE",
+      "CKA_SUBJECT",
+      "CKA_SUBPRIME",
+      "CKA_SUBPRIME_BITS",
+      "CKA_SUPPORTED_CMS_ATTRIBUTES",
+      "CKA_TOKEN",
+      "CKA_TRUSTED",
+      "CKA_UNIQUE_ID",
+      "CKA_UNWRAP",
+      "CKA_UNWRAP_TEMPLATE",
+      "CKA_URL",
+      "CKA_VALUE",
+      "CKA_VALUE_BITS",
+      "CKA_VALUE_LEN",
+      "CKA_VENDOR_DEFINED",
+      "CKA_VERIFY",
+      "CKA_VERIFY_RECOVER",
+      "CKA_WRAP",
+      "CKA_WRAP_TEMPLATE",
+      "CKA_WRAP_WITH_TRUSTED"
+    };
+
+    private static final long[] CODES = {
+      0x00000083L,
+      0x40000600L,
+      0x00000202L,
+      0x00000165L,
+      0x00000010L,
+      0x00000085L,
+      0x00000201L,
+      0x00000132L,
+      0x00000406L,
+      0x00000087L,
+      0x00000080L,
+      0x00000404L,
+      0x00000403L,
+      0x00000480L,
+      0x00000090L,
+      0x00000000L,
+      0x00000128L,
+      0x00000405L,
+      0x00000171L,
+      0x00000105L,
+      0x00000502L,
+      0x0000010CL,
+      0x40000213L,
+      0x00000172L,
+      0x00000180L,
+      0x00000181L,
+      0x00000481L,
+      0x00000104L,
+      0x00000111L,
+      0x00000126L,
+      0x00000127L,
+      0x00000162L,
+      0x00000252L,
+      0x00000250L,
+      0x00000251L,
+      0x0000008BL,
+      0x0000008AL,
+      0x00000302L,
+      0x00000300L,
+      0x00000102L,
+      0x00000081L,
+      0x00000088L,
+      0x00000166L,
+      0x00000100L,
+      0x00000003L,
+      0x00000163L,
+      0x00000500L,
+      0x00000482L,
+      0x00000170L,
+      0x00000120L,
+      0x00000121L,
+      0x0000008CL,
+      0x00000164L,
+      0x00000012L,
+      0x00000224L,
+      0x0000022EL,
+      0x00000226L,
+      0x00000220L,
+      0x00000221L,
+      0x00000227L,
+      0x0000022BL,
+      0x0000022CL,
+      0x0000022DL,
+      0x0000022FL,
+      0x00000222L,
+      0x00000225L,
+      0x00000223L,
+      0x0000022AL,
+      0x00000084L,
+      0x00000400L,
+      0x00000401L,
+      0x00000130L,
+      0x00000124L,
+      0x00000125L,
+      0x00000133L,
+      0x00000002L,
+      0x00000123L,
+      0x00000601L,
+      0x00000122L,
+      0x00000129L,
+      0x00000501L,
+      0x00000301L,
+      0x00000402L,
+      0x00000200L,
+      0x00000103L,
+      0x00000082L,
+      0x00000108L,
+      0x00000109L,
+      0x00000110L,
+      0x00000101L,
+      0x00000131L,
+      0x00000134L,
+      0x00000503L,
+      0x00000001L,
+      0x00000086L,
+      0x00000004L,
+      0x00000107L,
+      0x40000212L,
+      0x00000089L,
+      0x00000011L,
+      0x00000160L,
+      0x00000161L,
+      0x80000000L,
+      0x0000010AL,
+      0x0000010BL,
+      0x00000106L,
+      0x40000211L,
+      0x00000210L
+    };
+
+  }
+
+  static long ckaNameToCode(String name) {
+    int idx = Arrays.binarySearch(CkaNames.NAMES, name);
+    return (idx < 0) ? -1 : CkaNames.CODES[idx];
+  }
+
+}
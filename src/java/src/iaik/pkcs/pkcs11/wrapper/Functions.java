@@ -119,49 +119,8 @@ public class Functions implements PKCS11Constants {
 
   }
 
-  /**
-   * The name of the properties file that holds the names of the PKCS#11
-   * mechanism-codes.
-   */
-  private static final String CKM_CODE_PROPERTIES
-      = "/iaik/pkcs/pkcs11/wrapper/ckm.properties";
-
-  /**
-   * The name of the properties file that holds the names of the PKCS#11
-   * mechanism-codes.
-   */
-  private static final String CKR_CODE_PROPERTIES
-      = "/iaik/pkcs/pkcs11/wrapper/ckr.properties";
-
-  /**
-   * True, if the mapping of mechanism codes to PKCS#11 mechanism names is
-   * available.
-   */
-  private static boolean mechCodeNamesAvailable;
-
-  /**
-   * Maps mechanism codes as Long to their names as Strings.
-   */
-  private static Map<Long, String> mechNames;
-
-  /**
-   * Maps mechanism name as String to their code as Long.
-   */
-  private static Map<String, Long> mechNameToCodes;
-
   private static final Map<Long, String> hashMechCodeToHashNames;
 
-  /**
-   * True, if the mapping of error codes to PKCS#11 error names is available.
-   */
-  private static boolean errorCodeNamesAvailable;
-
-  /**
-   * The properties object that holds the mapping from error-code to the name
-   * of the PKCS#11 error.
-   */
-  private static Map<Long, String> errorCodeNames;
-
   // MGFs (CKG_*)
   private static final Map<Long, String> mgfNames = new HashMap<>();
 
@@ -259,8 +218,7 @@ public class Functions implements PKCS11Constants {
    * @return The string representation of the mechanism.
    */
   public static String mechanismCodeToString(long mechCode) {
-    initMechanismMap();
-    String name = mechCodeNamesAvailable ? mechNames.get(mechCode) : null;
+    String name = CodeNames.ckmCodeToName(mechCode);
 
     if (name == null) {
       name = "Unknown mechanism with code: 0x" + toFullHex(mechCode);
@@ -293,84 +251,13 @@ public class Functions implements PKCS11Constants {
    * @return The code representation of the mechanism.
    */
   public static long mechanismStringToCode(String mechName) {
-    initMechanismMap();
-    Long code = mechCodeNamesAvailable
-        ? mechNameToCodes.get(mechName) : null;
-    return (code != null) ? code : -1;
+    return CodeNames.ckmNameToCode(mechName);
   }
 
   public static String getMGFName(long id) {
     return mgfNames.get(id);
   }
 
-  private static synchronized void initMechanismMap() {
-    // ensure that another thread has not loaded the codes meanwhile
-    if (mechNames != null) {
-      return;
-    }
-
-    // if the names of the defined codes are not yet loaded, load them
-    Map<Long, String> codeNameMap = new HashMap<>();
-    Map<String, Long> nameCodeMap = new HashMap<>();
-
-    Properties props = new Properties();
-    try {
-      props.load(Functions.class.getResourceAsStream(CKM_CODE_PROPERTIES));
-      for (String propName : props.stringPropertyNames()) {
-        String mechNames = props.getProperty(propName);
-        StringTokenizer tokens = new StringTokenizer(mechNames, ",");
-
-        if (!tokens.hasMoreTokens()) {
-          System.out.println(
-              "No name defined for Mechanism code " + propName);
-        }
-
-        long code;
-        if (propName.startsWith("0x") || propName.startsWith("0X")) {
-          code = Long.parseLong(propName.substring(2), 16);
-        } else {
-          code = Long.parseLong(propName);
-        }
-
-        String mainMechName = tokens.nextToken();
-        codeNameMap.put(code, mainMechName);
-
-        while (tokens.hasMoreTokens()) {
-          nameCodeMap.put(tokens.nextToken(), code);
-        }
-      }
-
-      codeNameMap.put(CKM_VENDOR_ISO2_SM4_MAC, "CKM_VENDOR_ISO2_SM4_MAC");
-      codeNameMap.put(CKM_VENDOR_ISO2_SM4_MAC_GENERAL,
-          "CKM_VENDOR_ISO2_SM4_MAC_GENERAL");
-      codeNameMap.put(CKM_VENDOR_SM2, "CKM_VENDOR_SM2");
-      codeNameMap.put(CKM_VENDOR_SM2_ENCRYPT, "CKM_VENDOR_SM2_ENCRYPT");
-      codeNameMap.put(CKM_VENDOR_SM2_KEY_PAIR_GEN,
-          "CKM_VENDOR_SM2_KEY_PAIR_GEN");
-      codeNameMap.put(CKM_VENDOR_SM2_SM3, "CKM_VENDOR_SM2_SM3");
-      codeNameMap.put(CKM_VENDOR_SM3, "CKM_VENDOR_SM3");
-      codeNameMap.put(CKM_VENDOR_SM4_CBC, "CKM_VENDOR_SM4_CBC");
-      codeNameMap.put(CKM_VENDOR_SM4_ECB, "CKM_VENDOR_SM4_ECB");
-      codeNameMap.put(CKM_VENDOR_SM4_ECB_ENCRYPT_DATA,
-          "CKM_VENDOR_SM4_ECB_ENCRYPT_DATA");
-      codeNameMap.put(CKM_VENDOR_SM4_KEY_GEN, "CKM_VENDOR_SM4_KEY_GEN");
-      codeNameMap.put(CKM_VENDOR_SM4_MAC, "CKM_VENDOR_SM4_MAC");
-      codeNameMap.put(CKM_VENDOR_SM4_MAC_GENERAL, "CKM_VENDOR_SM4_MAC_GENERAL");
-
-      Set<Long> codes = codeNameMap.keySet();
-      for (Long code : codes) {
-        nameCodeMap.put(codeNameMap.get(code), code);
-      }
-
-      mechNames = codeNameMap;
-      mechNameToCodes = nameCodeMap;
-      mechCodeNamesAvailable = true;
-    } catch (Exception ex) {
-      System.err.println(
-          "Could not read properties for code names: " + ex.getMessage());
-    }
-  }
-
   /**
    * Converts the long value code of an error to a name.
    *
@@ -379,10 +266,7 @@ public class Functions implements PKCS11Constants {
    * @return The string representation of the error.
    */
   public static String errorCodeToString(long errorCode) {
-    initErrorCodeMap();
-
-    String name = errorCodeNamesAvailable
-        ? errorCodeNames.get(errorCode) : null;
+    String name = CodeNames.ckrCodeToName(errorCode);
     if (name == null) {
       name = "Unknown CKR with code: 0x" + toFullHex(errorCode);
     }
@@ -390,33 +274,42 @@ public class Functions implements PKCS11Constants {
     return name;
   }
 
-  private static synchronized void initErrorCodeMap() {
-    // ensure that another thread has not loaded the codes meanwhile
-    if (errorCodeNames != null) {
-      return;
-    }
+  /**
+   * Converts the error name to code value.
+   *
+   * @param errorName
+   *          The name of the error, e.g. CKR_PIN_INCORRECT.
+   * @return The code of the error, or -1 if the name is unknown.
+   */
+  public static long errorStringToCode(String errorName) {
+    return CodeNames.ckrNameToCode(errorName);
+  }
 
-    // if the names of the defined codes are not yet loaded, load them
-    Map<Long, String> codeNamMap = new HashMap<>();
-    Properties props = new Properties();
-    try {
-      props.load(Functions.class.getResourceAsStream(CKR_CODE_PROPERTIES));
-      for (String propName : props.stringPropertyNames()) {
-        String errorName = props.getProperty(propName);
-        long code;
-        if (propName.startsWith("0x") || propName.startsWith("0X")) {
-          code = Long.parseLong(propName.substring(2), 16);
-        } else {
-          code = Long.parseLong(propName);
-        }
-        codeNamMap.put(code, errorName);
-      }
-      errorCodeNames = codeNamMap;
-      errorCodeNamesAvailable = true;
-    } catch (Exception ex) {
-      System.err.println("Could not read properties for error code names: "
-          + ex.getMessage());
+  /**
+   * Converts the long value code of an attribute type to a name.
+   *
+   * @param attributeCode
+   *          The code of the attribute type to be converted to a string.
+   * @return The string representation of the attribute type.
+   */
+  public static String attributeCodeToString(long attributeCode) {
+    String name = CodeNames.ckaCodeToName(attributeCode);
+    if (name == null) {
+      name = "Unknown CKA with code: 0x" + toFullHex(attributeCode);
     }
+
+    return name;
+  }
+
+  /**
+   * Converts the attribute name to code value.
+   *
+   * @param attributeName
+   *          The name of the attribute type, e.g. CKA_LABEL.
+   * @return The code of the attribute type, or -1 if the name is unknown.
+   */
+  public static long attributeStringToCode(String attributeName) {
+    return CodeNames.ckaNameToCode(attributeName);
   }
 
   private static Set<Long> asSet(long[] elements) {
@@ -66,18 +66,17 @@ public class PKCS11Exception extends TokenException {
    */
   private final long errorCode;
 
-  private final String errorDescription;
-
   /**
    * Constructor taking the error code as defined for the CKR_* constants
-   * in PKCS#11.
+   * in PKCS#11. For the error codes returned by modules in the normal
+   * operation (see {@link #isExpectedErrorCode(long)}), the exception is
+   * created without stack trace.
    *
    * @param errorCode
    *          The PKCS#11 error code (return value).
    */
   public PKCS11Exception(long errorCode) {
-    this.errorCode = errorCode;
-    this.errorDescription = Functions.errorCodeToString(errorCode);
+    this(errorCode, !isExpectedErrorCode(errorCode));
   }
 
   public PKCS11Exception(sun.security.pkcs11.wrapper.PKCS11Exception ex) {
@@ -85,15 +84,45 @@ public class PKCS11Exception extends TokenException {
   }
 
   /**
-   * This method gets the corresponding text error message from
-   * a property file. If this file is not available, it returns the error
-   * code as a hex-string.
+   * Constructor taking the error code as defined for the CKR_* constants
+   * in PKCS#11.
+   *
+   * @param errorCode
+   *          The PKCS#11 error code (return value).
+   * @param writableStackTrace
+   *          Whether the stack trace should be filled in.
+   */
+  protected PKCS11Exception(long errorCode, boolean writableStackTrace) {
+    super(null, writableStackTrace);
+    this.errorCode = errorCode;
+  }
+
+  /**
+   * Returns whether the given error code is returned by modules in the
+   * normal operation and is handled by the caller, e.g.
+   * CKR_ATTRIBUTE_TYPE_INVALID if an optional attribute is read.
+   *
+   * @param errorCode
+   *          The PKCS#11 error code (return value).
+   * @return whether the error code is expected.
+   */
+  public static boolean isExpectedErrorCode(long errorCode) {
+    return errorCode == PKCS11Constants.CKR_ATTRIBUTE_TYPE_INVALID
+        || errorCode == PKCS11Constants.CKR_ATTRIBUTE_SENSITIVE
+        || errorCode == PKCS11Constants.CKR_USER_ALREADY_LOGGED_IN;
+  }
+
+  /**
+   * This method gets the corresponding text error message. The name is
+   * looked up only when this method is called. If the error code is unknown,
+   * it returns the error code as a hex-string.
    *
    * @return The message or the error code; e.g. "CKR_DEVICE_ERROR" or
    *         "0x00000030".
    */
+  @Override
   public String getMessage() {
-    return errorDescription;
+    return Functions.errorCodeToString(errorCode);
   }
 
   /**